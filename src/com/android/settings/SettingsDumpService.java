@@ -24,16 +24,27 @@ import android.net.ConnectivityManager;
 import android.net.NetworkTemplate;
 import android.net.Uri;
 import android.os.IBinder;
+import android.os.SystemClock;
 import android.os.storage.StorageManager;
 import android.os.storage.VolumeInfo;
 import android.telephony.SubscriptionInfo;
 import android.telephony.SubscriptionManager;
 import android.telephony.TelephonyManager;
+import android.text.format.DateUtils;
 
 import androidx.annotation.VisibleForTesting;
 
+import com.android.internal.util.ArrayUtils;
+import com.android.settings.applications.AppIconCache;
+import com.android.settings.applications.AppStateBaseBridge;
 import com.android.settings.applications.ProcStatsData;
+import com.android.settings.datausage.NetworkCycleDataCache;
+import com.android.settings.fuelgauge.PackageMetadataCache;
 import com.android.settings.fuelgauge.batterytip.AnomalyConfigJobService;
+import com.android.settings.notification.NotificationAppSummaryCache;
+import com.android.settings.panel.PanelFragment;
+import com.android.settings.search.InjectedTileIndexCache;
+import com.android.settings.slices.SliceTemplateCache;
 import com.android.settingslib.net.DataUsageController;
 
 import org.json.JSONArray;
@@ -43,6 +54,16 @@ import org.json.JSONObject;
 import java.io.File;
 import java.io.FileDescriptor;
 import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 public class SettingsDumpService extends Service {
     @VisibleForTesting
@@ -58,9 +79,57 @@ public class SettingsDumpService extends Service {
     @VisibleForTesting
     static final String KEY_ANOMALY_DETECTION = "anomaly_detection";
     @VisibleForTesting
+    static final String KEY_CACHES = "caches";
+    @VisibleForTesting
+    static final String KEY_CACHE_BYTES = "bytes";
+    @VisibleForTesting
+    static final String KEY_CACHE_ENTRIES = "entries";
+    @VisibleForTesting
+    static final String KEY_APP_STATE_BRIDGES = "app_state_bridges";
+    @VisibleForTesting
+    static final String KEY_PANELS = "panels";
+    @VisibleForTesting
+    static final String KEY_ELAPSED_MS = "elapsed_ms";
+    @VisibleForTesting
+    static final String KEY_SECTION = "section";
+    @VisibleForTesting
+    static final String KEY_VALUE = "value";
+    @VisibleForTesting
+    static final String VALUE_TIMED_OUT = "timed out";
+    @VisibleForTesting
+    static final String ARG_STREAM = "--stream";
+    @VisibleForTesting
     static final Intent BROWSER_INTENT =
             new Intent("android.intent.action.VIEW", Uri.parse("http://"));
 
+    private static final long SECTION_TIMEOUT_MS = 10 * DateUtils.SECOND_IN_MILLIS;
+    private static final int MAX_DUMP_THREADS = 4;
+
+    /** A named part of the dump. */
+    @VisibleForTesting
+    static class Section {
+        private final String mName;
+        private final Callable<Object> mDumper;
+
+        Section(String name, Callable<Object> dumper) {
+            mName = name;
+            mDumper = dumper;
+        }
+    }
+
+    /** The value of a section, and the time it took to compute it. */
+    private static class SectionResult {
+        private final int mIndex;
+        private final Object mValue;
+        private final long mElapsedMs;
+
+        SectionResult(int index, Object value, long elapsedMs) {
+            mIndex = index;
+            mValue = value;
+            mElapsedMs = elapsedMs;
+        }
+    }
+
     @Override
     public IBinder onBind(Intent intent) {
         return null;
@@ -68,15 +137,20 @@ public class SettingsDumpService extends Service {
 
     @Override
     protected void dump(FileDescriptor fd, PrintWriter writer, String[] args) {
+        if (args != null && ArrayUtils.contains(args, ARG_STREAM)) {
+            dumpStreaming(writer);
+            return;
+        }
         JSONObject dump = new JSONObject();
+        JSONObject timing = new JSONObject();
 
         try {
             dump.put(KEY_SERVICE, "Settings State");
-            dump.put(KEY_STORAGE, dumpStorage());
-            dump.put(KEY_DATAUSAGE, dumpDataUsage());
-            dump.put(KEY_MEMORY, dumpMemory());
-            dump.put(KEY_DEFAULT_BROWSER_APP, dumpDefaultBrowser());
-            dump.put(KEY_ANOMALY_DETECTION, dumpAnomalyDetection());
+            runSections((name, value, elapsedMs) -> {
+                dump.put(name, value);
+                timing.put(name, elapsedMs);
+            });
+            dump.put(KEY_ELAPSED_MS, timing);
         } catch (Exception e) {
             e.printStackTrace();
         }
@@ -84,6 +158,194 @@ public class SettingsDumpService extends Service {
         writer.println(dump);
     }
 
+    /**
+     * Compute the sections in parallel and print each one as a single line of JSON as soon as it
+     * is ready, so a slow section doesn't hold back the others.
+     */
+    @VisibleForTesting
+    void dumpStreaming(PrintWriter writer) {
+        try {
+            writer.println(createSectionLine(KEY_SERVICE, "Settings State", 0));
+            writer.flush();
+            runSections((name, value, elapsedMs) -> {
+                writer.println(createSectionLine(name, value, elapsedMs));
+                writer.flush();
+            });
+        } catch (InterruptedException | JSONException e) {
+            e.printStackTrace();
+        }
+        writer.flush();
+    }
+
+    /** Receives the value of each section. */
+    private interface SectionConsumer {
+        void accept(String name, Object value, long elapsedMs) throws JSONException;
+    }
+
+    /**
+     * Compute the sections in parallel and hand each value to {@code consumer}, on the calling
+     * thread, as soon as it is ready. Sections that don't finish within
+     * {@link #getSectionTimeoutMs()} are handed over as {@link #VALUE_TIMED_OUT}, so one stuck
+     * section can't stall the whole dump, e.g. in a bugreport.
+     */
+    private void runSections(SectionConsumer consumer)
+            throws InterruptedException, JSONException {
+        final List<Section> sections = getSections();
+        final long timeoutMs = getSectionTimeoutMs();
+        final ExecutorService executor = Executors.newFixedThreadPool(
+                Math.min(sections.size(), MAX_DUMP_THREADS));
+        final CompletionService<SectionResult> completionService =
+                new ExecutorCompletionService<>(executor);
+        final boolean[] done = new boolean[sections.size()];
+        try {
+            for (int i = 0; i < sections.size(); i++) {
+                final int index = i;
+                final Section section = sections.get(i);
+                completionService.submit(() -> {
+                    final long startTime = SystemClock.elapsedRealtime();
+                    Object value;
+                    try {
+                        value = section.mDumper.call();
+                    } catch (Exception e) {
+                        value = e.toString();
+                    }
+                    return new SectionResult(index, value,
+                            SystemClock.elapsedRealtime() - startTime);
+                });
+            }
+            final long deadline = SystemClock.elapsedRealtime() + timeoutMs;
+            for (int i = 0; i < sections.size(); i++) {
+                final Future<SectionResult> future = completionService.poll(
+                        Math.max(0, deadline - SystemClock.elapsedRealtime()),
+                        TimeUnit.MILLISECONDS);
+                if (future == null) {
+                    break;
+                }
+                final SectionResult result;
+                try {
+                    result = future.get();
+                } catch (ExecutionException e) {
+                    // The tasks catch everything, this can't happen
+                    throw new IllegalStateException(e);
+                }
+                done[result.mIndex] = true;
+                consumer.accept(sections.get(result.mIndex).mName, result.mValue,
+                        result.mElapsedMs);
+            }
+            for (int i = 0; i < sections.size(); i++) {
+                if (!done[i]) {
+                    consumer.accept(sections.get(i).mName, VALUE_TIMED_OUT, timeoutMs);
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @VisibleForTesting
+    long getSectionTimeoutMs() {
+        return SECTION_TIMEOUT_MS;
+    }
+
+    private static JSONObject createSectionLine(String name, Object value, long elapsedMs)
+            throws JSONException {
+        final JSONObject line = new JSONObject();
+        line.put(KEY_SECTION, name);
+        line.put(KEY_ELAPSED_MS, elapsedMs);
+        line.put(KEY_VALUE, value == null ? JSONObject.NULL : value);
+        return line;
+    }
+
+    @VisibleForTesting
+    List<Section> getSections() {
+        final List<Section> sections = new ArrayList<>();
+        sections.add(new Section(KEY_STORAGE, this::dumpStorage));
+        sections.add(new Section(KEY_DATAUSAGE, this::dumpDataUsage));
+        sections.add(new Section(KEY_MEMORY, this::dumpMemory));
+        sections.add(new Section(KEY_DEFAULT_BROWSER_APP, this::dumpDefaultBrowser));
+        sections.add(new Section(KEY_ANOMALY_DETECTION, this::dumpAnomalyDetection));
+        sections.add(new Section(KEY_CACHES, this::dumpCaches));
+        sections.add(new Section(KEY_APP_STATE_BRIDGES, this::dumpAppStateBridges));
+        sections.add(new Section(KEY_PANELS, this::dumpPanels));
+        return sections;
+    }
+
+    @VisibleForTesting
+    JSONObject dumpCaches() throws JSONException {
+        // Only the caches that are in use, a dump shouldn't create the others.
+        final JSONObject obj = new JSONObject();
+        final PackageMetadataCache metadataCache = PackageMetadataCache.peekInstance();
+        if (metadataCache != null) {
+            obj.put("metadata", dumpCacheStats(metadataCache.getHitCount(),
+                    metadataCache.getMissCount(), KEY_CACHE_ENTRIES, metadataCache.getSize()));
+        }
+        final NetworkCycleDataCache networkCycleDataCache = NetworkCycleDataCache.peekInstance();
+        if (networkCycleDataCache != null) {
+            obj.put("network_cycle", dumpCacheStats(networkCycleDataCache.getHitCount(),
+                    networkCycleDataCache.getMissCount(), KEY_CACHE_BYTES,
+                    networkCycleDataCache.getSizeBytes()));
+        }
+        final AppIconCache iconCache = AppIconCache.peekInstance();
+        if (iconCache != null) {
+            obj.put("icon", dumpCacheStats(iconCache.getIconHitCount(),
+                    iconCache.getIconMissCount(), KEY_CACHE_BYTES, iconCache.getSizeBytes()));
+            obj.put("icon_label", dumpCacheStats(iconCache.getLabelHitCount(),
+                    iconCache.getLabelMissCount(), KEY_CACHE_ENTRIES, iconCache.getLabelCount()));
+        }
+        final NotificationAppSummaryCache summaryCache = NotificationAppSummaryCache.getInstance();
+        obj.put("notification_summary", dumpCacheStats(summaryCache.getHitCount(),
+                summaryCache.getMissCount(), KEY_CACHE_ENTRIES, summaryCache.getSize()));
+        final SliceTemplateCache sliceCache = SliceTemplateCache.peekInstance();
+        if (sliceCache != null) {
+            obj.put("slice", dumpCacheStats(sliceCache.getHitCount(), sliceCache.getMissCount(),
+                    KEY_CACHE_ENTRIES, sliceCache.getSize()));
+        }
+        final InjectedTileIndexCache tileCache = InjectedTileIndexCache.getInstance();
+        obj.put("tile", dumpCacheStats(tileCache.getHitCount(), tileCache.getMissCount(),
+                KEY_CACHE_ENTRIES, tileCache.getSize()));
+        return obj;
+    }
+
+    @VisibleForTesting
+    JSONArray dumpAppStateBridges() throws JSONException {
+        final JSONArray array = new JSONArray();
+        for (AppStateBaseBridge.LoadTiming timing : AppStateBaseBridge.getLoadTimings()) {
+            final JSONObject obj = new JSONObject();
+            obj.put("bridge", timing.getBridge());
+            obj.put("queued_ms", timing.getQueuedMs());
+            obj.put("load_ms", timing.getLoadMs());
+            obj.put("publish_delay_ms", timing.getPublishDelayMs());
+            obj.put("apply_ms", timing.getApplyMs());
+            obj.put("entries", timing.getEntryCount());
+            array.put(obj);
+        }
+        return array;
+    }
+
+    @VisibleForTesting
+    JSONArray dumpPanels() throws JSONException {
+        final JSONArray array = new JSONArray();
+        for (PanelFragment.LoadTiming timing : PanelFragment.getLoadTimings()) {
+            final JSONObject obj = new JSONObject();
+            obj.put("metrics_category", timing.getMetricsCategory());
+            obj.put("progressive", timing.isProgressive());
+            obj.put("first_row_ms", timing.getFirstRowMs());
+            obj.put("complete_ms", timing.getCompleteMs());
+            obj.put("slices", timing.getSliceCount());
+            array.put(obj);
+        }
+        return array;
+    }
+
+    private static JSONObject dumpCacheStats(int hitCount, int missCount, String sizeKey,
+            int size) throws JSONException {
+        final JSONObject obj = new JSONObject();
+        obj.put("hit", hitCount);
+        obj.put("miss", missCount);
+        obj.put(sizeKey, size);
+        return obj;
+    }
+
     private JSONObject dumpMemory() throws JSONException {
         JSONObject obj = new JSONObject();
         ProcStatsData statsManager = new ProcStatsData(this, false);
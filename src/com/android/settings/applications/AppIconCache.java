@@ -0,0 +1,528 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.applications;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.pm.ApplicationInfo;
+import android.content.pm.PackageManager;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.drawable.BitmapDrawable;
+import android.graphics.drawable.Drawable;
+import android.net.Uri;
+import android.os.UserHandle;
+import android.util.ArrayMap;
+import android.util.ArraySet;
+import android.util.AtomicFile;
+import android.util.IconDrawableFactory;
+import android.util.Log;
+import android.util.LruCache;
+
+import androidx.annotation.GuardedBy;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+import androidx.annotation.WorkerThread;
+
+import com.android.settings.R;
+import com.android.settingslib.utils.ThreadUtils;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Cache of app icons and labels shared by the app lists of Settings.
+ *
+ * <p>Icons are drawn into bitmaps of a few fixed sizes, and kept in a memory tier bounded by
+ * bitmap bytes. The cache can also keep them as PNGs on disk, so a new process doesn't need to
+ * decode them again. Entries are keyed by package, version code, user and size. A package
+ * update therefore never matches the old entries, which are dropped by the package broadcasts.
+ * Concurrent loads of the same icon share one load. Callers on the main thread use
+ * {@link #getCachedIcon}, which never reads the disk tier.
+ */
+public class AppIconCache {
+    private static final String TAG = "AppIconCache";
+
+    /** Sizes in pixels icons are drawn at, a request is rounded up to the next one. */
+    @VisibleForTesting
+    static final int[] SIZE_BUCKETS = {48, 72, 96, 128, 144, 192, 256};
+    private static final int MAX_MEMORY_BYTES = 8 * 1024 * 1024;
+    private static final int MAX_LABELS = 512;
+    @VisibleForTesting
+    static final int MAX_DISK_FILES = 512;
+    private static final String DISK_CACHE_DIR = "app_icons";
+    // Package names can't contain this, so it safely separates the parts of a file name.
+    private static final char FILE_NAME_SEPARATOR = '@';
+
+    private static AppIconCache sInstance;
+
+    private final Context mContext;
+    private final PackageManager mPackageManager;
+    private final IconDrawableFactory mIconDrawableFactory;
+    @Nullable
+    private final File mDiskCacheDir;
+    private final Object mLock = new Object();
+
+    @GuardedBy("mLock")
+    private final LruCache<IconKey, Bitmap> mIcons = new LruCache<IconKey, Bitmap>(
+            (int) Math.min(MAX_MEMORY_BYTES, Runtime.getRuntime().maxMemory() / 32)) {
+        @Override
+        protected int sizeOf(IconKey key, Bitmap bitmap) {
+            return bitmap.getAllocationByteCount();
+        }
+    };
+    @GuardedBy("mLock")
+    private final LruCache<IconKey, CharSequence> mLabels = new LruCache<>(MAX_LABELS);
+    @GuardedBy("mLock")
+    private final ArrayMap<IconKey, FutureTask<Bitmap>> mPendingIcons = new ArrayMap<>();
+    @GuardedBy("mLock")
+    private final ArraySet<IconKey> mPendingWrites = new ArraySet<>();
+    @GuardedBy("mLock")
+    private int mIconHitCount;
+    @GuardedBy("mLock")
+    private int mIconMissCount;
+    @GuardedBy("mLock")
+    private int mLabelHitCount;
+    @GuardedBy("mLock")
+    private int mLabelMissCount;
+    @GuardedBy("mLock")
+    private boolean mReceiverRegistered;
+    // Runs the writes and deletes of the disk tier.
+    @VisibleForTesting
+    Executor mDiskExecutor = ThreadUtils::postOnBackgroundThread;
+
+    @VisibleForTesting
+    final BroadcastReceiver mPackageReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            if (Intent.ACTION_LOCALE_CHANGED.equals(intent.getAction())) {
+                synchronized (mLock) {
+                    mLabels.evictAll();
+                }
+                return;
+            }
+            final Uri data = intent.getData();
+            final String packageName = data != null ? data.getSchemeSpecificPart() : null;
+            if (packageName != null) {
+                invalidate(packageName);
+            }
+        }
+    };
+
+    public static synchronized AppIconCache getInstance(Context context) {
+        if (sInstance == null) {
+            final Context appContext = context.getApplicationContext();
+            sInstance = new AppIconCache(appContext,
+                    new File(appContext.getCacheDir(), DISK_CACHE_DIR));
+        }
+        return sInstance;
+    }
+
+    /** Return the instance if it was already created, without creating it. */
+    @Nullable
+    public static synchronized AppIconCache peekInstance() {
+        return sInstance;
+    }
+
+    /**
+     * @param diskCacheDir directory of the disk tier, or {@code null} to keep icons in memory
+     *                     only.
+     */
+    @VisibleForTesting
+    AppIconCache(Context context, @Nullable File diskCacheDir) {
+        mContext = context;
+        mPackageManager = context.getPackageManager();
+        mIconDrawableFactory = IconDrawableFactory.newInstance(context);
+        mDiskCacheDir = diskCacheDir;
+    }
+
+    /**
+     * Return the icon of {@code info} for {@code userId} at the size of list icons, loading it on
+     * a miss.
+     *
+     * @param badged whether to add the work profile badge for managed profiles.
+     */
+    @WorkerThread
+    public Drawable getIcon(ApplicationInfo info, int userId, boolean badged) {
+        return getIcon(info, userId,
+                mContext.getResources().getDimensionPixelSize(R.dimen.app_icon_size), badged);
+    }
+
+    /**
+     * Return the icon of {@code info} for {@code userId}, drawn at least {@code sizePx} pixels
+     * wide, loading it on a miss.
+     */
+    @WorkerThread
+    public Drawable getIcon(ApplicationInfo info, int userId, int sizePx, boolean badged) {
+        final IconKey key = new IconKey(info, userId, getBucket(sizePx), badged);
+        Bitmap bitmap = getFromMemory(key);
+        if (bitmap == null) {
+            bitmap = loadAndCache(info, key);
+        }
+        return bitmap != null
+                ? new BitmapDrawable(mContext.getResources(), bitmap)
+                : mPackageManager.getDefaultActivityIcon();
+    }
+
+    /**
+     * Like {@link #getIcon(ApplicationInfo, int, int, boolean)}, but only looks at the memory
+     * tier, so it can be called on the main thread. On a miss the icon is drawn from the package
+     * and kept in memory; writing it to disk happens in the background.
+     */
+    public Drawable getCachedIcon(ApplicationInfo info, int userId, int sizePx, boolean badged) {
+        final IconKey key = new IconKey(info, userId, getBucket(sizePx), badged);
+        Bitmap bitmap = getFromMemory(key);
+        if (bitmap == null) {
+            registerReceiverIfNeeded();
+            bitmap = drawIcon(info, key);
+            if (bitmap != null) {
+                synchronized (mLock) {
+                    mIcons.put(key, bitmap);
+                }
+                writeToDiskAsync(key, bitmap);
+            }
+        }
+        return bitmap != null
+                ? new BitmapDrawable(mContext.getResources(), bitmap)
+                : mPackageManager.getDefaultActivityIcon();
+    }
+
+    @Nullable
+    private Bitmap getFromMemory(IconKey key) {
+        synchronized (mLock) {
+            final Bitmap bitmap = mIcons.get(key);
+            if (bitmap != null) {
+                mIconHitCount++;
+            } else {
+                mIconMissCount++;
+            }
+            return bitmap;
+        }
+    }
+
+    /** Load the icon from disk or the package, sharing the load with concurrent callers. */
+    @Nullable
+    private Bitmap loadAndCache(ApplicationInfo info, IconKey key) {
+        final FutureTask<Bitmap> task;
+        boolean loader = false;
+        synchronized (mLock) {
+            FutureTask<Bitmap> pending = mPendingIcons.get(key);
+            if (pending == null) {
+                pending = new FutureTask<>(() -> loadIcon(info, key));
+                mPendingIcons.put(key, pending);
+                loader = true;
+            }
+            task = pending;
+        }
+        if (loader) {
+            task.run();
+        }
+        Bitmap bitmap = null;
+        try {
+            bitmap = task.get();
+        } catch (ExecutionException | InterruptedException e) {
+            Log.w(TAG, "Failed to load icon of " + info.packageName, e);
+        }
+        if (loader) {
+            synchronized (mLock) {
+                mPendingIcons.remove(key);
+                if (bitmap != null) {
+                    mIcons.put(key, bitmap);
+                }
+            }
+        }
+        return bitmap;
+    }
+
+    /**
+     * Return the label of {@code info} for {@code userId}, loading it on a miss.
+     */
+    @WorkerThread
+    public CharSequence getLabel(ApplicationInfo info, int userId) {
+        final IconKey key = new IconKey(info, userId, 0 /* size */, false /* badged */);
+        synchronized (mLock) {
+            final CharSequence label = mLabels.get(key);
+            if (label != null) {
+                mLabelHitCount++;
+                return label;
+            }
+            mLabelMissCount++;
+        }
+        registerReceiverIfNeeded();
+        final CharSequence label = info.loadLabel(mPackageManager);
+        if (label != null) {
+            synchronized (mLock) {
+                mLabels.put(key, label);
+            }
+        }
+        return label;
+    }
+
+    /** Drop every entry of {@code packageName}, in memory and on disk. */
+    public void invalidate(String packageName) {
+        synchronized (mLock) {
+            for (IconKey key : mIcons.snapshot().keySet()) {
+                if (key.mPackageName.equals(packageName)) {
+                    mIcons.remove(key);
+                }
+            }
+            for (IconKey key : mLabels.snapshot().keySet()) {
+                if (key.mPackageName.equals(packageName)) {
+                    mLabels.remove(key);
+                }
+            }
+        }
+        if (mDiskCacheDir != null) {
+            mDiskExecutor.execute(() -> {
+                final File[] files = mDiskCacheDir.listFiles();
+                if (files == null) {
+                    return;
+                }
+                final String prefix = packageName + FILE_NAME_SEPARATOR;
+                for (File file : files) {
+                    if (file.getName().startsWith(prefix)) {
+                        file.delete();
+                    }
+                }
+            });
+        }
+    }
+
+    public int getIconHitCount() {
+        synchronized (mLock) {
+            return mIconHitCount;
+        }
+    }
+
+    public int getIconMissCount() {
+        synchronized (mLock) {
+            return mIconMissCount;
+        }
+    }
+
+    public int getLabelHitCount() {
+        synchronized (mLock) {
+            return mLabelHitCount;
+        }
+    }
+
+    public int getLabelMissCount() {
+        synchronized (mLock) {
+            return mLabelMissCount;
+        }
+    }
+
+    /** Return the number of labels in memory. */
+    public int getLabelCount() {
+        synchronized (mLock) {
+            return mLabels.size();
+        }
+    }
+
+    /** Return the bytes used by the bitmaps of the memory tier. */
+    public int getSizeBytes() {
+        synchronized (mLock) {
+            return mIcons.size();
+        }
+    }
+
+    @VisibleForTesting
+    static int getBucket(int sizePx) {
+        for (int bucket : SIZE_BUCKETS) {
+            if (sizePx <= bucket) {
+                return bucket;
+            }
+        }
+        return SIZE_BUCKETS[SIZE_BUCKETS.length - 1];
+    }
+
+    @WorkerThread
+    private Bitmap loadIcon(ApplicationInfo info, IconKey key) {
+        registerReceiverIfNeeded();
+        if (mDiskCacheDir != null) {
+            final File file = new File(mDiskCacheDir, key.toFileName());
+            if (file.exists()) {
+                final Bitmap bitmap = readFromDisk(file);
+                if (bitmap != null) {
+                    // The disk tier is evicted by last use, see writeToDisk.
+                    file.setLastModified(System.currentTimeMillis());
+                    return bitmap;
+                }
+                Log.w(TAG, "Dropping unreadable " + file);
+                file.delete();
+            }
+        }
+        final Bitmap bitmap = drawIcon(info, key);
+        if (bitmap != null) {
+            writeToDiskAsync(key, bitmap);
+        }
+        return bitmap;
+    }
+
+    @Nullable
+    private Bitmap drawIcon(ApplicationInfo info, IconKey key) {
+        final Drawable drawable = key.mBadged
+                ? mIconDrawableFactory.getBadgedIcon(info, key.mUserId)
+                : info.loadUnbadgedIcon(mPackageManager);
+        if (drawable == null) {
+            return null;
+        }
+        final Bitmap bitmap = Bitmap.createBitmap(key.mSize, key.mSize, Bitmap.Config.ARGB_8888);
+        final Canvas canvas = new Canvas(bitmap);
+        drawable.setBounds(0, 0, key.mSize, key.mSize);
+        drawable.draw(canvas);
+        return bitmap;
+    }
+
+    @Nullable
+    private static Bitmap readFromDisk(File file) {
+        try (InputStream in = new AtomicFile(file).openRead()) {
+            return BitmapFactory.decodeStream(in);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /** Write the icon to disk in the background, unless a write of the same key is pending. */
+    private void writeToDiskAsync(IconKey key, Bitmap bitmap) {
+        if (mDiskCacheDir == null) {
+            return;
+        }
+        synchronized (mLock) {
+            if (!mPendingWrites.add(key)) {
+                return;
+            }
+        }
+        mDiskExecutor.execute(() -> {
+            try {
+                writeToDisk(new File(mDiskCacheDir, key.toFileName()), bitmap);
+            } finally {
+                synchronized (mLock) {
+                    mPendingWrites.remove(key);
+                }
+            }
+        });
+    }
+
+    @WorkerThread
+    private void writeToDisk(File file, Bitmap bitmap) {
+        if (file.exists()) {
+            // Same key, same icon.
+            return;
+        }
+        if (!mDiskCacheDir.exists() && !mDiskCacheDir.mkdirs()) {
+            return;
+        }
+        final File[] files = mDiskCacheDir.listFiles();
+        if (files != null && files.length >= MAX_DISK_FILES) {
+            // Entries of old versions pile up when packages are updated while Settings isn't
+            // running, drop the least recently used ones.
+            final ArrayMap<File, Long> lastUsed = new ArrayMap<>(files.length);
+            for (File cached : files) {
+                lastUsed.put(cached, cached.lastModified());
+            }
+            Arrays.sort(files, (f1, f2) -> Long.compare(lastUsed.get(f1), lastUsed.get(f2)));
+            for (int i = 0, count = files.length - MAX_DISK_FILES + 1; i < count; i++) {
+                files[i].delete();
+            }
+        }
+        // Write through AtomicFile, so a crash mid-write never leaves a truncated PNG behind.
+        final AtomicFile atomicFile = new AtomicFile(file);
+        FileOutputStream out = null;
+        try {
+            out = atomicFile.startWrite();
+            if (!bitmap.compress(Bitmap.CompressFormat.PNG, 100 /* quality */, out)) {
+                throw new IOException("Failed to compress");
+            }
+            atomicFile.finishWrite(out);
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to write " + file, e);
+            if (out != null) {
+                atomicFile.failWrite(out);
+            }
+        }
+    }
+
+    private void registerReceiverIfNeeded() {
+        synchronized (mLock) {
+            if (mReceiverRegistered) {
+                return;
+            }
+            mReceiverRegistered = true;
+        }
+        final IntentFilter filter = new IntentFilter();
+        filter.addAction(Intent.ACTION_PACKAGE_ADDED);
+        filter.addAction(Intent.ACTION_PACKAGE_REMOVED);
+        filter.addAction(Intent.ACTION_PACKAGE_CHANGED);
+        filter.addAction(Intent.ACTION_PACKAGE_REPLACED);
+        filter.addDataScheme("package");
+        mContext.registerReceiverAsUser(mPackageReceiver, UserHandle.ALL, filter,
+                null /* broadcastPermission */, null /* scheduler */);
+        mContext.registerReceiver(mPackageReceiver,
+                new IntentFilter(Intent.ACTION_LOCALE_CHANGED));
+    }
+
+    private static final class IconKey {
+        final String mPackageName;
+        final long mVersionCode;
+        final int mUserId;
+        final int mSize;
+        final boolean mBadged;
+
+        IconKey(ApplicationInfo info, int userId, int size, boolean badged) {
+            mPackageName = info.packageName;
+            mVersionCode = info.longVersionCode;
+            mUserId = userId;
+            mSize = size;
+            mBadged = badged;
+        }
+
+        String toFileName() {
+            return mPackageName + FILE_NAME_SEPARATOR + mVersionCode + FILE_NAME_SEPARATOR
+                    + mUserId + FILE_NAME_SEPARATOR + mSize + (mBadged ? "b" : "") + ".png";
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof IconKey)) {
+                return false;
+            }
+            final IconKey other = (IconKey) o;
+            return mVersionCode == other.mVersionCode && mUserId == other.mUserId
+                    && mSize == other.mSize && mBadged == other.mBadged
+                    && mPackageName.equals(other.mPackageName);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(mPackageName, mVersionCode, mUserId, mSize, mBadged);
+        }
+    }
+}
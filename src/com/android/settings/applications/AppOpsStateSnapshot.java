@@ -0,0 +1,512 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.applications;
+
+import android.app.AppOpsManager;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.pm.PackageInfo;
+import android.content.pm.PackageManager;
+import android.net.Uri;
+import android.os.UserHandle;
+import android.util.ArrayMap;
+import android.util.ArraySet;
+import android.util.SparseArray;
+import android.util.SparseBooleanArray;
+import android.util.SparseIntArray;
+
+import androidx.annotation.GuardedBy;
+import androidx.annotation.VisibleForTesting;
+import androidx.annotation.WorkerThread;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Snapshot of the requested app op permissions and app op modes of every package, shared by the
+ * special app access screens.
+ *
+ * <p>A user is loaded with one {@link PackageManager#getInstalledPackagesAsUser} call and the modes
+ * of all tracked ops with one {@link AppOpsManager#getPackagesForOps} call, instead of a few binder
+ * calls per package. Package broadcasts and app op changes only mark the affected packages, which
+ * are queried again on the next lookup.
+ */
+public class AppOpsStateSnapshot {
+
+    /** Permissions are tracked as bits of a long. */
+    private static final int MAX_PERMISSIONS = Long.SIZE;
+
+    private static AppOpsStateSnapshot sInstance;
+
+    private final Context mContext;
+    private final PackageManager mPackageManager;
+    private final AppOpsManager mAppOpsManager;
+
+    // Tracked permissions, indexed by their bit in PackageState masks.
+    @GuardedBy("this")
+    private final ArrayList<String> mPermissions = new ArrayList<>();
+    @GuardedBy("this")
+    private final SparseBooleanArray mTrackedOps = new SparseBooleanArray();
+    @GuardedBy("this")
+    private final SparseBooleanArray mLoadedUsers = new SparseBooleanArray();
+    // Packages installed for the loaded users, keyed by uid.
+    @GuardedBy("this")
+    private final SparseArray<PackageState[]> mPackages = new SparseArray<>();
+    // Recorded modes keyed by uid, then package name, then op.
+    @GuardedBy("this")
+    private final SparseArray<ArrayMap<String, SparseIntArray>> mModes = new SparseArray<>();
+    // Modes as AppOpsManager#checkOpNoThrow reports them, keyed like mModes.
+    @GuardedBy("this")
+    private final SparseArray<ArrayMap<String, SparseIntArray>> mCheckedModes =
+            new SparseArray<>();
+    @GuardedBy("this")
+    private boolean mModesLoaded;
+
+    // Invalidations are recorded under their own lock so callbacks never wait for a load.
+    private final Object mDirtyLock = new Object();
+    @GuardedBy("mDirtyLock")
+    private final SparseArray<ArraySet<String>> mDirtyPackages = new SparseArray<>();
+    @GuardedBy("mDirtyLock")
+    private final ArraySet<String> mDirtyModes = new ArraySet<>();
+    @GuardedBy("mDirtyLock")
+    private boolean mAllModesDirty;
+    @GuardedBy("mDirtyLock")
+    private boolean mReceiverRegistered;
+
+    @VisibleForTesting
+    final BroadcastReceiver mPackageReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            final Uri data = intent.getData();
+            final String packageName = data != null ? data.getSchemeSpecificPart() : null;
+            final int uid = intent.getIntExtra(Intent.EXTRA_UID, -1);
+            if (packageName == null || uid < 0) {
+                return;
+            }
+            invalidatePackage(UserHandle.getUserId(uid), packageName);
+        }
+    };
+
+    @VisibleForTesting
+    final AppOpsManager.OnOpChangedListener mOpChangedListener = (op, packageName) -> {
+        if (packageName == null) {
+            synchronized (mDirtyLock) {
+                mAllModesDirty = true;
+            }
+        } else {
+            invalidateAppOpModes(packageName);
+        }
+    };
+
+    public static synchronized AppOpsStateSnapshot getInstance(Context context) {
+        if (sInstance == null) {
+            final Context appContext = context.getApplicationContext();
+            sInstance = new AppOpsStateSnapshot(appContext, appContext.getPackageManager(),
+                    appContext.getSystemService(AppOpsManager.class));
+        }
+        return sInstance;
+    }
+
+    @VisibleForTesting
+    AppOpsStateSnapshot(Context context, PackageManager packageManager,
+            AppOpsManager appOpsManager) {
+        mContext = context;
+        mPackageManager = packageManager;
+        mAppOpsManager = appOpsManager;
+    }
+
+    /**
+     * Track {@code permissions} and {@code opCodes}. Lookups only report tracked permissions and
+     * ops.
+     */
+    public synchronized void track(String[] permissions, int[] opCodes) {
+        boolean permissionAdded = false;
+        for (String permission : permissions) {
+            if (!mPermissions.contains(permission)) {
+                if (mPermissions.size() == MAX_PERMISSIONS) {
+                    throw new IllegalStateException("Too many tracked permissions");
+                }
+                mPermissions.add(permission);
+                permissionAdded = true;
+            }
+        }
+        if (permissionAdded) {
+            // Masks of the loaded packages don't have the new bits yet.
+            mLoadedUsers.clear();
+        }
+        for (int opCode : opCodes) {
+            if (!mTrackedOps.get(opCode)) {
+                mTrackedOps.put(opCode, true);
+                mModesLoaded = false;
+                mAppOpsManager.startWatchingMode(opCode, null /* packageName */,
+                        mOpChangedListener);
+            }
+        }
+        synchronized (mDirtyLock) {
+            if (!mReceiverRegistered) {
+                final IntentFilter filter = new IntentFilter();
+                filter.addAction(Intent.ACTION_PACKAGE_ADDED);
+                filter.addAction(Intent.ACTION_PACKAGE_CHANGED);
+                filter.addAction(Intent.ACTION_PACKAGE_REMOVED);
+                filter.addAction(Intent.ACTION_PACKAGE_REPLACED);
+                filter.addDataScheme("package");
+                mContext.registerReceiverAsUser(mPackageReceiver, UserHandle.ALL, filter,
+                        null /* broadcastPermission */, null /* scheduler */);
+                mReceiverRegistered = true;
+            }
+        }
+    }
+
+    /**
+     * Return whether the package requests any of {@code permissions}.
+     */
+    @WorkerThread
+    public synchronized boolean isPermissionDeclared(int uid, String packageName,
+            String[] permissions) {
+        final PackageState state = getPackageState(uid, packageName);
+        return state != null && (state.mDeclared & getMask(permissions)) != 0;
+    }
+
+    /**
+     * Return whether any of {@code permissions} is granted to the package.
+     */
+    @WorkerThread
+    public synchronized boolean isPermissionGranted(int uid, String packageName,
+            String[] permissions) {
+        final PackageState state = getPackageState(uid, packageName);
+        return state != null && (state.mGranted & getMask(permissions)) != 0;
+    }
+
+    /**
+     * Return the mode of the first op of {@code opCodes} that has one recorded for the package,
+     * or {@link AppOpsManager#MODE_DEFAULT}.
+     */
+    @WorkerThread
+    public synchronized int getAppOpMode(int uid, String packageName, int[] opCodes) {
+        ensureLoaded(UserHandle.getUserId(uid));
+        final ArrayMap<String, SparseIntArray> modesForUid = mModes.get(uid);
+        final SparseIntArray modes = modesForUid != null ? modesForUid.get(packageName) : null;
+        if (modes != null) {
+            for (int opCode : opCodes) {
+                final int index = modes.indexOfKey(opCode);
+                if (index >= 0) {
+                    return modes.valueAt(index);
+                }
+            }
+        }
+        return AppOpsManager.MODE_DEFAULT;
+    }
+
+    /**
+     * Return the mode of {@code opCode} for the package as {@link AppOpsManager#checkOpNoThrow}
+     * reports it, so a mode set for the whole uid wins over the package's own mode. Only packages
+     * that request any of {@code permissions} or have a mode recorded for the op are checked, the
+     * others report {@link AppOpsManager#MODE_DEFAULT}.
+     */
+    @WorkerThread
+    public synchronized int checkAppOpMode(int uid, String packageName, String[] permissions,
+            int opCode) {
+        ensureLoaded(UserHandle.getUserId(uid));
+        ArrayMap<String, SparseIntArray> checkedForUid = mCheckedModes.get(uid);
+        SparseIntArray checked = checkedForUid != null ? checkedForUid.get(packageName) : null;
+        if (checked != null) {
+            final int index = checked.indexOfKey(opCode);
+            if (index >= 0) {
+                return checked.valueAt(index);
+            }
+        }
+        final PackageState state = getPackageState(uid, packageName);
+        final int mode;
+        if ((state != null && (state.mDeclared & getMask(permissions)) != 0)
+                || getAppOpMode(uid, packageName, new int[] {opCode})
+                        != AppOpsManager.MODE_DEFAULT) {
+            mode = mAppOpsManager.checkOpNoThrow(opCode, uid, packageName);
+        } else {
+            mode = AppOpsManager.MODE_DEFAULT;
+        }
+        if (checkedForUid == null) {
+            checkedForUid = new ArrayMap<>(1);
+            mCheckedModes.put(uid, checkedForUid);
+        }
+        if (checked == null) {
+            checked = new SparseIntArray(1);
+            checkedForUid.put(packageName, checked);
+        }
+        checked.put(opCode, mode);
+        return mode;
+    }
+
+    /**
+     * Mark the modes of the package as changed. Screens that change a mode call this right away,
+     * so they don't read the old mode before the app op change callback comes in.
+     */
+    public void invalidateAppOpModes(String packageName) {
+        synchronized (mDirtyLock) {
+            mDirtyModes.add(packageName);
+        }
+    }
+
+    /**
+     * Return the packages of {@code userId} that request any of {@code permissions}.
+     */
+    @WorkerThread
+    public synchronized List<PackageState> getPackagesDeclaring(int userId,
+            String[] permissions) {
+        ensureLoaded(userId);
+        final long mask = getMask(permissions);
+        final List<PackageState> result = new ArrayList<>();
+        for (int i = 0, size = mPackages.size(); i < size; i++) {
+            if (UserHandle.getUserId(mPackages.keyAt(i)) != userId) {
+                continue;
+            }
+            for (PackageState state : mPackages.valueAt(i)) {
+                if ((state.mDeclared & mask) != 0) {
+                    result.add(state);
+                }
+            }
+        }
+        return result;
+    }
+
+    @VisibleForTesting
+    void invalidatePackage(int userId, String packageName) {
+        synchronized (mDirtyLock) {
+            ArraySet<String> packages = mDirtyPackages.get(userId);
+            if (packages == null) {
+                packages = new ArraySet<>();
+                mDirtyPackages.put(userId, packages);
+            }
+            packages.add(packageName);
+            mDirtyModes.add(packageName);
+        }
+    }
+
+    @GuardedBy("this")
+    private PackageState getPackageState(int uid, String packageName) {
+        ensureLoaded(UserHandle.getUserId(uid));
+        final PackageState[] states = mPackages.get(uid);
+        if (states != null) {
+            for (PackageState state : states) {
+                if (state.packageName.equals(packageName)) {
+                    return state;
+                }
+            }
+        }
+        return null;
+    }
+
+    @GuardedBy("this")
+    private long getMask(String[] permissions) {
+        long mask = 0;
+        for (String permission : permissions) {
+            final int index = mPermissions.indexOf(permission);
+            if (index >= 0) {
+                mask |= 1L << index;
+            }
+        }
+        return mask;
+    }
+
+    @GuardedBy("this")
+    private void ensureLoaded(int userId) {
+        final ArraySet<String> dirtyPackages;
+        final ArraySet<String> dirtyModes;
+        final boolean allModesDirty;
+        synchronized (mDirtyLock) {
+            dirtyPackages = mDirtyPackages.get(userId);
+            mDirtyPackages.remove(userId);
+            dirtyModes = new ArraySet<>(mDirtyModes);
+            mDirtyModes.clear();
+            allModesDirty = mAllModesDirty;
+            mAllModesDirty = false;
+        }
+        if (!mLoadedUsers.get(userId)) {
+            loadUser(userId);
+            mLoadedUsers.put(userId, true);
+        } else if (dirtyPackages != null) {
+            for (String packageName : dirtyPackages) {
+                refreshPackage(userId, packageName);
+            }
+        }
+        if (!mModesLoaded || allModesDirty) {
+            loadModes();
+            mModesLoaded = true;
+        } else {
+            for (String packageName : dirtyModes) {
+                refreshModes(packageName);
+            }
+        }
+    }
+
+    @GuardedBy("this")
+    private void loadUser(int userId) {
+        for (int i = mPackages.size() - 1; i >= 0; i--) {
+            if (UserHandle.getUserId(mPackages.keyAt(i)) == userId) {
+                mPackages.removeAt(i);
+            }
+        }
+        final List<PackageInfo> packageInfos = mPackageManager.getInstalledPackagesAsUser(
+                PackageManager.GET_PERMISSIONS, userId);
+        for (PackageInfo packageInfo : packageInfos) {
+            putPackage(packageInfo);
+        }
+    }
+
+    @GuardedBy("this")
+    private void refreshPackage(int userId, String packageName) {
+        for (int i = mPackages.size() - 1; i >= 0; i--) {
+            if (UserHandle.getUserId(mPackages.keyAt(i)) == userId) {
+                removePackage(mPackages.keyAt(i), packageName);
+            }
+        }
+        try {
+            putPackage(mPackageManager.getPackageInfoAsUser(packageName,
+                    PackageManager.GET_PERMISSIONS, userId));
+        } catch (PackageManager.NameNotFoundException e) {
+            // The package was removed.
+        }
+    }
+
+    @GuardedBy("this")
+    private void putPackage(PackageInfo packageInfo) {
+        if (packageInfo == null || packageInfo.applicationInfo == null) {
+            return;
+        }
+        long declared = 0;
+        long granted = 0;
+        final String[] requested = packageInfo.requestedPermissions;
+        final int[] flags = packageInfo.requestedPermissionsFlags;
+        if (requested != null) {
+            for (int i = 0; i < requested.length; i++) {
+                final int index = mPermissions.indexOf(requested[i]);
+                if (index < 0) {
+                    continue;
+                }
+                declared |= 1L << index;
+                if (flags != null
+                        && (flags[i] & PackageInfo.REQUESTED_PERMISSION_GRANTED) != 0) {
+                    granted |= 1L << index;
+                }
+            }
+        }
+        final int uid = packageInfo.applicationInfo.uid;
+        final PackageState state = new PackageState(uid, packageInfo.packageName, declared,
+                granted);
+        final PackageState[] states = mPackages.get(uid);
+        if (states == null) {
+            mPackages.put(uid, new PackageState[] {state});
+        } else {
+            final PackageState[] newStates = new PackageState[states.length + 1];
+            System.arraycopy(states, 0, newStates, 0, states.length);
+            newStates[states.length] = state;
+            mPackages.put(uid, newStates);
+        }
+    }
+
+    @GuardedBy("this")
+    private void removePackage(int uid, String packageName) {
+        final PackageState[] states = mPackages.get(uid);
+        if (states == null) {
+            return;
+        }
+        final ArrayList<PackageState> remaining = new ArrayList<>(states.length);
+        for (PackageState state : states) {
+            if (!state.packageName.equals(packageName)) {
+                remaining.add(state);
+            }
+        }
+        if (remaining.isEmpty()) {
+            mPackages.remove(uid);
+        } else if (remaining.size() != states.length) {
+            mPackages.put(uid, remaining.toArray(new PackageState[0]));
+        }
+    }
+
+    @GuardedBy("this")
+    private void loadModes() {
+        mModes.clear();
+        mCheckedModes.clear();
+        putModes(mAppOpsManager.getPackagesForOps(getTrackedOps()));
+    }
+
+    @GuardedBy("this")
+    private void refreshModes(String packageName) {
+        for (int i = 0, size = mModes.size(); i < size; i++) {
+            mModes.valueAt(i).remove(packageName);
+        }
+        for (int i = 0, size = mCheckedModes.size(); i < size; i++) {
+            mCheckedModes.valueAt(i).remove(packageName);
+        }
+        final int[] opCodes = getTrackedOps();
+        for (int i = 0, size = mPackages.size(); i < size; i++) {
+            for (PackageState state : mPackages.valueAt(i)) {
+                if (state.packageName.equals(packageName)) {
+                    putModes(mAppOpsManager.getOpsForPackage(state.uid, packageName, opCodes));
+                }
+            }
+        }
+    }
+
+    @GuardedBy("this")
+    private void putModes(List<AppOpsManager.PackageOps> packageOpsList) {
+        if (packageOpsList == null) {
+            return;
+        }
+        for (AppOpsManager.PackageOps packageOps : packageOpsList) {
+            final List<AppOpsManager.OpEntry> ops = packageOps.getOps();
+            if (ops == null || ops.isEmpty()) {
+                continue;
+            }
+            ArrayMap<String, SparseIntArray> modesForUid = mModes.get(packageOps.getUid());
+            if (modesForUid == null) {
+                modesForUid = new ArrayMap<>(1);
+                mModes.put(packageOps.getUid(), modesForUid);
+            }
+            final SparseIntArray modes = new SparseIntArray(ops.size());
+            for (AppOpsManager.OpEntry op : ops) {
+                modes.put(op.getOp(), op.getMode());
+            }
+            modesForUid.put(packageOps.getPackageName(), modes);
+        }
+    }
+
+    @GuardedBy("this")
+    private int[] getTrackedOps() {
+        final int[] opCodes = new int[mTrackedOps.size()];
+        for (int i = 0; i < opCodes.length; i++) {
+            opCodes[i] = mTrackedOps.keyAt(i);
+        }
+        return opCodes;
+    }
+
+    /** A package installed for a user, with the tracked permissions it requests. */
+    public static class PackageState {
+        public final int uid;
+        public final String packageName;
+        private final long mDeclared;
+        private final long mGranted;
+
+        PackageState(int uid, String packageName, long declared, long granted) {
+            this.uid = uid;
+            this.packageName = packageName;
+            mDeclared = declared;
+            mGranted = granted;
+        }
+    }
+}
@@ -25,20 +25,14 @@ import android.content.pm.PackageManager;
 import android.os.RemoteException;
 import android.os.UserHandle;
 import android.os.UserManager;
-import android.util.ArrayMap;
 import android.util.Log;
-import android.util.SparseArray;
 
 import androidx.annotation.VisibleForTesting;
 
 import com.android.settingslib.applications.ApplicationsState;
 import com.android.settingslib.applications.ApplicationsState.AppEntry;
 
-import java.util.Arrays;
-import java.util.Collection;
-import java.util.HashSet;
 import java.util.List;
-import java.util.Set;
 
 /*
  * Connects app ops info to the ApplicationsState. Makes use of AppOpsManager to
@@ -55,6 +49,8 @@ public abstract class AppStateAppOpsBridge extends AppStateBaseBridge {
     private final Context mContext;
     private final int[] mAppOpsOpCodes;
     private final String[] mPermissions;
+    @VisibleForTesting
+    AppOpsStateSnapshot mSnapshot;
 
     public AppStateAppOpsBridge(Context context, ApplicationsState appState, Callback callback,
             int appOpsOpCode, String[] permissions) {
@@ -145,148 +141,44 @@ public abstract class AppStateAppOpsBridge extends AppStateBaseBridge {
 
     @Override
     protected void loadAllExtraInfo() {
-        SparseArray<ArrayMap<String, PermissionState>> entries = getEntries();
-
-        // Load state info.
-        loadPermissionsStates(entries);
-        loadAppOpsStates(entries);
+        final AppOpsStateSnapshot snapshot = getSnapshot();
 
         // Map states to application info.
         List<AppEntry> apps = mAppSession.getAllApps();
         final int N = apps.size();
         for (int i = 0; i < N; i++) {
             AppEntry app = apps.get(i);
-            int userId = UserHandle.getUserId(app.info.uid);
-            if (entries != null) {
-                ArrayMap<String, PermissionState> userMap = entries.get(userId);
-                app.extraInfo = userMap != null ? userMap.get(app.info.packageName) : null;
-            } else {
-                app.extraInfo = null;
-            }
+            setExtraInfo(app, getPermissionState(snapshot, app.info.packageName, app.info.uid));
         }
     }
 
     /*
-     * Gets a sparse array that describes every user on the device and all the associated packages
-     * of each user, together with the packages available for that user.
+     * Builds the PermissionState of a package from the snapshot, or returns null if the package
+     * doesn't request any of mPermissions.
      */
-    private SparseArray<ArrayMap<String, PermissionState>> getEntries() {
-        try {
-            Set<String> packagesSet = new HashSet<>();
-            for (String permission : mPermissions) {
-                String[] pkgs = mIPackageManager.getAppOpPermissionPackages(permission);
-                if (pkgs != null) {
-                    packagesSet.addAll(Arrays.asList(pkgs));
-                }
-            }
-
-            if (packagesSet.isEmpty()) {
-                // No packages are requesting permission as specified by mPermissions.
-                return null;
-            }
-
-            // Create a sparse array that maps profileIds to an ArrayMap that maps package names to
-            // an associated PermissionState object
-            SparseArray<ArrayMap<String, PermissionState>> entries = new SparseArray<>();
-            for (final UserHandle profile : mProfiles) {
-                final ArrayMap<String, PermissionState> entriesForProfile = new ArrayMap<>();
-                final int profileId = profile.getIdentifier();
-                entries.put(profileId, entriesForProfile);
-                for (final String packageName : packagesSet) {
-                    final boolean isAvailable = mIPackageManager.isPackageAvailable(packageName,
-                            profileId);
-                    if (!shouldIgnorePackage(packageName) && isAvailable) {
-                        final PermissionState newEntry = new PermissionState(packageName, profile);
-                        entriesForProfile.put(packageName, newEntry);
-                    }
-                }
-            }
-
-            return entries;
-        } catch (RemoteException e) {
-            Log.w(TAG, "PackageManager is dead. Can't get list of packages requesting "
-                    + mPermissions[0], e);
+    private PermissionState getPermissionState(AppOpsStateSnapshot snapshot, String packageName,
+            int uid) {
+        final int userId = UserHandle.getUserId(uid);
+        if (!isThisUserAProfileOfCurrentUser(userId) || shouldIgnorePackage(packageName)
+                || !snapshot.isPermissionDeclared(uid, packageName, mPermissions)) {
             return null;
         }
+        final PermissionState permissionState = new PermissionState(packageName,
+                UserHandle.of(userId));
+        permissionState.permissionDeclared = true;
+        permissionState.staticPermissionGranted = snapshot.isPermissionGranted(uid, packageName,
+                mPermissions);
+        permissionState.appOpMode = snapshot.getAppOpMode(uid, packageName, mAppOpsOpCodes);
+        return permissionState;
     }
 
-    /*
-     * This method will set the packageInfo and staticPermissionGranted field of the associated
-     * PermissionState, which describes a particular package.
-     */
-    private void loadPermissionsStates(SparseArray<ArrayMap<String, PermissionState>> entries) {
-        // Load the packages that have been granted the permission specified in mPermission.
-        if (entries == null) {
-            return;
-        }
-
-        try {
-            for (final UserHandle profile : mProfiles) {
-                final int profileId = profile.getIdentifier();
-                final ArrayMap<String, PermissionState> entriesForProfile = entries.get(profileId);
-                if (entriesForProfile == null) {
-                    continue;
-                }
-                @SuppressWarnings("unchecked") final List<PackageInfo> packageInfos =
-                        mIPackageManager
-                                .getPackagesHoldingPermissions(mPermissions, 0,
-                                        profileId).getList();
-                final int packageInfoCount = packageInfos != null ? packageInfos.size() : 0;
-                for (int i = 0; i < packageInfoCount; i++) {
-                    final PackageInfo packageInfo = packageInfos.get(i);
-                    final PermissionState pe = entriesForProfile.get(packageInfo.packageName);
-                    if (pe != null) {
-                        pe.packageInfo = packageInfo;
-                        pe.staticPermissionGranted = true;
-                    }
-                }
-            }
-        } catch (RemoteException e) {
-            Log.w(TAG, "PackageManager is dead. Can't get list of packages granted "
-                    + mPermissions, e);
-            return;
-        }
-    }
-
-    /*
-     * This method will set the appOpMode field of the associated PermissionState, which describes
-     * a particular package.
-     */
-    private void loadAppOpsStates(SparseArray<ArrayMap<String, PermissionState>> entries) {
-        if (entries == null) {
-            return;
-        }
-
-        // Find out which packages have been granted permission from AppOps.
-        final List<AppOpsManager.PackageOps> packageOps = mAppOpsManager.getPackagesForOps(
-                mAppOpsOpCodes);
-        final int packageOpsCount = packageOps != null ? packageOps.size() : 0;
-        for (int i = 0; i < packageOpsCount; i++) {
-            final AppOpsManager.PackageOps packageOp = packageOps.get(i);
-            final int userId = UserHandle.getUserId(packageOp.getUid());
-            if (!isThisUserAProfileOfCurrentUser(userId)) {
-                // This AppOp does not belong to any of this user's profiles.
-                continue;
-            }
-
-            final ArrayMap<String, PermissionState> entriesForProfile = entries.get(userId);
-            if (entriesForProfile == null) {
-                continue;
-            }
-            final PermissionState pe = entriesForProfile.get(packageOp.getPackageName());
-            if (pe == null) {
-                Log.w(TAG, "AppOp permission exists for package " + packageOp.getPackageName()
-                        + " of user " + userId + " but package doesn't exist or did not request "
-                        + mPermissions + " access");
-                continue;
-            }
-
-            if (packageOp.getOps().size() < 1) {
-                Log.w(TAG, "No AppOps permission exists for package " + packageOp.getPackageName());
-                continue;
-            }
-            pe.appOpMode = packageOp.getOps().get(0).getMode();
+    @VisibleForTesting
+    AppOpsStateSnapshot getSnapshot() {
+        if (mSnapshot == null) {
+            mSnapshot = AppOpsStateSnapshot.getInstance(mContext);
         }
+        mSnapshot.track(mPermissions, mAppOpsOpCodes);
+        return mSnapshot;
     }
 
     /*
@@ -297,34 +189,25 @@ public abstract class AppStateAppOpsBridge extends AppStateBaseBridge {
     }
 
     public int getNumPackagesDeclaredPermission() {
-        SparseArray<ArrayMap<String, PermissionState>> entries = getEntries();
-        if (entries == null) {
-            return 0;
-        }
-        final ArrayMap<String, PermissionState> entriesForProfile = entries.get(mUserManager
-                .getUserHandle());
-        if (entriesForProfile == null) {
-            return 0;
+        final AppOpsStateSnapshot snapshot = getSnapshot();
+        int result = 0;
+        for (AppOpsStateSnapshot.PackageState state : snapshot.getPackagesDeclaring(
+                mUserManager.getUserHandle(), mPermissions)) {
+            if (!shouldIgnorePackage(state.packageName)) {
+                result++;
+            }
         }
-        return entriesForProfile.size();
+        return result;
     }
 
     public int getNumPackagesAllowedByAppOps() {
-        SparseArray<ArrayMap<String, PermissionState>> entries = getEntries();
-        if (entries == null) {
-            return 0;
-        }
-        loadPermissionsStates(entries);
-        loadAppOpsStates(entries);
-        final ArrayMap<String, PermissionState> entriesForProfile = entries.get(mUserManager
-                .getUserHandle());
-        if (entriesForProfile == null) {
-            return 0;
-        }
-        Collection<PermissionState> permStates = entriesForProfile.values();
+        final AppOpsStateSnapshot snapshot = getSnapshot();
         int result = 0;
-        for (PermissionState permState : permStates) {
-            if (permState.isPermissible()) {
+        for (AppOpsStateSnapshot.PackageState state : snapshot.getPackagesDeclaring(
+                mUserManager.getUserHandle(), mPermissions)) {
+            final PermissionState permState = getPermissionState(snapshot, state.packageName,
+                    state.uid);
+            if (permState != null && permState.isPermissible()) {
                 result++;
             }
         }
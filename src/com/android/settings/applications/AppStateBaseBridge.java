@@ -16,40 +16,96 @@
 package com.android.settings.applications;
 
 import android.os.Handler;
+import android.os.HandlerThread;
 import android.os.Looper;
 import android.os.Message;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.ArrayMap;
+
+import androidx.annotation.GuardedBy;
+import androidx.annotation.VisibleForTesting;
 
 import com.android.settingslib.applications.ApplicationsState;
 import com.android.settingslib.applications.ApplicationsState.AppEntry;
 import com.android.settingslib.applications.ApplicationsState.Session;
 
 import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
 
 /**
  * Common base class for bridging information to ApplicationsState.
+ *
+ * <p>Extra info is loaded on one of a small, fixed set of worker threads, so bridges don't queue
+ * behind the size computation of ApplicationsState. Bridge classes get the workers in turn as they
+ * are first used, so up to {@link #WORKER_COUNT} bridges load in parallel; past that, bridges
+ * sharing a worker queue behind each other.
+ * Values set with {@link #setExtraInfo} while loading are applied to the entries on the main
+ * thread in one go, right before {@link Callback#onExtraInfoUpdated()}.
  */
 public abstract class AppStateBaseBridge implements ApplicationsState.Callbacks {
 
+    @VisibleForTesting
+    static final int WORKER_COUNT = 3;
+
+    @GuardedBy("sWorkers")
+    private static final HandlerThread[] sWorkers = new HandlerThread[WORKER_COUNT];
+    @GuardedBy("sWorkers")
+    private static final ArrayMap<Class<?>, Integer> sWorkerIndexes = new ArrayMap<>();
+    @GuardedBy("sLoadTimings")
+    private static final ArrayMap<String, LoadTiming> sLoadTimings = new ArrayMap<>();
+
     protected final ApplicationsState mAppState;
     protected final Session mAppSession;
     protected final Callback mCallback;
     protected final BackgroundHandler mHandler;
     protected final MainHandler mMainHandler;
 
+    // Only set while the worker thread is handling a message.
+    private PendingUpdate mPendingUpdate;
+
     public AppStateBaseBridge(ApplicationsState appState, Callback callback) {
         mAppState = appState;
         mAppSession = mAppState != null ? mAppState.newSession(this) : null;
         mCallback = callback;
-        // Running on the same background thread as the ApplicationsState lets
-        // us run in the background and make sure they aren't doing updates at
-        // the same time as us as well.
-        mHandler = new BackgroundHandler(mAppState != null ? mAppState.getBackgroundLooper()
+        // Entries are only written on the main thread, see MainHandler, so loading doesn't have
+        // to share the background thread of ApplicationsState.
+        mHandler = new BackgroundHandler(mAppState != null ? getWorkerLooper(getClass())
                 : Looper.getMainLooper());
         mMainHandler = new MainHandler(Looper.getMainLooper());
     }
 
+    @VisibleForTesting
+    static Looper getWorkerLooper(Class<?> bridgeClass) {
+        synchronized (sWorkers) {
+            // Loads of a bridge class stay serialized on one worker.
+            Integer index = sWorkerIndexes.get(bridgeClass);
+            if (index == null) {
+                index = sWorkerIndexes.size() % WORKER_COUNT;
+                sWorkerIndexes.put(bridgeClass, index);
+            }
+            if (sWorkers[index] == null) {
+                sWorkers[index] = new HandlerThread("AppStateBridge-" + index,
+                        Process.THREAD_PRIORITY_BACKGROUND);
+                sWorkers[index].start();
+            }
+            return sWorkers[index].getLooper();
+        }
+    }
+
+    /**
+     * Return the timing of the latest bulk load of each bridge class that ran in this process.
+     */
+    public static List<LoadTiming> getLoadTimings() {
+        synchronized (sLoadTimings) {
+            return new ArrayList<>(sLoadTimings.values());
+        }
+    }
+
     public void resume() {
-        mHandler.sendEmptyMessage(BackgroundHandler.MSG_LOAD_ALL);
+        requestLoadAll();
         mAppSession.onResume();
     }
 
@@ -67,12 +123,20 @@ public abstract class AppStateBaseBridge implements ApplicationsState.Callbacks
 
     @Override
     public void onPackageListChanged() {
-        mHandler.sendEmptyMessage(BackgroundHandler.MSG_LOAD_ALL);
+        requestLoadAll();
     }
 
     @Override
     public void onLoadEntriesCompleted() {
-        mHandler.sendEmptyMessage(BackgroundHandler.MSG_LOAD_ALL);
+        requestLoadAll();
+    }
+
+    private void requestLoadAll() {
+        // A pending load will see the latest entries, so there is no need to queue another one.
+        if (!mHandler.hasMessages(BackgroundHandler.MSG_LOAD_ALL)) {
+            mHandler.obtainMessage(BackgroundHandler.MSG_LOAD_ALL,
+                    SystemClock.elapsedRealtime()).sendToTarget();
+        }
     }
 
     @Override
@@ -109,6 +173,30 @@ public abstract class AppStateBaseBridge implements ApplicationsState.Callbacks
 
     protected abstract void updateExtraInfo(AppEntry app, String pkg, int uid);
 
+    /**
+     * Set the extra info of {@code app}. While a load is running on the worker thread the value is
+     * staged and applied on the main thread with the rest of the load.
+     */
+    protected void setExtraInfo(AppEntry app, Object extraInfo) {
+        final PendingUpdate pending = mPendingUpdate;
+        if (pending != null) {
+            pending.mExtraInfos.put(app, extraInfo);
+        } else {
+            app.extraInfo = extraInfo;
+        }
+    }
+
+    /**
+     * Return the extra info of {@code app}, including a value staged by the running load.
+     */
+    protected Object getExtraInfo(AppEntry app) {
+        final PendingUpdate pending = mPendingUpdate;
+        if (pending != null && pending.mExtraInfos.containsKey(app)) {
+            return pending.mExtraInfos.get(app);
+        }
+        return app.extraInfo;
+    }
+
     private class MainHandler extends Handler {
         private static final int MSG_INFO_UPDATED = 1;
 
@@ -120,6 +208,10 @@ public abstract class AppStateBaseBridge implements ApplicationsState.Callbacks
         public void handleMessage(Message msg) {
             switch (msg.what) {
                 case MSG_INFO_UPDATED:
+                    final PendingUpdate update = (PendingUpdate) msg.obj;
+                    if (update != null) {
+                        update.apply();
+                    }
                     mCallback.onExtraInfoUpdated();
                     break;
             }
@@ -136,10 +228,26 @@ public abstract class AppStateBaseBridge implements ApplicationsState.Callbacks
 
         @Override
         public void handleMessage(Message msg) {
+            final PendingUpdate update = new PendingUpdate();
+            mPendingUpdate = update;
+            try {
+                handleLoad(msg);
+            } finally {
+                mPendingUpdate = null;
+            }
+            mMainHandler.obtainMessage(MainHandler.MSG_INFO_UPDATED, update).sendToTarget();
+        }
+
+        private void handleLoad(Message msg) {
             switch (msg.what) {
                 case MSG_LOAD_ALL:
+                    final long startMs = SystemClock.elapsedRealtime();
+                    final long queuedMs = msg.obj instanceof Long
+                            ? startMs - (Long) msg.obj : 0;
                     loadAllExtraInfo();
-                    mMainHandler.sendEmptyMessage(MainHandler.MSG_INFO_UPDATED);
+                    final long loadMs = SystemClock.elapsedRealtime() - startMs;
+                    mPendingUpdate.mTiming = new LoadTiming(
+                            AppStateBaseBridge.this.getClass().getSimpleName(), queuedMs, loadMs);
                     break;
                 case MSG_FORCE_LOAD_PKG:
                     ArrayList<AppEntry> apps = mAppSession.getAllApps();
@@ -152,12 +260,78 @@ public abstract class AppStateBaseBridge implements ApplicationsState.Callbacks
                             updateExtraInfo(app, pkg, uid);
                         }
                     }
-                    mMainHandler.sendEmptyMessage(MainHandler.MSG_INFO_UPDATED);
                     break;
             }
         }
     }
 
+    /** Extra info set during one load, waiting to be applied on the main thread. */
+    private static class PendingUpdate {
+        private final IdentityHashMap<AppEntry, Object> mExtraInfos = new IdentityHashMap<>();
+        private final long mPostedMs = SystemClock.elapsedRealtime();
+        private LoadTiming mTiming;
+
+        void apply() {
+            final long startMs = SystemClock.elapsedRealtime();
+            for (Map.Entry<AppEntry, Object> entry : mExtraInfos.entrySet()) {
+                entry.getKey().extraInfo = entry.getValue();
+            }
+            if (mTiming != null) {
+                final long endMs = SystemClock.elapsedRealtime();
+                mTiming.mPublishDelayMs = startMs - mPostedMs;
+                mTiming.mApplyMs = endMs - startMs;
+                mTiming.mEntryCount = mExtraInfos.size();
+                synchronized (sLoadTimings) {
+                    sLoadTimings.put(mTiming.mBridge, mTiming);
+                }
+            }
+        }
+    }
+
+    /** Timing breakdown of one bulk load of a bridge. */
+    public static class LoadTiming {
+        private final String mBridge;
+        private final long mQueuedMs;
+        private final long mLoadMs;
+        private long mPublishDelayMs;
+        private long mApplyMs;
+        private int mEntryCount;
+
+        LoadTiming(String bridge, long queuedMs, long loadMs) {
+            mBridge = bridge;
+            mQueuedMs = queuedMs;
+            mLoadMs = loadMs;
+        }
+
+        public String getBridge() {
+            return mBridge;
+        }
+
+        /** Time between the load request and the start of the load on the worker. */
+        public long getQueuedMs() {
+            return mQueuedMs;
+        }
+
+        /** Time spent in {@link AppStateBaseBridge#loadAllExtraInfo()}. */
+        public long getLoadMs() {
+            return mLoadMs;
+        }
+
+        /** Time between the end of the load and the main thread picking up the result. */
+        public long getPublishDelayMs() {
+            return mPublishDelayMs;
+        }
+
+        /** Time spent applying the result to the entries on the main thread. */
+        public long getApplyMs() {
+            return mApplyMs;
+        }
+
+        public int getEntryCount() {
+            return mEntryCount;
+        }
+    }
+
 
     public interface Callback {
         void onExtraInfoUpdated();
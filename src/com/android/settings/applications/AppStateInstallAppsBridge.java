@@ -16,15 +16,9 @@
 package com.android.settings.applications;
 
 import android.Manifest;
-import android.app.AppGlobals;
 import android.app.AppOpsManager;
 import android.content.Context;
-import android.content.pm.IPackageManager;
-import android.content.pm.PackageManager;
-import android.os.RemoteException;
-import android.util.Log;
 
-import com.android.internal.util.ArrayUtils;
 import com.android.settingslib.applications.ApplicationsState;
 import com.android.settingslib.applications.ApplicationsState.AppEntry;
 import com.android.settingslib.applications.ApplicationsState.AppFilter;
@@ -38,63 +32,58 @@ import java.util.List;
  */
 public class AppStateInstallAppsBridge extends AppStateBaseBridge {
 
-    private static final String TAG = AppStateInstallAppsBridge.class.getSimpleName();
+    private static final String[] PERMISSIONS = {Manifest.permission.REQUEST_INSTALL_PACKAGES};
+    private static final int[] APP_OPS = {AppOpsManager.OP_REQUEST_INSTALL_PACKAGES};
 
-    private final IPackageManager mIpm;
-    private final AppOpsManager mAppOpsManager;
+    private final Context mContext;
 
     public AppStateInstallAppsBridge(Context context, ApplicationsState appState,
             Callback callback) {
         super(appState, callback);
-        mIpm = AppGlobals.getPackageManager();
-        mAppOpsManager = (AppOpsManager) context.getSystemService(Context.APP_OPS_SERVICE);
+        mContext = context;
     }
 
     @Override
     protected void updateExtraInfo(AppEntry app, String packageName, int uid) {
-        app.extraInfo = createInstallAppsStateFor(packageName, uid);
+        setExtraInfo(app, createInstallAppsStateFor(packageName, uid));
     }
 
     @Override
     protected void loadAllExtraInfo() {
-        // TODO: consider making this a batch operation with a single binder call
+        final AppOpsStateSnapshot snapshot = getSnapshot();
         final List<AppEntry> allApps = mAppSession.getAllApps();
         for (int i = 0; i < allApps.size(); i++) {
-            AppEntry currentEntry = allApps.get(i);
-            updateExtraInfo(currentEntry, currentEntry.info.packageName, currentEntry.info.uid);
+            final AppEntry currentEntry = allApps.get(i);
+            setExtraInfo(currentEntry, getInstallAppsState(snapshot,
+                    currentEntry.info.packageName, currentEntry.info.uid));
         }
     }
 
-    private boolean hasRequestedAppOpPermission(String permission, String packageName) {
-        try {
-            String[] packages = mIpm.getAppOpPermissionPackages(permission);
-            return ArrayUtils.contains(packages, packageName);
-        } catch (RemoteException exc) {
-            Log.e(TAG, "PackageManager dead. Cannot get permission info");
-            return false;
-        }
+    public InstallAppsState createInstallAppsStateFor(String packageName, int uid) {
+        return getInstallAppsState(getSnapshot(), packageName, uid);
     }
 
-    private boolean hasPermission(String permission, int uid) {
-        try {
-            int result = mIpm.checkUidPermission(permission, uid);
-            return result == PackageManager.PERMISSION_GRANTED;
-        } catch (RemoteException e) {
-            Log.e(TAG, "PackageManager dead. Cannot get permission info");
-            return false;
-        }
+    /**
+     * Mark the install mode of {@code packageName} as changed. Call it right after setting the
+     * mode, so the next lookup doesn't return the old one.
+     */
+    public void onAppOpModeChanged(String packageName) {
+        getSnapshot().invalidateAppOpModes(packageName);
     }
 
-    private int getAppOpMode(int appOpCode, int uid, String packageName) {
-        return mAppOpsManager.checkOpNoThrow(appOpCode, uid, packageName);
+    private AppOpsStateSnapshot getSnapshot() {
+        final AppOpsStateSnapshot snapshot = AppOpsStateSnapshot.getInstance(mContext);
+        snapshot.track(PERMISSIONS, APP_OPS);
+        return snapshot;
     }
 
-    public InstallAppsState createInstallAppsStateFor(String packageName, int uid) {
+    private static InstallAppsState getInstallAppsState(AppOpsStateSnapshot snapshot,
+            String packageName, int uid) {
         final InstallAppsState appState = new InstallAppsState();
-        appState.permissionRequested = hasRequestedAppOpPermission(
-                Manifest.permission.REQUEST_INSTALL_PACKAGES, packageName);
-        appState.appOpMode = getAppOpMode(AppOpsManager.OP_REQUEST_INSTALL_PACKAGES, uid,
-                packageName);
+        appState.permissionRequested = snapshot.isPermissionDeclared(uid, packageName,
+                PERMISSIONS);
+        appState.appOpMode = snapshot.checkAppOpMode(uid, packageName, PERMISSIONS,
+                AppOpsManager.OP_REQUEST_INSTALL_PACKAGES);
         return appState;
     }
 
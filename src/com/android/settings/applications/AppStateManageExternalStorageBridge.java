@@ -45,7 +45,7 @@ public class AppStateManageExternalStorageBridge extends AppStateAppOpsBridge {
 
     @Override
     protected void updateExtraInfo(ApplicationsState.AppEntry app, String pkg, int uid) {
-        app.extraInfo = getManageExternalStoragePermState(pkg, uid);
+        setExtraInfo(app, getManageExternalStoragePermState(pkg, uid));
     }
 
     @Override
@@ -53,8 +53,9 @@ public class AppStateManageExternalStorageBridge extends AppStateAppOpsBridge {
         super.loadAllExtraInfo();
         List<ApplicationsState.AppEntry> apps = mAppSession.getAllApps();
         for (ApplicationsState.AppEntry app : apps) {
-            if (app.extraInfo instanceof PermissionState) {
-                ((PermissionState) app.extraInfo).appOpMode =  mAppOpsManager.unsafeCheckOpNoThrow(
+            final Object extraInfo = getExtraInfo(app);
+            if (extraInfo instanceof PermissionState) {
+                ((PermissionState) extraInfo).appOpMode =  mAppOpsManager.unsafeCheckOpNoThrow(
                         APP_OP_STR, app.info.uid, app.info.packageName);
             }
         }
@@ -16,12 +16,9 @@
 package com.android.settings.applications;
 
 import android.app.usage.IUsageStatsManager;
-import android.app.usage.UsageEvents;
 import android.content.Context;
-import android.os.RemoteException;
 import android.os.UserHandle;
 import android.os.UserManager;
-import android.text.format.DateUtils;
 import android.util.ArrayMap;
 import android.util.Log;
 import android.view.View;
@@ -31,6 +28,7 @@ import android.widget.Switch;
 import com.android.settings.R;
 import com.android.settings.Utils;
 import com.android.settings.notification.NotificationBackend;
+import com.android.settings.notification.NotificationUsageStore;
 import com.android.settingslib.applications.ApplicationsState;
 import com.android.settingslib.applications.ApplicationsState.AppEntry;
 import com.android.settingslib.applications.ApplicationsState.AppFilter;
@@ -53,7 +51,7 @@ public class AppStateNotificationBridge extends AppStateBaseBridge {
     private IUsageStatsManager mUsageStatsManager;
     protected List<Integer> mUserIds;
     private NotificationBackend mBackend;
-    private static final int DAYS_TO_CHECK = 7;
+    private static final int DAYS_TO_CHECK = NotificationUsageStore.DAYS_TO_CHECK;
 
     public AppStateNotificationBridge(Context context, ApplicationsState appState,
             Callback callback, IUsageStatsManager usageStatsManager,
@@ -82,24 +80,22 @@ public class AppStateNotificationBridge extends AppStateBaseBridge {
 
         final Map<String, NotificationsSentState> map = getAggregatedUsageEvents();
         for (AppEntry entry : apps) {
-            NotificationsSentState stats =
-                    map.get(getKey(UserHandle.getUserId(entry.info.uid), entry.info.packageName));
-            if (stats == null) {
-                stats = new NotificationsSentState();
-            }
+            // Copied, the averages and the block status are only for this entry
+            final NotificationsSentState stats = copyOf(
+                    map.get(getKey(UserHandle.getUserId(entry.info.uid), entry.info.packageName)));
             calculateAvgSentCounts(stats);
             addBlockStatus(entry, stats);
-            entry.extraInfo = stats;
+            setExtraInfo(entry, stats);
         }
     }
 
     @Override
     protected void updateExtraInfo(AppEntry entry, String pkg, int uid) {
-        NotificationsSentState stats = getAggregatedUsageEvents(
-                UserHandle.getUserId(entry.info.uid), entry.info.packageName);
+        final NotificationsSentState stats = copyOf(getAggregatedUsageEvents(
+                UserHandle.getUserId(entry.info.uid), entry.info.packageName));
         calculateAvgSentCounts(stats);
         addBlockStatus(entry, stats);
-        entry.extraInfo = stats;
+        setExtraInfo(entry, stats);
     }
 
     public static CharSequence getSummary(Context context, NotificationsSentState state,
@@ -143,69 +139,36 @@ public class AppStateNotificationBridge extends AppStateBaseBridge {
         ArrayMap<String, NotificationsSentState> aggregatedStats = new ArrayMap<>();
 
         long now = System.currentTimeMillis();
-        long startTime = now - (DateUtils.DAY_IN_MILLIS * DAYS_TO_CHECK);
         for (int userId : mUserIds) {
-            UsageEvents events = null;
-            try {
-                events = mUsageStatsManager.queryEventsForUser(
-                        startTime, now, userId, mContext.getPackageName());
-            } catch (RemoteException e) {
-                e.printStackTrace();
-            }
-            if (events != null) {
-                UsageEvents.Event event = new UsageEvents.Event();
-                while (events.hasNextEvent()) {
-                    events.getNextEvent(event);
-                    NotificationsSentState stats =
-                            aggregatedStats.get(getKey(userId, event.getPackageName()));
-                    if (stats == null) {
-                        stats = new NotificationsSentState();
-                        aggregatedStats.put(getKey(userId, event.getPackageName()), stats);
-                    }
-
-                    if (event.getEventType() == UsageEvents.Event.NOTIFICATION_INTERRUPTION) {
-                        if (event.getTimeStamp() > stats.lastSent) {
-                            stats.lastSent = event.getTimeStamp();
-                        }
-                        stats.sentCount++;
-                    }
-
-                }
+            // Only the events since the last visit are queried, older ones come from the store
+            final NotificationUsageStore store =
+                    NotificationUsageStore.getInstance(mContext, userId);
+            store.refresh(mUsageStatsManager, mContext.getPackageName(), now);
+            for (Map.Entry<String, NotificationsSentState> entry
+                    : store.getSentStates().entrySet()) {
+                aggregatedStats.put(getKey(userId, entry.getKey()), entry.getValue());
             }
         }
         return aggregatedStats;
     }
 
+    /**
+     * Return the sent state of {@code pkg} from the same store as
+     * {@link #getAggregatedUsageEvents()}, so its counts match the other apps.
+     */
     protected NotificationsSentState getAggregatedUsageEvents(int userId, String pkg) {
-        NotificationsSentState stats = null;
-
-        long now = System.currentTimeMillis();
-        long startTime = now - (DateUtils.DAY_IN_MILLIS * DAYS_TO_CHECK);
-        UsageEvents events = null;
-        try {
-            events = mUsageStatsManager.queryEventsForPackageForUser(
-                    startTime, now, userId, pkg, mContext.getPackageName());
-        } catch (RemoteException e) {
-            e.printStackTrace();
-        }
-        if (events != null) {
-            UsageEvents.Event event = new UsageEvents.Event();
-            while (events.hasNextEvent()) {
-                events.getNextEvent(event);
-
-                if (event.getEventType() == UsageEvents.Event.NOTIFICATION_INTERRUPTION) {
-                    if (stats == null) {
-                        stats = new NotificationsSentState();
-                    }
-                    if (event.getTimeStamp() > stats.lastSent) {
-                        stats.lastSent = event.getTimeStamp();
-                    }
-                    stats.sentCount++;
-                }
+        final NotificationUsageStore store = NotificationUsageStore.getInstance(mContext, userId);
+        store.refresh(mUsageStatsManager, mContext.getPackageName(), System.currentTimeMillis());
+        return store.getSentState(pkg);
+    }
 
-            }
+    private static NotificationsSentState copyOf(NotificationsSentState state) {
+        final NotificationsSentState copy = new NotificationsSentState();
+        if (state != null) {
+            copy.sentCount = state.sentCount;
+            copy.lastSent = state.lastSent;
         }
-        return stats;
+        return copy;
     }
 
     private static NotificationsSentState getNotificationsSentState(AppEntry entry) {
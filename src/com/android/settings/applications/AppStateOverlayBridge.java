@@ -46,7 +46,7 @@ public class AppStateOverlayBridge extends AppStateAppOpsBridge {
 
     @Override
     protected void updateExtraInfo(AppEntry app, String pkg, int uid) {
-        app.extraInfo = getOverlayInfo(pkg, uid);
+        setExtraInfo(app, getOverlayInfo(pkg, uid));
     }
 
     public OverlayState getOverlayInfo(String pkg, int uid) {
@@ -43,14 +43,14 @@ public class AppStatePowerBridge extends AppStateBaseBridge {
         final int N = apps.size();
         for (int i = 0; i < N; i++) {
             AppEntry app = apps.get(i);
-            app.extraInfo = mBackend.isWhitelisted(app.info.packageName)
-                    ? Boolean.TRUE : Boolean.FALSE;
+            setExtraInfo(app, mBackend.isWhitelisted(app.info.packageName)
+                    ? Boolean.TRUE : Boolean.FALSE);
         }
     }
 
     @Override
     protected void updateExtraInfo(AppEntry app, String pkg, int uid) {
-        app.extraInfo = mBackend.isWhitelisted(pkg) ? Boolean.TRUE : Boolean.FALSE;
+        setExtraInfo(app, mBackend.isWhitelisted(pkg) ? Boolean.TRUE : Boolean.FALSE);
     }
 
     public static final AppFilter FILTER_POWER_WHITELISTED = new CompoundFilter(
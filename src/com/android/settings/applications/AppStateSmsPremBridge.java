@@ -48,7 +48,7 @@ public class AppStateSmsPremBridge extends AppStateBaseBridge {
 
     @Override
     protected void updateExtraInfo(AppEntry app, String pkg, int uid) {
-        app.extraInfo = getState(pkg);
+        setExtraInfo(app, getState(pkg));
     }
 
     public SmsState getState(String pkg) {
@@ -51,7 +51,7 @@ public class AppStateUsageBridge extends AppStateAppOpsBridge {
 
     @Override
     protected void updateExtraInfo(AppEntry app, String pkg, int uid) {
-        app.extraInfo = getUsageInfo(pkg, uid);
+        setExtraInfo(app, getUsageInfo(pkg, uid));
     }
 
     public UsageState getUsageInfo(String pkg, int uid) {
@@ -45,7 +45,7 @@ public class AppStateWriteSettingsBridge extends AppStateAppOpsBridge {
 
     @Override
     protected void updateExtraInfo(AppEntry app, String pkg, int uid) {
-        app.extraInfo = getWriteSettingsInfo(pkg, uid);
+        setExtraInfo(app, getWriteSettingsInfo(pkg, uid));
     }
 
     public WriteSettingsState getWriteSettingsInfo(String pkg, int uid) {
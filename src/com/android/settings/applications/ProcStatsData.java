@@ -25,10 +25,15 @@ import android.os.ServiceManager;
 import android.os.SystemClock;
 import android.text.format.Formatter;
 import android.util.ArrayMap;
+import android.util.ArraySet;
 import android.util.Log;
 import android.util.LongSparseArray;
+import android.util.LruCache;
 import android.util.SparseArray;
 
+import androidx.annotation.GuardedBy;
+import androidx.annotation.VisibleForTesting;
+
 import com.android.internal.app.ProcessMap;
 import com.android.internal.app.procstats.DumpUtils;
 import com.android.internal.app.procstats.IProcessStats;
@@ -40,10 +45,12 @@ import com.android.internal.app.procstats.ServiceState;
 import com.android.internal.util.MemInfoReader;
 import com.android.settings.R;
 import com.android.settings.Utils;
+import com.android.settingslib.utils.ThreadUtils;
 
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Comparator;
 import java.util.List;
 
@@ -53,7 +60,21 @@ public class ProcStatsData {
 
     private static final boolean DEBUG = ProcessStatsUi.DEBUG;
 
+    private static final int MAX_CACHED_AGGREGATIONS = 8;
+    // Stats keep changing while the current period is open, so don't reuse old results forever.
+    private static final long MAX_AGGREGATION_AGE_MS = 5 * 60 * 1000;
+
+    // Aggregations shared by every instance, so switching durations or reopening the memory
+    // screens doesn't load and aggregate the stats again.
+    private static final LruCache<AggregationKey, Aggregation> sAggregations =
+            new LruCache<>(MAX_CACHED_AGGREGATIONS);
+
+    // Aggregations being loaded by precomputeDurations.
+    @GuardedBy("sAggregations")
+    private static final ArraySet<AggregationKey> sPrecomputing = new ArraySet<>();
+
     private static ProcessStats sStatsXfer;
+    private static long sStatsXferDuration;
 
     private PackageManager mPm;
     private Context mContext;
@@ -61,6 +82,8 @@ public class ProcStatsData {
 
     private IProcessStats mProcessStats;
     private ProcessStats mStats;
+    // The duration mStats was loaded for.
+    private long mStatsDuration;
 
     private boolean mUseUss;
     private long mDuration;
@@ -82,6 +105,7 @@ public class ProcStatsData {
         mStates = ProcessStats.BACKGROUND_PROC_STATES;
         if (useXfer) {
             mStats = sStatsXfer;
+            mStatsDuration = sStatsXferDuration;
         }
     }
 
@@ -91,6 +115,7 @@ public class ProcStatsData {
 
     public void xferStats() {
         sStatsXfer = mStats;
+        sStatsXferDuration = mStatsDuration;
     }
 
     public void setMemStates(int[] memStates) {
@@ -125,10 +150,48 @@ public class ProcStatsData {
     public void setDuration(long duration) {
         if (duration != mDuration) {
             mDuration = duration;
-            refreshStats(true);
+            // Loads the stats of the new duration unless they are already aggregated.
+            refreshStats(false);
         }
     }
 
+    /**
+     * Load and aggregate the stats of each of {@code durations} in one background pass, so that
+     * {@link #setDuration} can switch to them without loading anything. Durations that are cached
+     * or already being loaded are skipped.
+     */
+    public void precomputeDurations(long[] durations) {
+        final ArrayList<AggregationKey> keys = new ArrayList<>(durations.length);
+        synchronized (sAggregations) {
+            for (long duration : durations) {
+                final AggregationKey key = new AggregationKey(duration, mMemStates, mStates,
+                        mUseUss);
+                if (getCachedAggregation(key) == null && sPrecomputing.add(key)) {
+                    keys.add(key);
+                }
+            }
+        }
+        if (keys.isEmpty()) {
+            return;
+        }
+        ThreadUtils.postOnBackgroundThread(() -> {
+            for (AggregationKey key : keys) {
+                try {
+                    final ProcStatsData data = new ProcStatsData(mContext, false);
+                    data.mMemStates = key.mMemStates;
+                    data.mStates = key.mStates;
+                    data.mUseUss = key.mUseUss;
+                    data.mDuration = key.mDuration;
+                    data.refreshStats(false);
+                } finally {
+                    synchronized (sAggregations) {
+                        sPrecomputing.remove(key);
+                    }
+                }
+            }
+        });
+    }
+
     public long getDuration() {
         return mDuration;
     }
@@ -138,10 +201,37 @@ public class ProcStatsData {
     }
 
     public void refreshStats(boolean forceLoad) {
-        if (mStats == null || forceLoad) {
+        final AggregationKey key = new AggregationKey(mDuration, mMemStates, mStates, mUseUss);
+        final Aggregation aggregation = forceLoad ? null : getCachedAggregation(key);
+        if (aggregation != null) {
+            mStats = aggregation.mStats;
+            mStatsDuration = key.mDuration;
+            memTotalTime = aggregation.mMemTotalTime;
+            mMemInfo = aggregation.mMemInfo;
+            // Callers sort the entries in place, keep the cached order intact.
+            pkgEntries = new ArrayList<>(aggregation.mEntries);
+            return;
+        }
+        if (mStats == null || forceLoad || mStatsDuration != mDuration) {
             load();
         }
+        aggregate(key);
+    }
+
+    /**
+     * Aggregate {@code stats} as the stats of the current duration. The result isn't cached.
+     */
+    @VisibleForTesting
+    void refreshStats(ProcessStats stats) {
+        mStats = stats;
+        mStatsDuration = mDuration;
+        aggregate(null /* key */);
+    }
 
+    /**
+     * Aggregate {@link #mStats} and cache the result under {@code key}, unless it is {@code null}.
+     */
+    private void aggregate(AggregationKey key) {
         pkgEntries = new ArrayList<>();
 
         long now = SystemClock.uptimeMillis();
@@ -168,6 +258,33 @@ public class ProcStatsData {
         ProcStatsPackageEntry osPkg = createOsEntry(bgTotals, runTotals, totalMem,
                 mMemInfo.baseCacheRam);
         pkgEntries.add(osPkg);
+
+        if (key == null) {
+            return;
+        }
+        synchronized (sAggregations) {
+            sAggregations.put(key, new Aggregation(mStats, memTotalTime, mMemInfo,
+                    new ArrayList<>(pkgEntries)));
+        }
+    }
+
+    private static Aggregation getCachedAggregation(AggregationKey key) {
+        synchronized (sAggregations) {
+            final Aggregation aggregation = sAggregations.get(key);
+            if (aggregation != null && SystemClock.elapsedRealtime() - aggregation.mCreatedTime
+                    > MAX_AGGREGATION_AGE_MS) {
+                sAggregations.remove(key);
+                return null;
+            }
+            return aggregation;
+        }
+    }
+
+    @VisibleForTesting
+    static void clearCachedAggregations() {
+        synchronized (sAggregations) {
+            sAggregations.evictAll();
+        }
     }
 
     private void createPkgMap(ArrayList<ProcStatsEntry> procEntries, ProcessDataCollection bgTotals,
@@ -345,6 +462,7 @@ public class ProcStatsData {
         try {
             ParcelFileDescriptor pfd = mProcessStats.getStatsOverTime(mDuration);
             mStats = new ProcessStats(false);
+            mStatsDuration = mDuration;
             InputStream is = new ParcelFileDescriptor.AutoCloseInputStream(pfd);
             mStats.read(is);
             try {
@@ -451,6 +569,58 @@ public class ProcStatsData {
         }
     }
 
+    private static final class AggregationKey {
+        final long mDuration;
+        final int[] mMemStates;
+        final int[] mStates;
+        final boolean mUseUss;
+
+        AggregationKey(long duration, int[] memStates, int[] states, boolean useUss) {
+            mDuration = duration;
+            mMemStates = memStates;
+            mStates = states;
+            mUseUss = useUss;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof AggregationKey)) {
+                return false;
+            }
+            final AggregationKey other = (AggregationKey) o;
+            return mDuration == other.mDuration && mUseUss == other.mUseUss
+                    && Arrays.equals(mMemStates, other.mMemStates)
+                    && Arrays.equals(mStates, other.mStates);
+        }
+
+        @Override
+        public int hashCode() {
+            int result = Long.hashCode(mDuration);
+            result = 31 * result + Arrays.hashCode(mMemStates);
+            result = 31 * result + Arrays.hashCode(mStates);
+            return 31 * result + Boolean.hashCode(mUseUss);
+        }
+    }
+
+    private static final class Aggregation {
+        final ProcessStats mStats;
+        final long mMemTotalTime;
+        final MemInfo mMemInfo;
+        final List<ProcStatsPackageEntry> mEntries;
+        final long mCreatedTime = SystemClock.elapsedRealtime();
+
+        Aggregation(ProcessStats stats, long memTotalTime, MemInfo memInfo,
+                List<ProcStatsPackageEntry> entries) {
+            mStats = stats;
+            mMemTotalTime = memTotalTime;
+            mMemInfo = memInfo;
+            mEntries = entries;
+        }
+    }
+
     final static Comparator<ProcStatsEntry> sEntryCompare = new Comparator<ProcStatsEntry>() {
         @Override
         public int compare(ProcStatsEntry lhs, ProcStatsEntry rhs) {
@@ -90,6 +90,8 @@ public abstract class ProcessStatsBase extends SettingsPreferenceFragment
         super.onResume();
         mStatsManager.refreshStats(false);
         refreshUi();
+        // Have the other durations ready by the time the user picks one.
+        mStatsManager.precomputeDurations(sDurations);
     }
 
     @Override
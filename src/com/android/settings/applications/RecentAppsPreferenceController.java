@@ -35,7 +35,6 @@ import com.android.settings.applications.manageapplications.ManageApplications;
 import com.android.settings.core.BasePreferenceController;
 import com.android.settings.core.SubSettingLauncher;
 import com.android.settings.overlay.FeatureFactory;
-import com.android.settingslib.Utils;
 import com.android.settingslib.applications.ApplicationsState;
 import com.android.settingslib.core.instrumentation.MetricsFeatureProvider;
 import com.android.settingslib.utils.StringUtil;
@@ -159,7 +158,9 @@ public class RecentAppsPreferenceController extends BasePreferenceController
         }
 
         return new AppEntityInfo.Builder()
-                .setIcon(Utils.getBadgedIcon(mContext, appEntry.info))
+                .setIcon(AppIconCache.getInstance(mContext).getCachedIcon(appEntry.info, mUserId,
+                        mContext.getResources().getDimensionPixelSize(
+                                R.dimen.app_header_icon_size), true /* badged */))
                 .setTitle(appEntry.label)
                 .setSummary(StringUtil.formatRelativeTime(mContext,
                         System.currentTimeMillis() - stat.getLastTimeUsed(), false,
@@ -43,6 +43,8 @@ import android.text.format.Formatter;
 import android.util.Log;
 import android.util.SparseArray;
 
+import androidx.annotation.VisibleForTesting;
+
 import com.android.settings.R;
 import com.android.settingslib.Utils;
 import com.android.settingslib.applications.InterestingConfigChanges;
@@ -72,6 +74,8 @@ public class RunningState {
 
     static final long TIME_UPDATE_DELAY = 1000;
     static final long CONTENTS_UPDATE_DELAY = 2000;
+    // Polling backs off up to this delay while nothing changes.
+    static final long MAX_CONTENTS_UPDATE_DELAY = 16000;
 
     static final int MAX_SERVICES = 100;
 
@@ -125,16 +129,18 @@ public class RunningState {
     final SparseArray<MergedItem> mOtherUserBackgroundItems = new SparseArray<MergedItem>();
 
     static class AppProcessInfo {
-        final ActivityManager.RunningAppProcessInfo info;
+        ActivityManager.RunningAppProcessInfo info;
         boolean hasServices;
         boolean hasForegroundServices;
+        int seq;
 
         AppProcessInfo(ActivityManager.RunningAppProcessInfo _info) {
             info = _info;
         }
     }
 
-    // Temporary structure used when updating above information.
+    // Temporary structure used when updating above information.  Entries are
+    // kept across updates and reused for processes that are still running.
     final SparseArray<AppProcessInfo> mTmpAppProcesses = new SparseArray<AppProcessInfo>();
 
     int mSequence = 0;
@@ -205,6 +211,7 @@ public class RunningState {
     boolean mResumed;
     boolean mHaveData;
     boolean mWatchingBackgroundItems;
+    long mContentsUpdateDelay = CONTENTS_UPDATE_DELAY;
 
     ArrayList<BaseItem> mItems = new ArrayList<BaseItem>();
     ArrayList<MergedItem> mMergedItems = new ArrayList<MergedItem>();
@@ -238,12 +245,16 @@ public class RunningState {
                             return;
                         }
                     }
-                    Message cmd = mHandler.obtainMessage(MSG_REFRESH_UI);
-                    cmd.arg1 = update(mApplicationContext, mAm) ? 1 : 0;
-                    mHandler.sendMessage(cmd);
+                    final int refresh = update(mApplicationContext, mAm);
+                    if (refresh != OnRefreshUiListener.REFRESH_TIME) {
+                        Message cmd = mHandler.obtainMessage(MSG_REFRESH_UI);
+                        cmd.arg1 = refresh;
+                        mHandler.sendMessage(cmd);
+                    }
+                    final long delay = updateContentsDelay(refresh);
                     removeMessages(MSG_UPDATE_CONTENTS);
                     msg = obtainMessage(MSG_UPDATE_CONTENTS);
-                    sendMessageDelayed(msg, CONTENTS_UPDATE_DELAY);
+                    sendMessageDelayed(msg, delay);
                     break;
             }
         }
@@ -258,9 +269,8 @@ public class RunningState {
         public void handleMessage(Message msg) {
             switch (msg.what) {
                 case MSG_REFRESH_UI:
-                    mNextUpdate = msg.arg1 != 0
-                            ? OnRefreshUiListener.REFRESH_STRUCTURE
-                            : OnRefreshUiListener.REFRESH_DATA;
+                    // Don't let a data refresh hide a pending structure refresh.
+                    mNextUpdate = Math.max(mNextUpdate, msg.arg1);
                     break;
                 case MSG_UPDATE_TIME:
                     synchronized (mLock) {
@@ -372,6 +382,8 @@ public class RunningState {
         ActivityManager.RunningServiceInfo mRunningService;
         ServiceInfo mServiceInfo;
         boolean mShownAsStarted;
+        String mClientPackage;
+        int mClientLabel;
         
         MergedItem mMergedItem;
         
@@ -528,21 +540,28 @@ public class RunningState {
                     si.mShownAsStarted = false;
                     changed = true;
                 }
-                try {
-                    Resources clientr = pm.getResourcesForApplication(service.clientPackage);
-                    String label = clientr.getString(service.clientLabel);
-                    si.mDescription = context.getResources().getString(
-                            R.string.service_client_name, label);
-                } catch (PackageManager.NameNotFoundException e) {
-                    si.mDescription = null;
+                // Only look up the client label again when the client changes.
+                if (si.mDescription == null || si.mClientLabel != service.clientLabel
+                        || !service.clientPackage.equals(si.mClientPackage)) {
+                    si.mClientPackage = service.clientPackage;
+                    si.mClientLabel = service.clientLabel;
+                    try {
+                        Resources clientr = pm.getResourcesForApplication(service.clientPackage);
+                        String label = clientr.getString(service.clientLabel);
+                        si.mDescription = context.getResources().getString(
+                                R.string.service_client_name, label);
+                    } catch (PackageManager.NameNotFoundException e) {
+                        si.mDescription = null;
+                    }
                 }
             } else {
-                if (!si.mShownAsStarted) {
+                if (!si.mShownAsStarted || si.mDescription == null) {
                     si.mShownAsStarted = true;
+                    si.mClientPackage = null;
+                    si.mDescription = context.getResources().getString(
+                            R.string.service_started_by_app);
                     changed = true;
                 }
-                si.mDescription = context.getResources().getString(
-                        R.string.service_started_by_app);
             }
             
             return changed;
@@ -555,10 +574,9 @@ public class RunningState {
                         context, mSize);
                 if (!sizeStr.equals(mSizeStr)){
                     mSizeStr = sizeStr;
-                    // We update this on the second tick where we update just
-                    // the text in the current items, so no need to say we
-                    // changed here.
-                    return false;
+                    // The structure is the same, so this only needs a
+                    // data refresh of the current items.
+                    return true;
                 }
             }
             return false;
@@ -698,10 +716,9 @@ public class RunningState {
                     context, mSize);
             if (!sizeStr.equals(mSizeStr)){
                 mSizeStr = sizeStr;
-                // We update this on the second tick where we update just
-                // the text in the current items, so no need to say we
-                // changed here.
-                return false;
+                // The structure is the same, so this only needs a
+                // data refresh of the current items.
+                return true;
             }
             return false;
         }
@@ -774,7 +791,8 @@ public class RunningState {
         }
     }
 
-    private RunningState(Context context) {
+    @VisibleForTesting
+    RunningState(Context context) {
         mApplicationContext = context.getApplicationContext();
         mAm = (ActivityManager)mApplicationContext.getSystemService(Context.ACTIVITY_SERVICE);
         mPm = mApplicationContext.getPackageManager();
@@ -793,6 +811,7 @@ public class RunningState {
         synchronized (mLock) {
             mResumed = true;
             mRefreshUiListener = listener;
+            mContentsUpdateDelay = CONTENTS_UPDATE_DELAY;
             boolean usersChanged = mUmBroadcastReceiver.checkUsersChangedLocked();
             boolean configChanged =
                     mInterestingConfigChanges.applyNewConfig(mApplicationContext.getResources());
@@ -811,11 +830,47 @@ public class RunningState {
 
     void updateNow() {
         synchronized (mLock) {
+            mContentsUpdateDelay = CONTENTS_UPDATE_DELAY;
             mBackgroundHandler.removeMessages(MSG_UPDATE_CONTENTS);
             mBackgroundHandler.sendEmptyMessage(MSG_UPDATE_CONTENTS);
         }
     }
 
+    /**
+     * Go back to the normal polling rate because the user is interacting
+     * with the list, polling right away if it had backed off.
+     */
+    void onUserInteraction() {
+        synchronized (mLock) {
+            if (mContentsUpdateDelay == CONTENTS_UPDATE_DELAY) {
+                return;
+            }
+            mContentsUpdateDelay = CONTENTS_UPDATE_DELAY;
+            if (mResumed) {
+                mBackgroundHandler.removeMessages(MSG_UPDATE_CONTENTS);
+                mBackgroundHandler.sendEmptyMessage(MSG_UPDATE_CONTENTS);
+            }
+        }
+    }
+
+    /**
+     * Return the delay until the next poll after one that needed {@code refresh}:
+     * polls that found no change back off, up to {@link #MAX_CONTENTS_UPDATE_DELAY},
+     * and any change goes back to the normal rate.
+     */
+    @VisibleForTesting
+    long updateContentsDelay(int refresh) {
+        synchronized (mLock) {
+            if (refresh == OnRefreshUiListener.REFRESH_TIME) {
+                mContentsUpdateDelay = Math.min(mContentsUpdateDelay * 2,
+                        MAX_CONTENTS_UPDATE_DELAY);
+            } else {
+                mContentsUpdateDelay = CONTENTS_UPDATE_DELAY;
+            }
+            return mContentsUpdateDelay;
+        }
+    }
+
     boolean hasData() {
         synchronized (mLock) {
             return mHaveData;
@@ -862,6 +917,7 @@ public class RunningState {
         mRunningProcesses.clear();
         mProcessItems.clear();
         mAllProcessItems.clear();
+        mTmpAppProcesses.clear();
     }
 
     private void addOtherUserItem(Context context, ArrayList<MergedItem> newMergedItems,
@@ -893,12 +949,20 @@ public class RunningState {
         userItem.mChildren.add(newItem);
     }
 
-    private boolean update(Context context, ActivityManager am) {
+    /**
+     * Refresh the state from the activity manager, reusing the items of the
+     * processes and services that are still running.
+     *
+     * @return the {@link OnRefreshUiListener} refresh needed to show the changes.
+     */
+    @VisibleForTesting
+    int update(Context context, ActivityManager am) {
         final PackageManager pm = context.getPackageManager();
 
         mSequence++;
         
         boolean changed = false;
+        boolean dataChanged = false;
 
         // Retrieve list of services, filtering out anything that definitely
         // won't be shown in the UI.
@@ -932,10 +996,23 @@ public class RunningState {
         List<ActivityManager.RunningAppProcessInfo> processes
                 = am.getRunningAppProcesses();
         final int NP = processes != null ? processes.size() : 0;
-        mTmpAppProcesses.clear();
         for (int i=0; i<NP; i++) {
             ActivityManager.RunningAppProcessInfo pi = processes.get(i);
-            mTmpAppProcesses.put(pi.pid, new AppProcessInfo(pi));
+            AppProcessInfo ainfo = mTmpAppProcesses.get(pi.pid);
+            if (ainfo == null) {
+                ainfo = new AppProcessInfo(pi);
+                mTmpAppProcesses.put(pi.pid, ainfo);
+            } else {
+                ainfo.info = pi;
+                ainfo.hasServices = false;
+                ainfo.hasForegroundServices = false;
+            }
+            ainfo.seq = mSequence;
+        }
+        for (int i = mTmpAppProcesses.size() - 1; i >= 0; i--) {
+            if (mTmpAppProcesses.valueAt(i).seq != mSequence) {
+                mTmpAppProcesses.removeAt(i);
+            }
         }
 
         // Initial iteration through running services to collect per-process
@@ -1319,12 +1396,11 @@ public class RunningState {
             for (int i=0; i<numProc; i++) {
                 pids[i] = mAllProcessItems.get(i).mPid;
             }
-            long[] pss = ActivityManager.getService()
-                    .getProcessPss(pids);
+            long[] pss = getProcessPss(pids);
             int bgIndex = 0;
             for (int i=0; i<pids.length; i++) {
                 ProcessItem proc = mAllProcessItems.get(i);
-                changed |= proc.updateSize(context, pss[i], mSequence);
+                dataChanged |= proc.updateSize(context, pss[i], mSequence);
                 if (proc.mCurSeq == mSequence) {
                     serviceProcessMemory += proc.mSize;
                 } else if (proc.mRunningProcessInfo.importance >=
@@ -1354,7 +1430,7 @@ public class RunningState {
                         }
                     }
                     mergedItem.update(context, true);
-                    mergedItem.updateSize(context);
+                    dataChanged |= mergedItem.updateSize(context);
                     bgIndex++;
                 } else if (proc.mRunningProcessInfo.importance <=
                         ActivityManager.RunningAppProcessInfo.IMPORTANCE_VISIBLE) {
@@ -1410,10 +1486,16 @@ public class RunningState {
         }
 
         for (int i=0; i<mMergedItems.size(); i++) {
-            mMergedItems.get(i).updateSize(context);
+            dataChanged |= mMergedItems.get(i).updateSize(context);
         }
         
         synchronized (mLock) {
+            dataChanged |= mNumBackgroundProcesses != numBackgroundProcesses
+                    || mNumForegroundProcesses != numForegroundProcesses
+                    || mNumServiceProcesses != numServiceProcesses
+                    || mBackgroundProcessMemory != backgroundProcessMemory
+                    || mForegroundProcessMemory != foregroundProcessMemory
+                    || mServiceProcessMemory != serviceProcessMemory;
             mNumBackgroundProcesses = numBackgroundProcesses;
             mNumForegroundProcesses = numForegroundProcesses;
             mNumServiceProcesses = numServiceProcesses;
@@ -1433,13 +1515,23 @@ public class RunningState {
             }
         }
         
-        return changed;
+        if (changed) {
+            return OnRefreshUiListener.REFRESH_STRUCTURE;
+        }
+        return dataChanged ? OnRefreshUiListener.REFRESH_DATA : OnRefreshUiListener.REFRESH_TIME;
     }
     
+    @VisibleForTesting
+    long[] getProcessPss(int[] pids) throws RemoteException {
+        return ActivityManager.getService().getProcessPss(pids);
+    }
+
     void setWatchingBackgroundItems(boolean watching) {
         synchronized (mLock) {
             mWatchingBackgroundItems = watching;
         }
+        // The user switched lists; don't leave them waiting on a backed off poll.
+        onUserInteraction();
     }
 
     ArrayList<MergedItem> getCurrentMergedItems() {
@@ -33,6 +33,7 @@ import com.android.settings.SettingsPreferenceFragment;
 import com.android.settings.Utils;
 import com.android.settings.datausage.AppDataUsage;
 import com.android.settings.datausage.DataUsageUtils;
+import com.android.settings.datausage.NetworkCycleDataCache;
 import com.android.settingslib.AppItem;
 import com.android.settingslib.core.lifecycle.LifecycleObserver;
 import com.android.settingslib.core.lifecycle.events.OnPause;
@@ -73,6 +74,12 @@ public class AppDataUsagePreferenceController extends AppInfoPreferenceControlle
             final int uid = mParent.getAppEntry().info.uid;
             final AppItem app = new AppItem(uid);
             app.addUid(uid);
+            final List<NetworkCycleDataForUid> cachedData =
+                    NetworkCycleDataCache.getInstance().getList(getCacheKey(uid));
+            if (cachedData != null) {
+                onLoadFinished(null /* loader */, cachedData);
+                return;
+            }
             mParent.getLoaderManager().restartLoader(mParent.LOADER_CHART_DATA, null /* args */,
                     this);
         }
@@ -99,6 +106,10 @@ public class AppDataUsagePreferenceController extends AppInfoPreferenceControlle
     public void onLoadFinished(Loader<List<NetworkCycleDataForUid>> loader,
             List<NetworkCycleDataForUid> data) {
         mAppUsageData = data;
+        if (loader != null) {
+            NetworkCycleDataCache.getInstance().putList(
+                    getCacheKey(mParent.getAppEntry().info.uid), data);
+        }
         updateState(mPreference);
     }
 
@@ -134,6 +145,12 @@ public class AppDataUsagePreferenceController extends AppInfoPreferenceControlle
         return mContext.getString(R.string.computing_size);
     }
 
+    private NetworkCycleDataCache.Key getCacheKey(int uid) {
+        return new NetworkCycleDataCache.Key(getTemplate(mContext),
+                NetworkCycleDataCache.CYCLE_ALL, NetworkCycleDataCache.CYCLE_ALL, uid,
+                NetworkCycleDataCache.DataType.UID_CYCLES);
+    }
+
     private static NetworkTemplate getTemplate(Context context) {
         if (DataUsageUtils.hasReadyMobileRadio(context)) {
             return NetworkTemplate.buildTemplateMobileWildcard();
@@ -108,6 +108,7 @@ public class ExternalSourcesDetails extends AppInfoWithHeader
         mAppOpsManager.setMode(AppOpsManager.OP_REQUEST_INSTALL_PACKAGES,
                 mPackageInfo.applicationInfo.uid, mPackageName,
                 newState ? AppOpsManager.MODE_ALLOWED : AppOpsManager.MODE_ERRORED);
+        mAppBridge.onAppOpModeChanged(mPackageName);
         if (!newState) {
             killApp(mPackageInfo.applicationInfo.uid);
         }
@@ -26,11 +26,13 @@ import android.content.res.Resources;
 import android.graphics.drawable.Drawable;
 import android.os.Parcel;
 import android.os.Parcelable;
+import android.os.UserHandle;
 import android.text.format.DateUtils;
 import android.util.Log;
 import android.util.SparseArray;
 
 import com.android.settings.R;
+import com.android.settings.applications.AppIconCache;
 
 import java.io.File;
 import java.text.Collator;
@@ -293,7 +295,8 @@ public class AppOpsState {
                     mLabel = mInfo.packageName;
                 } else {
                     mMounted = true;
-                    CharSequence label = mInfo.loadLabel(context.getPackageManager());
+                    CharSequence label = AppIconCache.getInstance(context).getLabel(mInfo,
+                            UserHandle.getUserId(mInfo.uid));
                     mLabel = label != null ? label.toString() : mInfo.packageName;
                 }
             }
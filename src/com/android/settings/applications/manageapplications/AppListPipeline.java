@@ -0,0 +1,358 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.applications.manageapplications;
+
+import static com.android.settings.applications.manageapplications.ManageApplications.SIZE_EXTERNAL;
+import static com.android.settings.applications.manageapplications.ManageApplications.SIZE_INTERNAL;
+import static com.android.settings.applications.manageapplications.ManageApplications.SIZE_TOTAL;
+
+import android.util.LongSparseArray;
+
+import androidx.annotation.GuardedBy;
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+
+import com.android.settings.R;
+import com.android.settings.applications.AppStateNotificationBridge;
+import com.android.settings.applications.AppStateNotificationBridge.NotificationsSentState;
+import com.android.settings.deviceinfo.storage.AppStorageSizesStore;
+import com.android.settingslib.applications.ApplicationsState;
+import com.android.settingslib.applications.ApplicationsState.AppEntry;
+import com.android.settingslib.applications.ApplicationsState.AppFilter;
+
+import java.text.CollationKey;
+import java.text.Collator;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Filters and sorts the app list of {@link ManageApplications}.
+ *
+ * <p>Filters are compiled into a flat list of predicates, so a change that only adds predicates
+ * can be applied to the current entries instead of refiltering every installed app. Sorting the
+ * current entries uses collation keys that are kept for the entries of the last result and
+ * recomputed only when an entry's label changes, so switching the sort order is a cheap
+ * permutation of the current entries.
+ */
+class AppListPipeline {
+
+    /**
+     * Predicates that select the same entries as another one. Both notification filters keep the
+     * apps that sent a notification in the window: the bridge sets the sent count and the time of
+     * the last one together.
+     */
+    private static final AppFilter[][] EQUIVALENT_FILTERS = {
+            {AppStateNotificationBridge.FILTER_APP_NOTIFICATION_RECENCY,
+                    AppStateNotificationBridge.FILTER_APP_NOTIFICATION_FREQUENCY},
+    };
+
+    private final Collator mCollator = Collator.getInstance();
+    private volatile AppStorageSizesStore mSizesStore;
+    @GuardedBy("this")
+    private LongSparseArray<SortKey> mSortKeys = new LongSparseArray<>();
+
+    /**
+     * Sets the store whose sizes are used to sort the entries by total size until their own size
+     * is computed.
+     */
+    void setSizesStore(AppStorageSizesStore store) {
+        mSizesStore = store;
+    }
+
+    /**
+     * Compile {@code filters} into a flat list of predicates. {@code null} filters are skipped.
+     */
+    static CompiledFilter compile(AppFilter... filters) {
+        final ArrayList<AppFilter> predicates = new ArrayList<>(filters.length);
+        for (AppFilter filter : filters) {
+            if (filter == null) {
+                continue;
+            }
+            final AppFilter canonical = getCanonical(filter);
+            if (!predicates.contains(canonical)) {
+                predicates.add(canonical);
+            }
+        }
+        return new CompiledFilter(predicates.toArray(new AppFilter[0]));
+    }
+
+    /**
+     * Whether the entries selected by {@code newFilter} can be derived from the entries that were
+     * selected by {@code oldFilter}.
+     */
+    static boolean canDerive(CompiledFilter oldFilter, CompiledFilter newFilter) {
+        return oldFilter != null && newFilter.containsAll(oldFilter);
+    }
+
+    /**
+     * Return the entries of {@code entries}, which were selected by {@code oldFilter}, that are
+     * selected by {@code newFilter}, in the order of {@code sortMode}.
+     */
+    @WorkerThread
+    ArrayList<AppEntry> apply(List<AppEntry> entries, CompiledFilter oldFilter,
+            CompiledFilter newFilter, int sortMode, int whichSize) {
+        final int size = entries.size();
+        final BitSet selected = new BitSet(size);
+        selected.set(0, size);
+        for (AppFilter predicate : newFilter.mPredicates) {
+            if (oldFilter.contains(predicate)) {
+                continue;
+            }
+            predicate.init();
+            for (int i = selected.nextSetBit(0); i >= 0; i = selected.nextSetBit(i + 1)) {
+                if (!predicate.filterApp(entries.get(i))) {
+                    selected.clear(i);
+                }
+            }
+        }
+        final SortItem[] items = getSortItems(entries, selected, sortMode, whichSize);
+        Arrays.sort(items);
+        final ArrayList<AppEntry> result = new ArrayList<>(items.length);
+        for (SortItem item : items) {
+            result.add(item.mEntry);
+        }
+        return result;
+    }
+
+    /**
+     * Return the selected entries with their sort keys. The keys of entries that aren't selected
+     * are dropped, as later changes are derived from the selected entries only.
+     */
+    private synchronized SortItem[] getSortItems(List<AppEntry> entries, BitSet selected,
+            int sortMode, int whichSize) {
+        final AppStorageSizesStore store = mSizesStore;
+        final AppStorageSizesStore.Snapshot stored =
+                sortMode == R.id.sort_order_size && whichSize == SIZE_TOTAL && store != null
+                        ? store.snapshot() : null;
+        final SortItem[] items = new SortItem[selected.cardinality()];
+        final LongSparseArray<SortKey> sortKeys = new LongSparseArray<>(items.length);
+        int index = 0;
+        for (int i = selected.nextSetBit(0); i >= 0; i = selected.nextSetBit(i + 1)) {
+            final AppEntry entry = entries.get(i);
+            SortKey key = mSortKeys.get(entry.id);
+            if (key == null || !key.isFor(entry)) {
+                key = new SortKey(entry, mCollator);
+            }
+            sortKeys.put(entry.id, key);
+            items[index++] = new SortItem(entry, key, sortMode, whichSize, stored);
+        }
+        mSortKeys = sortKeys;
+        return items;
+    }
+
+    /**
+     * Return the {@link ApplicationsState} or {@link AppStateNotificationBridge} comparator of
+     * {@code sortMode}.
+     */
+    Comparator<AppEntry> getComparator(int sortMode, int whichSize) {
+        if (sortMode == R.id.sort_order_size) {
+            final AppStorageSizesStore store = mSizesStore;
+            // The store only has the total size of each app.
+            if (store == null || whichSize != SIZE_TOTAL) {
+                switch (whichSize) {
+                    case SIZE_INTERNAL:
+                        return ApplicationsState.INTERNAL_SIZE_COMPARATOR;
+                    case SIZE_EXTERNAL:
+                        return ApplicationsState.EXTERNAL_SIZE_COMPARATOR;
+                    default:
+                        return ApplicationsState.SIZE_COMPARATOR;
+                }
+            }
+            // Copy the stored rows once, instead of locking the store on every comparison.
+            final AppStorageSizesStore.Snapshot stored = store.snapshot();
+            return (entry1, entry2) -> {
+                final long size1 = getSize(entry1, whichSize, stored);
+                final long size2 = getSize(entry2, whichSize, stored);
+                if (size1 != size2) {
+                    return size1 < size2 ? 1 : -1;
+                }
+                return ApplicationsState.ALPHA_COMPARATOR.compare(entry1, entry2);
+            };
+        } else if (sortMode == R.id.sort_order_recent_notification) {
+            return AppStateNotificationBridge.RECENT_NOTIFICATION_COMPARATOR;
+        } else if (sortMode == R.id.sort_order_frequent_notification) {
+            return AppStateNotificationBridge.FREQUENCY_NOTIFICATION_COMPARATOR;
+        }
+        return ApplicationsState.ALPHA_COMPARATOR;
+    }
+
+    private static long getSize(AppEntry entry, int whichSize,
+            @Nullable AppStorageSizesStore.Snapshot stored) {
+        final long size;
+        switch (whichSize) {
+            case SIZE_INTERNAL:
+                size = entry.internalSize;
+                break;
+            case SIZE_EXTERNAL:
+                size = entry.externalSize;
+                break;
+            default:
+                size = entry.size;
+                break;
+        }
+        if (stored == null || whichSize != SIZE_TOTAL
+                || entry.size != ApplicationsState.SIZE_UNKNOWN || entry.info == null) {
+            return size;
+        }
+        // The size of the entry isn't computed yet, so use the stored total.
+        final AppStorageSizesStore.Entry storedEntry = stored.getEntry(entry.info);
+        return storedEntry != null ? storedEntry.getTotalBytes() : size;
+    }
+
+    private static NotificationsSentState getSentState(AppEntry entry) {
+        return entry.extraInfo instanceof NotificationsSentState
+                ? (NotificationsSentState) entry.extraInfo : null;
+    }
+
+    private static AppFilter getCanonical(AppFilter filter) {
+        for (AppFilter[] equivalent : EQUIVALENT_FILTERS) {
+            for (AppFilter candidate : equivalent) {
+                if (candidate == filter) {
+                    return equivalent[0];
+                }
+            }
+        }
+        return filter;
+    }
+
+    /** The collation keys of an entry's label and package name. */
+    private static class SortKey {
+        private final String mLabel;
+        private final String mPackageName;
+        private final CollationKey mLabelKey;
+        private final CollationKey mPackageKey;
+
+        SortKey(AppEntry entry, Collator collator) {
+            mLabel = entry.label;
+            mPackageName = entry.info != null ? entry.info.packageName : null;
+            mLabelKey = collator.getCollationKey(mLabel != null ? mLabel : "");
+            mPackageKey = collator.getCollationKey(mPackageName != null ? mPackageName : "");
+        }
+
+        boolean isFor(AppEntry entry) {
+            return mLabel == entry.label
+                    && mPackageName == (entry.info != null ? entry.info.packageName : null);
+        }
+    }
+
+    /**
+     * An entry with the values it is sorted by, read once so that sizes or notification states
+     * updated while sorting can't change the order midway. Orders like {@link #getComparator}.
+     */
+    private static class SortItem implements Comparable<SortItem> {
+        private final AppEntry mEntry;
+        private final SortKey mKey;
+        /** Whether the entry has a primary value, entries without one come first. */
+        private final boolean mHasValue;
+        /** The value that is sorted in descending order before the label. */
+        private final long mValue;
+
+        SortItem(AppEntry entry, SortKey key, int sortMode, int whichSize,
+                AppStorageSizesStore.Snapshot stored) {
+            mEntry = entry;
+            mKey = key;
+            if (sortMode == R.id.sort_order_size) {
+                mHasValue = true;
+                mValue = getSize(entry, whichSize, stored);
+            } else if (sortMode == R.id.sort_order_recent_notification
+                    || sortMode == R.id.sort_order_frequent_notification) {
+                final NotificationsSentState state = getSentState(entry);
+                mHasValue = state != null;
+                mValue = state == null ? 0
+                        : sortMode == R.id.sort_order_recent_notification
+                                ? state.lastSent : state.sentCount;
+            } else {
+                mHasValue = false;
+                mValue = 0;
+            }
+        }
+
+        @Override
+        public int compareTo(SortItem other) {
+            if (mHasValue != other.mHasValue) {
+                return mHasValue ? 1 : -1;
+            }
+            if (mValue != other.mValue) {
+                return mValue < other.mValue ? 1 : -1;
+            }
+            int result = mKey.mLabelKey.compareTo(other.mKey.mLabelKey);
+            if (result != 0) {
+                return result;
+            }
+            if (mEntry.info != null && other.mEntry.info != null) {
+                result = mKey.mPackageKey.compareTo(other.mKey.mPackageKey);
+                if (result != 0) {
+                    return result;
+                }
+                return mEntry.info.uid - other.mEntry.info.uid;
+            }
+            return 0;
+        }
+    }
+
+    /** A flat list of predicates that an entry must all match. */
+    static class CompiledFilter {
+        private final AppFilter[] mPredicates;
+
+        private CompiledFilter(AppFilter[] predicates) {
+            mPredicates = predicates;
+        }
+
+        /** Return a filter for {@link com.android.settingslib.applications.ApplicationsState}. */
+        AppFilter toAppFilter() {
+            return new AppFilter() {
+                @Override
+                public void init() {
+                    for (AppFilter predicate : mPredicates) {
+                        predicate.init();
+                    }
+                }
+
+                @Override
+                public boolean filterApp(AppEntry entry) {
+                    for (AppFilter predicate : mPredicates) {
+                        if (!predicate.filterApp(entry)) {
+                            return false;
+                        }
+                    }
+                    return true;
+                }
+            };
+        }
+
+        private boolean contains(AppFilter predicate) {
+            for (AppFilter candidate : mPredicates) {
+                if (candidate == predicate) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private boolean containsAll(CompiledFilter other) {
+            for (AppFilter predicate : other.mPredicates) {
+                if (!contains(predicate)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,218 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.applications.manageapplications;
+
+import android.text.TextUtils;
+import android.util.SparseArray;
+
+import androidx.annotation.VisibleForTesting;
+import androidx.annotation.WorkerThread;
+
+import com.android.settingslib.applications.ApplicationsState.AppEntry;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+/**
+ * Substring search over the labels of a list of {@link AppEntry}.
+ *
+ * <p>Labels are normalized once (case and diacritics folded) into a single packed char array,
+ * with a posting list per character and per character pair. A query only verifies the entries of
+ * its rarest character pair, and a query that extends the previous one only verifies the previous
+ * matches.
+ */
+class AppSearchIndex {
+
+    private static final Pattern COMBINING_MARKS = Pattern.compile("\\p{M}+");
+    private static final int[] EMPTY = new int[0];
+
+    private final List<AppEntry> mEntries;
+    private final Locale mLocale;
+    /** Normalized labels, back to back. */
+    private final char[] mLabels;
+    /** Start of each label in {@link #mLabels}, plus the end of the last one. */
+    private final int[] mOffsets;
+    /** Sorted entry positions keyed by a single char or a char pair, see {@link #gramKey}. */
+    private final SparseArray<int[]> mPostings = new SparseArray<>();
+
+    private String mLastQuery;
+    private int[] mLastMatches;
+
+    @WorkerThread
+    AppSearchIndex(List<AppEntry> entries, Locale locale) {
+        mEntries = entries;
+        mLocale = locale;
+        final int size = entries.size();
+        final String[] labels = new String[size];
+        int length = 0;
+        for (int i = 0; i < size; i++) {
+            labels[i] = normalize(entries.get(i).label, locale);
+            length += labels[i].length();
+        }
+        mLabels = new char[length];
+        mOffsets = new int[size + 1];
+        final SparseArray<IntList> postings = new SparseArray<>();
+        int offset = 0;
+        for (int i = 0; i < size; i++) {
+            final String label = labels[i];
+            mOffsets[i] = offset;
+            label.getChars(0, label.length(), mLabels, offset);
+            offset += label.length();
+            for (int j = 0; j < label.length(); j++) {
+                addPosting(postings, gramKey(label.charAt(j), (char) 0), i);
+                if (j + 1 < label.length()) {
+                    addPosting(postings, gramKey(label.charAt(j), label.charAt(j + 1)), i);
+                }
+            }
+        }
+        mOffsets[size] = offset;
+        for (int i = 0, count = postings.size(); i < count; i++) {
+            mPostings.put(postings.keyAt(i), postings.valueAt(i).toArray());
+        }
+    }
+
+    /** Whether this index was built from {@code entries}. */
+    boolean isIndexOf(List<AppEntry> entries) {
+        return mEntries == entries;
+    }
+
+    /**
+     * Return the entries whose label contains {@code query}, in the order of the indexed list.
+     */
+    @WorkerThread
+    synchronized ArrayList<AppEntry> search(CharSequence query) {
+        final String normalized = normalize(query, mLocale);
+        if (normalized.isEmpty()) {
+            mLastQuery = null;
+            mLastMatches = null;
+            return new ArrayList<>(mEntries);
+        }
+        final int[] candidates;
+        if (mLastQuery != null && normalized.contains(mLastQuery)) {
+            // Every match of the new query also matched the query it extends.
+            candidates = mLastMatches;
+        } else {
+            candidates = getRarestPostings(normalized);
+        }
+        final int[] matches = new int[candidates.length];
+        int count = 0;
+        for (int position : candidates) {
+            if (labelContains(position, normalized)) {
+                matches[count++] = position;
+            }
+        }
+        mLastQuery = normalized;
+        mLastMatches = count == matches.length ? matches : copyOf(matches, count);
+
+        final ArrayList<AppEntry> result = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            result.add(mEntries.get(matches[i]));
+        }
+        return result;
+    }
+
+    @VisibleForTesting
+    static String normalize(CharSequence text, Locale locale) {
+        if (TextUtils.isEmpty(text)) {
+            return "";
+        }
+        final String decomposed = Normalizer.normalize(
+                text.toString().toLowerCase(locale), Normalizer.Form.NFD);
+        return COMBINING_MARKS.matcher(decomposed).replaceAll("");
+    }
+
+    private int[] getRarestPostings(String query) {
+        if (query.length() == 1) {
+            return getPostings(gramKey(query.charAt(0), (char) 0));
+        }
+        int[] rarest = null;
+        for (int i = 0; i + 1 < query.length(); i++) {
+            final int[] postings = getPostings(gramKey(query.charAt(i), query.charAt(i + 1)));
+            if (rarest == null || postings.length < rarest.length) {
+                rarest = postings;
+                if (rarest.length == 0) {
+                    break;
+                }
+            }
+        }
+        return rarest;
+    }
+
+    private int[] getPostings(int key) {
+        final int[] postings = mPostings.get(key);
+        return postings != null ? postings : EMPTY;
+    }
+
+    private boolean labelContains(int position, String query) {
+        final int start = mOffsets[position];
+        final int last = mOffsets[position + 1] - query.length();
+        for (int i = start; i <= last; i++) {
+            int j = 0;
+            while (j < query.length() && mLabels[i + j] == query.charAt(j)) {
+                j++;
+            }
+            if (j == query.length()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static int gramKey(char first, char second) {
+        return (first << 16) | second;
+    }
+
+    private static void addPosting(SparseArray<IntList> postings, int key, int position) {
+        IntList list = postings.get(key);
+        if (list == null) {
+            list = new IntList();
+            postings.put(key, list);
+        }
+        list.addUnique(position);
+    }
+
+    private static int[] copyOf(int[] values, int count) {
+        final int[] copy = new int[count];
+        System.arraycopy(values, 0, copy, 0, count);
+        return copy;
+    }
+
+    /** Growable list of ascending ints that ignores repeats of its last value. */
+    private static class IntList {
+        private int[] mValues = new int[4];
+        private int mSize;
+
+        void addUnique(int value) {
+            if (mSize > 0 && mValues[mSize - 1] == value) {
+                return;
+            }
+            if (mSize == mValues.length) {
+                final int[] values = new int[mSize * 2];
+                System.arraycopy(mValues, 0, values, 0, mSize);
+                mValues = values;
+            }
+            mValues[mSize++] = value;
+        }
+
+        int[] toArray() {
+            return copyOf(mValues, mSize);
+        }
+    }
+}
@@ -73,6 +73,7 @@ import android.widget.Spinner;
 import androidx.annotation.NonNull;
 import androidx.annotation.VisibleForTesting;
 import androidx.annotation.WorkerThread;
+import androidx.recyclerview.widget.DiffUtil;
 import androidx.recyclerview.widget.LinearLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
 
@@ -111,6 +112,7 @@ import com.android.settings.applications.appinfo.WriteSettingsDetails;
 import com.android.settings.core.InstrumentedFragment;
 import com.android.settings.core.SubSettingLauncher;
 import com.android.settings.dashboard.profileselector.ProfileSelectFragment;
+import com.android.settings.deviceinfo.storage.AppStorageSizesStore;
 import com.android.settings.fuelgauge.HighPowerDetail;
 import com.android.settings.notification.ConfigureNotificationSettings;
 import com.android.settings.notification.NotificationBackend;
@@ -133,6 +135,8 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
 import java.util.Set;
 
 /**
@@ -778,7 +782,7 @@ public class ManageApplications extends InstrumentedFragment
             }
         } else if (i == R.id.show_system || i == R.id.hide_system) {
             mShowSystem = !mShowSystem;
-            mApplications.rebuild();
+            mApplications.rebuildWithCurrentEntries();
         } else if (i == R.id.reset_app_preferences) {
             mResetAppsHelper.buildResetDialog();
             return true;
@@ -1011,7 +1015,15 @@ public class ManageApplications extends InstrumentedFragment
         private boolean mHasReceivedBridgeCallback;
         private FileViewHolderController mExtraViewController;
         private SearchFilter mSearchFilter;
+        // Built from mOriginalEntries on the filter thread the first time they are searched.
+        private volatile AppSearchIndex mSearchIndex;
         private PowerWhitelistBackend mBackend;
+        private final AppListPipeline mPipeline = new AppListPipeline();
+        // Filter of the latest rebuild request, and the one that selected mOriginalEntries.
+        private AppListPipeline.CompiledFilter mRequestedFilter;
+        private AppListPipeline.CompiledFilter mEntriesFilter;
+        private boolean mRebuildPending;
+        private int mRebuildGeneration;
 
         // This is to remember and restore the last scroll position when this
         // fragment is paused. We need this special handling because app entries are added gradually
@@ -1037,6 +1049,8 @@ public class ManageApplications extends InstrumentedFragment
             mIconDrawableFactory = IconDrawableFactory.newInstance(mContext);
             mAppFilter = appFilter;
             mBackend = PowerWhitelistBackend.getInstance(mContext);
+            mPipeline.setSizesStore(
+                    AppStorageSizesStore.getInstance(mContext, manageApplications.mVolumeUuid));
             if (mManageApplications.mListType == LIST_TYPE_NOTIFICATION) {
                 mExtraInfoBridge = new AppStateNotificationBridge(mContext, mState, this,
                         manageApplications.mUsageStatsManager,
@@ -1082,7 +1096,7 @@ public class ManageApplications extends InstrumentedFragment
 
         public void setCompositeFilter(AppFilter compositeFilter) {
             mCompositeFilter = compositeFilter;
-            rebuild();
+            rebuildWithCurrentEntries();
         }
 
         public void setFilter(AppFilterItem appFilter) {
@@ -1100,7 +1114,7 @@ public class ManageApplications extends InstrumentedFragment
                     rebuild(R.id.sort_order_alpha);
                 }
             } else {
-                rebuild();
+                rebuildWithCurrentEntries();
             }
         }
 
@@ -1161,7 +1175,7 @@ public class ManageApplications extends InstrumentedFragment
             }
             mManageApplications.mSortOrder = sort;
             mLastSortMode = sort;
-            rebuild();
+            rebuildWithCurrentEntries();
         }
 
         @Override
@@ -1184,6 +1198,18 @@ public class ManageApplications extends InstrumentedFragment
         }
 
         public void rebuild() {
+            rebuild(false /* reuseEntries */);
+        }
+
+        /**
+         * Like {@link #rebuild()}, but when only the sort order changed or filters were added,
+         * the list is derived from the current entries instead of rebuilding the session.
+         */
+        void rebuildWithCurrentEntries() {
+            rebuild(true /* reuseEntries */);
+        }
+
+        private void rebuild(boolean reuseEntries) {
             if (!mHasReceivedLoadEntries
                     || (mExtraInfoBridge != null && !mHasReceivedBridgeCallback)) {
                 // Don't rebuild the list until all the app entries are loaded.
@@ -1195,49 +1221,51 @@ public class ManageApplications extends InstrumentedFragment
                 }
                 return;
             }
-            ApplicationsState.AppFilter filterObj;
-            Comparator<AppEntry> comparatorObj;
             boolean emulated = Environment.isExternalStorageEmulated();
             if (emulated) {
                 mWhichSize = SIZE_TOTAL;
             } else {
                 mWhichSize = SIZE_INTERNAL;
             }
-            filterObj = mAppFilter.getFilter();
-            if (mCompositeFilter != null) {
-                filterObj = new CompoundFilter(filterObj, mCompositeFilter);
-            }
+            AppFilter systemFilter = null;
             if (!mManageApplications.mShowSystem) {
                 if (LIST_TYPES_WITH_INSTANT.contains(mManageApplications.mListType)) {
-                    filterObj = new CompoundFilter(filterObj,
-                            ApplicationsState.FILTER_DOWNLOADED_AND_LAUNCHER_AND_INSTANT);
+                    systemFilter = ApplicationsState.FILTER_DOWNLOADED_AND_LAUNCHER_AND_INSTANT;
                 } else {
-                    filterObj = new CompoundFilter(filterObj,
-                            ApplicationsState.FILTER_DOWNLOADED_AND_LAUNCHER);
-                }
-            }
-            if (mLastSortMode == R.id.sort_order_size) {
-                switch (mWhichSize) {
-                    case SIZE_INTERNAL:
-                        comparatorObj = ApplicationsState.INTERNAL_SIZE_COMPARATOR;
-                        break;
-                    case SIZE_EXTERNAL:
-                        comparatorObj = ApplicationsState.EXTERNAL_SIZE_COMPARATOR;
-                        break;
-                    default:
-                        comparatorObj = ApplicationsState.SIZE_COMPARATOR;
-                        break;
+                    systemFilter = ApplicationsState.FILTER_DOWNLOADED_AND_LAUNCHER;
                 }
-            } else if (mLastSortMode == R.id.sort_order_recent_notification) {
-                comparatorObj = AppStateNotificationBridge.RECENT_NOTIFICATION_COMPARATOR;
-            } else if (mLastSortMode == R.id.sort_order_frequent_notification) {
-                comparatorObj = AppStateNotificationBridge.FREQUENCY_NOTIFICATION_COMPARATOR;
-            } else {
-                comparatorObj = ApplicationsState.ALPHA_COMPARATOR;
             }
-
-            final AppFilter finalFilterObj = new CompoundFilter(filterObj,
+            final AppListPipeline.CompiledFilter filter = AppListPipeline.compile(
+                    mAppFilter.getFilter(), mCompositeFilter, systemFilter,
                     ApplicationsState.FILTER_NOT_HIDE);
+            final int sortMode = mLastSortMode;
+            final int whichSize = mWhichSize;
+            final int generation = ++mRebuildGeneration;
+            final ArrayList<AppEntry> entries = mOriginalEntries;
+            final AppListPipeline.CompiledFilter entriesFilter = mEntriesFilter;
+            final boolean canReuseEntries = reuseEntries && !mRebuildPending && entries != null
+                    && AppListPipeline.canDerive(entriesFilter, filter);
+            mRequestedFilter = filter;
+            mRebuildPending = true;
+
+            if (canReuseEntries) {
+                // The session isn't rebuilt: it only rebuilds when asked to, and every later
+                // rebuild goes through here with the filter and comparator in use then.
+                ThreadUtils.postOnBackgroundThread(() -> {
+                    final ArrayList<AppEntry> result =
+                            mPipeline.apply(entries, entriesFilter, filter, sortMode, whichSize);
+                    ThreadUtils.postOnMainThread(() -> {
+                        // Drop the result if another rebuild was requested meanwhile.
+                        if (generation == mRebuildGeneration && mOriginalEntries == entries) {
+                            onRebuildComplete(result);
+                        }
+                    });
+                });
+                return;
+            }
+            final AppFilter finalFilterObj = filter.toAppFilter();
+            final Comparator<AppEntry> comparatorObj =
+                    mPipeline.getComparator(sortMode, whichSize);
             ThreadUtils.postOnBackgroundThread(() -> {
                 mSession.rebuild(finalFilterObj, comparatorObj, false);
             });
@@ -1298,6 +1326,9 @@ public class ManageApplications extends InstrumentedFragment
             }
             mEntries = entries;
             mOriginalEntries = entries;
+            mEntriesFilter = mRequestedFilter;
+            mRebuildPending = false;
+            mSearchIndex = null;
             notifyDataSetChanged();
             if (getItemCount() == 0) {
                 mManageApplications.mRecyclerView.setVisibility(View.GONE);
@@ -1576,32 +1607,95 @@ public class ManageApplications extends InstrumentedFragment
         /**
          * An array filter that constrains the content of the array adapter with a substring.
          * Item that does not contains the specified substring will be removed from the list.</p>
+         *
+         * <p>Matching goes through an {@link AppSearchIndex} of the current entries, and the
+         * change to the displayed list is computed with {@link DiffUtil} on the filter thread.
          */
         private class SearchFilter extends Filter {
             @WorkerThread
             @Override
             protected FilterResults performFiltering(CharSequence query) {
+                final ArrayList<ApplicationsState.AppEntry> originalEntries = mOriginalEntries;
                 final ArrayList<ApplicationsState.AppEntry> matchedEntries;
                 if (TextUtils.isEmpty(query)) {
-                    matchedEntries = mOriginalEntries;
+                    matchedEntries = originalEntries;
                 } else {
-                    matchedEntries = new ArrayList<>();
-                    for (ApplicationsState.AppEntry entry : mOriginalEntries) {
-                        if (entry.label.toLowerCase().contains(query.toString().toLowerCase())) {
-                            matchedEntries.add(entry);
-                        }
+                    AppSearchIndex index = mSearchIndex;
+                    if (index == null || !index.isIndexOf(originalEntries)) {
+                        index = new AppSearchIndex(originalEntries, Locale.getDefault());
+                        mSearchIndex = index;
                     }
+                    matchedEntries = index.search(query);
                 }
+                final List<ApplicationsState.AppEntry> oldEntries = mEntries;
                 final FilterResults results = new FilterResults();
-                results.values = matchedEntries;
+                results.values = new SearchResult(oldEntries, matchedEntries,
+                        oldEntries != null ? DiffUtil.calculateDiff(
+                                new EntriesDiffCallback(oldEntries, matchedEntries),
+                                false /* detectMoves */) : null);
                 results.count = matchedEntries.size();
                 return results;
             }
 
             @Override
             protected void publishResults(CharSequence constraint, FilterResults results) {
-                mEntries = (ArrayList<ApplicationsState.AppEntry>) results.values;
-                notifyDataSetChanged();
+                final SearchResult result = (SearchResult) results.values;
+                final boolean canDispatchDiff = result.mDiff != null && mEntries == result.mOld;
+                mEntries = result.mNew;
+                if (canDispatchDiff) {
+                    result.mDiff.dispatchUpdatesTo(ApplicationsAdapter.this);
+                } else {
+                    // The list changed while filtering, so the diff no longer applies.
+                    notifyDataSetChanged();
+                }
+            }
+        }
+
+        private static class SearchResult {
+            private final List<ApplicationsState.AppEntry> mOld;
+            private final ArrayList<ApplicationsState.AppEntry> mNew;
+            private final DiffUtil.DiffResult mDiff;
+
+            SearchResult(List<ApplicationsState.AppEntry> oldEntries,
+                    ArrayList<ApplicationsState.AppEntry> newEntries, DiffUtil.DiffResult diff) {
+                mOld = oldEntries;
+                mNew = newEntries;
+                mDiff = diff;
+            }
+        }
+
+        /**
+         * Search results keep the order of the original entries and reuse the same objects, so
+         * items are compared by identity.
+         */
+        private static class EntriesDiffCallback extends DiffUtil.Callback {
+            private final List<ApplicationsState.AppEntry> mOldEntries;
+            private final List<ApplicationsState.AppEntry> mNewEntries;
+
+            EntriesDiffCallback(List<ApplicationsState.AppEntry> oldEntries,
+                    List<ApplicationsState.AppEntry> newEntries) {
+                mOldEntries = oldEntries;
+                mNewEntries = newEntries;
+            }
+
+            @Override
+            public int getOldListSize() {
+                return mOldEntries.size();
+            }
+
+            @Override
+            public int getNewListSize() {
+                return mNewEntries.size();
+            }
+
+            @Override
+            public boolean areItemsTheSame(int oldPosition, int newPosition) {
+                return mOldEntries.get(oldPosition) == mNewEntries.get(newPosition);
+            }
+
+            @Override
+            public boolean areContentsTheSame(int oldPosition, int newPosition) {
+                return true;
             }
         }
     }
@@ -29,6 +29,7 @@ import android.text.format.DateUtils;
 import android.util.Log;
 import android.util.Pair;
 
+import androidx.annotation.GuardedBy;
 import androidx.annotation.VisibleForTesting;
 
 import com.android.settings.R;
@@ -38,10 +39,8 @@ import com.android.settingslib.core.instrumentation.LogWriter;
 
 import java.io.ByteArrayOutputStream;
 import java.io.DataOutputStream;
+import java.io.IOException;
 import java.time.ZoneId;
-import java.time.ZonedDateTime;
-import java.util.LinkedList;
-import java.util.List;
 
 public class SettingsIntelligenceLogWriter implements LogWriter {
     private static final String TAG = "IntelligenceLogWriter";
@@ -49,11 +48,34 @@ public class SettingsIntelligenceLogWriter implements LogWriter {
     private static final String LOG = "logs";
     private static final long MESSAGE_DELAY = DateUtils.MINUTE_IN_MILLIS; // 1 minute
 
-    private List<SettingsLog> mSettingsLogList;
+    /** Max number of events waiting to be sent, the oldest ones are dropped past it. */
+    @VisibleForTesting
+    static final int MAX_EVENTS = 512;
+    /** Number of waiting events that makes them be sent right away. */
+    @VisibleForTesting
+    static final int SEND_EVENT_COUNT = 256;
+    /** Rough encoded size of the waiting events that makes them be sent right away. */
+    @VisibleForTesting
+    static final int SEND_SIZE_BYTES = 32 * 1024;
+
+    private static final int SEND_NONE = 0;
+    private static final int SEND_DELAYED = 1;
+    private static final int SEND_NOW = 2;
+
+    private final Object mLock = new Object();
+    @GuardedBy("mLock")
+    private final SettingsLogBuffer mPendingLogs = new SettingsLogBuffer(MAX_EVENTS);
+    @GuardedBy("mLock")
+    private int mSendState = SEND_NONE;
+
+    // Only used on the worker thread.
+    private final SettingsLogBuffer mSendingLogs = new SettingsLogBuffer(MAX_EVENTS);
+    private final ByteArrayOutputStream mSendBuffer = new ByteArrayOutputStream();
+    private int mReportedDroppedCount;
+
     private SendLogHandler mLogHandler;
 
     public SettingsIntelligenceLogWriter() {
-        mSettingsLogList = new LinkedList<>();
         final HandlerThread workerThread = new HandlerThread("SettingsIntelligenceLogWriter",
                 Process.THREAD_PRIORITY_BACKGROUND);
         workerThread.start();
@@ -116,49 +138,52 @@ public class SettingsIntelligenceLogWriter implements LogWriter {
 
     @Override
     public void action(int attribution, int action, int pageId, String key, int value) {
-        final ZonedDateTime now = ZonedDateTime.now(ZoneId.systemDefault());
-        final SettingsLog settingsLog = SettingsLog.newBuilder()
-                .setAttribution(attribution)
-                .setAction(action)
-                .setPageId(pageId)
-                .setChangedPreferenceKey(key != null ? key : "")
-                .setChangedPreferenceIntValue(value)
-                .setTimestamp(now.toString())
-                .build();
-        mLogHandler.post(() -> {
-            mSettingsLogList.add(settingsLog);
-        });
-        if (action == SettingsEnums.ACTION_CONTEXTUAL_CARD_DISMISS) {
-            // Directly send this event to notify SI instantly that the card is dismissed
-            mLogHandler.sendLog();
-        } else {
-            mLogHandler.scheduleSendLog();
+        final long now = System.currentTimeMillis();
+        synchronized (mLock) {
+            mPendingLogs.add(now, attribution, action, pageId, key != null ? key : "", value);
+            if (mSendState == SEND_NOW) {
+                return;
+            }
+            if (action == SettingsEnums.ACTION_CONTEXTUAL_CARD_DISMISS
+                    || mPendingLogs.size() >= SEND_EVENT_COUNT
+                    || mPendingLogs.getEstimatedBytes() >= SEND_SIZE_BYTES) {
+                // Directly send the events to notify SI instantly that the card is dismissed,
+                // or before the buffer fills up.
+                mSendState = SEND_NOW;
+                mLogHandler.sendLog();
+            } else if (mSendState == SEND_NONE) {
+                // Posted under the lock, so a delayed send can't replace an immediate one posted
+                // by another thread in between.
+                mSendState = SEND_DELAYED;
+                mLogHandler.scheduleSendLog();
+            }
         }
     }
 
+    /**
+     * Encode {@code settingsLogs} into {@code buffer}, which is reset first, and return its
+     * content.
+     */
     @VisibleForTesting
-    static byte[] serialize(List<SettingsLog> settingsLogs) {
+    static byte[] serialize(SettingsLogBuffer settingsLogs, ByteArrayOutputStream buffer) {
+        buffer.reset();
         final int size = settingsLogs.size();
-        final ByteArrayOutputStream bout = new ByteArrayOutputStream();
-        final DataOutputStream output = new DataOutputStream(bout);
+        final DataOutputStream output = new DataOutputStream(buffer);
+        final SettingsLog.Builder builder = SettingsLog.newBuilder();
+        final ZoneId zoneId = ZoneId.systemDefault();
         // The data format is "size, length, byte array, length, byte array ..."
         try {
             output.writeInt(size);
-            for (SettingsLog settingsLog : settingsLogs) {
-                final byte[] data = settingsLog.toByteArray();
-                output.writeInt(data.length);
-                output.write(data);
+            for (int i = 0; i < size; i++) {
+                final SettingsLog settingsLog = settingsLogs.get(i, builder, zoneId);
+                output.writeInt(settingsLog.getSerializedSize());
+                settingsLog.writeTo(output);
             }
-            return bout.toByteArray();
-        } catch (Exception e) {
+            output.flush();
+            return buffer.toByteArray();
+        } catch (IOException e) {
             Log.e(TAG, "serialize error", e);
             return null;
-        } finally {
-            try {
-                output.close();
-            } catch (Exception e) {
-                Log.e(TAG, "close error", e);
-            }
         }
     }
 
@@ -181,20 +206,30 @@ public class SettingsIntelligenceLogWriter implements LogWriter {
 
     private final Runnable mSendLogsRunnable = () -> {
         final Context context = FeatureFactory.getAppContext();
-        if (context == null) {
-            Log.e(TAG, "context is null");
-            return;
+        final int droppedCount;
+        synchronized (mLock) {
+            mSendState = SEND_NONE;
+            if (context == null) {
+                Log.e(TAG, "context is null");
+                return;
+            }
+            mPendingLogs.drainTo(mSendingLogs);
+            droppedCount = mPendingLogs.getDroppedCount();
+        }
+        if (droppedCount > mReportedDroppedCount) {
+            Log.w(TAG, "Dropped " + (droppedCount - mReportedDroppedCount) + " events");
+            mReportedDroppedCount = droppedCount;
         }
         final String action = context.getString(R.string
                 .config_settingsintelligence_log_action);
-        if (!TextUtils.isEmpty(action) && !mSettingsLogList.isEmpty()) {
+        if (!TextUtils.isEmpty(action) && !mSendingLogs.isEmpty()) {
             final Intent intent = new Intent();
             intent.setPackage(context.getString(R.string
                     .config_settingsintelligence_package_name));
             intent.setAction(action);
-            intent.putExtra(LOG, serialize(mSettingsLogList));
+            intent.putExtra(LOG, serialize(mSendingLogs, mSendBuffer));
             context.sendBroadcastAsUser(intent, UserHandle.CURRENT);
-            mSettingsLogList.clear();
         }
+        mSendingLogs.clear();
     };
 }
@@ -0,0 +1,127 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.core.instrumentation;
+
+import com.android.settings.intelligence.LogProto.SettingsLog;
+
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+
+/**
+ * Fixed capacity ring buffer of the events logged by {@link SettingsIntelligenceLogWriter}.
+ *
+ * <p>Events are kept as primitive fields and only turned into {@link SettingsLog}s when they are
+ * sent, so logging an event doesn't allocate. When the buffer is full the oldest event is dropped.
+ * Not thread safe.
+ */
+class SettingsLogBuffer {
+    /** Rough encoded size of an event without its key: the int fields and the timestamp. */
+    private static final int EVENT_BYTES = 64;
+
+    private final long[] mTimestamps;
+    private final int[] mAttributions;
+    private final int[] mActions;
+    private final int[] mPageIds;
+    private final String[] mKeys;
+    private final int[] mValues;
+
+    private int mStart;
+    private int mSize;
+    private int mKeyChars;
+    private int mDroppedCount;
+
+    SettingsLogBuffer(int capacity) {
+        mTimestamps = new long[capacity];
+        mAttributions = new int[capacity];
+        mActions = new int[capacity];
+        mPageIds = new int[capacity];
+        mKeys = new String[capacity];
+        mValues = new int[capacity];
+    }
+
+    /** Add an event, dropping the oldest one if the buffer is full. */
+    void add(long timestampMillis, int attribution, int action, int pageId, String key,
+            int value) {
+        if (mSize == mTimestamps.length) {
+            mKeyChars -= mKeys[mStart].length();
+            mStart = (mStart + 1) % mTimestamps.length;
+            mSize--;
+            mDroppedCount++;
+        }
+        final int index = (mStart + mSize) % mTimestamps.length;
+        mTimestamps[index] = timestampMillis;
+        mAttributions[index] = attribution;
+        mActions[index] = action;
+        mPageIds[index] = pageId;
+        mKeys[index] = key;
+        mValues[index] = value;
+        mKeyChars += key.length();
+        mSize++;
+    }
+
+    /** Move all the events to the end of {@code other}, leaving this buffer empty. */
+    void drainTo(SettingsLogBuffer other) {
+        for (int i = 0; i < mSize; i++) {
+            final int index = (mStart + i) % mTimestamps.length;
+            other.add(mTimestamps[index], mAttributions[index], mActions[index], mPageIds[index],
+                    mKeys[index], mValues[index]);
+        }
+        clear();
+    }
+
+    /** Return the {@code position}th oldest event, built with {@code builder}. */
+    SettingsLog get(int position, SettingsLog.Builder builder, ZoneId zoneId) {
+        final int index = (mStart + position) % mTimestamps.length;
+        return builder.clear()
+                .setAttribution(mAttributions[index])
+                .setAction(mActions[index])
+                .setPageId(mPageIds[index])
+                .setChangedPreferenceKey(mKeys[index])
+                .setChangedPreferenceIntValue(mValues[index])
+                .setTimestamp(ZonedDateTime.ofInstant(
+                        Instant.ofEpochMilli(mTimestamps[index]), zoneId).toString())
+                .build();
+    }
+
+    void clear() {
+        for (int i = 0; i < mSize; i++) {
+            mKeys[(mStart + i) % mKeys.length] = null;
+        }
+        mStart = 0;
+        mSize = 0;
+        mKeyChars = 0;
+    }
+
+    int size() {
+        return mSize;
+    }
+
+    boolean isEmpty() {
+        return mSize == 0;
+    }
+
+    /** Return a rough size of the events once encoded, in bytes. */
+    int getEstimatedBytes() {
+        return mSize * EVENT_BYTES + mKeyChars;
+    }
+
+    /** Return the number of events dropped because the buffer was full. */
+    int getDroppedCount() {
+        return mDroppedCount;
+    }
+}
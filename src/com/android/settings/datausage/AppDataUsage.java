@@ -219,11 +219,25 @@ public class AppDataUsage extends DataUsageBaseFragment implements OnPreferenceC
         if (mDataSaverBackend != null) {
             mDataSaverBackend.addListener(this);
         }
-        LoaderManager.getInstance(this).restartLoader(LOADER_APP_USAGE_DATA, null /* args */,
-                mUidDataCallbacks);
+        final List<NetworkCycleDataForUid> cachedUsageData =
+                NetworkCycleDataCache.getInstance().getList(getUsageDataCacheKey());
+        if (cachedUsageData != null) {
+            mUidDataCallbacks.onLoadFinished(null /* loader */, cachedUsageData);
+        } else {
+            LoaderManager.getInstance(this).restartLoader(LOADER_APP_USAGE_DATA,
+                    null /* args */, mUidDataCallbacks);
+        }
         updatePrefs();
     }
 
+    private NetworkCycleDataCache.Key getUsageDataCacheKey() {
+        final boolean hasCycles = mCycles != null && !mCycles.isEmpty();
+        return new NetworkCycleDataCache.Key(mTemplate,
+                hasCycles ? mCycles.get(mCycles.size() - 1) : NetworkCycleDataCache.CYCLE_ALL,
+                hasCycles ? mCycles.get(0) : NetworkCycleDataCache.CYCLE_ALL,
+                mAppItem.key, NetworkCycleDataCache.DataType.UID_CYCLES_DETAIL);
+    }
+
     @Override
     public void onPause() {
         super.onPause();
@@ -411,6 +425,9 @@ public class AppDataUsage extends DataUsageBaseFragment implements OnPreferenceC
             public void onLoadFinished(Loader<List<NetworkCycleDataForUid>> loader,
                     List<NetworkCycleDataForUid> data) {
                 mUsageData = data;
+                if (loader != null) {
+                    NetworkCycleDataCache.getInstance().putList(getUsageDataCacheKey(), data);
+                }
                 mCycleAdapter.updateCycleList(data);
                 if (mSelectedCycle > 0L) {
                     final int numCycles = data.size();
@@ -0,0 +1,336 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.datausage;
+
+import static android.net.TrafficStats.UID_REMOVED;
+import static android.net.TrafficStats.UID_TETHERING;
+
+import android.app.ActivityManager;
+import android.app.usage.NetworkStats;
+import android.app.usage.NetworkStats.Bucket;
+import android.app.usage.NetworkStatsManager;
+import android.content.Context;
+import android.net.NetworkTemplate;
+import android.os.Process;
+import android.os.RemoteException;
+import android.os.UserHandle;
+import android.os.UserManager;
+import android.util.Log;
+import android.util.SparseArray;
+import android.util.SparseBooleanArray;
+import android.util.SparseLongArray;
+
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+import androidx.annotation.WorkerThread;
+
+import com.android.settingslib.AppItem;
+import com.android.settingslib.net.UidDetailProvider;
+import com.android.settingslib.utils.AsyncLoaderCompat;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+/**
+ * Loader that queries the per-uid network stats summary of a cycle and collapses it into the
+ * {@link AppItem}s shown by {@link DataUsageList}, all on a background thread. The per-uid
+ * summary is shared through {@link NetworkCycleDataCache}.
+ */
+public class AppDataUsageListLoader
+        extends AsyncLoaderCompat<AppDataUsageListLoader.AppItemList> {
+    private static final String TAG = "AppDataUsageListLoader";
+
+    private final NetworkTemplate mTemplate;
+    private final long mStart;
+    private final long mEnd;
+    private final int[] mRestrictedUids;
+
+    public AppDataUsageListLoader(Context context, NetworkTemplate template, long start,
+            long end, int[] restrictedUids) {
+        super(context);
+        mTemplate = template;
+        mStart = start;
+        mEnd = end;
+        mRestrictedUids = restrictedUids;
+    }
+
+    @Override
+    public AppItemList loadInBackground() {
+        final SparseLongArray uidBytes = loadUidBytes(getContext(), mTemplate, mStart, mEnd);
+        if (uidBytes == null) {
+            return null;
+        }
+        return aggregate(uidBytes, mRestrictedUids, ActivityManager.getCurrentUser(),
+                UserManager.get(getContext()));
+    }
+
+    @Override
+    protected void onDiscardResult(AppItemList result) {
+    }
+
+    /**
+     * Return the total bytes of every uid for the cycle, from {@link NetworkCycleDataCache} when
+     * possible. Must be called on a background thread.
+     */
+    @WorkerThread
+    @Nullable
+    public static SparseLongArray loadUidBytes(Context context, NetworkTemplate template,
+            long start, long end) {
+        final NetworkCycleDataCache cache = NetworkCycleDataCache.getInstance();
+        final NetworkCycleDataCache.Key key = new NetworkCycleDataCache.Key(template, start, end,
+                NetworkCycleDataCache.UID_ALL, NetworkCycleDataCache.DataType.UID_SUMMARY);
+        SparseLongArray uidBytes = cache.getUidSummary(key);
+        if (uidBytes != null) {
+            return uidBytes;
+        }
+
+        final NetworkStatsManager networkStatsManager =
+                context.getSystemService(NetworkStatsManager.class);
+        final NetworkStats stats;
+        try {
+            stats = networkStatsManager.querySummary(template, start, end);
+        } catch (RuntimeException | RemoteException e) {
+            Log.e(TAG, "Exception querying network detail.", e);
+            return null;
+        }
+        if (stats == null) {
+            return null;
+        }
+        try {
+            uidBytes = sumBytesByUid(stats);
+        } finally {
+            stats.close();
+        }
+        cache.putUidSummary(key, uidBytes);
+        return uidBytes;
+    }
+
+    /**
+     * Accumulate the bytes of every {@link Bucket} of {@code stats} per uid. The per-bucket loop
+     * does not allocate.
+     */
+    @VisibleForTesting
+    static SparseLongArray sumBytesByUid(NetworkStats stats) {
+        final SparseLongArray uidBytes = new SparseLongArray();
+        final Bucket bucket = new Bucket();
+        while (stats.hasNextBucket() && stats.getNextBucket(bucket)) {
+            final int uid = bucket.getUid();
+            final int index = uidBytes.indexOfKey(uid);
+            final long bytes = bucket.getRxBytes() + bucket.getTxBytes();
+            if (index >= 0) {
+                uidBytes.setValueAt(index, uidBytes.valueAt(index) + bytes);
+            } else {
+                uidBytes.put(uid, bytes);
+            }
+        }
+        return uidBytes;
+    }
+
+    /**
+     * Collapse the per-uid byte counts into {@link AppItem}s. Profile membership and removed
+     * users are resolved once per user id.
+     */
+    @VisibleForTesting
+    static AppItemList aggregate(SparseLongArray uidBytes, int[] restrictedUids,
+            int currentUserId, UserManager userManager) {
+        final BitSet profiles = new BitSet();
+        for (UserHandle profile : userManager.getUserProfiles()) {
+            profiles.set(profile.getIdentifier());
+        }
+
+        final ArrayList<AppItem> items = new ArrayList<>();
+        final SparseArray<AppItem> knownItems = new SparseArray<>();
+        final SparseBooleanArray knownUsers = new SparseBooleanArray();
+        long largest = 0;
+        for (int i = 0, size = uidBytes.size(); i < size; i++) {
+            // Decide how to collapse items together
+            final int uid = uidBytes.keyAt(i);
+            final long bytes = uidBytes.valueAt(i);
+            final int collapseKey;
+            final int category;
+            final int userId = UserHandle.getUserId(uid);
+            if (UserHandle.isApp(uid)) {
+                if (profiles.get(userId)) {
+                    if (userId != currentUserId) {
+                        // Add to a managed user item.
+                        final int managedKey = UidDetailProvider.buildKeyForUser(userId);
+                        largest = accumulate(managedKey, knownItems, uid, bytes,
+                                AppItem.CATEGORY_USER, items, largest);
+                    }
+                    // Add to app item.
+                    collapseKey = uid;
+                    category = AppItem.CATEGORY_APP;
+                } else {
+                    // If it is a removed user add it to the removed users' key
+                    final int userIndex = knownUsers.indexOfKey(userId);
+                    final boolean userExists;
+                    if (userIndex >= 0) {
+                        userExists = knownUsers.valueAt(userIndex);
+                    } else {
+                        userExists = userManager.getUserInfo(userId) != null;
+                        knownUsers.put(userId, userExists);
+                    }
+                    if (!userExists) {
+                        collapseKey = UID_REMOVED;
+                        category = AppItem.CATEGORY_APP;
+                    } else {
+                        // Add to other user item.
+                        collapseKey = UidDetailProvider.buildKeyForUser(userId);
+                        category = AppItem.CATEGORY_USER;
+                    }
+                }
+            } else if (uid == UID_REMOVED || uid == UID_TETHERING
+                    || uid == Process.OTA_UPDATE_UID) {
+                collapseKey = uid;
+                category = AppItem.CATEGORY_APP;
+            } else {
+                collapseKey = Process.SYSTEM_UID;
+                category = AppItem.CATEGORY_APP;
+            }
+            largest = accumulate(collapseKey, knownItems, uid, bytes, category, items, largest);
+        }
+
+        for (int uid : restrictedUids) {
+            // Only splice in restricted state for current user or managed users
+            if (!profiles.get(UserHandle.getUserId(uid))) {
+                continue;
+            }
+
+            AppItem item = knownItems.get(uid);
+            if (item == null) {
+                item = new AppItem(uid);
+                item.total = -1;
+                items.add(item);
+                knownItems.put(item.key, item);
+            }
+            item.restricted = true;
+        }
+
+        return new AppItemList(items, largest);
+    }
+
+    private static long accumulate(int collapseKey, SparseArray<AppItem> knownItems, int uid,
+            long bytes, int itemCategory, ArrayList<AppItem> items, long largest) {
+        AppItem item = knownItems.get(collapseKey);
+        if (item == null) {
+            item = new AppItem(collapseKey);
+            item.category = itemCategory;
+            items.add(item);
+            knownItems.put(item.key, item);
+        }
+        item.addUid(uid);
+        item.total += bytes;
+        return Math.max(largest, item.total);
+    }
+
+    /**
+     * Aggregated {@link AppItem}s of a cycle. The list is never modified, so the same result can
+     * be bound again, e.g. when the loader redelivers it; it is read through an
+     * {@link AppItemPager}.
+     */
+    public static class AppItemList {
+        private final List<AppItem> mItems;
+        private final long mLargest;
+
+        @VisibleForTesting
+        AppItemList(ArrayList<AppItem> items, long largest) {
+            mItems = Collections.unmodifiableList(items);
+            mLargest = largest;
+        }
+
+        public long getLargest() {
+            return mLargest;
+        }
+
+        public int getCount() {
+            return mItems.size();
+        }
+
+        /** Return a new pager over the items, starting from the largest one. */
+        public AppItemPager newPager() {
+            return new AppItemPager(mItems);
+        }
+    }
+
+    /**
+     * Hands out the items of an {@link AppItemList} in sorted pages. Only the requested page is
+     * ordered, so the full list never needs to be sorted up front.
+     */
+    public static class AppItemPager {
+        private final ArrayList<AppItem> mRemaining;
+        private final int mTotalCount;
+        private int mConsumedCount;
+
+        private AppItemPager(List<AppItem> items) {
+            mRemaining = new ArrayList<>(items);
+            mTotalCount = items.size();
+        }
+
+        public boolean hasNext() {
+            return mConsumedCount < mTotalCount;
+        }
+
+        /**
+         * Return the next {@code count} items in {@link AppItem} order.
+         */
+        public List<AppItem> nextPage(int count) {
+            final int size = mRemaining.size();
+            if (size == 0) {
+                return Collections.emptyList();
+            }
+            final List<AppItem> page;
+            if (count >= size) {
+                page = new ArrayList<>(mRemaining);
+                Collections.sort(page);
+                mRemaining.clear();
+            } else {
+                // Keep the largest {@code count} items in a heap whose head is the smallest
+                final PriorityQueue<AppItem> heap =
+                        new PriorityQueue<>(count, Collections.reverseOrder());
+                for (int i = 0; i < size; i++) {
+                    final AppItem item = mRemaining.get(i);
+                    if (heap.size() < count) {
+                        heap.add(item);
+                    } else if (item.compareTo(heap.peek()) < 0) {
+                        heap.poll();
+                        heap.add(item);
+                    }
+                }
+                page = new ArrayList<>(heap);
+                Collections.sort(page);
+                final Set<AppItem> selected =
+                        Collections.newSetFromMap(new IdentityHashMap<>(count));
+                selected.addAll(page);
+                int kept = 0;
+                for (int i = 0; i < size; i++) {
+                    final AppItem item = mRemaining.get(i);
+                    if (!selected.contains(item)) {
+                        mRemaining.set(kept++, item);
+                    }
+                }
+                mRemaining.subList(kept, size).clear();
+            }
+            mConsumedCount += page.size();
+            return page;
+        }
+    }
+}
@@ -37,15 +37,15 @@ public class AppStateDataUsageBridge extends AppStateBaseBridge {
         final int N = apps.size();
         for (int i = 0; i < N; i++) {
             AppEntry app = apps.get(i);
-            app.extraInfo = new DataUsageState(mDataSaverBackend.isWhitelisted(app.info.uid),
-                    mDataSaverBackend.isBlacklisted(app.info.uid));
+            setExtraInfo(app, new DataUsageState(mDataSaverBackend.isWhitelisted(app.info.uid),
+                    mDataSaverBackend.isBlacklisted(app.info.uid)));
         }
     }
 
     @Override
     protected void updateExtraInfo(AppEntry app, String pkg, int uid) {
-        app.extraInfo = new DataUsageState(mDataSaverBackend.isWhitelisted(uid),
-                mDataSaverBackend.isBlacklisted(uid));
+        setExtraInfo(app, new DataUsageState(mDataSaverBackend.isWhitelisted(uid),
+                mDataSaverBackend.isBlacklisted(uid)));
     }
 
     public static class DataUsageState {
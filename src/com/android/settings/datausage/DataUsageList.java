@@ -17,30 +17,20 @@ package com.android.settings.datausage;
 import static android.net.NetworkPolicyManager.POLICY_REJECT_METERED_BACKGROUND;
 import static android.net.NetworkStatsHistory.FIELD_RX_BYTES;
 import static android.net.NetworkStatsHistory.FIELD_TX_BYTES;
-import static android.net.TrafficStats.UID_REMOVED;
-import static android.net.TrafficStats.UID_TETHERING;
 
 import android.app.Activity;
-import android.app.ActivityManager;
 import android.app.settings.SettingsEnums;
-import android.app.usage.NetworkStats;
-import android.app.usage.NetworkStats.Bucket;
 import android.content.Context;
 import android.content.Intent;
-import android.content.pm.UserInfo;
 import android.graphics.Color;
 import android.net.ConnectivityManager;
 import android.net.NetworkPolicy;
 import android.net.NetworkTemplate;
 import android.os.Bundle;
-import android.os.Process;
-import android.os.UserHandle;
-import android.os.UserManager;
 import android.provider.Settings;
 import android.telephony.SubscriptionInfo;
 import android.telephony.SubscriptionManager;
 import android.util.Log;
-import android.util.SparseArray;
 import android.view.View;
 import android.view.View.AccessibilityDelegate;
 import android.view.accessibility.AccessibilityEvent;
@@ -54,6 +44,7 @@ import androidx.loader.app.LoaderManager.LoaderCallbacks;
 import androidx.loader.content.Loader;
 import androidx.preference.Preference;
 import androidx.preference.PreferenceGroup;
+import androidx.recyclerview.widget.RecyclerView;
 
 import com.android.settings.R;
 import com.android.settings.core.SubSettingLauncher;
@@ -64,11 +55,10 @@ import com.android.settings.widget.LoadingViewController;
 import com.android.settingslib.AppItem;
 import com.android.settingslib.net.NetworkCycleChartData;
 import com.android.settingslib.net.NetworkCycleChartDataLoader;
-import com.android.settingslib.net.NetworkStatsSummaryLoader;
 import com.android.settingslib.net.UidDetailProvider;
+import com.android.settingslib.utils.ThreadUtils;
 
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.List;
 
 /**
@@ -96,6 +86,8 @@ public class DataUsageList extends DataUsageBaseFragment
     static final int LOADER_CHART_DATA = 2;
     @VisibleForTesting
     static final int LOADER_SUMMARY = 3;
+    @VisibleForTesting
+    static final int APP_ITEMS_PAGE_SIZE = 30;
 
     @VisibleForTesting
     MobileDataEnabledListener mDataStateListener;
@@ -119,6 +111,9 @@ public class DataUsageList extends DataUsageBaseFragment
     private Preference mUsageAmount;
     private PreferenceGroup mApps;
     private View mHeader;
+    private AppDataUsageListLoader.AppItemList mAppItems;
+    /** Position in {@link #mAppItems}, kept here since the loader result is shared. */
+    private AppDataUsageListLoader.AppItemPager mAppItemPager;
 
     @Override
     public int getMetricsCategory() {
@@ -196,6 +191,13 @@ public class DataUsageList extends DataUsageBaseFragment
         mLoadingViewController = new LoadingViewController(
                 getView().findViewById(R.id.loading_container), getListView());
         mLoadingViewController.showLoadingViewDelayed();
+        final RecyclerView listView = getListView();
+        if (listView != null) {
+            listView.addOnScrollListener(mAppListScrollListener);
+            // A page that doesn't fill the list can't be scrolled, so check after every layout
+            listView.getViewTreeObserver().addOnGlobalLayoutListener(
+                    () -> listView.post(() -> bindNextPageIfNotScrollable(listView)));
+        }
     }
 
     @Override
@@ -203,11 +205,16 @@ public class DataUsageList extends DataUsageBaseFragment
         super.onResume();
         mDataStateListener.start(mSubId);
 
-        // kick off loader for network history
-        // TODO: consider chaining two loaders together instead of reloading
-        // network history when showing app detail.
-        getLoaderManager().restartLoader(LOADER_CHART_DATA,
-                buildArgs(mTemplate), mNetworkCycleDataCallbacks);
+        // kick off loader for network history, unless another data usage screen has loaded it
+        // recently.
+        final List<NetworkCycleChartData> cachedCycleData =
+                NetworkCycleDataCache.getInstance().getList(getChartDataCacheKey());
+        if (cachedCycleData != null) {
+            mNetworkCycleDataCallbacks.onLoadFinished(null /* loader */, cachedCycleData);
+        } else {
+            getLoaderManager().restartLoader(LOADER_CHART_DATA,
+                    buildArgs(mTemplate), mNetworkCycleDataCallbacks);
+        }
 
         updateBody();
     }
@@ -288,6 +295,12 @@ public class DataUsageList extends DataUsageBaseFragment
         mChart.setColors(seriesColor, secondaryColor);
     }
 
+    private NetworkCycleDataCache.Key getChartDataCacheKey() {
+        return new NetworkCycleDataCache.Key(mTemplate, NetworkCycleDataCache.CYCLE_ALL,
+                NetworkCycleDataCache.CYCLE_ALL, NetworkCycleDataCache.UID_ALL,
+                NetworkCycleDataCache.DataType.CHART_DATA);
+    }
+
     private Bundle buildArgs(NetworkTemplate template) {
         final Bundle args = new Bundle();
         args.putParcelable(KEY_TEMPLATE, template);
@@ -340,90 +353,35 @@ public class DataUsageList extends DataUsageBaseFragment
     }
 
     /**
-     * Bind the given {@link NetworkStats}, or {@code null} to clear list.
+     * Bind the given {@link AppDataUsageListLoader.AppItemList}, or {@code null} to clear list.
+     * Only the first page of preferences is created, the rest follow as the list scrolls.
      */
-    private void bindStats(NetworkStats stats, int[] restrictedUids) {
+    @VisibleForTesting
+    void bindStats(AppDataUsageListLoader.AppItemList appItems) {
         mApps.removeAll();
-        if (stats == null) {
+        mAppItems = appItems;
+        mAppItemPager = appItems != null ? appItems.newPager() : null;
+        if (appItems == null) {
             if (LOGD) {
                 Log.d(TAG, "No network stats data. App list cleared.");
             }
             return;
         }
+        bindNextPage();
+    }
 
-        final ArrayList<AppItem> items = new ArrayList<>();
-        long largest = 0;
-
-        final int currentUserId = ActivityManager.getCurrentUser();
-        final UserManager userManager = UserManager.get(getContext());
-        final List<UserHandle> profiles = userManager.getUserProfiles();
-        final SparseArray<AppItem> knownItems = new SparseArray<AppItem>();
-
-        final Bucket bucket = new Bucket();
-        while (stats.hasNextBucket() && stats.getNextBucket(bucket)) {
-            // Decide how to collapse items together
-            final int uid = bucket.getUid();
-            final int collapseKey;
-            final int category;
-            final int userId = UserHandle.getUserId(uid);
-            if (UserHandle.isApp(uid)) {
-                if (profiles.contains(new UserHandle(userId))) {
-                    if (userId != currentUserId) {
-                        // Add to a managed user item.
-                        final int managedKey = UidDetailProvider.buildKeyForUser(userId);
-                        largest = accumulate(managedKey, knownItems, bucket,
-                            AppItem.CATEGORY_USER, items, largest);
-                    }
-                    // Add to app item.
-                    collapseKey = uid;
-                    category = AppItem.CATEGORY_APP;
-                } else {
-                    // If it is a removed user add it to the removed users' key
-                    final UserInfo info = userManager.getUserInfo(userId);
-                    if (info == null) {
-                        collapseKey = UID_REMOVED;
-                        category = AppItem.CATEGORY_APP;
-                    } else {
-                        // Add to other user item.
-                        collapseKey = UidDetailProvider.buildKeyForUser(userId);
-                        category = AppItem.CATEGORY_USER;
-                    }
-                }
-            } else if (uid == UID_REMOVED || uid == UID_TETHERING
-                    || uid == Process.OTA_UPDATE_UID) {
-                collapseKey = uid;
-                category = AppItem.CATEGORY_APP;
-            } else {
-                collapseKey = android.os.Process.SYSTEM_UID;
-                category = AppItem.CATEGORY_APP;
-            }
-            largest = accumulate(collapseKey, knownItems, bucket, category, items, largest);
-        }
-        stats.close();
-
-        final int restrictedUidsMax = restrictedUids.length;
-        for (int i = 0; i < restrictedUidsMax; ++i) {
-            final int uid = restrictedUids[i];
-            // Only splice in restricted state for current user or managed users
-            if (!profiles.contains(new UserHandle(UserHandle.getUserId(uid)))) {
-                continue;
-            }
-
-            AppItem item = knownItems.get(uid);
-            if (item == null) {
-                item = new AppItem(uid);
-                item.total = -1;
-                items.add(item);
-                knownItems.put(item.key, item);
-            }
-            item.restricted = true;
+    @VisibleForTesting
+    void bindNextPage() {
+        if (mAppItemPager == null || !mAppItemPager.hasNext()) {
+            return;
         }
-
-        Collections.sort(items);
-        for (int i = 0; i < items.size(); i++) {
-            final int percentTotal = largest != 0 ? (int) (items.get(i).total * 100 / largest) : 0;
+        final long largest = mAppItems.getLargest();
+        final List<AppItem> page = mAppItemPager.nextPage(APP_ITEMS_PAGE_SIZE);
+        for (int i = 0; i < page.size(); i++) {
+            final AppItem item = page.get(i);
+            final int percentTotal = largest != 0 ? (int) (item.total * 100 / largest) : 0;
             final AppDataUsagePreference preference = new AppDataUsagePreference(getContext(),
-                    items.get(i), percentTotal, mUidDetailProvider);
+                    item, percentTotal, mUidDetailProvider);
             preference.setOnPreferenceClickListener(new Preference.OnPreferenceClickListener() {
                 @Override
                 public boolean onPreferenceClick(Preference preference) {
@@ -437,6 +395,18 @@ public class DataUsageList extends DataUsageBaseFragment
         }
     }
 
+    /**
+     * Bind the next page of app preferences if the list shows all of the bound ones, since the
+     * list can't be scrolled to the end then.
+     */
+    @VisibleForTesting
+    void bindNextPageIfNotScrollable(RecyclerView listView) {
+        if (mAppItemPager != null && mAppItemPager.hasNext()
+                && !listView.canScrollVertically(1 /* direction */)) {
+            bindNextPage();
+        }
+    }
+
     @VisibleForTesting
     void startAppDataUsage(AppItem item) {
         final Bundle args = new Bundle();
@@ -463,29 +433,16 @@ public class DataUsageList extends DataUsageBaseFragment
                 .launch();
     }
 
-    /**
-     * Accumulate data usage of a network stats entry for the item mapped by the collapse key.
-     * Creates the item if needed.
-     *
-     * @param collapseKey  the collapse key used to map the item.
-     * @param knownItems   collection of known (already existing) items.
-     * @param bucket       the network stats bucket to extract data usage from.
-     * @param itemCategory the item is categorized on the list view by this category. Must be
-     */
-    private static long accumulate(int collapseKey, final SparseArray<AppItem> knownItems,
-            Bucket bucket, int itemCategory, ArrayList<AppItem> items, long largest) {
-        final int uid = bucket.getUid();
-        AppItem item = knownItems.get(collapseKey);
-        if (item == null) {
-            item = new AppItem(collapseKey);
-            item.category = itemCategory;
-            items.add(item);
-            knownItems.put(item.key, item);
+    private final RecyclerView.OnScrollListener mAppListScrollListener =
+            new RecyclerView.OnScrollListener() {
+        @Override
+        public void onScrolled(RecyclerView recyclerView, int dx, int dy) {
+            // Create the next page of app preferences once the end of the list is reached
+            if (dy > 0 && !recyclerView.canScrollVertically(1 /* direction */)) {
+                bindNextPage();
+            }
         }
-        item.addUid(uid);
-        item.total += bucket.getRxBytes() + bucket.getTxBytes();
-        return Math.max(largest, item.total);
-    }
+    };
 
     private OnItemSelectedListener mCycleListener = new OnItemSelectedListener() {
         @Override
@@ -503,6 +460,7 @@ public class DataUsageList extends DataUsageBaseFragment
             mChart.setNetworkCycleData(mCycleData.get(position));
 
             updateDetailData();
+            prefetchAdjacentCycles(position);
         }
 
         @Override
@@ -511,6 +469,34 @@ public class DataUsageList extends DataUsageBaseFragment
         }
     };
 
+    /**
+     * Warm {@link NetworkCycleDataCache} with the app usage of the cycles next to
+     * {@code position}, so that moving the spinner by one doesn't wait for a query.
+     */
+    @VisibleForTesting
+    void prefetchAdjacentCycles(int position) {
+        if (mCycleData == null) {
+            return;
+        }
+        final Context context = getContext().getApplicationContext();
+        final NetworkTemplate template = mTemplate;
+        for (int i = position - 1; i <= position + 1; i += 2) {
+            if (i < 0 || i >= mCycleData.size()) {
+                continue;
+            }
+            final long start = mCycleData.get(i).getStartTime();
+            final long end = mCycleData.get(i).getEndTime();
+            final NetworkCycleDataCache.Key key = new NetworkCycleDataCache.Key(template, start,
+                    end, NetworkCycleDataCache.UID_ALL,
+                    NetworkCycleDataCache.DataType.UID_SUMMARY);
+            if (NetworkCycleDataCache.getInstance().contains(key)) {
+                continue;
+            }
+            ThreadUtils.postOnBackgroundThread(
+                    () -> AppDataUsageListLoader.loadUidBytes(context, template, start, end));
+        }
+    }
+
     @VisibleForTesting
     final LoaderCallbacks<List<NetworkCycleChartData>> mNetworkCycleDataCallbacks =
             new LoaderCallbacks<List<NetworkCycleChartData>>() {
@@ -526,6 +512,9 @@ public class DataUsageList extends DataUsageBaseFragment
                 List<NetworkCycleChartData> data) {
             mLoadingViewController.showContent(false /* animate */);
             mCycleData = data;
+            if (loader != null) {
+                NetworkCycleDataCache.getInstance().putList(getChartDataCacheKey(), data);
+            }
             // calculate policy cycles based on available data
             updatePolicy();
             mCycleSpinner.setVisibility(View.VISIBLE);
@@ -537,28 +526,27 @@ public class DataUsageList extends DataUsageBaseFragment
         }
     };
 
-    private final LoaderCallbacks<NetworkStats> mNetworkStatsDetailCallbacks =
-            new LoaderCallbacks<NetworkStats>() {
+    private final LoaderCallbacks<AppDataUsageListLoader.AppItemList>
+            mNetworkStatsDetailCallbacks =
+            new LoaderCallbacks<AppDataUsageListLoader.AppItemList>() {
         @Override
-        public Loader<NetworkStats> onCreateLoader(int id, Bundle args) {
-            return new NetworkStatsSummaryLoader.Builder(getContext())
-                    .setStartTime(mChart.getInspectStart())
-                    .setEndTime(mChart.getInspectEnd())
-                    .setNetworkTemplate(mTemplate)
-                    .build();
+        public Loader<AppDataUsageListLoader.AppItemList> onCreateLoader(int id, Bundle args) {
+            final int[] restrictedUids = services.mPolicyManager.getUidsWithPolicy(
+                    POLICY_REJECT_METERED_BACKGROUND);
+            return new AppDataUsageListLoader(getContext(), mTemplate,
+                    mChart.getInspectStart(), mChart.getInspectEnd(), restrictedUids);
         }
 
         @Override
-        public void onLoadFinished(Loader<NetworkStats> loader, NetworkStats data) {
-            final int[] restrictedUids = services.mPolicyManager.getUidsWithPolicy(
-                    POLICY_REJECT_METERED_BACKGROUND);
-            bindStats(data, restrictedUids);
+        public void onLoadFinished(Loader<AppDataUsageListLoader.AppItemList> loader,
+                AppDataUsageListLoader.AppItemList data) {
+            bindStats(data);
             updateEmptyVisible();
         }
 
         @Override
-        public void onLoaderReset(Loader<NetworkStats> loader) {
-            bindStats(null, new int[0]);
+        public void onLoaderReset(Loader<AppDataUsageListLoader.AppItemList> loader) {
+            bindStats(null);
             updateEmptyVisible();
         }
 
@@ -0,0 +1,227 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.datausage;
+
+import android.net.NetworkTemplate;
+import android.os.SystemClock;
+import android.text.format.DateUtils;
+import android.util.LruCache;
+import android.util.SparseLongArray;
+
+import androidx.annotation.IntDef;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Memory-bounded cache of network cycle data shared by the data usage screens, so switching
+ * cycles or drilling into an app doesn't query {@link android.app.usage.NetworkStatsManager}
+ * again for the same template and cycle boundaries.
+ *
+ * <p>Entries whose cycle is still open when they are stored expire after
+ * {@link #OPEN_CYCLE_TTL_MS}, closed cycles stay until they are evicted.
+ */
+public class NetworkCycleDataCache {
+
+    /** Uid used for entries that cover every uid of the template. */
+    public static final int UID_ALL = -1;
+    /** Cycle boundary used for entries that cover every cycle of the template. */
+    public static final long CYCLE_ALL = 0L;
+
+    @VisibleForTesting
+    static final long OPEN_CYCLE_TTL_MS = DateUtils.MINUTE_IN_MILLIS;
+    private static final int MAX_SIZE_BYTES = 1024 * 1024;
+    private static final int ENTRY_OVERHEAD_BYTES = 64;
+    private static final int LIST_ITEM_BYTES = 64;
+    private static final int UID_BYTES_ITEM_BYTES = 12;
+
+    @Retention(RetentionPolicy.SOURCE)
+    @IntDef({DataType.CHART_DATA,
+            DataType.UID_SUMMARY,
+            DataType.UID_CYCLES,
+            DataType.UID_CYCLES_DETAIL
+    })
+    public @interface DataType {
+        /** List of {@link com.android.settingslib.net.NetworkCycleChartData}. */
+        int CHART_DATA = 0;
+        /** {@link SparseLongArray} of total bytes keyed by uid. */
+        int UID_SUMMARY = 1;
+        /** List of {@link com.android.settingslib.net.NetworkCycleDataForUid} without detail. */
+        int UID_CYCLES = 2;
+        /** List of {@link com.android.settingslib.net.NetworkCycleDataForUid} with detail. */
+        int UID_CYCLES_DETAIL = 3;
+    }
+
+    private static NetworkCycleDataCache sInstance;
+
+    private final LruCache<Key, Entry> mCache = new LruCache<Key, Entry>(MAX_SIZE_BYTES) {
+        @Override
+        protected int sizeOf(Key key, Entry entry) {
+            return entry.mSizeBytes;
+        }
+    };
+
+    public static synchronized NetworkCycleDataCache getInstance() {
+        if (sInstance == null) {
+            sInstance = new NetworkCycleDataCache();
+        }
+        return sInstance;
+    }
+
+    /** Return the instance if it was already created, without creating it. */
+    @Nullable
+    public static synchronized NetworkCycleDataCache peekInstance() {
+        return sInstance;
+    }
+
+    @VisibleForTesting
+    NetworkCycleDataCache() {
+    }
+
+    /**
+     * Return the cached list for {@code key}, or {@code null} on a miss.
+     */
+    @Nullable
+    @SuppressWarnings("unchecked")
+    public <T> List<T> getList(Key key) {
+        final Entry entry = getEntry(key);
+        return entry != null ? (List<T>) entry.mValue : null;
+    }
+
+    /**
+     * Return the cached uid summary for {@code key}, or {@code null} on a miss.
+     */
+    @Nullable
+    public SparseLongArray getUidSummary(Key key) {
+        final Entry entry = getEntry(key);
+        return entry != null ? (SparseLongArray) entry.mValue : null;
+    }
+
+    public boolean contains(Key key) {
+        return getEntry(key) != null;
+    }
+
+    public void putList(Key key, List<?> data) {
+        if (data == null) {
+            return;
+        }
+        mCache.put(key, new Entry(data, ENTRY_OVERHEAD_BYTES + data.size() * LIST_ITEM_BYTES,
+                isOpenCycle(key)));
+    }
+
+    public void putUidSummary(Key key, SparseLongArray uidBytes) {
+        if (uidBytes == null) {
+            return;
+        }
+        mCache.put(key, new Entry(uidBytes,
+                ENTRY_OVERHEAD_BYTES + uidBytes.size() * UID_BYTES_ITEM_BYTES,
+                isOpenCycle(key)));
+    }
+
+    public void clear() {
+        mCache.evictAll();
+    }
+
+    public int getHitCount() {
+        return mCache.hitCount();
+    }
+
+    public int getMissCount() {
+        return mCache.missCount();
+    }
+
+    public int getSizeBytes() {
+        return mCache.size();
+    }
+
+    private Entry getEntry(Key key) {
+        final Entry entry = mCache.get(key);
+        if (entry != null && entry.isExpired()) {
+            mCache.remove(key);
+            return null;
+        }
+        return entry;
+    }
+
+    private static boolean isOpenCycle(Key key) {
+        return key.mEnd == CYCLE_ALL || key.mEnd > System.currentTimeMillis();
+    }
+
+    /**
+     * Key of a cache entry: the template, the cycle boundaries, the uid (or app item key) and the
+     * kind of data that is stored.
+     */
+    public static class Key {
+        private final NetworkTemplate mTemplate;
+        private final long mStart;
+        private final long mEnd;
+        private final int mUid;
+        private final int mType;
+
+        public Key(NetworkTemplate template, long start, long end, int uid,
+                @DataType int type) {
+            mTemplate = template;
+            mStart = start;
+            mEnd = end;
+            mUid = uid;
+            mType = type;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            final Key other = (Key) o;
+            return mStart == other.mStart
+                    && mEnd == other.mEnd
+                    && mUid == other.mUid
+                    && mType == other.mType
+                    && Objects.equals(mTemplate, other.mTemplate);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(mTemplate, mStart, mEnd, mUid, mType);
+        }
+    }
+
+    private static class Entry {
+        private final Object mValue;
+        private final int mSizeBytes;
+        private final long mExpiryElapsedMs;
+
+        Entry(Object value, int sizeBytes, boolean openCycle) {
+            mValue = value;
+            mSizeBytes = sizeBytes;
+            mExpiryElapsedMs = openCycle
+                    ? SystemClock.elapsedRealtime() + OPEN_CYCLE_TTL_MS
+                    : Long.MAX_VALUE;
+        }
+
+        boolean isExpired() {
+            return SystemClock.elapsedRealtime() >= mExpiryElapsedMs;
+        }
+    }
+}
@@ -39,6 +39,7 @@ import com.android.settings.R;
 import com.android.settings.Utils;
 import com.android.settings.dashboard.DashboardFragment;
 import com.android.settings.dashboard.profileselector.ProfileSelectFragment;
+import com.android.settings.deviceinfo.storage.AppStorageSizesStore;
 import com.android.settings.deviceinfo.storage.AutomaticStorageManagementSwitchPreferenceController;
 import com.android.settings.deviceinfo.storage.CachedStorageValuesHelper;
 import com.android.settings.deviceinfo.storage.SecondaryUserController;
@@ -259,15 +260,37 @@ public class StorageDashboardFragment extends DashboardFragment
     public Loader<SparseArray<StorageAsyncLoader.AppsStorageResult>> onCreateLoader(int id,
             Bundle args) {
         final Context context = getContext();
-        return new StorageAsyncLoader(context, context.getSystemService(UserManager.class),
+        final StorageAsyncLoader loader = new StorageAsyncLoader(context,
+                context.getSystemService(UserManager.class),
                 mVolume.fsUuid,
                 new StorageStatsSource(context),
                 context.getPackageManager());
+        loader.setSizesStore(AppStorageSizesStore.getInstance(context, mVolume.fsUuid));
+        loader.setPartialResultListener(this::onReceivedPartialAppsResult);
+        return loader;
+    }
+
+    /**
+     * Fills in the categories of the current user as soon as it is loaded, instead of waiting
+     * for every other user on the device.
+     */
+    @VisibleForTesting
+    void onReceivedPartialAppsResult(SparseArray<StorageAsyncLoader.AppsStorageResult> partial) {
+        if (mAppsResult != null || mStorageInfo == null
+                || partial.get(UserHandle.myUserId()) == null) {
+            return;
+        }
+        mPreferenceController.updateCategorySizes(partial, UserHandle.myUserId());
+        updateSecondaryUserControllers(mSecondaryUsers, partial);
     }
 
     @Override
     public void onLoadFinished(Loader<SparseArray<StorageAsyncLoader.AppsStorageResult>> loader,
             SparseArray<StorageAsyncLoader.AppsStorageResult> data) {
+        if (data == null) {
+            // The load failed; keep showing what we have rather than caching a partial result.
+            return;
+        }
         mAppsResult = data;
         maybeCacheFreshValues();
         onReceivedSizes();
@@ -328,6 +351,8 @@ public class StorageDashboardFragment extends DashboardFragment
     private void initializeCacheProvider() {
         mCachedStorageValuesHelper =
                 new CachedStorageValuesHelper(getContext(), UserHandle.myUserId());
+        mCachedStorageValuesHelper.setAppSizesStore(
+                AppStorageSizesStore.getInstance(getContext(), mVolume.fsUuid));
         initializeCachedValues();
         onReceivedSizes();
     }
@@ -0,0 +1,447 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.deviceinfo.storage;
+
+import static android.content.pm.ApplicationInfo.CATEGORY_AUDIO;
+import static android.content.pm.ApplicationInfo.CATEGORY_GAME;
+import static android.content.pm.ApplicationInfo.CATEGORY_IMAGE;
+import static android.content.pm.ApplicationInfo.CATEGORY_VIDEO;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.pm.ApplicationInfo;
+import android.net.Uri;
+import android.os.UserHandle;
+import android.provider.Settings;
+import android.util.ArrayMap;
+import android.util.ArraySet;
+import android.util.AtomicFile;
+import android.util.Log;
+import android.util.SparseArray;
+import android.util.SparseBooleanArray;
+
+import androidx.annotation.GuardedBy;
+import androidx.annotation.VisibleForTesting;
+import androidx.annotation.WorkerThread;
+
+import com.android.settingslib.utils.ThreadUtils;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Persistent store of the storage stats of each installed package, keyed by uid, package name and
+ * version code.
+ *
+ * <p>{@link StorageAsyncLoader} only queries the packages whose row is missing, older than the
+ * storage clobber threshold, or dropped by a package broadcast, so a refresh shortly after the
+ * last one costs no binder calls. The rows are kept in a small binary file, so the category sizes
+ * and the app sizes are available right after the process starts. The file is read in the
+ * background when the store is created; lookups made on the main thread see no rows until then.
+ */
+public class AppStorageSizesStore {
+    private static final String TAG = "AppStorageSizesStore";
+
+    private static final String DIR_NAME = "app_storage_sizes";
+    private static final String INTERNAL_VOLUME = "internal";
+    private static final int FILE_VERSION = 2;
+
+    @GuardedBy("sInstances")
+    private static final ArrayMap<String, AppStorageSizesStore> sInstances = new ArrayMap<>();
+
+    private final Context mContext;
+    private final AtomicFile mFile;
+    private final long mMaxAgeMillis;
+
+    @GuardedBy("this")
+    private final SparseArray<ArrayMap<String, Entry>> mEntries = new SparseArray<>();
+    // Users whose rows were dropped by a package broadcast since they were last put, so their
+    // rows don't add up to the size of all their apps.
+    @GuardedBy("this")
+    private final SparseBooleanArray mIncompleteUsers = new SparseBooleanArray();
+    // Packages invalidated before the file was read, dropped from its rows once it is.
+    @GuardedBy("this")
+    private final ArraySet<String> mInvalidatedBeforeLoad = new ArraySet<>();
+    @GuardedBy("this")
+    private boolean mLoaded;
+    @GuardedBy("this")
+    private boolean mReceiverRegistered;
+
+    @VisibleForTesting
+    final BroadcastReceiver mPackageReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            final Uri data = intent.getData();
+            final String pkg = data != null ? data.getSchemeSpecificPart() : null;
+            if (pkg != null) {
+                invalidate(pkg);
+            }
+        }
+    };
+
+    /** Return the store of the volume {@code volumeUuid}, creating it if needed. */
+    public static AppStorageSizesStore getInstance(Context context, String volumeUuid) {
+        final String volume = volumeUuid != null ? volumeUuid : INTERNAL_VOLUME;
+        synchronized (sInstances) {
+            AppStorageSizesStore store = sInstances.get(volume);
+            if (store == null) {
+                final Context appContext = context.getApplicationContext();
+                final File dir = new File(appContext.getFilesDir(), DIR_NAME);
+                store = new AppStorageSizesStore(appContext, new File(dir, volume),
+                        Settings.Global.getLong(appContext.getContentResolver(),
+                                Settings.Global.STORAGE_SETTINGS_CLOBBER_THRESHOLD,
+                                TimeUnit.MINUTES.toMillis(5)));
+                sInstances.put(volume, store);
+                // Registered up front, so rows read from disk are dropped by package changes
+                // even if this process never loads the sizes again.
+                synchronized (store) {
+                    store.registerReceiverIfNeeded();
+                }
+                store.loadAsync();
+            }
+            return store;
+        }
+    }
+
+    @VisibleForTesting
+    AppStorageSizesStore(Context context, File file, long maxAgeMillis) {
+        mContext = context;
+        mFile = new AtomicFile(file);
+        mMaxAgeMillis = maxAgeMillis;
+    }
+
+    /**
+     * Return the stored row of {@code app}, or {@code null} if there is none for its uid and
+     * version code. The row may be stale, which is fine to order apps by size.
+     */
+    public synchronized Entry getEntry(ApplicationInfo app) {
+        loadIfNeeded();
+        return findEntry(mEntries, app);
+    }
+
+    /**
+     * Return a copy of the stored rows, for callers that look up many packages at once, e.g. to
+     * sort by size, and shouldn't take the lock of the store for each one. Never reads the file,
+     * the copy is empty if it wasn't read yet.
+     */
+    public synchronized Snapshot snapshot() {
+        final SparseArray<ArrayMap<String, Entry>> entries = new SparseArray<>(mEntries.size());
+        for (int i = 0, size = mEntries.size(); i < size; i++) {
+            entries.put(mEntries.keyAt(i), new ArrayMap<>(mEntries.valueAt(i)));
+        }
+        return new Snapshot(entries);
+    }
+
+    /**
+     * Return the time of the oldest stored row of {@code userId}, or {@code 0} if there is none
+     * or rows of the user were dropped since they were last put, so that the sizes derived from
+     * them aren't used. Never reads the file.
+     */
+    public synchronized long getOldestTimestamp(int userId) {
+        final ArrayMap<String, Entry> entries = mEntries.get(userId);
+        if (entries == null || entries.isEmpty() || mIncompleteUsers.get(userId)) {
+            return 0;
+        }
+        long oldest = Long.MAX_VALUE;
+        for (int i = 0, size = entries.size(); i < size; i++) {
+            oldest = Math.min(oldest, entries.valueAt(i).timestamp);
+        }
+        return oldest;
+    }
+
+    private static Entry findEntry(SparseArray<ArrayMap<String, Entry>> allEntries,
+            ApplicationInfo app) {
+        final ArrayMap<String, Entry> entries = allEntries.get(UserHandle.getUserId(app.uid));
+        final Entry entry = entries != null ? entries.get(app.packageName) : null;
+        if (entry == null || entry.uid != app.uid || entry.versionCode != app.longVersionCode) {
+            return null;
+        }
+        return entry;
+    }
+
+    /**
+     * Like {@link #getEntry}, but also return {@code null} if the row is older than the storage
+     * clobber threshold and should be queried again.
+     */
+    public synchronized Entry getFreshEntry(ApplicationInfo app, long now) {
+        final Entry entry = getEntry(app);
+        if (entry == null || now - entry.timestamp >= mMaxAgeMillis) {
+            return null;
+        }
+        return entry;
+    }
+
+    /** Replace the rows of {@code userId} with {@code entries} and persist them. */
+    @WorkerThread
+    public synchronized void putEntries(int userId, List<Entry> entries) {
+        loadIfNeeded();
+        final ArrayMap<String, Entry> userEntries = new ArrayMap<>(entries.size());
+        for (int i = 0, size = entries.size(); i < size; i++) {
+            final Entry entry = entries.get(i);
+            userEntries.put(entry.packageName, entry);
+        }
+        mEntries.put(userId, userEntries);
+        mIncompleteUsers.delete(userId);
+        save();
+    }
+
+    /**
+     * Return the category sizes of every user with stored rows, attributed like
+     * {@link StorageAsyncLoader} does. The external stats are not stored and left {@code null}.
+     * Never reads the file.
+     */
+    public synchronized SparseArray<StorageAsyncLoader.AppsStorageResult> getAppsStorageResults() {
+        final SparseArray<StorageAsyncLoader.AppsStorageResult> results = new SparseArray<>();
+        final ArraySet<String> seenPackages = new ArraySet<>();
+        // SparseArray keeps the users in ascending order, which the code size attribution needs.
+        for (int i = 0, userCount = mEntries.size(); i < userCount; i++) {
+            final ArrayMap<String, Entry> entries = mEntries.valueAt(i);
+            final StorageAsyncLoader.AppsStorageResult result =
+                    new StorageAsyncLoader.AppsStorageResult();
+            for (int j = 0, size = entries.size(); j < size; j++) {
+                StorageAsyncLoader.addAppSize(result, entries.valueAt(j), seenPackages);
+            }
+            results.put(mEntries.keyAt(i), result);
+        }
+        return results;
+    }
+
+    /** Drop the rows of {@code pkg} in every user, so it is queried on the next refresh. */
+    @VisibleForTesting
+    synchronized void invalidate(String pkg) {
+        if (!mLoaded) {
+            mInvalidatedBeforeLoad.add(pkg);
+            return;
+        }
+        boolean changed = false;
+        for (int i = 0, size = mEntries.size(); i < size; i++) {
+            if (mEntries.valueAt(i).remove(pkg) != null) {
+                mIncompleteUsers.put(mEntries.keyAt(i), true);
+                changed = true;
+            }
+        }
+        if (changed) {
+            ThreadUtils.postOnBackgroundThread(() -> {
+                synchronized (this) {
+                    save();
+                }
+            });
+        }
+    }
+
+    @GuardedBy("this")
+    private void registerReceiverIfNeeded() {
+        if (mReceiverRegistered) {
+            return;
+        }
+        mReceiverRegistered = true;
+        final IntentFilter filter = new IntentFilter();
+        filter.addAction(Intent.ACTION_PACKAGE_ADDED);
+        filter.addAction(Intent.ACTION_PACKAGE_REMOVED);
+        filter.addAction(Intent.ACTION_PACKAGE_CHANGED);
+        filter.addAction(Intent.ACTION_PACKAGE_REPLACED);
+        filter.addAction(Intent.ACTION_PACKAGE_DATA_CLEARED);
+        filter.addDataScheme("package");
+        mContext.registerReceiverAsUser(mPackageReceiver, UserHandle.ALL, filter,
+                null /* broadcastPermission */, null /* scheduler */);
+    }
+
+    /** Read the file in the background, unless it was read already. */
+    private void loadAsync() {
+        ThreadUtils.postOnBackgroundThread(() -> {
+            synchronized (this) {
+                if (mLoaded) {
+                    return;
+                }
+            }
+            // Read without holding the lock, so main thread lookups don't wait for the disk.
+            final SparseArray<ArrayMap<String, Entry>> entries = new SparseArray<>();
+            final SparseBooleanArray incompleteUsers = new SparseBooleanArray();
+            read(entries, incompleteUsers);
+            synchronized (this) {
+                if (mLoaded) {
+                    return;
+                }
+                mLoaded = true;
+                for (int i = 0, size = entries.size(); i < size; i++) {
+                    mEntries.put(entries.keyAt(i), entries.valueAt(i));
+                }
+                for (int i = 0, size = incompleteUsers.size(); i < size; i++) {
+                    mIncompleteUsers.put(incompleteUsers.keyAt(i), incompleteUsers.valueAt(i));
+                }
+                applyInvalidationsBeforeLoad();
+            }
+        });
+    }
+
+    @GuardedBy("this")
+    private void loadIfNeeded() {
+        if (mLoaded) {
+            return;
+        }
+        mLoaded = true;
+        read(mEntries, mIncompleteUsers);
+        applyInvalidationsBeforeLoad();
+    }
+
+    @GuardedBy("this")
+    private void applyInvalidationsBeforeLoad() {
+        for (int i = 0, size = mInvalidatedBeforeLoad.size(); i < size; i++) {
+            invalidate(mInvalidatedBeforeLoad.valueAt(i));
+        }
+        mInvalidatedBeforeLoad.clear();
+    }
+
+    private void read(SparseArray<ArrayMap<String, Entry>> entriesOut,
+            SparseBooleanArray incompleteUsersOut) {
+        try (DataInputStream in = new DataInputStream(mFile.openRead())) {
+            if (in.readInt() != FILE_VERSION) {
+                return;
+            }
+            final int userCount = in.readInt();
+            for (int i = 0; i < userCount; i++) {
+                final int userId = in.readInt();
+                if (in.readBoolean()) {
+                    incompleteUsersOut.put(userId, true);
+                }
+                final int entryCount = in.readInt();
+                final ArrayMap<String, Entry> entries = new ArrayMap<>(entryCount);
+                for (int j = 0; j < entryCount; j++) {
+                    final Entry entry = new Entry(in.readInt(), in.readUTF(), in.readLong(),
+                            in.readInt(), in.readLong(), in.readLong(), in.readLong(),
+                            in.readLong(), in.readLong());
+                    entries.put(entry.packageName, entry);
+                }
+                entriesOut.put(userId, entries);
+            }
+        } catch (FileNotFoundException e) {
+            // Nothing stored for this volume yet
+        } catch (IOException e) {
+            Log.w(TAG, "Unable to read app storage sizes, starting over", e);
+            entriesOut.clear();
+            incompleteUsersOut.clear();
+        }
+    }
+
+    @GuardedBy("this")
+    private void save() {
+        FileOutputStream fos = null;
+        try {
+            mFile.getBaseFile().getParentFile().mkdirs();
+            fos = mFile.startWrite();
+            final DataOutputStream out = new DataOutputStream(fos);
+            out.writeInt(FILE_VERSION);
+            out.writeInt(mEntries.size());
+            for (int i = 0, userCount = mEntries.size(); i < userCount; i++) {
+                final ArrayMap<String, Entry> entries = mEntries.valueAt(i);
+                out.writeInt(mEntries.keyAt(i));
+                out.writeBoolean(mIncompleteUsers.get(mEntries.keyAt(i)));
+                out.writeInt(entries.size());
+                for (int j = 0, size = entries.size(); j < size; j++) {
+                    final Entry entry = entries.valueAt(j);
+                    out.writeInt(entry.uid);
+                    out.writeUTF(entry.packageName);
+                    out.writeLong(entry.versionCode);
+                    out.writeInt(entry.category);
+                    out.writeLong(entry.codeBytes);
+                    out.writeLong(entry.dataBytes);
+                    out.writeLong(entry.cacheBytes);
+                    out.writeLong(entry.cacheQuotaBytes);
+                    out.writeLong(entry.timestamp);
+                }
+            }
+            out.flush();
+            mFile.finishWrite(fos);
+        } catch (IOException e) {
+            Log.w(TAG, "Unable to write app storage sizes", e);
+            if (fos != null) {
+                mFile.failWrite(fos);
+            }
+        }
+    }
+
+    /**
+     * Return the category {@code app} is counted in. Apps that only set the deprecated game flag
+     * are counted as games.
+     */
+    static int getCategory(ApplicationInfo app) {
+        switch (app.category) {
+            case CATEGORY_GAME:
+            case CATEGORY_AUDIO:
+            case CATEGORY_VIDEO:
+            case CATEGORY_IMAGE:
+                return app.category;
+            default:
+                return (app.flags & ApplicationInfo.FLAG_IS_GAME) != 0
+                        ? CATEGORY_GAME : app.category;
+        }
+    }
+
+    /** An unsynchronized copy of the stored rows, see {@link #snapshot()}. */
+    public static class Snapshot {
+        private final SparseArray<ArrayMap<String, Entry>> mEntries;
+
+        private Snapshot(SparseArray<ArrayMap<String, Entry>> entries) {
+            mEntries = entries;
+        }
+
+        /** Like {@link AppStorageSizesStore#getEntry}, on the copied rows. */
+        public Entry getEntry(ApplicationInfo app) {
+            return findEntry(mEntries, app);
+        }
+    }
+
+    /** The storage stats of one package of one user. */
+    public static class Entry {
+        public final int uid;
+        public final String packageName;
+        public final long versionCode;
+        public final int category;
+        public final long codeBytes;
+        /** Data bytes, which include the cache bytes. */
+        public final long dataBytes;
+        public final long cacheBytes;
+        public final long cacheQuotaBytes;
+        public final long timestamp;
+
+        public Entry(int uid, String packageName, long versionCode, int category, long codeBytes,
+                long dataBytes, long cacheBytes, long cacheQuotaBytes, long timestamp) {
+            this.uid = uid;
+            this.packageName = packageName;
+            this.versionCode = versionCode;
+            this.category = category;
+            this.codeBytes = codeBytes;
+            this.dataBytes = dataBytes;
+            this.cacheBytes = cacheBytes;
+            this.cacheQuotaBytes = cacheQuotaBytes;
+            this.timestamp = timestamp;
+        }
+
+        /** Return the size of the package the way the app list shows it. */
+        public long getTotalBytes() {
+            return codeBytes + dataBytes;
+        }
+    }
+}
@@ -49,6 +49,7 @@ public class CachedStorageValuesHelper {
     private final Long mClobberThreshold;
     private final SharedPreferences mSharedPreferences;
     private final int mUserId;
+    private AppStorageSizesStore mSizesStore;
     // This clock is used to provide the time. By default, it uses the system clock, but can be
     // replaced for test purposes.
     protected Clock mClock;
@@ -65,6 +66,15 @@ public class CachedStorageValuesHelper {
                         TimeUnit.MINUTES.toMillis(5));
     }
 
+    /**
+     * Sets the store of per-package sizes that the cached category sizes are derived from. Without
+     * one, or without stored rows for the user, the aggregates last passed to
+     * {@link #cacheResult} are used.
+     */
+    public void setAppSizesStore(AppStorageSizesStore store) {
+        mSizesStore = store;
+    }
+
     public PrivateStorageInfo getCachedPrivateStorageInfo() {
         if (!isDataValid()) {
             return null;
@@ -82,6 +92,7 @@ public class CachedStorageValuesHelper {
         if (!isDataValid()) {
             return null;
         }
+        final StorageAsyncLoader.AppsStorageResult storedResult = getStoredResult();
         final long gamesSize = mSharedPreferences.getLong(GAME_APPS_SIZE_KEY, -1);
         final long musicAppsSize = mSharedPreferences.getLong(MUSIC_APPS_SIZE_KEY, -1);
         final long videoAppsSize = mSharedPreferences.getLong(VIDEO_APPS_SIZE_KEY, -1);
@@ -119,11 +130,19 @@ public class CachedStorageValuesHelper {
                         externalAppBytes);
         final StorageAsyncLoader.AppsStorageResult result =
                 new StorageAsyncLoader.AppsStorageResult();
-        result.gamesSize = gamesSize;
-        result.musicAppsSize = musicAppsSize;
-        result.videoAppsSize = videoAppsSize;
-        result.photosAppsSize = photoAppSize;
-        result.otherAppsSize = otherAppsSize;
+        if (storedResult != null) {
+            result.gamesSize = storedResult.gamesSize;
+            result.musicAppsSize = storedResult.musicAppsSize;
+            result.videoAppsSize = storedResult.videoAppsSize;
+            result.photosAppsSize = storedResult.photosAppsSize;
+            result.otherAppsSize = storedResult.otherAppsSize;
+        } else {
+            result.gamesSize = gamesSize;
+            result.musicAppsSize = musicAppsSize;
+            result.videoAppsSize = videoAppsSize;
+            result.photosAppsSize = photoAppSize;
+            result.otherAppsSize = otherAppsSize;
+        }
         result.cacheSize = cacheSize;
         result.externalStats = externalStats;
         final SparseArray<StorageAsyncLoader.AppsStorageResult> resultArray = new SparseArray<>();
@@ -153,6 +172,21 @@ public class CachedStorageValuesHelper {
                 .apply();
     }
 
+    /**
+     * Return the category sizes derived from the stored rows, or {@code null} if any of them is
+     * as old as the clobber threshold.
+     */
+    private StorageAsyncLoader.AppsStorageResult getStoredResult() {
+        if (mSizesStore == null) {
+            return null;
+        }
+        final long oldest = mSizesStore.getOldestTimestamp(mUserId);
+        if (oldest == 0 || mClock.getCurrentTime() - oldest >= mClobberThreshold) {
+            return null;
+        }
+        return mSizesStore.getAppsStorageResults().get(mUserId);
+    }
+
     private boolean isDataValid() {
         final int cachedUserId = mSharedPreferences.getInt(USER_ID_KEY, -1);
         if (cachedUserId != mUserId) {
@@ -31,14 +31,23 @@ import android.os.UserManager;
 import android.util.ArraySet;
 import android.util.Log;
 import android.util.SparseArray;
+import android.util.SparseLongArray;
+
+import androidx.annotation.VisibleForTesting;
 
 import com.android.settingslib.applications.StorageStatsSource;
 import com.android.settingslib.utils.AsyncLoaderCompat;
+import com.android.settingslib.utils.ThreadUtils;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * StorageAsyncLoader is a Loader which loads categorized app information and external stats for all
@@ -48,11 +57,15 @@ public class StorageAsyncLoader
         extends AsyncLoaderCompat<SparseArray<StorageAsyncLoader.AppsStorageResult>> {
     private UserManager mUserManager;
     private static final String TAG = "StorageAsyncLoader";
+    @VisibleForTesting
+    static final int MAX_LOAD_THREADS = 4;
 
     private String mUuid;
     private StorageStatsSource mStatsManager;
     private PackageManager mPackageManager;
     private ArraySet<String> mSeenPackages;
+    private PartialResultListener mPartialResultListener;
+    private AppStorageSizesStore mSizesStore;
 
     public StorageAsyncLoader(Context context, UserManager userManager,
             String uuid, StorageStatsSource source, PackageManager pm) {
@@ -63,11 +76,37 @@ public class StorageAsyncLoader
         mPackageManager = pm;
     }
 
+    /**
+     * Sets a listener which is told on the main thread about the users loaded so far, before
+     * {@link #loadInBackground()} returns the result for all users.
+     */
+    public void setPartialResultListener(PartialResultListener listener) {
+        mPartialResultListener = listener;
+    }
+
+    /**
+     * Sets the store to reuse the sizes of the packages from, and to keep up to date with the
+     * sizes this loader queries.
+     */
+    public void setSizesStore(AppStorageSizesStore store) {
+        mSizesStore = store;
+    }
+
+    /**
+     * Return the storage results of every user, or {@code null} if the load failed, so that a
+     * partial result is never cached as if it were complete.
+     */
     @Override
     public SparseArray<AppsStorageResult> loadInBackground() {
         return loadApps();
     }
 
+    @Override
+    protected void onReset() {
+        super.onReset();
+        mPartialResultListener = null;
+    }
+
     private SparseArray<AppsStorageResult> loadApps() {
         mSeenPackages = new ArraySet<>();
         SparseArray<AppsStorageResult> result = new SparseArray<>();
@@ -81,85 +120,161 @@ public class StorageAsyncLoader
                         return Integer.compare(userInfo.id, otherUser.id);
                     }
                 });
-        for (int i = 0, userCount = infos.size(); i < userCount; i++) {
-            UserInfo info = infos.get(i);
-            result.put(info.id, getStorageResultForUser(info.id));
+        final int userCount = infos.size();
+        if (userCount == 0) {
+            return result;
+        }
+
+        // Querying the stats is the slow part, so the users are queried in parallel. The results
+        // are still attributed in user id order so the code size always goes to the same user.
+        final ExecutorService executor =
+                Executors.newFixedThreadPool(Math.min(userCount, MAX_LOAD_THREADS));
+        final List<Future<UserStats>> futures = new ArrayList<>(userCount);
+        for (int i = 0; i < userCount; i++) {
+            final int userId = infos.get(i).id;
+            futures.add(executor.submit(() -> getStatsForUser(userId)));
+        }
+        executor.shutdown();
+
+        try {
+            for (int i = 0; i < userCount; i++) {
+                final UserStats stats = futures.get(i).get();
+                result.put(stats.mUserId, getStorageResultForUser(stats));
+                if (i < userCount - 1) {
+                    notifyPartialResult(result.clone());
+                }
+            }
+        } catch (InterruptedException e) {
+            Log.w(TAG, "Interrupted while loading the storage stats", e);
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException e) {
+            Log.w(TAG, "Failed to load the storage stats", e);
+            executor.shutdownNow();
+            return null;
         }
         return result;
     }
 
-    private AppsStorageResult getStorageResultForUser(int userId) {
-        Log.d(TAG, "Loading apps");
-        List<ApplicationInfo> applicationInfos =
+    private void notifyPartialResult(SparseArray<AppsStorageResult> result) {
+        ThreadUtils.postOnMainThread(() -> {
+            // Read on the main thread, where onReset clears it.
+            final PartialResultListener listener = mPartialResultListener;
+            if (listener != null) {
+                listener.onPartialResult(result);
+            }
+        });
+    }
+
+    private UserStats getStatsForUser(int userId) {
+        Log.d(TAG, "Loading apps for user " + userId);
+        final List<ApplicationInfo> applicationInfos =
                 mPackageManager.getInstalledApplicationsAsUser(0, userId);
-        AppsStorageResult result = new AppsStorageResult();
-        UserHandle myUser = UserHandle.of(userId);
+        final UserStats result = new UserStats(userId, applicationInfos.size());
+        final UserHandle user = UserHandle.of(userId);
+        final long now = System.currentTimeMillis();
+        // Packages sharing a uid share its cache quota, so only ask once per uid.
+        final SparseLongArray cacheQuotas = new SparseLongArray();
+        int storedCount = 0;
         for (int i = 0, size = applicationInfos.size(); i < size; i++) {
-            ApplicationInfo app = applicationInfos.get(i);
+            final ApplicationInfo app = applicationInfos.get(i);
+            final AppStorageSizesStore.Entry stored =
+                    mSizesStore != null ? mSizesStore.getFreshEntry(app, now) : null;
+            if (stored != null) {
+                result.mEntries.add(stored);
+                storedCount++;
+                continue;
+            }
 
-            StorageStatsSource.AppStorageStats stats;
+            final StorageStatsSource.AppStorageStats stats;
             try {
-                stats = mStatsManager.getStatsForPackage(mUuid, app.packageName, myUser);
+                stats = mStatsManager.getStatsForPackage(mUuid, app.packageName, user);
             } catch (NameNotFoundException | IOException e) {
                 // This may happen if the package was removed during our calculation.
                 Log.w(TAG, "App unexpectedly not found", e);
                 continue;
             }
 
-            final long dataSize = stats.getDataBytes();
-            final long cacheQuota = mStatsManager.getCacheQuotaBytes(mUuid, app.uid);
-            final long cacheBytes = stats.getCacheBytes();
-            long blamedSize = dataSize;
-            // Technically, we could overages as freeable on the storage settings screen.
-            // If the app is using more cache than its quota, we would accidentally subtract the
-            // overage from the system size (because it shows up as unused) during our attribution.
-            // Thus, we cap the attribution at the quota size.
-            if (cacheQuota < cacheBytes) {
-                blamedSize = blamedSize - cacheBytes + cacheQuota;
-            }
-
-            // This isn't quite right because it slams the first user by user id with the whole code
-            // size, but this ensures that we count all apps seen once.
-            if (!mSeenPackages.contains(app.packageName)) {
-                blamedSize += stats.getCodeBytes();
-                mSeenPackages.add(app.packageName);
-            }
-
-            switch (app.category) {
-                case CATEGORY_GAME:
-                    result.gamesSize += blamedSize;
-                    break;
-                case CATEGORY_AUDIO:
-                    result.musicAppsSize += blamedSize;
-                    break;
-                case CATEGORY_VIDEO:
-                    result.videoAppsSize += blamedSize;
-                    break;
-                case CATEGORY_IMAGE:
-                    result.photosAppsSize += blamedSize;
-                    break;
-                default:
-                    // The deprecated game flag does not set the category.
-                    if ((app.flags & ApplicationInfo.FLAG_IS_GAME) != 0) {
-                        result.gamesSize += blamedSize;
-                        break;
-                    }
-                    result.otherAppsSize += blamedSize;
-                    break;
+            int index = cacheQuotas.indexOfKey(app.uid);
+            if (index < 0) {
+                cacheQuotas.put(app.uid, mStatsManager.getCacheQuotaBytes(mUuid, app.uid));
+                index = cacheQuotas.indexOfKey(app.uid);
             }
+            result.mEntries.add(new AppStorageSizesStore.Entry(app.uid, app.packageName,
+                    app.longVersionCode, AppStorageSizesStore.getCategory(app),
+                    stats.getCodeBytes(), stats.getDataBytes(), stats.getCacheBytes(),
+                    cacheQuotas.valueAt(index), now));
+        }
+        if (mSizesStore != null) {
+            Log.d(TAG, "Reused " + storedCount + " stored sizes for user " + userId);
+            mSizesStore.putEntries(userId, result.mEntries);
         }
 
-        Log.d(TAG, "Loading external stats");
+        Log.d(TAG, "Loading external stats for user " + userId);
         try {
-            result.externalStats = mStatsManager.getExternalStorageStats(mUuid,
-                    UserHandle.of(userId));
+            result.mExternalStats = mStatsManager.getExternalStorageStats(mUuid, user);
         } catch (IOException e) {
             Log.w(TAG, e);
         }
-        Log.d(TAG, "Obtaining result completed");
         return result;
     }
 
+    private AppsStorageResult getStorageResultForUser(UserStats userStats) {
+        AppsStorageResult result = new AppsStorageResult();
+        for (int i = 0, size = userStats.mEntries.size(); i < size; i++) {
+            addAppSize(result, userStats.mEntries.get(i), mSeenPackages);
+        }
+        result.externalStats = userStats.mExternalStats;
+        Log.d(TAG, "Obtaining result completed for user " + userStats.mUserId);
+        return result;
+    }
+
+    /**
+     * Add the size of the package {@code entry} to its category in {@code result}. The code size
+     * is only added if the package is not in {@code seenPackages} yet.
+     */
+    static void addAppSize(AppsStorageResult result, AppStorageSizesStore.Entry entry,
+            ArraySet<String> seenPackages) {
+        final long dataSize = entry.dataBytes;
+        final long cacheQuota = entry.cacheQuotaBytes;
+        final long cacheBytes = entry.cacheBytes;
+        long blamedSize = dataSize;
+        // Technically, we could overages as freeable on the storage settings screen.
+        // If the app is using more cache than its quota, we would accidentally subtract the
+        // overage from the system size (because it shows up as unused) during our attribution.
+        // Thus, we cap the attribution at the quota size.
+        if (cacheQuota < cacheBytes) {
+            blamedSize = blamedSize - cacheBytes + cacheQuota;
+        }
+
+        // This isn't quite right because it slams the first user by user id with the whole code
+        // size, but this ensures that we count all apps seen once.
+        if (!seenPackages.contains(entry.packageName)) {
+            blamedSize += entry.codeBytes;
+            seenPackages.add(entry.packageName);
+        }
+
+        // The deprecated game flag is already folded into the category.
+        switch (entry.category) {
+            case CATEGORY_GAME:
+                result.gamesSize += blamedSize;
+                break;
+            case CATEGORY_AUDIO:
+                result.musicAppsSize += blamedSize;
+                break;
+            case CATEGORY_VIDEO:
+                result.videoAppsSize += blamedSize;
+                break;
+            case CATEGORY_IMAGE:
+                result.photosAppsSize += blamedSize;
+                break;
+            default:
+                result.otherAppsSize += blamedSize;
+                break;
+        }
+    }
+
     @Override
     protected void onDiscardResult(SparseArray<AppsStorageResult> result) {
     }
@@ -181,4 +296,24 @@ public class StorageAsyncLoader
     public interface ResultHandler {
         void handleResult(SparseArray<AppsStorageResult> result);
     }
+
+    /**
+     * PartialResultListener receives the results of the users loaded so far while
+     * {@link StorageAsyncLoader} is still loading the others.
+     */
+    public interface PartialResultListener {
+        void onPartialResult(SparseArray<AppsStorageResult> result);
+    }
+
+    /** The stats of the packages of one user, before they are attributed to categories. */
+    private static class UserStats {
+        final int mUserId;
+        final List<AppStorageSizesStore.Entry> mEntries;
+        StorageStatsSource.ExternalStorageStats mExternalStats;
+
+        UserStats(int userId, int appCount) {
+            mUserId = userId;
+            mEntries = new ArrayList<>(appCount);
+        }
+    }
 }
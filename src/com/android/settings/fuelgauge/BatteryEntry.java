@@ -34,6 +34,7 @@ import android.util.Log;
 
 import com.android.internal.os.BatterySipper;
 import com.android.settings.R;
+import com.android.settings.applications.AppIconCache;
 import com.android.settingslib.Utils;
 
 import java.util.ArrayList;
@@ -292,6 +293,7 @@ public class BatteryEntry {
 
             // Convert package names to user-facing labels where possible
             IPackageManager ipm = AppGlobals.getPackageManager();
+            final AppIconCache iconCache = AppIconCache.getInstance(context);
             final int userId = UserHandle.getUserId(uid);
             for (int i = 0; i < packageLabels.length; i++) {
                 try {
@@ -302,13 +304,14 @@ public class BatteryEntry {
                                 + packageLabels[i] + ", user " + userId);
                         continue;
                     }
-                    CharSequence label = ai.loadLabel(pm);
+                    CharSequence label = iconCache.getLabel(ai, userId);
                     if (label != null) {
                         packageLabels[i] = label.toString();
                     }
                     if (ai.icon != 0) {
                         defaultPackageName = packages[i];
-                        icon = ai.loadIcon(pm);
+                        // Badged by the list for work profile apps.
+                        icon = iconCache.getIcon(ai, userId, false /* badged */);
                         break;
                     }
                 } catch (RemoteException e) {
@@ -336,7 +339,8 @@ public class BatteryEntry {
                                 name = nm.toString();
                                 if (pi.applicationInfo.icon != 0) {
                                     defaultPackageName = pkgName;
-                                    icon = pi.applicationInfo.loadIcon(pm);
+                                    icon = iconCache.getIcon(pi.applicationInfo, userId,
+                                            false /* badged */);
                                 }
                                 break;
                             }
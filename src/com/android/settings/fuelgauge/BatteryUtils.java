@@ -19,10 +19,7 @@ import android.app.AppOpsManager;
 import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
-import android.content.pm.ApplicationInfo;
-import android.content.pm.PackageInfo;
 import android.content.pm.PackageManager;
-import android.content.pm.ResolveInfo;
 import android.os.BatteryStats;
 import android.os.Build;
 import android.os.Bundle;
@@ -47,7 +44,6 @@ import com.android.settings.fuelgauge.batterytip.AnomalyInfo;
 import com.android.settings.fuelgauge.batterytip.BatteryDatabaseManager;
 import com.android.settings.fuelgauge.batterytip.StatsManagerConfig;
 import com.android.settings.overlay.FeatureFactory;
-import com.android.settingslib.applications.AppUtils;
 import com.android.settingslib.fuelgauge.Estimate;
 import com.android.settingslib.fuelgauge.EstimateKt;
 import com.android.settingslib.fuelgauge.PowerWhitelistBackend;
@@ -93,20 +89,29 @@ public class BatteryUtils {
     private AppOpsManager mAppOpsManager;
     private Context mContext;
     @VisibleForTesting
+    PackageMetadataCache mPackageMetadataCache;
+    @VisibleForTesting
     PowerUsageFeatureProvider mPowerUsageFeatureProvider;
 
     public static BatteryUtils getInstance(Context context) {
         if (sInstance == null || sInstance.isDataCorrupted()) {
-            sInstance = new BatteryUtils(context.getApplicationContext());
+            final Context appContext = context.getApplicationContext();
+            // Share one cache across instances, so only one package receiver is ever registered
+            sInstance = new BatteryUtils(appContext, PackageMetadataCache.getInstance(appContext));
         }
         return sInstance;
     }
 
     @VisibleForTesting
     BatteryUtils(Context context) {
+        this(context, new PackageMetadataCache(context));
+    }
+
+    private BatteryUtils(Context context, PackageMetadataCache packageMetadataCache) {
         mContext = context;
         mPackageManager = context.getPackageManager();
         mAppOpsManager = (AppOpsManager) context.getSystemService(Context.APP_OPS_SERVICE);
+        mPackageMetadataCache = packageMetadataCache;
         mPowerUsageFeatureProvider = FeatureFactory.getFactory(context)
                 .getPowerUsageFeatureProvider(context);
     }
@@ -267,16 +272,11 @@ public class BatteryUtils {
         if (sipper.uidObj == null) {
             return false;
         }
-        sipper.mPackages = mPackageManager.getPackagesForUid(sipper.getUid());
-        if (sipper.mPackages != null) {
-            for (int i = 0, length = sipper.mPackages.length; i < length; i++) {
-                if (AppUtils.isHiddenSystemModule(mContext, sipper.mPackages[i])) {
-                    return true;
-                }
-            }
-        }
+        final PackageMetadataCache.UidMetadata metadata =
+                mPackageMetadataCache.getUidMetadata(sipper.getUid());
+        sipper.mPackages = metadata.packages;
 
-        return false;
+        return metadata.isHiddenSystemModule;
     }
 
     /**
@@ -326,7 +326,7 @@ public class BatteryUtils {
      * @see PackageManager#getPackagesForUid(int)
      */
     public String getPackageName(int uid) {
-        final String[] packageNames = mPackageManager.getPackagesForUid(uid);
+        final String[] packageNames = mPackageMetadataCache.getUidMetadata(uid).packages;
 
         return ArrayUtils.isEmpty(packageNames) ? null : packageNames[0];
     }
@@ -337,16 +337,10 @@ public class BatteryUtils {
      * @return the targetSdkVersion, or {@link #SDK_NULL} if {@code packageName} doesn't exist
      */
     public int getTargetSdkVersion(final String packageName) {
-        try {
-            ApplicationInfo info = mPackageManager.getApplicationInfo(packageName,
-                    PackageManager.GET_META_DATA);
-
-            return info.targetSdkVersion;
-        } catch (PackageManager.NameNotFoundException e) {
-            Log.e(TAG, "Cannot find package: " + packageName, e);
-        }
+        final PackageMetadataCache.PackageMetadata metadata =
+                mPackageMetadataCache.getPackageMetadata(packageName);
 
-        return SDK_NULL;
+        return metadata != null ? metadata.targetSdkVersion : SDK_NULL;
     }
 
     /**
@@ -549,16 +543,10 @@ public class BatteryUtils {
     }
 
     public boolean isPreOApp(final String packageName) {
-        try {
-            ApplicationInfo info = mPackageManager.getApplicationInfo(packageName,
-                    PackageManager.GET_META_DATA);
-
-            return info.targetSdkVersion < Build.VERSION_CODES.O;
-        } catch (PackageManager.NameNotFoundException e) {
-            Log.e(TAG, "Cannot find package: " + packageName, e);
-        }
+        final PackageMetadataCache.PackageMetadata metadata =
+                mPackageMetadataCache.getPackageMetadata(packageName);
 
-        return false;
+        return metadata != null && metadata.targetSdkVersion < Build.VERSION_CODES.O;
     }
 
     public boolean isPreOApp(final String[] packageNames) {
@@ -580,14 +568,14 @@ public class BatteryUtils {
      */
     public boolean shouldHideAnomaly(PowerWhitelistBackend powerWhitelistBackend, int uid,
             AnomalyInfo anomalyInfo) {
-        final String[] packageNames = mPackageManager.getPackagesForUid(uid);
+        final String[] packageNames = mPackageMetadataCache.getUidMetadata(uid).packages;
         if (ArrayUtils.isEmpty(packageNames)) {
             // Don't show it if app has been uninstalled
             return true;
         }
 
         return isSystemUid(uid) || powerWhitelistBackend.isWhitelisted(packageNames)
-                || (isSystemApp(mPackageManager, packageNames) && !hasLauncherEntry(packageNames))
+                || (isSystemApp(packageNames) && !hasLauncherEntry(packageNames))
                 || (isExcessiveBackgroundAnomaly(anomalyInfo) && !isPreOApp(packageNames));
     }
 
@@ -601,16 +589,12 @@ public class BatteryUtils {
         return appUid >= Process.ROOT_UID && appUid < Process.FIRST_APPLICATION_UID;
     }
 
-    private boolean isSystemApp(PackageManager packageManager, String[] packageNames) {
+    private boolean isSystemApp(String[] packageNames) {
         for (String packageName : packageNames) {
-            try {
-                final ApplicationInfo info = packageManager.getApplicationInfo(packageName,
-                        0 /* flags */);
-                if ((info.flags & ApplicationInfo.FLAG_SYSTEM) != 0) {
-                    return true;
-                }
-            } catch (PackageManager.NameNotFoundException e) {
-                Log.e(TAG, "Package not found: " + packageName, e);
+            final PackageMetadataCache.PackageMetadata metadata =
+                    mPackageMetadataCache.getPackageMetadata(packageName);
+            if (metadata != null && metadata.isSystemApp) {
+                return true;
             }
         }
 
@@ -618,28 +602,7 @@ public class BatteryUtils {
     }
 
     private boolean hasLauncherEntry(String[] packageNames) {
-        final Intent launchIntent = new Intent(Intent.ACTION_MAIN, null);
-        launchIntent.addCategory(Intent.CATEGORY_LAUNCHER);
-
-        // If we do not specify MATCH_DIRECT_BOOT_AWARE or
-        // MATCH_DIRECT_BOOT_UNAWARE, system will derive and update the flags
-        // according to the user's lock state. When the user is locked,
-        // components
-        // with ComponentInfo#directBootAware == false will be filtered. We should
-        // explicitly include both direct boot aware and unaware components here.
-        final List<ResolveInfo> resolveInfos = mPackageManager.queryIntentActivities(launchIntent,
-                PackageManager.MATCH_DISABLED_COMPONENTS
-                        | PackageManager.MATCH_DIRECT_BOOT_AWARE
-                        | PackageManager.MATCH_DIRECT_BOOT_UNAWARE
-                        | PackageManager.MATCH_SYSTEM_ONLY);
-        for (int i = 0, size = resolveInfos.size(); i < size; i++) {
-            final ResolveInfo resolveInfo = resolveInfos.get(i);
-            if (ArrayUtils.contains(packageNames, resolveInfo.activityInfo.packageName)) {
-                return true;
-            }
-        }
-
-        return false;
+        return mPackageMetadataCache.hasLauncherEntry(packageNames);
     }
 
     /**
@@ -647,15 +610,17 @@ public class BatteryUtils {
      * found.
      */
     public long getAppLongVersionCode(String packageName) {
-        try {
-            final PackageInfo packageInfo = mPackageManager.getPackageInfo(packageName,
-                    0 /* flags */);
-            return packageInfo.getLongVersionCode();
-        } catch (PackageManager.NameNotFoundException e) {
-            Log.e(TAG, "Cannot find package: " + packageName, e);
-        }
+        final PackageMetadataCache.PackageMetadata metadata =
+                mPackageMetadataCache.getPackageMetadata(packageName);
 
-        return -1L;
+        return metadata != null ? metadata.longVersionCode : PackageMetadataCache.VERSION_CODE_NULL;
+    }
+
+    /**
+     * Return the {@link PackageMetadataCache} shared by the battery screens and anomaly detection.
+     */
+    public PackageMetadataCache getPackageMetadataCache() {
+        return mPackageMetadataCache;
     }
 }
 
@@ -0,0 +1,412 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.fuelgauge;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.pm.ApplicationInfo;
+import android.content.pm.ModuleInfo;
+import android.content.pm.PackageInfo;
+import android.content.pm.PackageManager;
+import android.content.pm.ResolveInfo;
+import android.os.UserHandle;
+import android.util.ArrayMap;
+import android.util.ArraySet;
+import android.util.Log;
+import android.util.SparseArray;
+
+import androidx.annotation.GuardedBy;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * UID-indexed cache of the package metadata that battery screens and the anomaly detector need
+ * for every sipper: packages for the uid, target sdk, system flag, launcher presence and version
+ * code.
+ *
+ * <p>Installed packages, their uids, launcher activities and hidden modules are fetched in one bulk
+ * pass the first time the cache is queried, and everything is dropped again when a package is
+ * added, removed or changed. No binder call is made while holding the lock.
+ */
+public class PackageMetadataCache {
+    private static final String TAG = "PackageMetadataCache";
+
+    public static final long VERSION_CODE_NULL = -1L;
+
+    @VisibleForTesting
+    static final int LAUNCHER_QUERY_FLAGS = PackageManager.MATCH_DISABLED_COMPONENTS
+            | PackageManager.MATCH_DIRECT_BOOT_AWARE
+            | PackageManager.MATCH_DIRECT_BOOT_UNAWARE
+            | PackageManager.MATCH_SYSTEM_ONLY;
+
+    private static PackageMetadataCache sInstance;
+
+    private final Context mContext;
+    private final PackageManager mPackageManager;
+    private final Object mLock = new Object();
+
+    @GuardedBy("mLock")
+    private final SparseArray<UidMetadata> mUidMetadata = new SparseArray<>();
+    @GuardedBy("mLock")
+    private final ArrayMap<String, PackageMetadata> mPackageMetadata = new ArrayMap<>();
+    @GuardedBy("mLock")
+    private ArraySet<String> mLauncherPackages;
+    @GuardedBy("mLock")
+    private ArraySet<String> mHiddenModulePackages;
+    @GuardedBy("mLock")
+    private boolean mBulkLoaded;
+    /** Incremented on every {@link #invalidate()}, so loads that race with it are dropped. */
+    @GuardedBy("mLock")
+    private int mGeneration;
+    @GuardedBy("mLock")
+    private boolean mReceiverRegistered;
+    @GuardedBy("mLock")
+    private int mHitCount;
+    @GuardedBy("mLock")
+    private int mMissCount;
+
+    @VisibleForTesting
+    final BroadcastReceiver mPackageReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            invalidate();
+        }
+    };
+
+    /** Metadata of a single package. */
+    public static class PackageMetadata {
+        public final String packageName;
+        public final int targetSdkVersion;
+        public final boolean isSystemApp;
+        public final long longVersionCode;
+
+        PackageMetadata(String packageName, int targetSdkVersion, boolean isSystemApp,
+                long longVersionCode) {
+            this.packageName = packageName;
+            this.targetSdkVersion = targetSdkVersion;
+            this.isSystemApp = isSystemApp;
+            this.longVersionCode = longVersionCode;
+        }
+    }
+
+    /** Metadata of all packages that share a uid. */
+    public static class UidMetadata {
+        public final int uid;
+        /** Packages for the uid, or {@code null} if no package is installed with it. */
+        @Nullable
+        public final String[] packages;
+        public final boolean isHiddenSystemModule;
+
+        UidMetadata(int uid, String[] packages, boolean isHiddenSystemModule) {
+            this.uid = uid;
+            this.packages = packages;
+            this.isHiddenSystemModule = isHiddenSystemModule;
+        }
+    }
+
+    /**
+     * Return the cache shared by the whole process, so it keeps a single package receiver even
+     * when {@link BatteryUtils} is recreated.
+     */
+    public static synchronized PackageMetadataCache getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new PackageMetadataCache(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    /** Return the instance if it was already created, without creating it. */
+    @Nullable
+    public static synchronized PackageMetadataCache peekInstance() {
+        return sInstance;
+    }
+
+    @VisibleForTesting
+    PackageMetadataCache(Context context) {
+        mContext = context;
+        mPackageManager = context.getPackageManager();
+    }
+
+    /**
+     * Return the {@link UidMetadata} for {@code uid}, loading it on a miss.
+     */
+    public UidMetadata getUidMetadata(int uid) {
+        final int generation;
+        final ArraySet<String> hiddenModulePackages;
+        synchronized (mLock) {
+            final UidMetadata metadata = mUidMetadata.get(uid);
+            if (metadata != null) {
+                mHitCount++;
+                return metadata;
+            }
+        }
+        ensureLoaded();
+        synchronized (mLock) {
+            final UidMetadata metadata = mUidMetadata.get(uid);
+            if (metadata != null) {
+                mHitCount++;
+                return metadata;
+            }
+            mMissCount++;
+            generation = mGeneration;
+            hiddenModulePackages = mHiddenModulePackages;
+        }
+        // Uids without an installed package of this user, e.g. of other users.
+        final String[] packages = mPackageManager.getPackagesForUid(uid);
+        final UidMetadata metadata = new UidMetadata(uid, packages,
+                isHiddenSystemModule(packages, hiddenModulePackages));
+        synchronized (mLock) {
+            if (generation == mGeneration) {
+                mUidMetadata.put(uid, metadata);
+            }
+        }
+        return metadata;
+    }
+
+    /**
+     * Return the {@link PackageMetadata} for {@code packageName}, or {@code null} if the package
+     * doesn't exist.
+     */
+    @Nullable
+    public PackageMetadata getPackageMetadata(String packageName) {
+        if (packageName == null) {
+            return null;
+        }
+        ensureLoaded();
+        final int generation;
+        synchronized (mLock) {
+            if (mPackageMetadata.containsKey(packageName)) {
+                mHitCount++;
+                return mPackageMetadata.get(packageName);
+            }
+            mMissCount++;
+            generation = mGeneration;
+        }
+        PackageMetadata metadata = null;
+        try {
+            final ApplicationInfo info = mPackageManager.getApplicationInfo(packageName,
+                    PackageManager.GET_META_DATA);
+            metadata = new PackageMetadata(packageName, info.targetSdkVersion,
+                    (info.flags & ApplicationInfo.FLAG_SYSTEM) != 0,
+                    loadLongVersionCode(packageName));
+        } catch (PackageManager.NameNotFoundException e) {
+            Log.e(TAG, "Cannot find package: " + packageName, e);
+        }
+        synchronized (mLock) {
+            // Cache negative results as well, they are cleared by the package broadcasts
+            if (generation == mGeneration) {
+                mPackageMetadata.put(packageName, metadata);
+            }
+        }
+        return metadata;
+    }
+
+    /**
+     * Return {@code true} if one of {@code packageNames} has a launcher activity.
+     */
+    public boolean hasLauncherEntry(String[] packageNames) {
+        if (packageNames == null) {
+            return false;
+        }
+        ensureLoaded();
+        ArraySet<String> launcherPackages;
+        synchronized (mLock) {
+            launcherPackages = mLauncherPackages;
+        }
+        if (launcherPackages == null) {
+            // Invalidated again while loading, don't report "no launcher entry" for that.
+            launcherPackages = loadLauncherPackages();
+        }
+        for (String packageName : packageNames) {
+            if (launcherPackages.contains(packageName)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Drop every cached entry, the next query starts a new bulk pass. */
+    public void invalidate() {
+        synchronized (mLock) {
+            mUidMetadata.clear();
+            mPackageMetadata.clear();
+            mLauncherPackages = null;
+            mHiddenModulePackages = null;
+            mBulkLoaded = false;
+            mGeneration++;
+        }
+    }
+
+    public int getHitCount() {
+        synchronized (mLock) {
+            return mHitCount;
+        }
+    }
+
+    public int getMissCount() {
+        synchronized (mLock) {
+            return mMissCount;
+        }
+    }
+
+    public int getSize() {
+        synchronized (mLock) {
+            return mUidMetadata.size() + mPackageMetadata.size();
+        }
+    }
+
+    /**
+     * Load the installed packages, their uids, the launcher activities and the hidden modules in
+     * one bulk pass, without holding the lock during the binder calls.
+     */
+    private void ensureLoaded() {
+        final int generation;
+        synchronized (mLock) {
+            if (mBulkLoaded) {
+                return;
+            }
+            generation = mGeneration;
+        }
+        registerReceiverIfNeeded();
+
+        final ArraySet<String> hiddenModulePackages = new ArraySet<>();
+        final List<ModuleInfo> modules = mPackageManager.getInstalledModules(0 /* flags */);
+        if (modules != null) {
+            for (int i = 0, size = modules.size(); i < size; i++) {
+                if (modules.get(i).isHidden()) {
+                    hiddenModulePackages.add(modules.get(i).getPackageName());
+                }
+            }
+        }
+
+        final ArrayMap<String, PackageMetadata> packageMetadata = new ArrayMap<>();
+        final SparseArray<List<String>> uidPackages = new SparseArray<>();
+        final List<PackageInfo> packageInfos = mPackageManager.getInstalledPackages(
+                PackageManager.MATCH_DISABLED_COMPONENTS);
+        if (packageInfos != null) {
+            for (int i = 0, size = packageInfos.size(); i < size; i++) {
+                final PackageInfo packageInfo = packageInfos.get(i);
+                final ApplicationInfo info = packageInfo.applicationInfo;
+                if (info == null) {
+                    continue;
+                }
+                packageMetadata.put(packageInfo.packageName,
+                        new PackageMetadata(packageInfo.packageName, info.targetSdkVersion,
+                                (info.flags & ApplicationInfo.FLAG_SYSTEM) != 0,
+                                packageInfo.getLongVersionCode()));
+                List<String> packages = uidPackages.get(info.uid);
+                if (packages == null) {
+                    packages = new ArrayList<>();
+                    uidPackages.put(info.uid, packages);
+                }
+                packages.add(packageInfo.packageName);
+            }
+        }
+
+        final ArraySet<String> launcherPackages = loadLauncherPackages();
+
+        synchronized (mLock) {
+            if (mBulkLoaded || generation != mGeneration) {
+                // Another thread loaded first, or the packages changed while loading. In the
+                // latter case the partial data is still better than none for this query.
+                if (mLauncherPackages == null) {
+                    mLauncherPackages = launcherPackages;
+                    mHiddenModulePackages = hiddenModulePackages;
+                }
+                return;
+            }
+            mPackageMetadata.putAll(packageMetadata);
+            for (int i = 0, size = uidPackages.size(); i < size; i++) {
+                final int uid = uidPackages.keyAt(i);
+                final String[] packages = uidPackages.valueAt(i).toArray(new String[0]);
+                mUidMetadata.put(uid, new UidMetadata(uid, packages,
+                        isHiddenSystemModule(packages, hiddenModulePackages)));
+            }
+            mLauncherPackages = launcherPackages;
+            mHiddenModulePackages = hiddenModulePackages;
+            mBulkLoaded = true;
+        }
+    }
+
+    private ArraySet<String> loadLauncherPackages() {
+        // If we do not specify MATCH_DIRECT_BOOT_AWARE or
+        // MATCH_DIRECT_BOOT_UNAWARE, system will derive and update the flags
+        // according to the user's lock state. When the user is locked,
+        // components with ComponentInfo#directBootAware == false will be filtered.
+        // We should explicitly include both direct boot aware and unaware components here.
+        final Intent launchIntent = new Intent(Intent.ACTION_MAIN, null);
+        launchIntent.addCategory(Intent.CATEGORY_LAUNCHER);
+        final List<ResolveInfo> resolveInfos = mPackageManager.queryIntentActivities(
+                launchIntent, LAUNCHER_QUERY_FLAGS);
+        final ArraySet<String> launcherPackages = new ArraySet<>();
+        if (resolveInfos != null) {
+            for (int i = 0, size = resolveInfos.size(); i < size; i++) {
+                launcherPackages.add(resolveInfos.get(i).activityInfo.packageName);
+            }
+        }
+        return launcherPackages;
+    }
+
+    private static boolean isHiddenSystemModule(@Nullable String[] packages,
+            @Nullable ArraySet<String> hiddenModulePackages) {
+        if (packages == null || hiddenModulePackages == null) {
+            return false;
+        }
+        for (String packageName : packages) {
+            if (hiddenModulePackages.contains(packageName)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private long loadLongVersionCode(String packageName) {
+        try {
+            final PackageInfo packageInfo = mPackageManager.getPackageInfo(packageName,
+                    0 /* flags */);
+            if (packageInfo != null) {
+                return packageInfo.getLongVersionCode();
+            }
+        } catch (PackageManager.NameNotFoundException e) {
+            Log.e(TAG, "Cannot find package: " + packageName, e);
+        }
+        return VERSION_CODE_NULL;
+    }
+
+    private void registerReceiverIfNeeded() {
+        synchronized (mLock) {
+            if (mReceiverRegistered) {
+                return;
+            }
+            mReceiverRegistered = true;
+        }
+        final IntentFilter filter = new IntentFilter();
+        filter.addAction(Intent.ACTION_PACKAGE_ADDED);
+        filter.addAction(Intent.ACTION_PACKAGE_REMOVED);
+        filter.addAction(Intent.ACTION_PACKAGE_CHANGED);
+        filter.addAction(Intent.ACTION_PACKAGE_REPLACED);
+        filter.addDataScheme("package");
+        // Entries of every user are cached, so listen to the packages of every user.
+        mContext.registerReceiverAsUser(mPackageReceiver, UserHandle.ALL, filter,
+                null /* broadcastPermission */, null /* scheduler */);
+    }
+}
@@ -0,0 +1,265 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.notification;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.net.Uri;
+import android.os.SystemClock;
+import android.os.UserHandle;
+import android.util.ArrayMap;
+import android.util.Log;
+import android.util.SparseArray;
+
+import androidx.annotation.GuardedBy;
+import androidx.annotation.VisibleForTesting;
+
+/**
+ * Cache of the per-app notification settings summary that {@link NotificationBackend} reads
+ * from NoMan: whether the app is banned, its badge and bubble preferences and its channel counts.
+ *
+ * <p>Opening the notification settings of an app makes every preference controller ask for some
+ * of these values, so each of them is only fetched once per app and shared until it is changed
+ * through {@link NotificationBackend}, the package changes, or it gets older than
+ * {@link #MAX_AGE_MILLIS}. The max age bounds how long a change made outside of Settings, e.g. from
+ * the notification shade, can go unnoticed.
+ */
+public class NotificationAppSummaryCache {
+    private static final String TAG = "NotifAppSummaryCache";
+
+    @VisibleForTesting
+    static final long MAX_AGE_MILLIS = 5000;
+
+    static final int FIELD_BANNED = 0;
+    static final int FIELD_SHOW_BADGE = 1;
+    static final int FIELD_BUBBLE_PREFERENCE = 2;
+    static final int FIELD_CHANNEL_COUNT = 3;
+    static final int FIELD_DELETED_CHANNEL_COUNT = 4;
+    static final int FIELD_BLOCKED_CHANNEL_COUNT = 5;
+    static final int FIELD_ONLY_HAS_DEFAULT_CHANNEL = 6;
+    private static final int FIELD_COUNT = 7;
+
+    private static final NotificationAppSummaryCache sInstance =
+            new NotificationAppSummaryCache(MAX_AGE_MILLIS);
+
+    /** Loads the value of one field from NoMan. */
+    interface ValueLoader {
+        int load() throws Exception;
+    }
+
+    private final long mMaxAgeMillis;
+
+    @GuardedBy("this")
+    private final SparseArray<ArrayMap<String, Summary>> mSummaries = new SparseArray<>();
+    @GuardedBy("this")
+    private boolean mReceiverRegistered;
+    @GuardedBy("this")
+    private int mHitCount;
+    @GuardedBy("this")
+    private int mMissCount;
+    // Bumped by every invalidate. A load only stores its value if its app wasn't invalidated
+    // after the load started, see mInvalidations.
+    @GuardedBy("this")
+    private int mGeneration;
+    @GuardedBy("this")
+    private int mLoadsInFlight;
+    /** Generation of the latest invalidate of each app, kept while loads are in flight. */
+    @GuardedBy("this")
+    private final SparseArray<ArrayMap<String, Integer>> mInvalidations = new SparseArray<>();
+
+    @VisibleForTesting
+    final BroadcastReceiver mPackageReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            final Uri data = intent.getData();
+            final int uid = intent.getIntExtra(Intent.EXTRA_UID, -1);
+            if (data != null && uid != -1) {
+                invalidate(data.getSchemeSpecificPart(), uid);
+            }
+        }
+    };
+
+    public static NotificationAppSummaryCache getInstance() {
+        return sInstance;
+    }
+
+    @VisibleForTesting
+    NotificationAppSummaryCache(long maxAgeMillis) {
+        mMaxAgeMillis = maxAgeMillis;
+    }
+
+    /**
+     * Return the cached value of {@code field} for the app, or load it with {@code loader}. If
+     * the loader fails, {@code defaultValue} is returned and nothing is cached.
+     */
+    int get(String pkg, int uid, int field, ValueLoader loader, int defaultValue) {
+        final int generation;
+        synchronized (this) {
+            final Summary summary = getSummaryLocked(pkg, uid, false /* create */);
+            if (summary != null && summary.isLoaded(field)) {
+                mHitCount++;
+                return summary.values[field];
+            }
+            mMissCount++;
+            generation = mGeneration;
+            mLoadsInFlight++;
+        }
+        int value = defaultValue;
+        boolean loaded = false;
+        try {
+            value = loader.load();
+            loaded = true;
+        } catch (Exception e) {
+            Log.w(TAG, "Error calling NoMan", e);
+        }
+        synchronized (this) {
+            // Don't overwrite an invalidate that happened while loading with the older value.
+            if (loaded && !isInvalidatedSinceLocked(pkg, uid, generation)) {
+                putLocked(pkg, uid, field, value);
+            }
+            if (--mLoadsInFlight == 0) {
+                mInvalidations.clear();
+            }
+        }
+        return value;
+    }
+
+    /** Record {@code value} as the current value of {@code field}, e.g. after changing it. */
+    synchronized void put(String pkg, int uid, int field, int value) {
+        putLocked(pkg, uid, field, value);
+    }
+
+    @GuardedBy("this")
+    private void putLocked(String pkg, int uid, int field, int value) {
+        final Summary summary = getSummaryLocked(pkg, uid, true /* create */);
+        summary.values[field] = value;
+        summary.loadedFields |= 1 << field;
+    }
+
+    @GuardedBy("this")
+    private boolean isInvalidatedSinceLocked(String pkg, int uid, int generation) {
+        final ArrayMap<String, Integer> invalidations = mInvalidations.get(uid);
+        final Integer invalidated = invalidations != null ? invalidations.get(pkg) : null;
+        return invalidated != null && invalidated > generation;
+    }
+
+    /** Drop everything cached for the app, so the next query goes to NoMan. */
+    public synchronized void invalidate(String pkg, int uid) {
+        final ArrayMap<String, Summary> summaries = mSummaries.get(uid);
+        if (summaries != null) {
+            summaries.remove(pkg);
+        }
+        mGeneration++;
+        if (mLoadsInFlight > 0) {
+            ArrayMap<String, Integer> invalidations = mInvalidations.get(uid);
+            if (invalidations == null) {
+                invalidations = new ArrayMap<>();
+                mInvalidations.put(uid, invalidations);
+            }
+            invalidations.put(pkg, mGeneration);
+        }
+    }
+
+    /** Listen to package broadcasts, so the entries of changed packages are dropped. */
+    public void registerReceiverIfNeeded(Context context) {
+        synchronized (this) {
+            if (mReceiverRegistered) {
+                return;
+            }
+            mReceiverRegistered = true;
+        }
+        final IntentFilter filter = new IntentFilter();
+        filter.addAction(Intent.ACTION_PACKAGE_ADDED);
+        filter.addAction(Intent.ACTION_PACKAGE_REMOVED);
+        filter.addAction(Intent.ACTION_PACKAGE_CHANGED);
+        filter.addAction(Intent.ACTION_PACKAGE_REPLACED);
+        filter.addAction(Intent.ACTION_PACKAGE_DATA_CLEARED);
+        filter.addDataScheme("package");
+        context.getApplicationContext().registerReceiverAsUser(mPackageReceiver, UserHandle.ALL,
+                filter, null /* broadcastPermission */, null /* scheduler */);
+    }
+
+    public synchronized int getHitCount() {
+        return mHitCount;
+    }
+
+    public synchronized int getMissCount() {
+        return mMissCount;
+    }
+
+    public synchronized int getSize() {
+        int size = 0;
+        for (int i = 0, count = mSummaries.size(); i < count; i++) {
+            size += mSummaries.valueAt(i).size();
+        }
+        return size;
+    }
+
+    @GuardedBy("this")
+    private Summary getSummaryLocked(String pkg, int uid, boolean create) {
+        ArrayMap<String, Summary> summaries = mSummaries.get(uid);
+        Summary summary = summaries != null ? summaries.get(pkg) : null;
+        final long now = SystemClock.elapsedRealtime();
+        if (summary != null && now - summary.createdTime >= mMaxAgeMillis) {
+            summaries.remove(pkg);
+            summary = null;
+        }
+        if (summary == null && create) {
+            pruneExpiredLocked(now);
+            summaries = mSummaries.get(uid);
+            if (summaries == null) {
+                summaries = new ArrayMap<>();
+                mSummaries.put(uid, summaries);
+            }
+            summary = new Summary(now);
+            summaries.put(pkg, summary);
+        }
+        return summary;
+    }
+
+    /** Drop the expired summaries of every app, so apps that aren't queried again don't pile up. */
+    @GuardedBy("this")
+    private void pruneExpiredLocked(long now) {
+        for (int i = mSummaries.size() - 1; i >= 0; i--) {
+            final ArrayMap<String, Summary> summaries = mSummaries.valueAt(i);
+            for (int j = summaries.size() - 1; j >= 0; j--) {
+                if (now - summaries.valueAt(j).createdTime >= mMaxAgeMillis) {
+                    summaries.removeAt(j);
+                }
+            }
+            if (summaries.isEmpty()) {
+                mSummaries.removeAt(i);
+            }
+        }
+    }
+
+    private static class Summary {
+        final long createdTime;
+        final int[] values = new int[FIELD_COUNT];
+        int loadedFields;
+
+        Summary(long createdTime) {
+            this.createdTime = createdTime;
+        }
+
+        boolean isLoaded(int field) {
+            return (loadedFields & (1 << field)) != 0;
+        }
+    }
+}
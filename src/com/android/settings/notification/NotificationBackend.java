@@ -29,7 +29,6 @@ import android.app.NotificationHistory;
 import android.app.NotificationManager;
 import android.app.role.RoleManager;
 import android.app.usage.IUsageStatsManager;
-import android.app.usage.UsageEvents;
 import android.content.ComponentName;
 import android.content.Context;
 import android.content.Intent;
@@ -41,16 +40,15 @@ import android.content.pm.ParceledListSlice;
 import android.content.pm.ShortcutInfo;
 import android.content.pm.ShortcutManager;
 import android.graphics.drawable.Drawable;
-import android.os.RemoteException;
 import android.os.ServiceManager;
 import android.os.UserHandle;
 import android.service.notification.ConversationChannelWrapper;
-import android.text.format.DateUtils;
 import android.util.IconDrawableFactory;
 import android.util.Log;
 
 import androidx.annotation.VisibleForTesting;
 
+import com.android.settings.applications.AppIconCache;
 import com.android.settingslib.R;
 import com.android.settingslib.Utils;
 import com.android.settingslib.notification.ConversationIconFactory;
@@ -67,21 +65,28 @@ public class NotificationBackend {
 
     static IUsageStatsManager sUsageStatsManager = IUsageStatsManager.Stub.asInterface(
             ServiceManager.getService(Context.USAGE_STATS_SERVICE));
-    private static final int DAYS_TO_CHECK = 7;
+    private static final int DAYS_TO_CHECK = NotificationUsageStore.DAYS_TO_CHECK;
     static INotificationManager sINM = INotificationManager.Stub.asInterface(
             ServiceManager.getService(Context.NOTIFICATION_SERVICE));
+    @VisibleForTesting
+    static NotificationAppSummaryCache sSummaryCache = NotificationAppSummaryCache.getInstance();
 
     public AppRow loadAppRow(Context context, PackageManager pm, ApplicationInfo app) {
         final AppRow row = new AppRow();
         row.pkg = app.packageName;
         row.uid = app.uid;
+        sSummaryCache.registerReceiverIfNeeded(context);
+        final AppIconCache iconCache = AppIconCache.getInstance(context);
+        final int userId = UserHandle.getUserId(app.uid);
         try {
-            row.label = app.loadLabel(pm);
+            row.label = iconCache.getLabel(app, userId);
         } catch (Throwable t) {
             Log.e(TAG, "Error loading application label for " + row.pkg, t);
             row.label = row.pkg;
         }
-        row.icon = IconDrawableFactory.newInstance(context).getBadgedIcon(app);
+        final int iconSize = context.getResources().getDimensionPixelSize(
+                com.android.settings.R.dimen.app_header_icon_size);
+        row.icon = iconCache.getCachedIcon(app, userId, iconSize, true /* badged */);
         row.banned = getNotificationsBanned(row.pkg, row.uid);
         row.showBadge = canShowBadge(row.pkg, row.uid);
         row.bubblePreference = getBubblePreference(row.pkg, row.uid);
@@ -151,13 +156,16 @@ public class NotificationBackend {
     }
 
     public boolean getNotificationsBanned(String pkg, int uid) {
-        try {
-            final boolean enabled = sINM.areNotificationsEnabledForPackage(pkg, uid);
-            return !enabled;
-        } catch (Exception e) {
-            Log.w(TAG, "Error calling NoMan", e);
-            return false;
-        }
+        return sSummaryCache.get(pkg, uid, NotificationAppSummaryCache.FIELD_BANNED,
+                () -> sINM.areNotificationsEnabledForPackage(pkg, uid) ? 0 : 1, 0) != 0;
+    }
+
+    /**
+     * Drop the cached summary of the app, e.g. because its settings may have been changed
+     * outside of Settings.
+     */
+    public void invalidateAppSummary(String pkg, int uid) {
+        sSummaryCache.invalidate(pkg, uid);
     }
 
     public boolean setNotificationsEnabledForPackage(String pkg, int uid, boolean enabled) {
@@ -169,6 +177,9 @@ public class NotificationBackend {
                 updateChannel(pkg, uid, defaultChannel);
             }
             sINM.setNotificationsEnabledForPackage(pkg, uid, enabled);
+            sSummaryCache.invalidate(pkg, uid);
+            sSummaryCache.put(pkg, uid, NotificationAppSummaryCache.FIELD_BANNED,
+                    enabled ? 0 : 1);
             return true;
         } catch (Exception e) {
             Log.w(TAG, "Error calling NoMan", e);
@@ -177,17 +188,15 @@ public class NotificationBackend {
     }
 
     public boolean canShowBadge(String pkg, int uid) {
-        try {
-            return sINM.canShowBadge(pkg, uid);
-        } catch (Exception e) {
-            Log.w(TAG, "Error calling NoMan", e);
-            return false;
-        }
+        return sSummaryCache.get(pkg, uid, NotificationAppSummaryCache.FIELD_SHOW_BADGE,
+                () -> sINM.canShowBadge(pkg, uid) ? 1 : 0, 0) != 0;
     }
 
     public boolean setShowBadge(String pkg, int uid, boolean showBadge) {
         try {
             sINM.setShowBadge(pkg, uid, showBadge);
+            sSummaryCache.put(pkg, uid, NotificationAppSummaryCache.FIELD_SHOW_BADGE,
+                    showBadge ? 1 : 0);
             return true;
         } catch (Exception e) {
             Log.w(TAG, "Error calling NoMan", e);
@@ -196,17 +205,15 @@ public class NotificationBackend {
     }
 
     public int getBubblePreference(String pkg, int uid) {
-        try {
-            return sINM.getBubblePreferenceForPackage(pkg, uid);
-        } catch (Exception e) {
-            Log.w(TAG, "Error calling NoMan", e);
-            return -1;
-        }
+        return sSummaryCache.get(pkg, uid, NotificationAppSummaryCache.FIELD_BUBBLE_PREFERENCE,
+                () -> sINM.getBubblePreferenceForPackage(pkg, uid), -1);
     }
 
     public boolean setAllowBubbles(String pkg, int uid, int preference) {
         try {
             sINM.setBubblesAllowed(pkg, uid, preference);
+            sSummaryCache.put(pkg, uid, NotificationAppSummaryCache.FIELD_BUBBLE_PREFERENCE,
+                    preference);
             return true;
         } catch (Exception e) {
             Log.w(TAG, "Error calling NoMan", e);
@@ -321,6 +328,7 @@ public class NotificationBackend {
     public void updateChannel(String pkg, int uid, NotificationChannel channel) {
         try {
             sINM.updateNotificationChannelForPackage(pkg, uid, channel);
+            sSummaryCache.invalidate(pkg, uid);
         } catch (Exception e) {
             Log.w(TAG, "Error calling NoMan", e);
         }
@@ -329,45 +337,31 @@ public class NotificationBackend {
     public void updateChannelGroup(String pkg, int uid, NotificationChannelGroup group) {
         try {
             sINM.updateNotificationChannelGroupForPackage(pkg, uid, group);
+            sSummaryCache.invalidate(pkg, uid);
         } catch (Exception e) {
             Log.w(TAG, "Error calling NoMan", e);
         }
     }
 
     public int getDeletedChannelCount(String pkg, int uid) {
-        try {
-            return sINM.getDeletedChannelCount(pkg, uid);
-        } catch (Exception e) {
-            Log.w(TAG, "Error calling NoMan", e);
-            return 0;
-        }
+        return sSummaryCache.get(pkg, uid, NotificationAppSummaryCache.FIELD_DELETED_CHANNEL_COUNT,
+                () -> sINM.getDeletedChannelCount(pkg, uid), 0);
     }
 
     public int getBlockedChannelCount(String pkg, int uid) {
-        try {
-            return sINM.getBlockedChannelCount(pkg, uid);
-        } catch (Exception e) {
-            Log.w(TAG, "Error calling NoMan", e);
-            return 0;
-        }
+        return sSummaryCache.get(pkg, uid, NotificationAppSummaryCache.FIELD_BLOCKED_CHANNEL_COUNT,
+                () -> sINM.getBlockedChannelCount(pkg, uid), 0);
     }
 
     public boolean onlyHasDefaultChannel(String pkg, int uid) {
-        try {
-            return sINM.onlyHasDefaultChannel(pkg, uid);
-        } catch (Exception e) {
-            Log.w(TAG, "Error calling NoMan", e);
-            return false;
-        }
+        return sSummaryCache.get(pkg, uid,
+                NotificationAppSummaryCache.FIELD_ONLY_HAS_DEFAULT_CHANNEL,
+                () -> sINM.onlyHasDefaultChannel(pkg, uid) ? 1 : 0, 0) != 0;
     }
 
     public int getChannelCount(String pkg, int uid) {
-        try {
-            return sINM.getNumNotificationChannelsForPackage(pkg, uid, false);
-        } catch (Exception e) {
-            Log.w(TAG, "Error calling NoMan", e);
-            return 0;
-        }
+        return sSummaryCache.get(pkg, uid, NotificationAppSummaryCache.FIELD_CHANNEL_COUNT,
+                () -> sINM.getNumNotificationChannelsForPackage(pkg, uid, false), 0);
     }
 
     public int getNumAppsBypassingDnd(int uid) {
@@ -445,47 +439,25 @@ public class NotificationBackend {
     }
 
     protected void recordAggregatedUsageEvents(Context context, AppRow appRow) {
-        long now = System.currentTimeMillis();
-        long startTime = now - (DateUtils.DAY_IN_MILLIS * DAYS_TO_CHECK);
-        UsageEvents events = null;
-        try {
-            events = sUsageStatsManager.queryEventsForPackageForUser(
-                    startTime, now, appRow.userId, appRow.pkg, context.getPackageName());
-        } catch (RemoteException e) {
-            e.printStackTrace();
-        }
-        recordAggregatedUsageEvents(events, appRow);
+        final NotificationUsageStore store =
+                NotificationUsageStore.getInstance(context, appRow.userId);
+        store.refresh(sUsageStatsManager, context.getPackageName(), System.currentTimeMillis());
+        recordAggregatedUsageEvents(store.getSentStatesByChannel(appRow.pkg), appRow);
     }
 
-    protected void recordAggregatedUsageEvents(UsageEvents events, AppRow appRow) {
-        appRow.sentByChannel = new HashMap<>();
+    @VisibleForTesting
+    void recordAggregatedUsageEvents(Map<String, NotificationsSentState> sentByChannel,
+            AppRow appRow) {
+        appRow.sentByChannel = new HashMap<>(sentByChannel);
         appRow.sentByApp = new NotificationsSentState();
-        if (events != null) {
-            UsageEvents.Event event = new UsageEvents.Event();
-            while (events.hasNextEvent()) {
-                events.getNextEvent(event);
-
-                if (event.getEventType() == UsageEvents.Event.NOTIFICATION_INTERRUPTION) {
-                    String channelId = event.mNotificationChannelId;
-                    if (channelId != null) {
-                        NotificationsSentState stats = appRow.sentByChannel.get(channelId);
-                        if (stats == null) {
-                            stats = new NotificationsSentState();
-                            appRow.sentByChannel.put(channelId, stats);
-                        }
-                        if (event.getTimeStamp() > stats.lastSent) {
-                            stats.lastSent = event.getTimeStamp();
-                            appRow.sentByApp.lastSent = event.getTimeStamp();
-                        }
-                        stats.sentCount++;
-                        appRow.sentByApp.sentCount++;
-                        calculateAvgSentCounts(stats);
-                    }
-                }
-
+        for (NotificationsSentState stats : appRow.sentByChannel.values()) {
+            if (stats.lastSent > appRow.sentByApp.lastSent) {
+                appRow.sentByApp.lastSent = stats.lastSent;
             }
-            calculateAvgSentCounts(appRow.sentByApp);
+            appRow.sentByApp.sentCount += stats.sentCount;
+            calculateAvgSentCounts(stats);
         }
+        calculateAvgSentCounts(appRow.sentByApp);
     }
 
     public static CharSequence getSentSummary(Context context, NotificationsSentState state,
@@ -0,0 +1,362 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.notification;
+
+import android.app.usage.IUsageStatsManager;
+import android.app.usage.UsageEvents;
+import android.content.Context;
+import android.os.RemoteException;
+import android.text.format.DateUtils;
+import android.util.ArrayMap;
+import android.util.AtomicFile;
+import android.util.Log;
+import android.util.SparseArray;
+
+import androidx.annotation.GuardedBy;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+import androidx.annotation.WorkerThread;
+
+import com.android.settings.applications.AppStateNotificationBridge.NotificationsSentState;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+
+/**
+ * Persistent, per-user aggregation of the notifications sent by each package and channel.
+ *
+ * <p>Sent counts are kept in buckets of local days. The window is the last {@link #DAYS_TO_CHECK}
+ * buckets, today included, so averages are taken over exactly that many days. {@link #refresh} only
+ * queries usage events newer than the stored watermark and drops buckets that fell out of the
+ * window, so after the first load the notification app lists don't walk a week of usage events
+ * again.
+ */
+public class NotificationUsageStore {
+    private static final String TAG = "NotificationUsageStore";
+
+    public static final int DAYS_TO_CHECK = 7;
+
+    private static final String DIR_NAME = "notification_usage";
+    // Version 2 buckets local days instead of UTC days.
+    private static final int FILE_VERSION = 2;
+    /** Channel id used for events that don't carry one. */
+    private static final String NO_CHANNEL = "";
+
+    @GuardedBy("sInstances")
+    private static final SparseArray<NotificationUsageStore> sInstances = new SparseArray<>();
+
+    private final int mUserId;
+    private final AtomicFile mFile;
+
+    @GuardedBy("this")
+    private final ArrayMap<String, List<DayBucket>> mBuckets = new ArrayMap<>();
+    @GuardedBy("this")
+    private long mWatermark;
+    @GuardedBy("this")
+    private boolean mLoaded;
+
+    /** Return the store of {@code userId}, creating it if needed. */
+    public static NotificationUsageStore getInstance(Context context, int userId) {
+        synchronized (sInstances) {
+            NotificationUsageStore store = sInstances.get(userId);
+            if (store == null) {
+                final File dir = new File(context.getApplicationContext().getFilesDir(),
+                        DIR_NAME);
+                store = new NotificationUsageStore(userId, new File(dir, String.valueOf(userId)));
+                sInstances.put(userId, store);
+            }
+            return store;
+        }
+    }
+
+    @VisibleForTesting
+    public static void resetForTest(Context context) {
+        synchronized (sInstances) {
+            sInstances.clear();
+            final File dir = new File(context.getApplicationContext().getFilesDir(), DIR_NAME);
+            final File[] files = dir.listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    file.delete();
+                }
+            }
+        }
+    }
+
+    @VisibleForTesting
+    NotificationUsageStore(int userId, File file) {
+        mUserId = userId;
+        mFile = new AtomicFile(file);
+    }
+
+    /**
+     * Expire buckets that are older than the window, then add the notification events that
+     * arrived since the last refresh and persist the result if any bucket changed.
+     */
+    @WorkerThread
+    public synchronized void refresh(IUsageStatsManager usageStatsManager, String callingPackage,
+            long now) {
+        loadIfNeeded();
+        boolean changed = false;
+        if (mWatermark > now) {
+            // The clock moved backwards, don't skip the events until it catches up again
+            mWatermark = now;
+            changed = true;
+        }
+        final long windowStart = getWindowStart(now);
+        changed |= expireBuckets(getDay(windowStart));
+
+        UsageEvents events = null;
+        try {
+            events = usageStatsManager.queryEventsForUser(
+                    Math.max(mWatermark, windowStart), now, mUserId, callingPackage);
+        } catch (RemoteException e) {
+            e.printStackTrace();
+        }
+        if (events != null) {
+            final UsageEvents.Event event = new UsageEvents.Event();
+            while (events.hasNextEvent()) {
+                events.getNextEvent(event);
+                if (event.getEventType() == UsageEvents.Event.NOTIFICATION_INTERRUPTION) {
+                    addEvent(event.getPackageName(), event.mNotificationChannelId,
+                            event.getTimeStamp());
+                    changed = true;
+                }
+            }
+        }
+        mWatermark = now;
+        // Only advancing the watermark isn't worth a write: the range it skips had no events, so
+        // querying it again after a restart doesn't count anything twice.
+        if (changed) {
+            save();
+        }
+    }
+
+    /**
+     * Return the sent state of every package that sent notifications in the window, keyed by
+     * package name.
+     */
+    public synchronized Map<String, NotificationsSentState> getSentStates() {
+        final ArrayMap<String, NotificationsSentState> states = new ArrayMap<>(mBuckets.size());
+        for (int i = 0, size = mBuckets.size(); i < size; i++) {
+            final NotificationsSentState state = new NotificationsSentState();
+            for (DayBucket bucket : mBuckets.valueAt(i)) {
+                accumulate(state, bucket);
+            }
+            states.put(mBuckets.keyAt(i), state);
+        }
+        return states;
+    }
+
+    /**
+     * Return the sent state of {@code pkg}, or {@code null} if it sent no notifications in the
+     * window.
+     */
+    @Nullable
+    public synchronized NotificationsSentState getSentState(String pkg) {
+        final List<DayBucket> buckets = mBuckets.get(pkg);
+        if (buckets == null) {
+            return null;
+        }
+        final NotificationsSentState state = new NotificationsSentState();
+        for (DayBucket bucket : buckets) {
+            accumulate(state, bucket);
+        }
+        return state;
+    }
+
+    /**
+     * Return the sent state of each channel of {@code pkg}, keyed by channel id. Notifications
+     * sent without a channel are not included.
+     */
+    public synchronized Map<String, NotificationsSentState> getSentStatesByChannel(String pkg) {
+        final ArrayMap<String, NotificationsSentState> states = new ArrayMap<>();
+        final List<DayBucket> buckets = mBuckets.get(pkg);
+        if (buckets == null) {
+            return states;
+        }
+        for (DayBucket bucket : buckets) {
+            if (NO_CHANNEL.equals(bucket.mChannelId)) {
+                continue;
+            }
+            NotificationsSentState state = states.get(bucket.mChannelId);
+            if (state == null) {
+                state = new NotificationsSentState();
+                states.put(bucket.mChannelId, state);
+            }
+            accumulate(state, bucket);
+        }
+        return states;
+    }
+
+    private static void accumulate(NotificationsSentState state, DayBucket bucket) {
+        state.sentCount += bucket.mCount;
+        if (bucket.mLastSent > state.lastSent) {
+            state.lastSent = bucket.mLastSent;
+        }
+    }
+
+    @GuardedBy("this")
+    private void addEvent(String pkg, String channelId, long timestamp) {
+        final String channel = channelId != null ? channelId : NO_CHANNEL;
+        final int day = getDay(timestamp);
+        List<DayBucket> buckets = mBuckets.get(pkg);
+        if (buckets == null) {
+            buckets = new ArrayList<>();
+            mBuckets.put(pkg, buckets);
+        }
+        DayBucket target = null;
+        for (int i = 0, size = buckets.size(); i < size; i++) {
+            final DayBucket bucket = buckets.get(i);
+            if (bucket.mDay == day && bucket.mChannelId.equals(channel)) {
+                target = bucket;
+                break;
+            }
+        }
+        if (target == null) {
+            target = new DayBucket(channel, day);
+            buckets.add(target);
+        }
+        target.mCount++;
+        if (timestamp > target.mLastSent) {
+            target.mLastSent = timestamp;
+        }
+    }
+
+    /** Drop the buckets older than {@code firstDay}, returning whether any were dropped. */
+    @GuardedBy("this")
+    private boolean expireBuckets(int firstDay) {
+        boolean expired = false;
+        for (int i = mBuckets.size() - 1; i >= 0; i--) {
+            final List<DayBucket> buckets = mBuckets.valueAt(i);
+            for (int j = buckets.size() - 1; j >= 0; j--) {
+                if (buckets.get(j).mDay < firstDay) {
+                    buckets.remove(j);
+                    expired = true;
+                }
+            }
+            if (buckets.isEmpty()) {
+                mBuckets.removeAt(i);
+            }
+        }
+        return expired;
+    }
+
+    /** Return the local midnight that starts the first day of the window ending at {@code now}. */
+    private static long getWindowStart(long now) {
+        final Calendar calendar = Calendar.getInstance();
+        calendar.setTimeInMillis(now);
+        calendar.set(Calendar.HOUR_OF_DAY, 0);
+        calendar.set(Calendar.MINUTE, 0);
+        calendar.set(Calendar.SECOND, 0);
+        calendar.set(Calendar.MILLISECOND, 0);
+        calendar.add(Calendar.DAY_OF_YEAR, -(DAYS_TO_CHECK - 1));
+        return calendar.getTimeInMillis();
+    }
+
+    /** Return the number of the local day of {@code timestamp}. */
+    private static int getDay(long timestamp) {
+        return (int) ((timestamp + TimeZone.getDefault().getOffset(timestamp))
+                / DateUtils.DAY_IN_MILLIS);
+    }
+
+    @GuardedBy("this")
+    private void loadIfNeeded() {
+        if (mLoaded) {
+            return;
+        }
+        mLoaded = true;
+        try (DataInputStream in = new DataInputStream(mFile.openRead())) {
+            if (in.readInt() != FILE_VERSION) {
+                return;
+            }
+            final long watermark = in.readLong();
+            final int packageCount = in.readInt();
+            for (int i = 0; i < packageCount; i++) {
+                final String pkg = in.readUTF();
+                final int bucketCount = in.readInt();
+                final List<DayBucket> buckets = new ArrayList<>(bucketCount);
+                for (int j = 0; j < bucketCount; j++) {
+                    final DayBucket bucket = new DayBucket(in.readUTF(), in.readInt());
+                    bucket.mCount = in.readInt();
+                    bucket.mLastSent = in.readLong();
+                    buckets.add(bucket);
+                }
+                mBuckets.put(pkg, buckets);
+            }
+            mWatermark = watermark;
+        } catch (FileNotFoundException e) {
+            // First load for this user
+        } catch (IOException e) {
+            Log.w(TAG, "Unable to read notification usage, starting over", e);
+            mBuckets.clear();
+            mWatermark = 0;
+        }
+    }
+
+    @GuardedBy("this")
+    private void save() {
+        FileOutputStream fos = null;
+        try {
+            mFile.getBaseFile().getParentFile().mkdirs();
+            fos = mFile.startWrite();
+            final DataOutputStream out = new DataOutputStream(fos);
+            out.writeInt(FILE_VERSION);
+            out.writeLong(mWatermark);
+            out.writeInt(mBuckets.size());
+            for (int i = 0, size = mBuckets.size(); i < size; i++) {
+                out.writeUTF(mBuckets.keyAt(i));
+                final List<DayBucket> buckets = mBuckets.valueAt(i);
+                out.writeInt(buckets.size());
+                for (DayBucket bucket : buckets) {
+                    out.writeUTF(bucket.mChannelId);
+                    out.writeInt(bucket.mDay);
+                    out.writeInt(bucket.mCount);
+                    out.writeLong(bucket.mLastSent);
+                }
+            }
+            out.flush();
+            mFile.finishWrite(fos);
+        } catch (IOException e) {
+            Log.w(TAG, "Unable to write notification usage", e);
+            if (fos != null) {
+                mFile.failWrite(fos);
+            }
+        }
+    }
+
+    private static class DayBucket {
+        private final String mChannelId;
+        private final int mDay;
+        private int mCount;
+        private long mLastSent;
+
+        DayBucket(String channelId, int day) {
+            mChannelId = channelId;
+            mDay = day;
+        }
+    }
+}
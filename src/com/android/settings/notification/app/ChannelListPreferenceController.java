@@ -32,7 +32,10 @@ import android.os.AsyncTask;
 import android.os.Bundle;
 import android.provider.Settings;
 import android.text.TextUtils;
+import android.util.ArrayMap;
+import android.util.ArraySet;
 
+import androidx.annotation.VisibleForTesting;
 import androidx.preference.Preference;
 import androidx.preference.PreferenceCategory;
 import androidx.preference.PreferenceGroup;
@@ -56,8 +59,19 @@ public class ChannelListPreferenceController extends NotificationPreferenceContr
     private static String KEY_GENERAL_CATEGORY = "categories";
     public static final String ARG_FROM_SETTINGS = "fromSettings";
 
+    private static final String KEY_GROUP_TOGGLE_SUFFIX = ":toggle";
+    private static final String KEY_SEE_MORE_SUFFIX = ":see_more";
+    /** Number of channels shown in a group until the user asks to see all of them. */
+    @VisibleForTesting
+    static final int MAX_INITIAL_CHANNELS = 25;
+
     private List<NotificationChannelGroup> mChannelGroupList;
     private PreferenceCategory mPreference;
+    private boolean mShowingEmptyList;
+    // The channel last bound to each row, by channel id.
+    private final ArrayMap<String, NotificationChannel> mBoundChannels = new ArrayMap<>();
+    // Groups the user expanded past MAX_INITIAL_CHANNELS.
+    private final ArraySet<String> mExpandedGroups = new ArraySet<>();
 
     public ChannelListPreferenceController(Context context, NotificationBackend backend) {
         super(context, backend);
@@ -102,16 +116,20 @@ public class ChannelListPreferenceController extends NotificationPreferenceContr
                 if (mContext == null) {
                     return;
                 }
-                populateList();
+                populateList(mPreference, mChannelGroupList);
             }
         }.execute();
     }
 
-    private void populateList() {
-        // TODO: if preference has children, compare with newly loaded list
-        mPreference.removeAll();
-
+    @VisibleForTesting
+    void populateList(PreferenceCategory preference, List<NotificationChannelGroup> groups) {
+        mPreference = preference;
+        mChannelGroupList = groups;
         if (mChannelGroupList.isEmpty()) {
+            mPreference.removeAll();
+            mBoundChannels.clear();
+            mShowingEmptyList = true;
+
             PreferenceCategory groupCategory = new PreferenceCategory(mContext);
             groupCategory.setTitle(R.string.notification_channels);
             groupCategory.setKey(KEY_GENERAL_CATEGORY);
@@ -122,42 +140,119 @@ public class ChannelListPreferenceController extends NotificationPreferenceContr
             empty.setEnabled(false);
             groupCategory.addPreference(empty);
         } else {
+            if (mShowingEmptyList) {
+                mPreference.removeAll();
+                mShowingEmptyList = false;
+            }
             populateGroupList();
         }
     }
 
+    /**
+     * Updates the group categories in place: categories and rows are matched by key, so only the
+     * groups and channels that changed since the last load are rebound.
+     */
     private void populateGroupList() {
-        for (NotificationChannelGroup group : mChannelGroupList) {
-            PreferenceCategory groupCategory = new PreferenceCategory(mContext);
-            groupCategory.setOrderingAsAdded(true);
-            mPreference.addPreference(groupCategory);
+        final ArrayMap<String, Preference> existing = getChildren(mPreference);
+        final ArraySet<String> groupKeys = new ArraySet<>(mChannelGroupList.size());
+        for (int i = 0, size = mChannelGroupList.size(); i < size; i++) {
+            final NotificationChannelGroup group = mChannelGroupList.get(i);
+            final String key = getGroupKey(group);
+            groupKeys.add(key);
+            PreferenceCategory groupCategory = (PreferenceCategory) existing.get(key);
+            if (groupCategory == null) {
+                groupCategory = new PreferenceCategory(mContext);
+                groupCategory.setKey(key);
+                mPreference.addPreference(groupCategory);
+            }
+            groupCategory.setOrder(i);
             if (group.getId() == null) {
                 groupCategory.setTitle(R.string.notification_channels_other);
-                groupCategory.setKey(KEY_GENERAL_CATEGORY);
             } else {
                 groupCategory.setTitle(group.getName());
-                groupCategory.setKey(group.getId());
                 populateGroupToggle(groupCategory, group);
             }
-            if (!group.isBlocked()) {
-                final List<NotificationChannel> channels = group.getChannels();
-                Collections.sort(channels, CHANNEL_COMPARATOR);
-                int N = channels.size();
-                for (int i = 0; i < N; i++) {
-                    final NotificationChannel channel = channels.get(i);
-                    // conversations get their own section
-                    if (TextUtils.isEmpty(channel.getConversationId()) || channel.isDemoted()) {
-                        populateSingleChannelPrefs(groupCategory, channel, group.isBlocked());
-                    }
+            populateGroupChannels(groupCategory, group);
+        }
+        for (int i = 0, size = existing.size(); i < size; i++) {
+            if (!groupKeys.contains(existing.keyAt(i))) {
+                removeChannelPrefs((PreferenceGroup) existing.valueAt(i));
+                mPreference.removePreference(existing.valueAt(i));
+            }
+        }
+    }
+
+    /**
+     * Updates the channel rows of {@code group}. Only the first {@link #MAX_INITIAL_CHANNELS}
+     * rows are created until the user asks to see the others.
+     */
+    private void populateGroupChannels(PreferenceGroup groupCategory,
+            NotificationChannelGroup group) {
+        final String groupKey = getGroupKey(group);
+        final List<NotificationChannel> channels = new ArrayList<>();
+        if (!group.isBlocked()) {
+            for (NotificationChannel channel : group.getChannels()) {
+                // conversations get their own section
+                if (TextUtils.isEmpty(channel.getConversationId()) || channel.isDemoted()) {
+                    channels.add(channel);
                 }
             }
+            Collections.sort(channels, CHANNEL_COMPARATOR);
+        }
+        final int channelCount = channels.size();
+        final int shownCount = mExpandedGroups.contains(groupKey)
+                ? channelCount : Math.min(channelCount, MAX_INITIAL_CHANNELS);
+
+        final ArrayMap<String, Preference> existing = getChildren(groupCategory);
+        final ArraySet<String> keys = new ArraySet<>(shownCount + 2);
+        keys.add(groupKey + KEY_GROUP_TOGGLE_SUFFIX);
+        for (int i = 0; i < shownCount; i++) {
+            final NotificationChannel channel = channels.get(i);
+            final MasterSwitchPreference channelPref =
+                    (MasterSwitchPreference) existing.get(channel.getId());
+            if (channelPref == null) {
+                populateSingleChannelPrefs(groupCategory, channel, group.isBlocked());
+            } else {
+                updateChannelPref(channelPref, channel, group.isBlocked());
+            }
+            groupCategory.findPreference(channel.getId()).setOrder(i + 1);
+            keys.add(channel.getId());
+        }
+        if (shownCount < channelCount) {
+            final String seeMoreKey = groupKey + KEY_SEE_MORE_SUFFIX;
+            Preference seeMore = existing.get(seeMoreKey);
+            if (seeMore == null) {
+                seeMore = new Preference(mContext);
+                seeMore.setKey(seeMoreKey);
+                seeMore.setTitle(R.string.see_more);
+                groupCategory.addPreference(seeMore);
+            }
+            seeMore.setOrder(shownCount + 1);
+            seeMore.setOnPreferenceClickListener(pref -> {
+                mExpandedGroups.add(groupKey);
+                populateGroupChannels(groupCategory, group);
+                return true;
+            });
+            keys.add(seeMoreKey);
+        }
+        for (int i = 0, size = existing.size(); i < size; i++) {
+            if (!keys.contains(existing.keyAt(i))) {
+                mBoundChannels.remove(existing.keyAt(i));
+                groupCategory.removePreference(existing.valueAt(i));
+            }
         }
     }
 
     protected void populateGroupToggle(final PreferenceGroup parent,
             NotificationChannelGroup group) {
-        RestrictedSwitchPreference preference =
-                new RestrictedSwitchPreference(mContext);
+        final String key = getGroupKey(group) + KEY_GROUP_TOGGLE_SUFFIX;
+        RestrictedSwitchPreference preference = parent.findPreference(key);
+        if (preference == null) {
+            preference = new RestrictedSwitchPreference(mContext);
+            preference.setKey(key);
+            preference.setOrder(0);
+            parent.addPreference(preference);
+        }
         preference.setTitle(mContext.getString(
                 R.string.notification_switch_label, group.getName()));
         preference.setEnabled(mAdmin == null
@@ -171,27 +266,13 @@ public class ChannelListPreferenceController extends NotificationPreferenceContr
             onGroupBlockStateChanged(group);
             return true;
         });
-
-        parent.addPreference(preference);
     }
 
     protected Preference populateSingleChannelPrefs(PreferenceGroup parent,
             final NotificationChannel channel, final boolean groupBlocked) {
         MasterSwitchPreference channelPref = new MasterSwitchPreference(mContext);
-        channelPref.setSwitchEnabled(mAdmin == null
-                && isChannelBlockable(channel)
-                && isChannelConfigurable(channel)
-                && !groupBlocked);
-        channelPref.setIcon(null);
-        if (channel.getImportance() > IMPORTANCE_LOW) {
-            channelPref.setIcon(getAlertingIcon());
-        }
         channelPref.setIconSize(MasterSwitchPreference.ICON_SIZE_SMALL);
         channelPref.setKey(channel.getId());
-        channelPref.setTitle(channel.getName());
-        channelPref.setSummary(NotificationBackend.getSentSummary(
-                mContext, mAppRow.sentByChannel.get(channel.getId()), false));
-        channelPref.setChecked(channel.getImportance() != IMPORTANCE_NONE);
         Bundle channelArgs = new Bundle();
         channelArgs.putInt(AppInfoBase.ARG_PACKAGE_UID, mAppRow.uid);
         channelArgs.putString(AppInfoBase.ARG_PACKAGE_NAME, mAppRow.pkg);
@@ -203,7 +284,38 @@ public class ChannelListPreferenceController extends NotificationPreferenceContr
                 .setTitleRes(R.string.notification_channel_title)
                 .setSourceMetricsCategory(SettingsEnums.NOTIFICATION_APP_NOTIFICATION)
                 .toIntent());
+        mBoundChannels.remove(channel.getId());
+        updateChannelPref(channelPref, channel, groupBlocked);
+
+        if (parent.findPreference(channelPref.getKey()) == null) {
+            parent.addPreference(channelPref);
+        }
+        return channelPref;
+    }
 
+    /**
+     * Binds {@code channel} to its row. The parts that only depend on the channel are skipped if
+     * it is equal to the channel that was last bound.
+     */
+    private void updateChannelPref(MasterSwitchPreference channelPref,
+            final NotificationChannel channel, final boolean groupBlocked) {
+        channelPref.setSwitchEnabled(mAdmin == null
+                && isChannelBlockable(channel)
+                && isChannelConfigurable(channel)
+                && !groupBlocked);
+        channelPref.setSummary(NotificationBackend.getSentSummary(
+                mContext, mAppRow.sentByChannel.get(channel.getId()), false));
+        if (channel.equals(mBoundChannels.get(channel.getId()))) {
+            return;
+        }
+        mBoundChannels.put(channel.getId(), channel);
+
+        channelPref.setIcon(null);
+        if (channel.getImportance() > IMPORTANCE_LOW) {
+            channelPref.setIcon(getAlertingIcon());
+        }
+        channelPref.setTitle(channel.getName());
+        channelPref.setChecked(channel.getImportance() != IMPORTANCE_NONE);
         channelPref.setOnPreferenceChangeListener(
                 (preference, o) -> {
                     boolean value = (Boolean) o;
@@ -219,10 +331,26 @@ public class ChannelListPreferenceController extends NotificationPreferenceContr
 
                     return true;
                 });
-        if (parent.findPreference(channelPref.getKey()) == null) {
-            parent.addPreference(channelPref);
+    }
+
+    private void removeChannelPrefs(PreferenceGroup groupCategory) {
+        for (int i = 0, count = groupCategory.getPreferenceCount(); i < count; i++) {
+            mBoundChannels.remove(groupCategory.getPreference(i).getKey());
         }
-        return channelPref;
+    }
+
+    private static String getGroupKey(NotificationChannelGroup group) {
+        return group.getId() == null ? KEY_GENERAL_CATEGORY : group.getId();
+    }
+
+    private static ArrayMap<String, Preference> getChildren(PreferenceGroup group) {
+        final int count = group.getPreferenceCount();
+        final ArrayMap<String, Preference> children = new ArrayMap<>(count);
+        for (int i = 0; i < count; i++) {
+            final Preference child = group.getPreference(i);
+            children.put(child.getKey(), child);
+        }
+        return children;
     }
 
     private Drawable getAlertingIcon() {
@@ -238,27 +366,7 @@ public class ChannelListPreferenceController extends NotificationPreferenceContr
         PreferenceGroup groupGroup = mPreference.findPreference(group.getId());
 
         if (groupGroup != null) {
-            if (group.isBlocked()) {
-                List<Preference> toRemove = new ArrayList<>();
-                int childCount = groupGroup.getPreferenceCount();
-                for (int i = 0; i < childCount; i++) {
-                    Preference pref = groupGroup.getPreference(i);
-                    if (pref instanceof MasterSwitchPreference) {
-                        toRemove.add(pref);
-                    }
-                }
-                for (Preference pref : toRemove) {
-                    groupGroup.removePreference(pref);
-                }
-            } else {
-                final List<NotificationChannel> channels = group.getChannels();
-                Collections.sort(channels, CHANNEL_COMPARATOR);
-                int N = channels.size();
-                for (int i = 0; i < N; i++) {
-                    final NotificationChannel channel = channels.get(i);
-                    populateSingleChannelPrefs(groupGroup, channel, group.isBlocked());
-                }
-            }
+            populateGroupChannels(groupGroup, group);
         }
     }
 }
@@ -77,6 +77,8 @@ abstract public class NotificationSettings extends DashboardFragment {
 
     protected boolean mShowLegacyChannelConfig = false;
     protected boolean mListeningToPackageRemove;
+    // Set once the page has been paused, the app may have been changed from outside of Settings
+    private boolean mAppSummaryStale;
 
     protected List<NotificationPreferenceController> mControllers = new ArrayList<>();
     protected DependentFieldListener mDependentFieldListener = new DependentFieldListener();
@@ -161,6 +163,12 @@ abstract public class NotificationSettings extends DashboardFragment {
         super.onDestroy();
     }
 
+    @Override
+    public void onPause() {
+        super.onPause();
+        mAppSummaryStale = true;
+    }
+
     @Override
     public void onResume() {
         super.onResume();
@@ -172,6 +180,10 @@ abstract public class NotificationSettings extends DashboardFragment {
         // Reload app, channel, etc onResume in case they've changed. A little wasteful if we've
         // just done onAttach but better than making every preference controller reload all
         // the data
+        if (mAppSummaryStale) {
+            mBackend.invalidateAppSummary(mPkg, mUid);
+            mAppSummaryStale = false;
+        }
         loadAppRow();
         if (mAppRow == null) {
             Log.w(TAG, "Can't load package");
@@ -21,20 +21,36 @@ import android.app.NotificationHistory.HistoricalNotification;
 import android.content.Context;
 import android.content.pm.ApplicationInfo;
 import android.content.pm.PackageManager;
+import android.graphics.drawable.Drawable;
 import android.os.UserHandle;
+import android.util.ArrayMap;
 import android.util.Slog;
 
+import androidx.annotation.VisibleForTesting;
+import androidx.annotation.WorkerThread;
+
+import com.android.settings.applications.AppIconCache;
 import com.android.settings.notification.NotificationBackend;
 import com.android.settingslib.utils.ThreadUtils;
 
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
+import java.util.function.Consumer;
 
+/**
+ * Loads the notification history of the last day grouped by app, most recent app first.
+ *
+ * <p>The apps are delivered in pages of {@link #PAGE_SIZE}, so the first ones show up before the
+ * labels of all the others are resolved. Icons are only loaded when an app is shown, through
+ * {@link #loadIcon}.
+ */
 public class HistoryLoader {
     private static final String TAG = "HistoryLoader";
+
+    @VisibleForTesting
+    static final int PAGE_SIZE = 10;
+
     private final Context mContext;
     private final NotificationBackend mBackend;
     private final PackageManager mPm;
@@ -48,52 +64,101 @@ public class HistoryLoader {
     public void load(OnHistoryLoaderListener listener) {
         ThreadUtils.postOnBackgroundThread(() -> {
             try {
-                Map<String, NotificationHistoryPackage> historicalNotifications = new HashMap<>();
-                NotificationHistory history =
-                        mBackend.getNotificationHistory(mContext.getPackageName(),
-                                mContext.getAttributionTag());
-                while (history.hasNextNotification()) {
-                    HistoricalNotification hn = history.getNextNotification();
-
-                    String key = hn.getPackage() + "|" + hn.getUid();
-                    NotificationHistoryPackage hnsForPackage = historicalNotifications.getOrDefault(
-                            key,
-                            new NotificationHistoryPackage(hn.getPackage(), hn.getUid()));
-                    hnsForPackage.notifications.add(hn);
-                    historicalNotifications.put(key, hnsForPackage);
+                final List<NotificationHistoryPackage> packages = loadPackages();
+                final int size = packages.size();
+                if (size == 0) {
+                    ThreadUtils.postOnMainThread(() -> listener.onHistoryPageLoaded(
+                            packages, true /* lastPage */));
+                    return;
                 }
-                List<NotificationHistoryPackage> packages =
-                        new ArrayList<>(historicalNotifications.values());
-                Collections.sort(packages,
-                        (o1, o2) -> -1 * Long.compare(o1.getMostRecent(), o2.getMostRecent()));
-                for (NotificationHistoryPackage nhp : packages) {
-                    ApplicationInfo info;
-                    try {
-                        info = mPm.getApplicationInfoAsUser(
-                                nhp.pkgName,
-                                PackageManager.MATCH_UNINSTALLED_PACKAGES
-                                        | PackageManager.MATCH_DISABLED_COMPONENTS
-                                        | PackageManager.MATCH_DIRECT_BOOT_UNAWARE
-                                        | PackageManager.MATCH_DIRECT_BOOT_AWARE,
-                                UserHandle.getUserId(nhp.uid));
-                        if (info != null) {
-                            nhp.label = String.valueOf(mPm.getApplicationLabel(info));
-                            nhp.icon = mPm.getUserBadgedIcon(mPm.getApplicationIcon(info),
-                                    UserHandle.of(UserHandle.getUserId(nhp.uid)));
-                        }
-                    } catch (PackageManager.NameNotFoundException e) {
-                        // app is gone, just show package name and generic icon
-                        nhp.icon = mPm.getDefaultActivityIcon();
+                for (int start = 0; start < size; start += PAGE_SIZE) {
+                    final int end = Math.min(start + PAGE_SIZE, size);
+                    final List<NotificationHistoryPackage> page =
+                            new ArrayList<>(packages.subList(start, end));
+                    for (int i = 0, pageSize = page.size(); i < pageSize; i++) {
+                        loadLabel(page.get(i));
                     }
+                    final boolean lastPage = end == size;
+                    ThreadUtils.postOnMainThread(
+                            () -> listener.onHistoryPageLoaded(page, lastPage));
                 }
-                ThreadUtils.postOnMainThread(() -> listener.onHistoryLoaded(packages));
             } catch (Exception e) {
                 Slog.e(TAG, "Error loading history", e);
             }
         });
     }
 
+    /**
+     * Load the badged icon of {@code nhp} in the background and pass it to {@code callback} on the
+     * main thread.
+     */
+    public void loadIcon(NotificationHistoryPackage nhp, Consumer<Drawable> callback) {
+        if (nhp.icon != null) {
+            callback.accept(nhp.icon);
+            return;
+        }
+        ThreadUtils.postOnBackgroundThread(() -> {
+            final Drawable icon = nhp.info != null
+                    ? AppIconCache.getInstance(mContext).getIcon(nhp.info,
+                            UserHandle.getUserId(nhp.uid), true /* badged */)
+                    // app is gone, just show package name and generic icon
+                    : mPm.getDefaultActivityIcon();
+            ThreadUtils.postOnMainThread(() -> {
+                nhp.icon = icon;
+                callback.accept(icon);
+            });
+        });
+    }
+
+    /** Group the notifications of the history by app, most recent app first. */
+    @WorkerThread
+    @VisibleForTesting
+    List<NotificationHistoryPackage> loadPackages() {
+        final ArrayMap<String, NotificationHistoryPackage> historicalNotifications =
+                new ArrayMap<>();
+        final NotificationHistory history = mBackend.getNotificationHistory(
+                mContext.getPackageName(), mContext.getAttributionTag());
+        while (history.hasNextNotification()) {
+            final HistoricalNotification hn = history.getNextNotification();
+            final String key = hn.getPackage() + "|" + hn.getUid();
+            NotificationHistoryPackage hnsForPackage = historicalNotifications.get(key);
+            if (hnsForPackage == null) {
+                hnsForPackage = new NotificationHistoryPackage(hn.getPackage(), hn.getUid());
+                historicalNotifications.put(key, hnsForPackage);
+            }
+            hnsForPackage.notifications.add(hn);
+        }
+        final List<NotificationHistoryPackage> packages =
+                new ArrayList<>(historicalNotifications.values());
+        Collections.sort(packages,
+                (o1, o2) -> -1 * Long.compare(o1.getMostRecent(), o2.getMostRecent()));
+        return packages;
+    }
+
+    @WorkerThread
+    private void loadLabel(NotificationHistoryPackage nhp) {
+        try {
+            final ApplicationInfo info = mPm.getApplicationInfoAsUser(
+                    nhp.pkgName,
+                    PackageManager.MATCH_UNINSTALLED_PACKAGES
+                            | PackageManager.MATCH_DISABLED_COMPONENTS
+                            | PackageManager.MATCH_DIRECT_BOOT_UNAWARE
+                            | PackageManager.MATCH_DIRECT_BOOT_AWARE,
+                    UserHandle.getUserId(nhp.uid));
+            if (info != null) {
+                nhp.info = info;
+                nhp.label = String.valueOf(mPm.getApplicationLabel(info));
+            }
+        } catch (PackageManager.NameNotFoundException e) {
+            // app is gone, the package name is shown instead
+        }
+    }
+
     interface OnHistoryLoaderListener {
-        void onHistoryLoaded(List<NotificationHistoryPackage> notificationsByPackage);
+        /**
+         * Called on the main thread with each page of apps, most recent first. An empty history
+         * is reported as a single empty last page.
+         */
+        void onHistoryPageLoaded(List<NotificationHistoryPackage> page, boolean lastPage);
     }
 }
@@ -48,6 +48,7 @@ import android.widget.ImageButton;
 import android.widget.ImageView;
 import android.widget.TextView;
 
+import androidx.core.widget.NestedScrollView;
 import androidx.recyclerview.widget.LinearLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
 
@@ -61,6 +62,7 @@ import com.android.settingslib.utils.ThreadUtils;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
@@ -73,6 +75,7 @@ public class NotificationHistoryActivity extends Activity {
     private ViewGroup mHistoryOff;
     private ViewGroup mHistoryEmpty;
     private ViewGroup mTodayView;
+    private NestedScrollView mScrollView;
     private ViewGroup mSnoozeView;
     private ViewGroup mDismissView;
     private SwitchBar mSwitchBar;
@@ -84,6 +87,10 @@ public class NotificationHistoryActivity extends Activity {
     private CountDownLatch mCountdownLatch;
     private Future mCountdownFuture;
     private UiEventLogger mUiEventLogger = new UiEventLoggerImpl();
+    // Apps loaded but not added to mTodayView yet, most recent first.
+    private final List<NotificationHistoryPackage> mPendingPackages = new ArrayList<>();
+    private final List<NotificationHistoryRecyclerView> mExpandedLists = new ArrayList<>();
+    private boolean mHistoryPageReceived;
 
     enum NotificationHistoryEvent implements UiEventLogger.UiEventEnum {
         @UiEvent(doc = "User turned on notification history")
@@ -126,86 +133,125 @@ public class NotificationHistoryActivity extends Activity {
         }
     }
 
-    private HistoryLoader.OnHistoryLoaderListener mOnHistoryLoaderListener = notifications -> {
-        findViewById(R.id.today_list).setVisibility(
-                notifications.isEmpty() ? View.GONE : View.VISIBLE);
-        mCountdownLatch.countDown();
-        mTodayView.setClipToOutline(true);
-        mTodayView.setOutlineProvider(new ViewOutlineProvider() {
-            @Override
-            public void getOutline(View view, Outline outline) {
-                final TypedArray ta = NotificationHistoryActivity.this.obtainStyledAttributes(
-                        new int[]{android.R.attr.dialogCornerRadius});
-                final float dialogCornerRadius = ta.getDimension(0, 0);
-                ta.recycle();
-                TypedValue v = new TypedValue();
-                NotificationHistoryActivity.this.getTheme().resolveAttribute(
-                        com.android.internal.R.attr.listDivider, v, true);
-                int bottomPadding = NotificationHistoryActivity.this.getDrawable(v.resourceId)
-                        .getIntrinsicHeight();
-                outline.setRoundRect(0, 0, view.getWidth(), (view.getHeight() - bottomPadding),
-                        dialogCornerRadius);
+    private void onHistoryPageLoaded(List<NotificationHistoryPackage> page, boolean lastPage) {
+        if (!mHistoryPageReceived) {
+            mHistoryPageReceived = true;
+            findViewById(R.id.today_list).setVisibility(
+                    page.isEmpty() ? View.GONE : View.VISIBLE);
+            mCountdownLatch.countDown();
+            mTodayView.setClipToOutline(true);
+            mTodayView.setOutlineProvider(new ViewOutlineProvider() {
+                @Override
+                public void getOutline(View view, Outline outline) {
+                    final TypedArray ta = NotificationHistoryActivity.this.obtainStyledAttributes(
+                            new int[]{android.R.attr.dialogCornerRadius});
+                    final float dialogCornerRadius = ta.getDimension(0, 0);
+                    ta.recycle();
+                    TypedValue v = new TypedValue();
+                    NotificationHistoryActivity.this.getTheme().resolveAttribute(
+                            com.android.internal.R.attr.listDivider, v, true);
+                    int bottomPadding = NotificationHistoryActivity.this.getDrawable(v.resourceId)
+                            .getIntrinsicHeight();
+                    outline.setRoundRect(0, 0, view.getWidth(),
+                            (view.getHeight() - bottomPadding), dialogCornerRadius);
+                }
+            });
+        }
+        mPendingPackages.addAll(page);
+        maybeLoadMore();
+    }
+
+    /**
+     * Add app sections, and rows to the expanded ones, while the end of the content is less than
+     * a screen below what's visible. Called again after each layout and scroll, so the history is
+     * only inflated as far as the user scrolls.
+     */
+    private void maybeLoadMore() {
+        final int loadUntil = mScrollView.getScrollY() + 2 * mScrollView.getHeight();
+        if (!mPendingPackages.isEmpty()
+                && (mTodayView.getChildCount() == 0 || getBottomInScroll(mTodayView) < loadUntil)) {
+            final int count = Math.min(HistoryLoader.PAGE_SIZE, mPendingPackages.size());
+            for (int i = 0; i < count; i++) {
+                addPackageView(mPendingPackages.remove(0));
             }
-        });
-        // for each package, new header and recycler view
-        for (int i = 0, notificationsSize = notifications.size(); i < notificationsSize; i++) {
-            NotificationHistoryPackage nhp = notifications.get(i);
-            View viewForPackage = LayoutInflater.from(this)
-                    .inflate(R.layout.notification_history_app_layout, null);
-
-            final View container = viewForPackage.findViewById(R.id.notification_list);
-            container.setVisibility(View.GONE);
-            View header = viewForPackage.findViewById(R.id.app_header);
-            ImageView expand = viewForPackage.findViewById(R.id.expand);
-            header.setStateDescription(container.getVisibility() == View.VISIBLE
+        }
+        for (int i = 0, size = mExpandedLists.size(); i < size; i++) {
+            final NotificationHistoryRecyclerView rv = mExpandedLists.get(i);
+            final NotificationHistoryAdapter adapter = (NotificationHistoryAdapter) rv.getAdapter();
+            if (adapter.hasNextPage() && getBottomInScroll(rv) < loadUntil) {
+                adapter.loadNextPage();
+            }
+        }
+    }
+
+    private int getBottomInScroll(View view) {
+        int bottom = view.getBottom();
+        for (View parent = (View) view.getParent(); parent != mScrollView;
+                parent = (View) parent.getParent()) {
+            bottom += parent.getTop();
+        }
+        return bottom;
+    }
+
+    private void addPackageView(NotificationHistoryPackage nhp) {
+        final int position = mTodayView.getChildCount();
+        View viewForPackage = LayoutInflater.from(this)
+                .inflate(R.layout.notification_history_app_layout, null);
+
+        final NotificationHistoryRecyclerView rv =
+                viewForPackage.findViewById(R.id.notification_list);
+        rv.setVisibility(View.GONE);
+        View header = viewForPackage.findViewById(R.id.app_header);
+        ImageView expand = viewForPackage.findViewById(R.id.expand);
+        header.setStateDescription(getString(R.string.condition_expand_show));
+        TextView count = viewForPackage.findViewById(R.id.count);
+        header.setOnClickListener(v -> {
+            rv.setVisibility(rv.getVisibility() == View.VISIBLE ? View.GONE : View.VISIBLE);
+            final boolean expanded = rv.getVisibility() == View.VISIBLE;
+            if (expanded && rv.getAdapter() == null) {
+                // The rows of an app are only created once it is expanded.
+                rv.setAdapter(new NotificationHistoryAdapter(mNm, rv,
+                        newCount -> {
+                            count.setText(getResources().getQuantityString(
+                                    R.plurals.notification_history_count,
+                                    newCount, newCount));
+                            if (newCount == 0) {
+                                viewForPackage.setVisibility(View.GONE);
+                            }
+                        }, mUiEventLogger));
+                ((NotificationHistoryAdapter) rv.getAdapter()).onRebuildComplete(
+                        new ArrayList<>(nhp.notifications));
+            }
+            if (expanded) {
+                mExpandedLists.add(rv);
+            } else {
+                mExpandedLists.remove(rv);
+            }
+            expand.setImageResource(expanded
+                    ? R.drawable.ic_expand_less
+                    : com.android.internal.R.drawable.ic_expand_more);
+            header.setStateDescription(expanded
                     ? getString(R.string.condition_expand_hide)
                     : getString(R.string.condition_expand_show));
-            int finalI = i;
-            header.setOnClickListener(v -> {
-                container.setVisibility(container.getVisibility() == View.VISIBLE
-                        ? View.GONE : View.VISIBLE);
-                expand.setImageResource(container.getVisibility() == View.VISIBLE
-                        ? R.drawable.ic_expand_less
-                        : com.android.internal.R.drawable.ic_expand_more);
-                header.setStateDescription(container.getVisibility() == View.VISIBLE
-                        ? getString(R.string.condition_expand_hide)
-                        : getString(R.string.condition_expand_show));
-                header.sendAccessibilityEvent(TYPE_VIEW_ACCESSIBILITY_FOCUSED);
-                mUiEventLogger.logWithPosition(
-                        (container.getVisibility() == View.VISIBLE)
+            header.sendAccessibilityEvent(TYPE_VIEW_ACCESSIBILITY_FOCUSED);
+            mUiEventLogger.logWithPosition(expanded
                             ? NotificationHistoryEvent.NOTIFICATION_HISTORY_PACKAGE_HISTORY_OPEN
                             : NotificationHistoryEvent.NOTIFICATION_HISTORY_PACKAGE_HISTORY_CLOSE,
-                        nhp.uid, nhp.pkgName, finalI);
-            });
+                    nhp.uid, nhp.pkgName, position);
+        });
 
-            TextView label = viewForPackage.findViewById(R.id.label);
-            label.setText(nhp.label != null ? nhp.label : nhp.pkgName);
-            label.setContentDescription(mUm.getBadgedLabelForUser(label.getText(),
-                    UserHandle.getUserHandleForUid(nhp.uid)));
-            ImageView icon = viewForPackage.findViewById(R.id.icon);
-            icon.setImageDrawable(nhp.icon);
-
-            TextView count = viewForPackage.findViewById(R.id.count);
-            count.setText(getResources().getQuantityString(R.plurals.notification_history_count,
-                    nhp.notifications.size(), nhp.notifications.size()));
-
-            final NotificationHistoryRecyclerView rv =
-                    viewForPackage.findViewById(R.id.notification_list);
-            rv.setAdapter(new NotificationHistoryAdapter(mNm, rv,
-                    newCount -> {
-                        count.setText(getResources().getQuantityString(
-                                R.plurals.notification_history_count,
-                                newCount, newCount));
-                        if (newCount == 0) {
-                            viewForPackage.setVisibility(View.GONE);
-                        }
-                    }, mUiEventLogger));
-            ((NotificationHistoryAdapter) rv.getAdapter()).onRebuildComplete(
-                    new ArrayList<>(nhp.notifications));
-
-            mTodayView.addView(viewForPackage);
-        }
-    };
+        TextView label = viewForPackage.findViewById(R.id.label);
+        label.setText(nhp.label != null ? nhp.label : nhp.pkgName);
+        label.setContentDescription(mUm.getBadgedLabelForUser(label.getText(),
+                UserHandle.getUserHandleForUid(nhp.uid)));
+        ImageView icon = viewForPackage.findViewById(R.id.icon);
+        mHistoryLoader.loadIcon(nhp, icon::setImageDrawable);
+
+        count.setText(getResources().getQuantityString(R.plurals.notification_history_count,
+                nhp.notifications.size(), nhp.notifications.size()));
+
+        mTodayView.addView(viewForPackage);
+    }
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -213,6 +259,10 @@ public class NotificationHistoryActivity extends Activity {
         setTitle(R.string.notification_history);
         setContentView(R.layout.notification_history);
         mTodayView = findViewById(R.id.apps);
+        mScrollView = findViewById(R.id.scroll);
+        mScrollView.setOnScrollChangeListener(
+                (NestedScrollView.OnScrollChangeListener) (v, x, y, oldX, oldY) -> maybeLoadMore());
+        mScrollView.getViewTreeObserver().addOnGlobalLayoutListener(this::maybeLoadMore);
         mSnoozeView = findViewById(R.id.snoozed_list);
         mDismissView = findViewById(R.id.recently_dismissed_list);
         mHistoryOff = findViewById(R.id.history_off);
@@ -238,8 +288,17 @@ public class NotificationHistoryActivity extends Activity {
         mCountdownLatch = new CountDownLatch(2);
 
         mTodayView.removeAllViews();
-        mHistoryLoader = new HistoryLoader(this, new NotificationBackend(), mPm);
-        mHistoryLoader.load(mOnHistoryLoaderListener);
+        mPendingPackages.clear();
+        mExpandedLists.clear();
+        mHistoryPageReceived = false;
+        final HistoryLoader loader = new HistoryLoader(this, new NotificationBackend(), mPm);
+        mHistoryLoader = loader;
+        loader.load((page, lastPage) -> {
+            // Drop the pages of a previous load.
+            if (mHistoryLoader == loader) {
+                onHistoryPageLoaded(page, lastPage);
+            }
+        });
 
         mNm = INotificationManager.Stub.asInterface(
                 ServiceManager.getService(Context.NOTIFICATION_SERVICE));
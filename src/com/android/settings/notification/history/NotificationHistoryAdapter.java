@@ -34,6 +34,7 @@ import android.view.ViewGroup;
 import android.view.accessibility.AccessibilityNodeInfo;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.VisibleForTesting;
 import androidx.recyclerview.widget.RecyclerView;
 
 import com.android.internal.logging.UiEventLogger;
@@ -48,8 +49,14 @@ public class NotificationHistoryAdapter extends
 
     private static String TAG = "NotiHistoryAdapter";
 
+    /** Number of rows shown at first, and added by each {@link #loadNextPage()}. */
+    @VisibleForTesting
+    static final int PAGE_SIZE = 25;
+
     private INotificationManager mNm;
     private List<HistoricalNotification> mValues;
+    // Only the first mShownCount notifications of mValues are shown.
+    private int mShownCount;
     private OnItemDeletedListener mListener;
     private UiEventLogger mUiEventLogger;
     public NotificationHistoryAdapter(INotificationManager nm,
@@ -117,23 +124,40 @@ public class NotificationHistoryAdapter extends
 
     @Override
     public int getItemCount() {
-        return mValues.size();
+        return mShownCount;
     }
 
     public void onRebuildComplete(List<HistoricalNotification> notifications) {
         mValues = notifications;
         mValues.sort((o1, o2) -> Long.compare(o2.getPostedTimeMs(), o1.getPostedTimeMs()));
+        mShownCount = Math.min(PAGE_SIZE, mValues.size());
         notifyDataSetChanged();
     }
 
+    /** Whether some notifications are not shown yet. */
+    public boolean hasNextPage() {
+        return mShownCount < mValues.size();
+    }
+
+    /** Show the next {@link #PAGE_SIZE} notifications, if any. */
+    public void loadNextPage() {
+        if (!hasNextPage()) {
+            return;
+        }
+        final int start = mShownCount;
+        mShownCount = Math.min(start + PAGE_SIZE, mValues.size());
+        notifyItemRangeInserted(start, mShownCount - start);
+    }
+
     @Override
     public void onItemSwipeDeleted(int position) {
-        if (position > (mValues.size() - 1)) {
+        if (position > (mShownCount - 1)) {
             Slog.d(TAG, "Tried to swipe element out of list: position: " + position
-                    + " size? " + mValues.size());
+                    + " size? " + mShownCount);
             return;
         }
         HistoricalNotification hn = mValues.remove(position);
+        mShownCount--;
         if (hn != null) {
             try {
                 mNm.deleteNotificationHistoryItem(
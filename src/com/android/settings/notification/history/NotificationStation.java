@@ -49,13 +49,16 @@ import android.text.SpannableString;
 import android.text.SpannableStringBuilder;
 import android.text.TextUtils;
 import android.text.style.StyleSpan;
+import android.util.ArrayMap;
 import android.util.Log;
+import android.view.Choreographer;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.DateTimeView;
 import android.widget.ImageView;
 import android.widget.TextView;
 
+import androidx.annotation.VisibleForTesting;
 import androidx.preference.Preference;
 import androidx.preference.PreferenceViewHolder;
 import androidx.recyclerview.widget.RecyclerView;
@@ -65,8 +68,8 @@ import com.android.settings.SettingsPreferenceFragment;
 import com.android.settings.Utils;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Comparator;
-import java.util.LinkedList;
 import java.util.List;
 
 public class NotificationStation extends SettingsPreferenceFragment {
@@ -76,7 +79,8 @@ public class NotificationStation extends SettingsPreferenceFragment {
     private static final boolean DUMP_EXTRAS = true;
     private static final boolean DUMP_PARCEL = true;
 
-    private static class HistoricalNotificationInfo {
+    @VisibleForTesting
+    static class HistoricalNotificationInfo {
         public String key;
         public NotificationChannel channel;
         // Historical notifications don't have Ranking information. for most fields that's ok
@@ -97,6 +101,8 @@ public class NotificationStation extends SettingsPreferenceFragment {
         public CharSequence rankingExtra;
         public boolean alerted;
         public boolean visuallyInterruptive;
+        // The row showing this notification, once it is added to the screen.
+        HistoricalNotificationPreference preference;
 
         public void updateFrom(HistoricalNotificationInfo updatedInfo) {
             this.channel = updatedInfo.channel;
@@ -113,10 +119,25 @@ public class NotificationStation extends SettingsPreferenceFragment {
         }
     }
 
+    /**
+     * Most notifications kept in the log. The oldest ones are dropped, so a notification storm
+     * can't grow the screen without bound.
+     */
+    @VisibleForTesting
+    static final int MAX_NOTIFICATIONS = 200;
+
     private PackageManager mPm;
     private INotificationManager mNoMan;
     private RankingMap mRanking;
-    private LinkedList<HistoricalNotificationInfo> mNotificationInfos;
+    private NotificationLog mNotificationInfos;
+    // Order of the next added row; decreases so that newer rows come first.
+    private int mNextOrder;
+    private boolean mRankingUpdatePending;
+
+    private final Choreographer.FrameCallback mRankingUpdate = frameTimeNanos -> {
+        mRankingUpdatePending = false;
+        updateNotificationsFromRanking();
+    };
 
     private final NotificationListenerService mListener = new NotificationListenerService() {
         @Override
@@ -146,7 +167,11 @@ public class NotificationStation extends SettingsPreferenceFragment {
             logd("onNotificationRankingUpdate with update for %d",
                     ranking == null ? 0 : ranking.getOrderedKeys().length);
             mRanking = ranking;
-            updateNotificationsFromRanking();
+            // Apply the latest ranking once per frame, however many updates arrive.
+            if (!mRankingUpdatePending) {
+                mRankingUpdatePending = true;
+                Choreographer.getInstance().postFrameCallback(mRankingUpdate);
+            }
         }
 
         @Override
@@ -171,7 +196,7 @@ public class NotificationStation extends SettingsPreferenceFragment {
         mPm = mContext.getPackageManager();
         mNoMan = INotificationManager.Stub.asInterface(
                 ServiceManager.getService(Context.NOTIFICATION_SERVICE));
-        mNotificationInfos = new LinkedList<>();
+        mNotificationInfos = new NotificationLog(MAX_NOTIFICATIONS);
     }
 
     @Override
@@ -182,6 +207,10 @@ public class NotificationStation extends SettingsPreferenceFragment {
 
     @Override
     public void onPause() {
+        if (mRankingUpdatePending) {
+            mRankingUpdatePending = false;
+            Choreographer.getInstance().removeFrameCallback(mRankingUpdate);
+        }
         try {
             mListener.unregisterAsSystemService();
         } catch (RemoteException e) {
@@ -228,24 +257,24 @@ public class NotificationStation extends SettingsPreferenceFragment {
         }
         getPreferenceScreen().removeAll();
         for (int i = 0; i < N; i++) {
-            getPreferenceScreen().addPreference(new HistoricalNotificationPreference(
-                    getPrefContext(), mNotificationInfos.get(i), i));
+            addPreference(mNotificationInfos.get(i), i);
         }
+        mNextOrder = -1;
+    }
+
+    private void addPreference(HistoricalNotificationInfo info, int order) {
+        info.preference = new HistoricalNotificationPreference(getPrefContext(), info, order);
+        getPreferenceScreen().addPreference(info.preference);
     }
 
     /**
      * Finds and dims the given notification in the preferences list.
      */
     private void markNotificationAsDismissed(StatusBarNotification sbn) {
-        final int N = mNotificationInfos.size();
-        for (int i = 0; i < N; i++) {
-            final HistoricalNotificationInfo info = mNotificationInfos.get(i);
-            if (TextUtils.equals(info.key, sbn.getKey())) {
-                info.active = false;
-                ((HistoricalNotificationPreference) getPreferenceScreen().findPreference(
-                        sbn.getKey())).updatePreference(info);
-               break;
-            }
+        final HistoricalNotificationInfo info = mNotificationInfos.getLatest(sbn.getKey());
+        if (info != null) {
+            info.active = false;
+            info.preference.updatePreference(info);
         }
     }
 
@@ -255,42 +284,29 @@ public class NotificationStation extends SettingsPreferenceFragment {
      */
     private void addOrUpdateNotification(StatusBarNotification sbn) {
         HistoricalNotificationInfo newInfo = createFromSbn(sbn, true);
-        boolean needsAdd = true;
-        final int N = mNotificationInfos.size();
-        for (int i = 0; i < N; i++) {
-            final HistoricalNotificationInfo info = mNotificationInfos.get(i);
-            if (TextUtils.equals(info.key, sbn.getKey()) && info.active
-                    && !newInfo.alerted && !newInfo.visuallyInterruptive) {
-                info.updateFrom(newInfo);
-
-                ((HistoricalNotificationPreference) getPreferenceScreen().findPreference(
-                        sbn.getKey())).updatePreference(info);
-                needsAdd = false;
-                break;
-            }
+        final HistoricalNotificationInfo info = mNotificationInfos.getLatest(sbn.getKey());
+        if (info != null && info.active && !newInfo.alerted && !newInfo.visuallyInterruptive) {
+            info.updateFrom(newInfo);
+            info.preference.updatePreference(info);
+            return;
         }
-        if (needsAdd) {
-            mNotificationInfos.addFirst(newInfo);
-            getPreferenceScreen().addPreference(new HistoricalNotificationPreference(
-                    getPrefContext(), mNotificationInfos.peekFirst(),
-                    -1 * mNotificationInfos.size()));
+        final HistoricalNotificationInfo evicted = mNotificationInfos.addFirst(newInfo);
+        if (evicted != null) {
+            getPreferenceScreen().removePreference(evicted.preference);
         }
+        addPreference(newInfo, mNextOrder--);
     }
 
     /**
      * Updates all notifications in the list based on new information in the ranking.
      */
     private void updateNotificationsFromRanking() {
-        Ranking rank = new Ranking();
-        for (int i = 0; i < getPreferenceScreen().getPreferenceCount(); i++) {
-            final HistoricalNotificationPreference p =
-                    (HistoricalNotificationPreference) getPreferenceScreen().getPreference(i);
+        for (int i = 0, size = mNotificationInfos.size(); i < size; i++) {
             final HistoricalNotificationInfo info = mNotificationInfos.get(i);
-            mRanking.getRanking(p.getKey(), rank);
-
             updateFromRanking(info);
-            ((HistoricalNotificationPreference) getPreferenceScreen().findPreference(
-                    info.key)).updatePreference(info);
+            if (info.preference != null) {
+                info.preference.updatePreference(info);
+            }
         }
     }
 
@@ -395,7 +411,11 @@ public class NotificationStation extends SettingsPreferenceFragment {
             // notifications are given to us in the same order as the shade; sorted by inferred
             // priority. Resort chronologically for our display.
             list.sort(mNotificationSorter);
-            mNotificationInfos = new LinkedList<>(list);
+            mNotificationInfos.clear();
+            // Add the oldest first, so that the newest ones are kept if there are too many.
+            for (int i = list.size() - 1; i >= 0; i--) {
+                mNotificationInfos.addFirst(list.get(i));
+            }
 
         } catch (RemoteException e) {
             Log.e(TAG, "Cannot load Notifications: ", e);
@@ -668,6 +688,66 @@ public class NotificationStation extends SettingsPreferenceFragment {
         return pkg;
     }
 
+    /**
+     * Fixed-capacity ring buffer of notification records, newest first, with an index from
+     * notification key to the newest record of that key.
+     */
+    @VisibleForTesting
+    static class NotificationLog {
+        private final HistoricalNotificationInfo[] mRecords;
+        private final ArrayMap<String, HistoricalNotificationInfo> mLatestByKey = new ArrayMap<>();
+        // Index of the newest record in mRecords.
+        private int mHead;
+        private int mSize;
+
+        NotificationLog(int capacity) {
+            mRecords = new HistoricalNotificationInfo[capacity];
+        }
+
+        int size() {
+            return mSize;
+        }
+
+        /** Return the {@code index}-th newest record. */
+        HistoricalNotificationInfo get(int index) {
+            if (index < 0 || index >= mSize) {
+                throw new IndexOutOfBoundsException("index=" + index + " size=" + mSize);
+            }
+            return mRecords[(mHead + index) % mRecords.length];
+        }
+
+        /** Return the newest record of the notification {@code key}, if any. */
+        HistoricalNotificationInfo getLatest(String key) {
+            return mLatestByKey.get(key);
+        }
+
+        /**
+         * Add {@code info} as the newest record and return the oldest one if it had to be
+         * dropped to make room.
+         */
+        HistoricalNotificationInfo addFirst(HistoricalNotificationInfo info) {
+            final int capacity = mRecords.length;
+            mHead = (mHead - 1 + capacity) % capacity;
+            final HistoricalNotificationInfo evicted = mSize == capacity ? mRecords[mHead] : null;
+            if (evicted != null && mLatestByKey.get(evicted.key) == evicted) {
+                mLatestByKey.remove(evicted.key);
+            }
+            mRecords[mHead] = info;
+            mLatestByKey.put(info.key, info);
+            if (mSize < capacity) {
+                mSize++;
+            }
+            return evicted;
+        }
+
+        void clear() {
+            Arrays.fill(mRecords, null);
+            mLatestByKey.clear();
+            mHead = 0;
+            mSize = 0;
+        }
+    }
+
     private static class HistoricalNotificationPreference extends Preference {
         private final HistoricalNotificationInfo mInfo;
         private static long sLastExpandedTimestamp; // quick hack to keep things from collapsing
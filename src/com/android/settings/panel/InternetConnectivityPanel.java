@@ -72,4 +72,9 @@ public class InternetConnectivityPanel implements PanelContent {
     public int getMetricsCategory() {
         return SettingsEnums.PANEL_INTERNET_CONNECTIVITY;
     }
+
+    @Override
+    public boolean isProgressiveLoadingEnabled() {
+        return true;
+    }
 }
@@ -111,4 +111,12 @@ public interface PanelContent extends Instrumentable {
     default int getViewType() {
         return 0;
     }
+
+    /**
+     * @return {@code true} to show each Slice as soon as it has loaded, instead of waiting for all
+     * of the Slices of the Panel. Rows of the Slices still loading keep a placeholder height.
+     */
+    default boolean isProgressiveLoadingEnabled() {
+        return false;
+    }
 }
@@ -25,7 +25,9 @@ import android.app.settings.SettingsEnums;
 import android.net.Uri;
 import android.os.Bundle;
 import android.os.Handler;
+import android.os.SystemClock;
 import android.text.TextUtils;
+import android.util.SparseArray;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
@@ -36,6 +38,7 @@ import android.widget.ImageView;
 import android.widget.LinearLayout;
 import android.widget.TextView;
 
+import androidx.annotation.GuardedBy;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.core.graphics.drawable.IconCompat;
@@ -58,6 +61,7 @@ import com.android.settingslib.utils.ThreadUtils;
 
 import com.google.android.setupdesign.DividerItemDecoration;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.LinkedHashMap;
 import java.util.List;
@@ -82,6 +86,12 @@ public class PanelFragment extends Fragment {
      */
     private static final int DURATION_SLICE_BINDING_TIMEOUT_MS = 250;
 
+    /**
+     * Latest {@link LoadTiming} of each Panel, by metrics category.
+     */
+    @GuardedBy("sLoadTimings")
+    private static final SparseArray<LoadTiming> sLoadTimings = new SparseArray<>();
+
     @VisibleForTesting
     View mLayoutView;
     private TextView mTitleView;
@@ -99,6 +109,9 @@ public class PanelFragment extends Fragment {
     private int mMaxHeight;
     private View mFooterDivider;
     private boolean mPanelCreating;
+    private boolean mProgressiveLoading;
+    private long mLoadStartTime;
+    private long mFirstRowTime;
 
     private final Map<Uri, LiveData<Slice>> mSliceLiveData = new LinkedHashMap<>();
 
@@ -298,6 +311,9 @@ public class PanelFragment extends Fragment {
 
     private void loadAllSlices() {
         mSliceLiveData.clear();
+        mAdapter = null;
+        mProgressiveLoading = mPanel.isProgressiveLoadingEnabled();
+        mLoadStartTime = SystemClock.elapsedRealtime();
         final List<Uri> sliceUris = mPanel.getSlices();
         mPanelSlicesLoaderCountdownLatch = new PanelSlicesLoaderCountdownLatch(sliceUris.size());
 
@@ -305,7 +321,7 @@ public class PanelFragment extends Fragment {
             final LiveData<Slice> sliceLiveData = SliceLiveData.fromUri(getActivity(), uri,
                     (int type, Throwable source)-> {
                             removeSliceLiveData(uri);
-                            mPanelSlicesLoaderCountdownLatch.markSliceLoaded(uri);
+                            markSliceLoaded(uri);
                     });
 
             // Add slice first to make it in order.  Will remove it later if there's an error.
@@ -335,13 +351,13 @@ public class PanelFragment extends Fragment {
                 final SliceMetadata metadata = SliceMetadata.from(getActivity(), slice);
                 if (slice == null || metadata.isErrorSlice()) {
                     removeSliceLiveData(uri);
-                    mPanelSlicesLoaderCountdownLatch.markSliceLoaded(uri);
+                    markSliceLoaded(uri);
                 } else if (metadata.getLoadingState() == SliceMetadata.LOADED_ALL) {
-                    mPanelSlicesLoaderCountdownLatch.markSliceLoaded(uri);
+                    markSliceLoaded(uri);
                 } else {
                     Handler handler = new Handler();
                     handler.postDelayed(() -> {
-                        mPanelSlicesLoaderCountdownLatch.markSliceLoaded(uri);
+                        markSliceLoaded(uri);
                         loadPanelWhenReady();
                     }, DURATION_SLICE_BINDING_TIMEOUT_MS);
                 }
@@ -357,18 +373,38 @@ public class PanelFragment extends Fragment {
                         R.array.config_panel_keep_observe_uri));
         if (!whiteList.contains(uri.toString())) {
             mSliceLiveData.remove(uri);
+            if (mAdapter != null) {
+                mAdapter.removeSlice(uri);
+            }
+        }
+    }
+
+    /**
+     * Mark the Slice of {@code uri} as loaded and, if the Panel is already showing, rebind its row
+     * so it drops the placeholder height.
+     */
+    private void markSliceLoaded(Uri uri) {
+        if (mPanelSlicesLoaderCountdownLatch.isSliceLoaded(uri)) {
+            return;
+        }
+        mPanelSlicesLoaderCountdownLatch.markSliceLoaded(uri);
+        if (mAdapter != null) {
+            mAdapter.notifySliceChanged(uri);
         }
     }
 
     /**
-     * When all of the Slices have loaded for the first time, then we can setup the
-     * {@link RecyclerView}.
+     * When all of the Slices have loaded for the first time, or the first of them in progressive
+     * mode, then we can setup the {@link RecyclerView}. In progressive mode the rows of the
+     * other Slices fill in as they load.
      * <p>
      * When the Recyclerview has been laid out, we can begin the animation with the
      * {@link mOnGlobalLayoutListener}, which calls {@link #animateIn()}.
      */
     private void loadPanelWhenReady() {
-        if (mPanelSlicesLoaderCountdownLatch.isPanelReadyToLoad()) {
+        final boolean allSlicesLoaded = mPanelSlicesLoaderCountdownLatch.isPanelReadyToLoad();
+        if (mAdapter == null && (allSlicesLoaded
+                || (mProgressiveLoading && mPanelSlicesLoaderCountdownLatch.hasLoadedSlices()))) {
             mAdapter = new PanelSlicesAdapter(
                     this, mSliceLiveData, mPanel.getMetricsCategory());
             mPanelSlices.setAdapter(mAdapter);
@@ -382,6 +418,28 @@ public class PanelFragment extends Fragment {
             if (mPanelSlices.getItemDecorationCount() == 0) {
                 mPanelSlices.addItemDecoration(itemDecoration);
             }
+            mFirstRowTime = SystemClock.elapsedRealtime();
+        }
+        if (allSlicesLoaded) {
+            final LoadTiming timing = new LoadTiming(mPanel.getMetricsCategory(),
+                    mProgressiveLoading, mFirstRowTime - mLoadStartTime,
+                    SystemClock.elapsedRealtime() - mLoadStartTime, mSliceLiveData.size());
+            synchronized (sLoadTimings) {
+                sLoadTimings.put(timing.mMetricsCategory, timing);
+            }
+        }
+    }
+
+    /**
+     * Return the latest {@link LoadTiming} of each Panel that has been shown in this process.
+     */
+    public static List<LoadTiming> getLoadTimings() {
+        synchronized (sLoadTimings) {
+            final List<LoadTiming> timings = new ArrayList<>(sLoadTimings.size());
+            for (int i = 0; i < sLoadTimings.size(); i++) {
+                timings.add(sLoadTimings.valueAt(i));
+            }
+            return timings;
         }
     }
 
@@ -478,6 +536,47 @@ public class PanelFragment extends Fragment {
         return mPanel.getViewType();
     }
 
+    /** Time it took a Panel to show its first row and to load all of its Slices. */
+    public static class LoadTiming {
+        private final int mMetricsCategory;
+        private final boolean mProgressive;
+        private final long mFirstRowMs;
+        private final long mCompleteMs;
+        private final int mSliceCount;
+
+        LoadTiming(int metricsCategory, boolean progressive, long firstRowMs, long completeMs,
+                int sliceCount) {
+            mMetricsCategory = metricsCategory;
+            mProgressive = progressive;
+            mFirstRowMs = firstRowMs;
+            mCompleteMs = completeMs;
+            mSliceCount = sliceCount;
+        }
+
+        public int getMetricsCategory() {
+            return mMetricsCategory;
+        }
+
+        /** Whether the rows were shown as their Slices loaded. */
+        public boolean isProgressive() {
+            return mProgressive;
+        }
+
+        /** Time between the start of the load and the Panel showing its first row. */
+        public long getFirstRowMs() {
+            return mFirstRowMs;
+        }
+
+        /** Time between the start of the load and all of the Slices having loaded. */
+        public long getCompleteMs() {
+            return mCompleteMs;
+        }
+
+        public int getSliceCount() {
+            return mSliceCount;
+        }
+    }
+
     class LocalPanelCallback implements PanelContentCallback {
 
         @Override
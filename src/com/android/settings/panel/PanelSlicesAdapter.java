@@ -56,6 +56,7 @@ public class PanelSlicesAdapter
     @VisibleForTesting
     static final int MAX_NUM_OF_SLICES = 6;
 
+    private final List<Uri> mSliceUris;
     private final List<LiveData<Slice>> mSliceLiveData;
     private final int mMetricsCategory;
     private final PanelFragment mPanelFragment;
@@ -63,6 +64,7 @@ public class PanelSlicesAdapter
     public PanelSlicesAdapter(
             PanelFragment fragment, Map<Uri, LiveData<Slice>> sliceLiveData, int metricsCategory) {
         mPanelFragment = fragment;
+        mSliceUris = new ArrayList<>(sliceLiveData.keySet());
         mSliceLiveData = new ArrayList<>(sliceLiveData.values());
         mMetricsCategory = metricsCategory;
     }
@@ -102,6 +104,36 @@ public class PanelSlicesAdapter
         return mPanelFragment.getPanelViewType();
     }
 
+    /**
+     * Rebind the row of {@code uri}, e.g. once its Slice has loaded and the placeholder height of
+     * the row can be dropped.
+     */
+    void notifySliceChanged(Uri uri) {
+        final int position = mSliceUris.indexOf(uri);
+        if (position >= 0 && position < getItemCount()) {
+            notifyItemChanged(position);
+        }
+    }
+
+    /**
+     * Remove the row of {@code uri}, e.g. when its Slice failed to load after the Panel was shown.
+     */
+    void removeSlice(Uri uri) {
+        final int position = mSliceUris.indexOf(uri);
+        if (position < 0) {
+            return;
+        }
+        mSliceUris.remove(position);
+        mSliceLiveData.remove(position);
+        if (position < MAX_NUM_OF_SLICES) {
+            notifyItemRemoved(position);
+            if (mSliceLiveData.size() >= MAX_NUM_OF_SLICES) {
+                // The first Slice over the limit moves into the last row.
+                notifyItemInserted(MAX_NUM_OF_SLICES - 1);
+            }
+        }
+    }
+
     /**
      * Return the available data from the adapter. If the number of Slices over the max number
      * allowed, the list will only have the first MAX_NUM_OF_SLICES of slices.
@@ -138,8 +170,16 @@ public class PanelSlicesAdapter
         public void onBind(LiveData<Slice> sliceLiveData, int position) {
             sliceLiveData.observe(mPanelFragment.getViewLifecycleOwner(), sliceView);
 
-            // Do not show the divider above media devices switcher slice per request
+            // Keep the space of a Slice that is still loading, so the rows don't jump around
+            // when it arrives.
             final Slice slice = sliceLiveData.getValue();
+            itemView.setMinimumHeight(slice == null
+                    ? mPanelFragment.getResources().getDimensionPixelSize(
+                            R.dimen.panel_slice_placeholder_height)
+                    : 0);
+
+            // Do not show the divider above media devices switcher slice per request
+            mDividerAllowedAbove = true;
             if (slice == null || slice.getUri().equals(MEDIA_OUTPUT_INDICATOR_SLICE_URI)) {
                 mDividerAllowedAbove = false;
             } else if (position == 0 && (slice.getUri().equals(MEDIA_OUTPUT_SLICE_URI)
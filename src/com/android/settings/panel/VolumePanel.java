@@ -78,4 +78,9 @@ public class VolumePanel implements PanelContent {
     public int getViewType() {
         return PanelContent.VIEW_TYPE_SLIDER;
     }
+
+    @Override
+    public boolean isProgressiveLoadingEnabled() {
+        return true;
+    }
 }
\ No newline at end of file
@@ -0,0 +1,314 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.search;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.net.Uri;
+import android.os.SystemClock;
+import android.os.UserHandle;
+import android.util.ArrayMap;
+import android.util.Log;
+
+import androidx.annotation.GuardedBy;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+import androidx.annotation.WorkerThread;
+
+import com.android.settingslib.drawer.Tile;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cache of the static titles and summaries of the tiles injected by other apps, as indexed by
+ * {@link SettingsSearchIndexablesProvider}.
+ *
+ * <p>Loading them means loading the resources of the app for every tile on every search index
+ * query. They are kept per package and locale instead, and the entries of a package are dropped
+ * when it is updated, changed or removed. Tiles without a title are cached too, as
+ * {@link TileText#NO_TITLE}.
+ */
+public class InjectedTileIndexCache {
+    private static final String TAG = "InjectedTileIndexCache";
+
+    /** Max number of tiles loaded at the same time. */
+    private static final int MAX_LOAD_THREADS = 4;
+
+    /** Time after which the tiles that aren't loaded yet are left out of the query. */
+    @VisibleForTesting
+    static final long LOAD_TIMEOUT_MS = 2000;
+
+    private static final InjectedTileIndexCache sInstance = new InjectedTileIndexCache();
+
+    /** Time after which an idle thread of {@link #getLoadExecutor} is stopped. */
+    private static final long LOAD_THREAD_KEEP_ALIVE_MS = 30000;
+
+    @GuardedBy("InjectedTileIndexCache.class")
+    private static ExecutorService sLoadExecutor;
+
+    /** Loads the static texts of one tile from the resources of its app. */
+    interface TextLoader {
+        @Nullable
+        TileText load(Tile tile) throws Exception;
+    }
+
+    @GuardedBy("this")
+    private final ArrayMap<String, PackageEntry> mEntries = new ArrayMap<>();
+    @GuardedBy("this")
+    private boolean mReceiverRegistered;
+    @GuardedBy("this")
+    private int mHitCount;
+    @GuardedBy("this")
+    private int mMissCount;
+    // Bumped by every invalidate. A load only stores a text if its package wasn't invalidated
+    // after the load started, see mInvalidations.
+    @GuardedBy("this")
+    private int mGeneration;
+    @GuardedBy("this")
+    private int mLoadsInFlight;
+    /** Generation of the latest invalidate of each package, kept while loads are in flight. */
+    @GuardedBy("this")
+    private final ArrayMap<String, Integer> mInvalidations = new ArrayMap<>();
+
+    @VisibleForTesting
+    final BroadcastReceiver mPackageReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            final Uri data = intent.getData();
+            if (data != null) {
+                invalidate(data.getSchemeSpecificPart());
+            }
+        }
+    };
+
+    public static InjectedTileIndexCache getInstance() {
+        return sInstance;
+    }
+
+    @VisibleForTesting
+    InjectedTileIndexCache() {
+    }
+
+    /**
+     * Return the texts of {@code tiles}, in the same order, from the cache or from
+     * {@code loader}. Tiles that aren't cached are loaded in parallel on a shared pool; a tile
+     * that fails to load or doesn't load within {@link #LOAD_TIMEOUT_MS} gets {@code null} and is
+     * tried again on the next call.
+     *
+     * @param keys the unique key of each tile
+     * @param localeTags the locales the texts are loaded in
+     */
+    @WorkerThread
+    List<TileText> getTileTexts(List<Tile> tiles, List<String> keys, String localeTags,
+            TextLoader loader) {
+        final List<TileText> texts = new ArrayList<>(Collections.nCopies(tiles.size(), null));
+        final List<Integer> missing = new ArrayList<>();
+        final int generation;
+        synchronized (this) {
+            generation = mGeneration;
+            for (int i = 0; i < tiles.size(); i++) {
+                final PackageEntry entry = getEntryLocked(tiles.get(i).getPackageName(),
+                        localeTags, false /* create */);
+                final TileText text = entry != null ? entry.mTexts.get(keys.get(i)) : null;
+                if (text != null) {
+                    texts.set(i, text);
+                    mHitCount++;
+                } else {
+                    missing.add(i);
+                    mMissCount++;
+                }
+            }
+            if (missing.isEmpty()) {
+                return texts;
+            }
+            mLoadsInFlight++;
+        }
+        try {
+            loadMissing(tiles, keys, localeTags, loader, missing, generation, texts);
+        } finally {
+            synchronized (this) {
+                if (--mLoadsInFlight == 0) {
+                    mInvalidations.clear();
+                }
+            }
+        }
+        return texts;
+    }
+
+    private void loadMissing(List<Tile> tiles, List<String> keys, String localeTags,
+            TextLoader loader, List<Integer> missing, int generation, List<TileText> texts) {
+        final List<Callable<TileText>> tasks = new ArrayList<>(missing.size());
+        for (int i : missing) {
+            final Tile tile = tiles.get(i);
+            tasks.add(() -> loader.load(tile));
+        }
+        final long startTime = SystemClock.elapsedRealtime();
+        List<Future<TileText>> futures = Collections.emptyList();
+        try {
+            futures = getLoadExecutor().invokeAll(tasks, LOAD_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Log.w(TAG, "Interrupted loading tiles", e);
+            Thread.currentThread().interrupt();
+        }
+
+        for (int i = 0; i < futures.size(); i++) {
+            final int index = missing.get(i);
+            final Tile tile = tiles.get(index);
+            final Future<TileText> future = futures.get(i);
+            if (future.isCancelled()) {
+                Log.w(TAG, "Timeout loading tile " + keys.get(index));
+                continue;
+            }
+            try {
+                final TileText text = future.get();
+                if (text != null) {
+                    texts.set(index, text);
+                    put(tile.getPackageName(), keys.get(index), localeTags, text, generation);
+                }
+            } catch (ExecutionException e) {
+                Log.w(TAG, "Error loading tile " + keys.get(index), e.getCause());
+            } catch (InterruptedException e) {
+                Log.w(TAG, "Interrupted loading tiles", e);
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        Log.d(TAG, "Loaded " + missing.size() + " tiles in "
+                + (SystemClock.elapsedRealtime() - startTime) + "ms");
+    }
+
+    /**
+     * Return the executor shared by all loads. Its threads time out when idle, so it doesn't keep
+     * threads around between index queries.
+     */
+    private static synchronized ExecutorService getLoadExecutor() {
+        if (sLoadExecutor == null) {
+            final ThreadPoolExecutor executor = new ThreadPoolExecutor(MAX_LOAD_THREADS,
+                    MAX_LOAD_THREADS, LOAD_THREAD_KEEP_ALIVE_MS, TimeUnit.MILLISECONDS,
+                    new LinkedBlockingQueue<>());
+            executor.allowCoreThreadTimeOut(true);
+            sLoadExecutor = executor;
+        }
+        return sLoadExecutor;
+    }
+
+    /** Drop everything cached for the package. */
+    public synchronized void invalidate(String packageName) {
+        mEntries.remove(packageName);
+        mGeneration++;
+        if (mLoadsInFlight > 0) {
+            mInvalidations.put(packageName, mGeneration);
+        }
+    }
+
+    /** Listen to package broadcasts, so the entries of changed packages are dropped. */
+    public void registerReceiverIfNeeded(Context context) {
+        synchronized (this) {
+            if (mReceiverRegistered) {
+                return;
+            }
+            mReceiverRegistered = true;
+        }
+        final IntentFilter filter = new IntentFilter();
+        filter.addAction(Intent.ACTION_PACKAGE_ADDED);
+        filter.addAction(Intent.ACTION_PACKAGE_REMOVED);
+        filter.addAction(Intent.ACTION_PACKAGE_CHANGED);
+        filter.addAction(Intent.ACTION_PACKAGE_REPLACED);
+        filter.addDataScheme("package");
+        context.getApplicationContext().registerReceiverAsUser(mPackageReceiver, UserHandle.ALL,
+                filter, null /* broadcastPermission */, null /* scheduler */);
+    }
+
+    public synchronized int getHitCount() {
+        return mHitCount;
+    }
+
+    public synchronized int getMissCount() {
+        return mMissCount;
+    }
+
+    public synchronized int getSize() {
+        int size = 0;
+        for (int i = 0, count = mEntries.size(); i < count; i++) {
+            size += mEntries.valueAt(i).mTexts.size();
+        }
+        return size;
+    }
+
+    /**
+     * Store the text of a tile loaded at {@code generation}, unless its package was invalidated
+     * since, in which case the text may be stale.
+     */
+    private synchronized void put(String packageName, String key, String localeTags,
+            TileText text, int generation) {
+        final Integer invalidated = mInvalidations.get(packageName);
+        if (invalidated != null && invalidated > generation) {
+            return;
+        }
+        getEntryLocked(packageName, localeTags, true /* create */).mTexts.put(key, text);
+    }
+
+    @GuardedBy("this")
+    private PackageEntry getEntryLocked(String packageName, String localeTags, boolean create) {
+        PackageEntry entry = mEntries.get(packageName);
+        if (entry != null && !entry.mLocaleTags.equals(localeTags)) {
+            mEntries.remove(packageName);
+            entry = null;
+        }
+        if (entry == null && create) {
+            entry = new PackageEntry(localeTags);
+            mEntries.put(packageName, entry);
+        }
+        return entry;
+    }
+
+    /** The static title and summary of a tile. */
+    static class TileText {
+        /** Text of a tile without a title, which isn't indexed. */
+        static final TileText NO_TITLE = new TileText(null /* title */, null /* summary */);
+
+        @Nullable
+        final String mTitle;
+        @Nullable
+        final String mSummary;
+
+        TileText(@Nullable String title, @Nullable String summary) {
+            mTitle = title;
+            mSummary = summary;
+        }
+    }
+
+    private static class PackageEntry {
+        final String mLocaleTags;
+        final ArrayMap<String, TileText> mTexts = new ArrayMap<>();
+
+        PackageEntry(String localeTags) {
+            mLocaleTags = localeTags;
+        }
+    }
+}
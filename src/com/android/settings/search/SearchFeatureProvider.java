@@ -32,6 +32,7 @@ import android.widget.Toolbar;
 import com.android.settings.R;
 import com.android.settings.Utils;
 import com.android.settings.overlay.FeatureFactory;
+import com.android.settings.search.embedded.EmbeddedSearchEngine;
 import com.android.settingslib.search.SearchIndexableResources;
 
 import com.google.android.setupcompat.util.WizardManagerHelper;
@@ -69,9 +70,14 @@ public interface SearchFeatureProvider {
             return;
         }
 
-        if (!WizardManagerHelper.isDeviceProvisioned(activity)
-                || !Utils.isPackageEnabled(activity, getSettingsIntelligencePkgName(activity))
-                || WizardManagerHelper.isAnySetupWizard(activity.getIntent())) {
+        final boolean isSearchAllowed = WizardManagerHelper.isDeviceProvisioned(activity)
+                && !WizardManagerHelper.isAnySetupWizard(activity.getIntent());
+        if (!isSearchAllowed
+                || !Utils.isPackageEnabled(activity, getSettingsIntelligencePkgName(activity))) {
+            if (isSearchAllowed) {
+                // No Settings Intelligence, keep the in-app search index up to date instead.
+                getEmbeddedSearchEngine(activity).updateIndexAsync();
+            }
             final ViewGroup parent = (ViewGroup) toolbar.getParent();
             if (parent != null) {
                 parent.setVisibility(View.GONE);
@@ -105,4 +111,12 @@ public interface SearchFeatureProvider {
     }
 
     Intent buildSearchIntent(Context context, int pageId);
+
+    /**
+     * @return the in-app search engine, for builds without Settings Intelligence. Its results
+     * are opened through {@link SearchResultTrampoline}.
+     */
+    default EmbeddedSearchEngine getEmbeddedSearchEngine(Context context) {
+        return EmbeddedSearchEngine.getInstance(context);
+    }
 }
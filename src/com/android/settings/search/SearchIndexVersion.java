@@ -0,0 +1,74 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.search;
+
+import android.content.Context;
+import android.content.pm.ChangedPackages;
+import android.os.Build;
+import android.os.Bundle;
+import android.os.UserManager;
+
+import androidx.annotation.GuardedBy;
+
+import java.util.TreeSet;
+
+/**
+ * Stamps of what the search index data of Settings depends on. Data stored with a stamp is stale
+ * once the current stamp is different.
+ */
+public class SearchIndexVersion {
+
+    @GuardedBy("this")
+    private int mPackageSequenceNumber;
+
+    /**
+     * Return a stamp of the build and the locales, which the titles, summaries and keywords of
+     * the static settings depend on.
+     */
+    public static String getLocaleStamp(Context context) {
+        return Build.FINGERPRINT + '|'
+                + context.getResources().getConfiguration().getLocales().toLanguageTags();
+    }
+
+    /**
+     * Return a stamp of the build, the locales, the installed packages and the user restrictions,
+     * which everything the search index providers return depends on.
+     */
+    public String getStamp(Context context) {
+        final int packageSequenceNumber;
+        synchronized (this) {
+            final ChangedPackages changedPackages =
+                    context.getPackageManager().getChangedPackages(mPackageSequenceNumber);
+            if (changedPackages != null) {
+                mPackageSequenceNumber = changedPackages.getSequenceNumber();
+            }
+            packageSequenceNumber = mPackageSequenceNumber;
+        }
+
+        final StringBuilder stamp = new StringBuilder(getLocaleStamp(context))
+                .append('|')
+                .append(packageSequenceNumber);
+        final UserManager userManager = context.getSystemService(UserManager.class);
+        final Bundle restrictions = userManager == null ? null : userManager.getUserRestrictions();
+        if (restrictions != null) {
+            for (String key : new TreeSet<>(restrictions.keySet())) {
+                stamp.append('|').append(key).append('=').append(restrictions.get(key));
+            }
+        }
+        return stamp.toString();
+    }
+}
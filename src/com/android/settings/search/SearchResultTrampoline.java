@@ -32,6 +32,13 @@ import com.android.settings.overlay.FeatureFactory;
  */
 public class SearchResultTrampoline extends Activity {
 
+    /**
+     * Action of the intents of search results, which must be started with
+     * {@link Activity#startActivityForResult}.
+     */
+    public static final String ACTION_SEARCH_RESULT_TRAMPOLINE =
+            "com.android.settings.SEARCH_RESULT_TRAMPOLINE";
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
@@ -50,6 +50,7 @@ import android.content.Context;
 import android.database.Cursor;
 import android.database.MatrixCursor;
 import android.net.Uri;
+import android.os.SystemClock;
 import android.provider.SearchIndexableResource;
 import android.provider.SearchIndexablesContract;
 import android.provider.SearchIndexablesProvider;
@@ -58,6 +59,7 @@ import android.text.TextUtils;
 import android.util.ArraySet;
 import android.util.Log;
 
+import androidx.annotation.GuardedBy;
 import androidx.annotation.Nullable;
 import androidx.slice.SliceViewManager;
 
@@ -66,6 +68,7 @@ import com.android.settings.R;
 import com.android.settings.SettingsActivity;
 import com.android.settings.dashboard.DashboardFeatureProvider;
 import com.android.settings.overlay.FeatureFactory;
+import com.android.settings.search.InjectedTileIndexCache.TileText;
 import com.android.settings.slices.SettingsSliceProvider;
 import com.android.settingslib.drawer.ActivityTile;
 import com.android.settingslib.drawer.CategoryKey;
@@ -77,7 +80,15 @@ import com.android.settingslib.search.SearchIndexableRaw;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 public class SettingsSearchIndexablesProvider extends SearchIndexablesProvider {
 
@@ -90,8 +101,39 @@ public class SettingsSearchIndexablesProvider extends SearchIndexablesProvider {
     public static final String SYSPROP_CRASH_ON_ERROR =
             "debug.com.android.settings.search.crash_on_error";
 
+    /**
+     * Flag for a system property which checks if we should crash if a provider takes longer than
+     * {@link #PROVIDER_TIME_BUDGET_MS} to answer a query.
+     */
+    public static final String SYSPROP_CRASH_ON_SLOW_PROVIDER =
+            "debug.com.android.settings.search.crash_on_slow_provider";
+
     private static final String TAG = "SettingsSearchProvider";
 
+    /**
+     * Max number of search index providers queried at the same time.
+     */
+    private static final int MAX_QUERY_THREADS = 4;
+
+    /**
+     * Time a single search index provider may take for one query before it is reported as slow.
+     */
+    @VisibleForTesting
+    static final long PROVIDER_TIME_BUDGET_MS = 200;
+
+    /**
+     * Time after which the search index providers that haven't answered a query are dropped.
+     */
+    private static final long QUERY_TIMEOUT_MS = 10000;
+
+    /**
+     * Time after which an idle thread of {@link #getQueryExecutor} is stopped.
+     */
+    private static final long QUERY_THREAD_KEEP_ALIVE_MS = 30000;
+
+    @GuardedBy("SettingsSearchIndexablesProvider.class")
+    private static ExecutorService sQueryExecutor;
+
     private static final Collection<String> INVALID_KEYS;
 
     static {
@@ -100,16 +142,32 @@ public class SettingsSearchIndexablesProvider extends SearchIndexablesProvider {
         INVALID_KEYS.add("");
     }
 
+    /**
+     * Results of {@link #queryXmlResources} and {@link #queryRawData}, which only change with the
+     * version stamp, see {@link #getVersionStamp}.
+     */
+    private final VersionedValue<List<SearchIndexableResource>> mXmlResources =
+            new VersionedValue<>();
+    private final VersionedValue<List<SearchIndexableRaw>> mRawData = new VersionedValue<>();
+
+    private final SearchIndexVersion mSearchIndexVersion = new SearchIndexVersion();
+
     @Override
     public boolean onCreate() {
+        getInjectedTileIndexCache().registerReceiverIfNeeded(getContext());
         return true;
     }
 
     @Override
     public Cursor queryXmlResources(String[] projection) {
         final MatrixCursor cursor = new MatrixCursor(INDEXABLES_XML_RES_COLUMNS);
-        final List<SearchIndexableResource> resources =
-                getSearchIndexableResourcesFromProvider(getContext());
+        final Context context = getContext();
+        final String versionStamp = getVersionStamp(context);
+        List<SearchIndexableResource> resources = mXmlResources.get(versionStamp);
+        if (resources == null) {
+            resources = getSearchIndexableResourcesFromProvider(context);
+            mXmlResources.put(versionStamp, resources);
+        }
         for (SearchIndexableResource val : resources) {
             final Object[] ref = new Object[INDEXABLES_XML_RES_COLUMNS.length];
             ref[COLUMN_INDEX_XML_RES_RANK] = val.rank;
@@ -131,7 +189,13 @@ public class SettingsSearchIndexablesProvider extends SearchIndexablesProvider {
     @Override
     public Cursor queryRawData(String[] projection) {
         final MatrixCursor cursor = new MatrixCursor(INDEXABLES_RAW_COLUMNS);
-        final List<SearchIndexableRaw> raws = getSearchIndexableRawFromProvider(getContext());
+        final Context context = getContext();
+        final String versionStamp = getVersionStamp(context);
+        List<SearchIndexableRaw> raws = mRawData.get(versionStamp);
+        if (raws == null) {
+            raws = getSearchIndexableRawFromProvider(context);
+            mRawData.put(versionStamp, raws);
+        }
         for (SearchIndexableRaw val : raws) {
             cursor.addRow(createIndexableRawColumnObjects(val));
         }
@@ -253,68 +317,28 @@ public class SettingsSearchIndexablesProvider extends SearchIndexablesProvider {
     }
 
     private List<String> getNonIndexableKeysFromProvider(Context context) {
-        final Collection<SearchIndexableData> bundles = FeatureFactory.getFactory(context)
-                .getSearchFeatureProvider().getSearchIndexableResources().getProviderValues();
-
-        final List<String> nonIndexableKeys = new ArrayList<>();
-
-        for (SearchIndexableData bundle : bundles) {
-            final long startTime = System.currentTimeMillis();
-            Indexable.SearchIndexProvider provider = bundle.getSearchIndexProvider();
-            List<String> providerNonIndexableKeys;
-            try {
-                providerNonIndexableKeys = provider.getNonIndexableKeys(context);
-            } catch (Exception e) {
-                // Catch a generic crash. In the absence of the catch, the background thread will
-                // silently fail anyway, so we aren't losing information by catching the exception.
-                // We crash when the system property exists so that we can test if crashes need to
-                // be fixed.
-                // The gain is that if there is a crash in a specific controller, we don't lose all
-                // non-indexable keys, but we can still find specific crashes in development.
-                if (System.getProperty(SYSPROP_CRASH_ON_ERROR) != null) {
-                    throw new RuntimeException(e);
-                }
-                Log.e(TAG, "Error trying to get non-indexable keys from: "
-                        + bundle.getTargetClass().getName(), e);
-                continue;
-            }
-
+        return queryAllProviders(context, "non-indexable keys", bundle -> {
+            final Indexable.SearchIndexProvider provider = bundle.getSearchIndexProvider();
+            final List<String> providerNonIndexableKeys = provider.getNonIndexableKeys(context);
             if (providerNonIndexableKeys == null || providerNonIndexableKeys.isEmpty()) {
-                if (DEBUG) {
-                    final long totalTime = System.currentTimeMillis() - startTime;
-                    Log.d(TAG, "No indexable, total time " + totalTime);
-                }
-                continue;
+                return null;
             }
 
             if (providerNonIndexableKeys.removeAll(INVALID_KEYS)) {
                 Log.v(TAG, provider + " tried to add an empty non-indexable key");
             }
-
-            if (DEBUG) {
-                final long totalTime = System.currentTimeMillis() - startTime;
-                Log.d(TAG, "Non-indexables " + providerNonIndexableKeys.size() + ", total time "
-                        + totalTime);
-            }
-
-            nonIndexableKeys.addAll(providerNonIndexableKeys);
-        }
-
-        return nonIndexableKeys;
+            return providerNonIndexableKeys;
+        });
     }
 
     private List<SearchIndexableResource> getSearchIndexableResourcesFromProvider(Context context) {
-        final Collection<SearchIndexableData> bundles = FeatureFactory.getFactory(context)
-                .getSearchFeatureProvider().getSearchIndexableResources().getProviderValues();
-        List<SearchIndexableResource> resourceList = new ArrayList<>();
-
-        for (SearchIndexableData bundle : bundles) {
-            Indexable.SearchIndexProvider provider = bundle.getSearchIndexProvider();
+        return queryAllProviders(context, "xml resources", bundle -> {
+            final Indexable.SearchIndexProvider provider = bundle.getSearchIndexProvider();
             final List<SearchIndexableResource> resList =
                     provider.getXmlResourcesToIndex(context, true);
 
             if (resList == null) {
-                continue;
+                return null;
             }
 
             for (SearchIndexableResource item : resList) {
@@ -322,25 +346,18 @@ public class SettingsSearchIndexablesProvider extends SearchIndexablesProvider {
                         ? bundle.getTargetClass().getName()
                         : item.className;
             }
-
-            resourceList.addAll(resList);
-        }
-
-        return resourceList;
+            return resList;
+        });
     }
 
     private List<SearchIndexableRaw> getSearchIndexableRawFromProvider(Context context) {
-        final Collection<SearchIndexableData> bundles = FeatureFactory.getFactory(context)
-                .getSearchFeatureProvider().getSearchIndexableResources().getProviderValues();
-        final List<SearchIndexableRaw> rawList = new ArrayList<>();
-
-        for (SearchIndexableData bundle : bundles) {
-            Indexable.SearchIndexProvider provider = bundle.getSearchIndexProvider();
+        return queryAllProviders(context, "raw data", bundle -> {
+            final Indexable.SearchIndexProvider provider = bundle.getSearchIndexProvider();
             final List<SearchIndexableRaw> providerRaws = provider.getRawDataToIndex(context,
                     true /* enabled */);
 
             if (providerRaws == null) {
-                continue;
+                return null;
             }
 
             for (SearchIndexableRaw raw : providerRaws) {
@@ -349,24 +366,18 @@ public class SettingsSearchIndexablesProvider extends SearchIndexablesProvider {
                 raw.className = bundle.getTargetClass().getName();
 
             }
-            rawList.addAll(providerRaws);
-        }
-
-        return rawList;
+            return providerRaws;
+        });
     }
 
     private List<SearchIndexableRaw> getDynamicSearchIndexableRawFromProvider(Context context) {
-        final Collection<SearchIndexableData> bundles = FeatureFactory.getFactory(context)
-                .getSearchFeatureProvider().getSearchIndexableResources().getProviderValues();
-        final List<SearchIndexableRaw> rawList = new ArrayList<>();
-
-        for (SearchIndexableData bundle : bundles) {
+        return queryAllProvidersInParallel(context, "dynamic raw data", bundle -> {
             final Indexable.SearchIndexProvider provider = bundle.getSearchIndexProvider();
             final List<SearchIndexableRaw> providerRaws =
                     provider.getDynamicRawDataToIndex(context, true /* enabled */);
 
             if (providerRaws == null) {
-                continue;
+                return null;
             }
 
             for (SearchIndexableRaw raw : providerRaws) {
@@ -375,41 +386,236 @@ public class SettingsSearchIndexablesProvider extends SearchIndexablesProvider {
                 raw.className = bundle.getTargetClass().getName();
 
             }
-            rawList.addAll(providerRaws);
+            return providerRaws;
+        });
+    }
+
+    /**
+     * Run {@code query} on every search index provider and return their results in the order of
+     * the providers.
+     * <p>
+     * A provider that crashes is reported with {@link #reportIndexingError}, so one broken provider
+     * doesn't take down the whole query. A provider that takes longer than
+     * {@link #PROVIDER_TIME_BUDGET_MS} is reported with {@link #reportSlowProvider}.
+     */
+    @VisibleForTesting
+    <T> List<T> queryAllProviders(Context context, String queryName, ProviderQuery<T> query) {
+        final List<SearchIndexableData> bundles = getProviderValues(context);
+        final List<T> results = new ArrayList<>();
+        for (SearchIndexableData bundle : bundles) {
+            final TimedResult<T> result;
+            try {
+                result = runQuery(bundle, query);
+            } catch (Exception e) {
+                // Catch a generic crash. In the absence of the catch, the background thread will
+                // silently fail anyway, so we aren't losing information by catching the exception.
+                // The gain is that if there is a crash in a specific controller, we don't lose all
+                // the results, but we can still find specific crashes in development.
+                reportIndexingError("Error trying to get " + queryName + " from: "
+                        + bundle.getTargetClass().getName(), e);
+                continue;
+            }
+            addResults(results, queryName, bundle, result);
         }
+        return results;
+    }
 
-        return rawList;
+    /**
+     * Same as {@link #queryAllProviders}, but runs the providers on {@link #getQueryExecutor},
+     * at most {@link #MAX_QUERY_THREADS} at a time. Providers that don't answer within
+     * {@link #QUERY_TIMEOUT_MS} are reported with {@link #reportIndexingError}.
+     * <p>
+     * Only used for the dynamic raw data, which is queried on every index update and isn't cached.
+     */
+    @VisibleForTesting
+    <T> List<T> queryAllProvidersInParallel(Context context, String queryName,
+            ProviderQuery<T> query) {
+        // Reading the providers initializes the FeatureFactory on this thread, so the providers
+        // don't race to create it from the query threads.
+        final List<SearchIndexableData> bundles = getProviderValues(context);
+        final List<T> results = new ArrayList<>();
+        if (bundles.isEmpty()) {
+            return results;
+        }
+
+        final List<Callable<TimedResult<T>>> tasks = new ArrayList<>(bundles.size());
+        for (SearchIndexableData bundle : bundles) {
+            tasks.add(() -> runQuery(bundle, query));
+        }
+
+        final long startTime = SystemClock.elapsedRealtime();
+        List<Future<TimedResult<T>>> futures = Collections.emptyList();
+        try {
+            futures = getQueryExecutor().invokeAll(tasks, QUERY_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Log.w(TAG, "Interrupted querying " + queryName, e);
+            Thread.currentThread().interrupt();
+        }
+
+        for (int i = 0; i < futures.size(); i++) {
+            final Future<TimedResult<T>> future = futures.get(i);
+            final SearchIndexableData bundle = bundles.get(i);
+            if (future.isCancelled()) {
+                reportIndexingError("Timeout getting " + queryName + " from: "
+                        + bundle.getTargetClass().getName(), null);
+                continue;
+            }
+            final TimedResult<T> result;
+            try {
+                result = future.get();
+            } catch (ExecutionException e) {
+                reportIndexingError("Error trying to get " + queryName + " from: "
+                        + bundle.getTargetClass().getName(), e.getCause());
+                continue;
+            } catch (InterruptedException e) {
+                Log.w(TAG, "Interrupted querying " + queryName, e);
+                Thread.currentThread().interrupt();
+                break;
+            }
+            // Reported here rather than in the task, so a crash on a slow provider doesn't turn
+            // into an ExecutionException that drops its results.
+            addResults(results, queryName, bundle, result);
+        }
+        if (DEBUG) {
+            Log.d(TAG, queryName + " of " + bundles.size() + " providers, total time "
+                    + (SystemClock.elapsedRealtime() - startTime));
+        }
+        return results;
+    }
+
+    private static List<SearchIndexableData> getProviderValues(Context context) {
+        return new ArrayList<>(FeatureFactory.getFactory(context).getSearchFeatureProvider()
+                .getSearchIndexableResources().getProviderValues());
+    }
+
+    private static <T> TimedResult<T> runQuery(SearchIndexableData bundle, ProviderQuery<T> query)
+            throws Exception {
+        final long startTime = SystemClock.elapsedRealtime();
+        final List<T> results = query.query(bundle);
+        return new TimedResult<>(results, SystemClock.elapsedRealtime() - startTime);
+    }
+
+    private static <T> void addResults(List<T> results, String queryName,
+            SearchIndexableData bundle, TimedResult<T> result) {
+        if (result.totalTime > PROVIDER_TIME_BUDGET_MS) {
+            reportSlowProvider("Slow " + queryName + " query of "
+                    + bundle.getTargetClass().getName() + ": " + result.totalTime + "ms");
+        } else if (DEBUG) {
+            Log.d(TAG, queryName + " of " + bundle.getTargetClass().getName() + ": "
+                    + (result.results == null ? 0 : result.results.size())
+                    + ", total time " + result.totalTime);
+        }
+        if (result.results != null) {
+            results.addAll(result.results);
+        }
+    }
+
+    /**
+     * Return the executor shared by all parallel queries. Its threads time out when idle, so it
+     * doesn't keep threads around between index updates.
+     */
+    private static synchronized ExecutorService getQueryExecutor() {
+        if (sQueryExecutor == null) {
+            final ThreadPoolExecutor executor = new ThreadPoolExecutor(MAX_QUERY_THREADS,
+                    MAX_QUERY_THREADS, QUERY_THREAD_KEEP_ALIVE_MS, TimeUnit.MILLISECONDS,
+                    new LinkedBlockingQueue<>());
+            executor.allowCoreThreadTimeOut(true);
+            sQueryExecutor = executor;
+        }
+        return sQueryExecutor;
+    }
+
+    /**
+     * Log an issue in the indexing pipeline. We crash when the system property
+     * {@link #SYSPROP_CRASH_ON_ERROR} exists so that we can test if issues need to be fixed.
+     */
+    private static void reportIndexingError(String message, @Nullable Throwable e) {
+        if (System.getProperty(SYSPROP_CRASH_ON_ERROR) != null) {
+            throw new RuntimeException(message, e);
+        }
+        Log.e(TAG, message, e);
+    }
+
+    /**
+     * Log a provider that went over its time budget. We crash when the system property
+     * {@link #SYSPROP_CRASH_ON_SLOW_PROVIDER} exists so that slow providers can be caught in tests.
+     */
+    private static void reportSlowProvider(String message) {
+        if (System.getProperty(SYSPROP_CRASH_ON_SLOW_PROVIDER) != null) {
+            throw new RuntimeException(message);
+        }
+        Log.w(TAG, message);
+    }
+
+    /**
+     * Return a stamp of everything the non-dynamic results of the search index providers depend
+     * on, see {@link SearchIndexVersion#getStamp}.
+     */
+    @VisibleForTesting
+    String getVersionStamp(Context context) {
+        return mSearchIndexVersion.getStamp(context);
     }
 
     private List<SearchIndexableRaw> getInjectionIndexableRawData(Context context) {
         final DashboardFeatureProvider dashboardFeatureProvider =
                 FeatureFactory.getFactory(context).getDashboardFeatureProvider(context);
 
-        final List<SearchIndexableRaw> rawList = new ArrayList<>();
+        final List<Tile> tiles = new ArrayList<>();
+        final List<String> keys = new ArrayList<>();
         final String currentPackageName = context.getPackageName();
         for (DashboardCategory category : dashboardFeatureProvider.getAllCategories()) {
             for (Tile tile : category.getTiles()) {
                 if (!isEligibleForIndexing(currentPackageName, tile)) {
                     continue;
                 }
-                final SearchIndexableRaw raw = new SearchIndexableRaw(context);
-                final CharSequence title = tile.getTitle(context);
-                raw.title = TextUtils.isEmpty(title) ? null : title.toString();
-                if (TextUtils.isEmpty(raw.title)) {
-                    continue;
-                }
-                raw.key = dashboardFeatureProvider.getDashboardKeyForTile(tile);
-                final CharSequence summary = tile.getSummary(context);
-                raw.summaryOn = TextUtils.isEmpty(summary) ? null : summary.toString();
-                raw.summaryOff = raw.summaryOn;
-                raw.className = CATEGORY_KEY_TO_PARENT_MAP.get(tile.getCategory());
-                rawList.add(raw);
+                tiles.add(tile);
+                keys.add(dashboardFeatureProvider.getDashboardKeyForTile(tile));
             }
         }
 
+        final String localeTags =
+                context.getResources().getConfiguration().getLocales().toLanguageTags();
+        final List<TileText> texts = getInjectedTileIndexCache().getTileTexts(tiles, keys,
+                localeTags, tile -> loadTileText(context, tile));
+        final List<SearchIndexableRaw> rawList = new ArrayList<>();
+        for (int i = 0; i < tiles.size(); i++) {
+            final TileText text = texts.get(i);
+            if (text == null || text.mTitle == null) {
+                continue;
+            }
+            final Tile tile = tiles.get(i);
+            final SearchIndexableRaw raw = new SearchIndexableRaw(context);
+            raw.title = text.mTitle;
+            raw.key = keys.get(i);
+            raw.summaryOn = text.mSummary;
+            raw.summaryOff = raw.summaryOn;
+            raw.className = CATEGORY_KEY_TO_PARENT_MAP.get(tile.getCategory());
+            rawList.add(raw);
+        }
+
         return rawList;
     }
 
+    /**
+     * Load the static title and summary of an injected tile from the resources of its app.
+     * Return {@link TileText#NO_TITLE} for a tile without title.
+     */
+    @VisibleForTesting
+    TileText loadTileText(Context context, Tile tile) {
+        final CharSequence title = tile.getTitle(context);
+        if (TextUtils.isEmpty(title)) {
+            return TileText.NO_TITLE;
+        }
+        final CharSequence summary = tile.getSummary(context);
+        return new TileText(title.toString(), TextUtils.isEmpty(summary) ? null
+                : summary.toString());
+    }
+
+    @VisibleForTesting
+    InjectedTileIndexCache getInjectedTileIndexCache() {
+        return InjectedTileIndexCache.getInstance();
+    }
+
     @VisibleForTesting
     boolean isEligibleForIndexing(String packageName, Tile tile) {
         if (TextUtils.equals(packageName, tile.getPackageName())
@@ -441,4 +647,43 @@ public class SettingsSearchIndexablesProvider extends SearchIndexablesProvider {
         ref[COLUMN_INDEX_RAW_USER_ID] = raw.userId;
         return ref;
     }
+
+    /** Runs one query of a single search index provider. */
+    @VisibleForTesting
+    interface ProviderQuery<T> {
+        /** Return the results of the provider of {@code bundle}, or {@code null} for none. */
+        @Nullable
+        List<T> query(SearchIndexableData bundle) throws Exception;
+    }
+
+    /** A value that is only valid for the version stamp it was stored with. */
+    private static class VersionedValue<T> {
+        @GuardedBy("this")
+        private String mVersionStamp;
+        @GuardedBy("this")
+        private T mValue;
+
+        /** Return the value if it was stored with {@code versionStamp}, or {@code null}. */
+        @Nullable
+        synchronized T get(String versionStamp) {
+            return TextUtils.equals(versionStamp, mVersionStamp) ? mValue : null;
+        }
+
+        synchronized void put(String versionStamp, T value) {
+            mVersionStamp = versionStamp;
+            mValue = value;
+        }
+    }
+
+    /** The results of one provider query and the time it took. */
+    private static class TimedResult<T> {
+        @Nullable
+        final List<T> results;
+        final long totalTime;
+
+        TimedResult(@Nullable List<T> results, long totalTime) {
+            this.results = results;
+            this.totalTime = totalTime;
+        }
+    }
 }
@@ -0,0 +1,206 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.search.embedded;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.os.SystemClock;
+import android.os.UserManager;
+import android.util.AtomicFile;
+import android.util.Log;
+
+import androidx.annotation.GuardedBy;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+import androidx.annotation.WorkerThread;
+
+import com.android.settings.search.SearchIndexVersion;
+import com.android.settingslib.utils.ThreadUtils;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Supplier;
+
+/**
+ * In-app search of the settings, for builds without Settings Intelligence.
+ *
+ * <p>The settings are kept in two {@link SearchIndex}es. The static one holds the xml and raw
+ * data of the search index providers, is stored in the files dir and is only rebuilt when the
+ * build or the locales change, see {@link SearchIndexVersion#getLocaleStamp}. The dynamic one holds
+ * the dynamic raw data and the injected settings, which change with the state of the device, so
+ * it is only kept in memory and built again on every {@link #updateIndex()}. The non-indexable
+ * keys are loaded again on every update too; they hide the static settings that the installed
+ * packages or the user restrictions leave out. The index is updated when the search entry point
+ * is shown and when the locale, packages or user restrictions change.
+ */
+public class EmbeddedSearchEngine {
+    private static final String TAG = "EmbeddedSearchEngine";
+
+    private static final String DIR_NAME = "search_index";
+    private static final String STATIC_FILE_NAME = "static";
+    private static final String DYNAMIC_FILE_NAME = "dynamic";
+
+    private static EmbeddedSearchEngine sInstance;
+
+    private final Context mContext;
+    private final SearchDocumentLoader mLoader;
+    private final AtomicFile mStaticFile;
+    // Where older versions stored the dynamic index, deleted when the index is first read.
+    private final AtomicFile mDynamicFile;
+
+    private final Object mUpdateLock = new Object();
+    @GuardedBy("mUpdateLock")
+    private boolean mReadFiles;
+
+    private volatile SearchIndex mStaticIndex;
+    private volatile SearchIndex mDynamicIndex;
+    private volatile Set<String> mNonIndexableKeys = Collections.emptySet();
+
+    private final BroadcastReceiver mUpdateReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            updateIndexAsync();
+        }
+    };
+
+    public static synchronized EmbeddedSearchEngine getInstance(Context context) {
+        if (sInstance == null) {
+            final Context appContext = context.getApplicationContext();
+            sInstance = new EmbeddedSearchEngine(appContext, new SearchDocumentLoader(appContext),
+                    new File(appContext.getFilesDir(), DIR_NAME));
+            sInstance.registerReceivers();
+        }
+        return sInstance;
+    }
+
+    @VisibleForTesting
+    EmbeddedSearchEngine(Context context, SearchDocumentLoader loader, File dir) {
+        mContext = context;
+        mLoader = loader;
+        mStaticFile = new AtomicFile(new File(dir, STATIC_FILE_NAME));
+        mDynamicFile = new AtomicFile(new File(dir, DYNAMIC_FILE_NAME));
+    }
+
+    private void registerReceivers() {
+        final IntentFilter filter = new IntentFilter();
+        filter.addAction(Intent.ACTION_LOCALE_CHANGED);
+        filter.addAction(UserManager.ACTION_USER_RESTRICTIONS_CHANGED);
+        mContext.registerReceiver(mUpdateReceiver, filter);
+
+        final IntentFilter packageFilter = new IntentFilter();
+        packageFilter.addAction(Intent.ACTION_PACKAGE_ADDED);
+        packageFilter.addAction(Intent.ACTION_PACKAGE_REMOVED);
+        packageFilter.addAction(Intent.ACTION_PACKAGE_CHANGED);
+        packageFilter.addAction(Intent.ACTION_PACKAGE_REPLACED);
+        packageFilter.addDataScheme("package");
+        mContext.registerReceiver(mUpdateReceiver, packageFilter);
+    }
+
+    /** Bring the index up to date in the background, e.g. when the search page opens. */
+    public void updateIndexAsync() {
+        ThreadUtils.postOnBackgroundThread(this::updateIndex);
+    }
+
+    /**
+     * Bring the index up to date: read the stored static index if needed and rebuild it if it is
+     * stale, rebuild the dynamic index and load the non-indexable keys.
+     */
+    @WorkerThread
+    public void updateIndex() {
+        synchronized (mUpdateLock) {
+            if (!mReadFiles) {
+                mReadFiles = true;
+                mStaticIndex = readIndex(mStaticFile);
+                mDynamicFile.delete();
+            }
+            final String stamp = getLocaleStamp();
+            mStaticIndex = updateIndexIfStale(mStaticIndex, stamp, mStaticFile,
+                    mLoader::loadStaticDocuments);
+            mDynamicIndex = SearchIndex.build(stamp, mLoader.loadDynamicDocuments());
+            mNonIndexableKeys = mLoader.loadNonIndexableKeys();
+        }
+    }
+
+    /**
+     * Return the settings matching {@code query}, best first. Only the index loaded so far is
+     * searched, so call {@link #updateIndexAsync()} ahead of the first query.
+     */
+    public List<SearchResult> query(String query, int maxResults) {
+        final SearchIndex staticIndex = mStaticIndex;
+        final SearchIndex dynamicIndex = mDynamicIndex;
+        final Set<String> nonIndexableKeys = mNonIndexableKeys;
+        final List<SearchResult> results = new ArrayList<>();
+        if (staticIndex != null) {
+            results.addAll(staticIndex.query(query, maxResults, nonIndexableKeys));
+        }
+        if (dynamicIndex != null) {
+            results.addAll(dynamicIndex.query(query, maxResults, nonIndexableKeys));
+        }
+        Collections.sort(results, SearchResult.COMPARATOR);
+        return results.size() > maxResults ? results.subList(0, maxResults) : results;
+    }
+
+    /** Return the number of settings in the index loaded so far. */
+    public int getDocumentCount() {
+        final SearchIndex staticIndex = mStaticIndex;
+        final SearchIndex dynamicIndex = mDynamicIndex;
+        return (staticIndex != null ? staticIndex.getDocumentCount() : 0)
+                + (dynamicIndex != null ? dynamicIndex.getDocumentCount() : 0);
+    }
+
+    @VisibleForTesting
+    String getLocaleStamp() {
+        return SearchIndexVersion.getLocaleStamp(mContext);
+    }
+
+    private static SearchIndex updateIndexIfStale(@Nullable SearchIndex index, String stamp,
+            AtomicFile file, Supplier<List<SearchDocument>> documentLoader) {
+        if (index != null && stamp.equals(index.getVersionStamp())) {
+            return index;
+        }
+        final long startTime = SystemClock.elapsedRealtime();
+        final SearchIndex newIndex = SearchIndex.build(stamp, documentLoader.get());
+        try {
+            newIndex.write(file);
+        } catch (IOException e) {
+            Log.w(TAG, "Unable to write search index", e);
+        }
+        Log.i(TAG, "Indexed " + newIndex.getDocumentCount() + " settings into "
+                + file.getBaseFile().getName() + " in "
+                + (SystemClock.elapsedRealtime() - startTime) + "ms");
+        return newIndex;
+    }
+
+    @Nullable
+    private static SearchIndex readIndex(AtomicFile file) {
+        try {
+            return SearchIndex.read(file);
+        } catch (FileNotFoundException e) {
+            // Nothing indexed yet
+        } catch (IOException e) {
+            Log.w(TAG, "Unable to read search index, rebuilding it", e);
+        }
+        return null;
+    }
+}
@@ -0,0 +1,204 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.search.embedded;
+
+import android.content.Context;
+import android.content.Intent;
+import android.text.TextUtils;
+
+import com.android.settings.SettingsActivity;
+import com.android.settings.search.SearchResultTrampoline;
+
+/**
+ * One searchable setting of the {@link SearchIndex}, built from a row of
+ * {@link com.android.settings.search.SettingsSearchIndexablesProvider}.
+ */
+public class SearchDocument {
+    private final String mKey;
+    private final String mTitle;
+    private final String mSummary;
+    private final String mKeywords;
+    private final String mScreenTitle;
+    private final String mBreadcrumbs;
+    private final String mClassName;
+    private final int mIconResId;
+    private final String mIntentAction;
+    private final String mIntentTargetPackage;
+    private final String mIntentTargetClass;
+
+    private SearchDocument(Builder builder) {
+        mKey = builder.mKey;
+        mTitle = builder.mTitle;
+        mSummary = builder.mSummary;
+        mKeywords = builder.mKeywords;
+        mScreenTitle = builder.mScreenTitle;
+        mBreadcrumbs = builder.mBreadcrumbs;
+        mClassName = builder.mClassName;
+        mIconResId = builder.mIconResId;
+        mIntentAction = builder.mIntentAction;
+        mIntentTargetPackage = builder.mIntentTargetPackage;
+        mIntentTargetClass = builder.mIntentTargetClass;
+    }
+
+    public String getKey() {
+        return mKey;
+    }
+
+    public String getTitle() {
+        return mTitle;
+    }
+
+    public String getSummary() {
+        return mSummary;
+    }
+
+    public String getKeywords() {
+        return mKeywords;
+    }
+
+    public String getScreenTitle() {
+        return mScreenTitle;
+    }
+
+    /**
+     * Return the titles of the pages leading to the setting, e.g. "Network & internet > Wi-Fi".
+     */
+    public String getBreadcrumbs() {
+        return mBreadcrumbs;
+    }
+
+    public String getClassName() {
+        return mClassName;
+    }
+
+    public int getIconResId() {
+        return mIconResId;
+    }
+
+    public String getIntentAction() {
+        return mIntentAction;
+    }
+
+    public String getIntentTargetPackage() {
+        return mIntentTargetPackage;
+    }
+
+    public String getIntentTargetClass() {
+        return mIntentTargetClass;
+    }
+
+    /**
+     * Return the intent opening the setting. Settings pages are opened through
+     * {@link SearchResultTrampoline}, so the intent must be started with
+     * {@link android.app.Activity#startActivityForResult}.
+     */
+    public Intent buildIntent(Context context) {
+        final Intent intent;
+        if (TextUtils.isEmpty(mIntentAction)) {
+            intent = new Intent(SearchResultTrampoline.ACTION_SEARCH_RESULT_TRAMPOLINE)
+                    .setPackage(context.getPackageName())
+                    .putExtra(SettingsActivity.EXTRA_SHOW_FRAGMENT, mClassName)
+                    .putExtra(SettingsActivity.EXTRA_SHOW_FRAGMENT_TITLE, mScreenTitle);
+        } else {
+            intent = new Intent(mIntentAction);
+            if (!TextUtils.isEmpty(mIntentTargetPackage)
+                    && !TextUtils.isEmpty(mIntentTargetClass)) {
+                intent.setClassName(mIntentTargetPackage, mIntentTargetClass);
+            }
+        }
+        intent.putExtra(SettingsActivity.EXTRA_FRAGMENT_ARG_KEY, mKey);
+        return intent;
+    }
+
+    @Override
+    public String toString() {
+        return "SearchDocument{key=" + mKey + ", title=" + mTitle + "}";
+    }
+
+    public static class Builder {
+        private String mKey;
+        private String mTitle;
+        private String mSummary;
+        private String mKeywords;
+        private String mScreenTitle;
+        private String mBreadcrumbs;
+        private String mClassName;
+        private int mIconResId;
+        private String mIntentAction;
+        private String mIntentTargetPackage;
+        private String mIntentTargetClass;
+
+        public Builder setKey(String key) {
+            mKey = key;
+            return this;
+        }
+
+        public Builder setTitle(String title) {
+            mTitle = title;
+            return this;
+        }
+
+        public Builder setSummary(String summary) {
+            mSummary = summary;
+            return this;
+        }
+
+        public Builder setKeywords(String keywords) {
+            mKeywords = keywords;
+            return this;
+        }
+
+        public Builder setScreenTitle(String screenTitle) {
+            mScreenTitle = screenTitle;
+            return this;
+        }
+
+        public Builder setBreadcrumbs(String breadcrumbs) {
+            mBreadcrumbs = breadcrumbs;
+            return this;
+        }
+
+        public Builder setClassName(String className) {
+            mClassName = className;
+            return this;
+        }
+
+        public Builder setIconResId(int iconResId) {
+            mIconResId = iconResId;
+            return this;
+        }
+
+        public Builder setIntentAction(String intentAction) {
+            mIntentAction = intentAction;
+            return this;
+        }
+
+        public Builder setIntentTargetPackage(String intentTargetPackage) {
+            mIntentTargetPackage = intentTargetPackage;
+            return this;
+        }
+
+        public Builder setIntentTargetClass(String intentTargetClass) {
+            mIntentTargetClass = intentTargetClass;
+            return this;
+        }
+
+        public SearchDocument build() {
+            return new SearchDocument(this);
+        }
+    }
+}
@@ -0,0 +1,278 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.search.embedded;
+
+import static android.provider.SearchIndexablesContract.COLUMN_INDEX_NON_INDEXABLE_KEYS_KEY_VALUE;
+import static android.provider.SearchIndexablesContract.COLUMN_INDEX_RAW_CLASS_NAME;
+import static android.provider.SearchIndexablesContract.COLUMN_INDEX_RAW_ICON_RESID;
+import static android.provider.SearchIndexablesContract.COLUMN_INDEX_RAW_INTENT_ACTION;
+import static android.provider.SearchIndexablesContract.COLUMN_INDEX_RAW_INTENT_TARGET_CLASS;
+import static android.provider.SearchIndexablesContract.COLUMN_INDEX_RAW_INTENT_TARGET_PACKAGE;
+import static android.provider.SearchIndexablesContract.COLUMN_INDEX_RAW_KEY;
+import static android.provider.SearchIndexablesContract.COLUMN_INDEX_RAW_KEYWORDS;
+import static android.provider.SearchIndexablesContract.COLUMN_INDEX_RAW_SCREEN_TITLE;
+import static android.provider.SearchIndexablesContract.COLUMN_INDEX_RAW_SUMMARY_ON;
+import static android.provider.SearchIndexablesContract.COLUMN_INDEX_RAW_TITLE;
+import static android.provider.SearchIndexablesContract.COLUMN_INDEX_XML_RES_CLASS_NAME;
+import static android.provider.SearchIndexablesContract.COLUMN_INDEX_XML_RES_ICON_RESID;
+import static android.provider.SearchIndexablesContract.COLUMN_INDEX_XML_RES_INTENT_ACTION;
+import static android.provider.SearchIndexablesContract.COLUMN_INDEX_XML_RES_INTENT_TARGET_CLASS;
+import static android.provider.SearchIndexablesContract.COLUMN_INDEX_XML_RES_INTENT_TARGET_PACKAGE;
+import static android.provider.SearchIndexablesContract.COLUMN_INDEX_XML_RES_RESID;
+
+import static com.android.settings.core.PreferenceXmlParserUtils.METADATA_ICON;
+import static com.android.settings.core.PreferenceXmlParserUtils.METADATA_KEY;
+import static com.android.settings.core.PreferenceXmlParserUtils.METADATA_KEYWORDS;
+import static com.android.settings.core.PreferenceXmlParserUtils.METADATA_SEARCHABLE;
+import static com.android.settings.core.PreferenceXmlParserUtils.METADATA_SUMMARY;
+import static com.android.settings.core.PreferenceXmlParserUtils.METADATA_TITLE;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.content.res.Resources;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Bundle;
+import android.provider.SearchIndexablesContract;
+import android.text.TextUtils;
+import android.util.ArrayMap;
+import android.util.ArraySet;
+import android.util.Log;
+
+import androidx.annotation.WorkerThread;
+
+import com.android.settings.core.PreferenceXmlParserUtils;
+import com.android.settings.core.PreferenceXmlParserUtils.MetadataFlag;
+
+import org.xmlpull.v1.XmlPullParserException;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Loads the {@link SearchDocument}s of Settings from
+ * {@link com.android.settings.search.SettingsSearchIndexablesProvider}, the way Settings
+ * Intelligence does: the preferences of the indexable xml resources, the raw data, and the
+ * breadcrumbs from the site map.
+ */
+@WorkerThread
+class SearchDocumentLoader {
+    private static final String TAG = "SearchDocumentLoader";
+
+    private static final String BREADCRUMB_SEPARATOR = " > ";
+    /** Guards against cycles in the site map. */
+    private static final int MAX_BREADCRUMB_DEPTH = 10;
+
+    private final Context mContext;
+
+    SearchDocumentLoader(Context context) {
+        mContext = context;
+    }
+
+    /**
+     * Return the documents that only change with the locale: the preferences of the xml
+     * resources and the raw data.
+     */
+    List<SearchDocument> loadStaticDocuments() {
+        final List<XmlPage> pages = loadXmlPages(MetadataFlag.FLAG_INCLUDE_PREF_SCREEN
+                | MetadataFlag.FLAG_NEED_KEY
+                | MetadataFlag.FLAG_NEED_PREF_TITLE
+                | MetadataFlag.FLAG_NEED_PREF_SUMMARY
+                | MetadataFlag.FLAG_NEED_PREF_ICON
+                | MetadataFlag.FLAG_NEED_KEYWORDS
+                | MetadataFlag.FLAG_NEED_SEARCHABLE);
+        final SiteMap siteMap = loadSiteMap(pages);
+        final List<SearchDocument> documents = new ArrayList<>();
+        for (XmlPage page : pages) {
+            addXmlDocuments(page, siteMap.getBreadcrumbs(page.mClassName), documents);
+        }
+        addRawDocuments(SearchIndexablesContract.INDEXABLES_RAW_PATH, siteMap, documents);
+        return documents;
+    }
+
+    /**
+     * Return the documents that also change with the installed packages and their state: the
+     * dynamic raw data and the injected settings.
+     */
+    List<SearchDocument> loadDynamicDocuments() {
+        final SiteMap siteMap = loadSiteMap(loadXmlPages(
+                MetadataFlag.FLAG_INCLUDE_PREF_SCREEN | MetadataFlag.FLAG_NEED_PREF_TITLE));
+        final List<SearchDocument> documents = new ArrayList<>();
+        addRawDocuments(SearchIndexablesContract.DYNAMIC_INDEXABLES_RAW_PATH, siteMap,
+                documents);
+        return documents;
+    }
+
+    /** Return the keys of the settings that are currently not available. */
+    Set<String> loadNonIndexableKeys() {
+        final Set<String> keys = new ArraySet<>();
+        try (Cursor cursor = query(SearchIndexablesContract.NON_INDEXABLES_KEYS_PATH)) {
+            while (cursor != null && cursor.moveToNext()) {
+                keys.add(cursor.getString(COLUMN_INDEX_NON_INDEXABLE_KEYS_KEY_VALUE));
+            }
+        }
+        return keys;
+    }
+
+    /** Parse the indexable xml resources, extracting the metadata of {@code flags}. */
+    private List<XmlPage> loadXmlPages(int flags) {
+        final List<XmlPage> pages = new ArrayList<>();
+        try (Cursor cursor = query(SearchIndexablesContract.INDEXABLES_XML_RES_PATH)) {
+            while (cursor != null && cursor.moveToNext()) {
+                final XmlPage page = new XmlPage();
+                page.mClassName = cursor.getString(COLUMN_INDEX_XML_RES_CLASS_NAME);
+                page.mIconResId = cursor.getInt(COLUMN_INDEX_XML_RES_ICON_RESID);
+                page.mIntentAction = cursor.getString(COLUMN_INDEX_XML_RES_INTENT_ACTION);
+                page.mIntentTargetPackage =
+                        cursor.getString(COLUMN_INDEX_XML_RES_INTENT_TARGET_PACKAGE);
+                page.mIntentTargetClass =
+                        cursor.getString(COLUMN_INDEX_XML_RES_INTENT_TARGET_CLASS);
+                try {
+                    page.mMetadata = PreferenceXmlParserUtils.extractMetadata(mContext,
+                            cursor.getInt(COLUMN_INDEX_XML_RES_RESID), flags);
+                } catch (IOException | XmlPullParserException | Resources.NotFoundException e) {
+                    Log.w(TAG, "Error parsing indexable xml of " + page.mClassName, e);
+                    continue;
+                }
+                if (!page.mMetadata.isEmpty()) {
+                    pages.add(page);
+                }
+            }
+        }
+        return pages;
+    }
+
+    private static void addXmlDocuments(XmlPage page, String breadcrumbs,
+            List<SearchDocument> documents) {
+        final String screenTitle = page.getScreenTitle();
+        for (Bundle bundle : page.mMetadata) {
+            final String title = bundle.getString(METADATA_TITLE);
+            if (TextUtils.isEmpty(title) || !bundle.getBoolean(METADATA_SEARCHABLE, true)) {
+                continue;
+            }
+            final int iconResId = bundle.getInt(METADATA_ICON);
+            documents.add(new SearchDocument.Builder()
+                    .setKey(bundle.getString(METADATA_KEY))
+                    .setTitle(title)
+                    .setSummary(bundle.getString(METADATA_SUMMARY))
+                    .setKeywords(bundle.getString(METADATA_KEYWORDS))
+                    .setScreenTitle(screenTitle)
+                    .setBreadcrumbs(breadcrumbs)
+                    .setClassName(page.mClassName)
+                    .setIconResId(iconResId != 0 ? iconResId : page.mIconResId)
+                    .setIntentAction(page.mIntentAction)
+                    .setIntentTargetPackage(page.mIntentTargetPackage)
+                    .setIntentTargetClass(page.mIntentTargetClass)
+                    .build());
+        }
+    }
+
+    private void addRawDocuments(String path, SiteMap siteMap, List<SearchDocument> documents) {
+        try (Cursor cursor = query(path)) {
+            while (cursor != null && cursor.moveToNext()) {
+                final String title = cursor.getString(COLUMN_INDEX_RAW_TITLE);
+                final String className = cursor.getString(COLUMN_INDEX_RAW_CLASS_NAME);
+                final String intentAction = cursor.getString(COLUMN_INDEX_RAW_INTENT_ACTION);
+                if (TextUtils.isEmpty(title)
+                        || (TextUtils.isEmpty(className) && TextUtils.isEmpty(intentAction))) {
+                    // Nothing to show, or nowhere to go.
+                    continue;
+                }
+                documents.add(new SearchDocument.Builder()
+                        .setKey(cursor.getString(COLUMN_INDEX_RAW_KEY))
+                        .setTitle(title)
+                        .setSummary(cursor.getString(COLUMN_INDEX_RAW_SUMMARY_ON))
+                        .setKeywords(cursor.getString(COLUMN_INDEX_RAW_KEYWORDS))
+                        .setScreenTitle(cursor.getString(COLUMN_INDEX_RAW_SCREEN_TITLE))
+                        .setBreadcrumbs(siteMap.getBreadcrumbs(className))
+                        .setClassName(className)
+                        .setIconResId(cursor.getInt(COLUMN_INDEX_RAW_ICON_RESID))
+                        .setIntentAction(intentAction)
+                        .setIntentTargetPackage(
+                                cursor.getString(COLUMN_INDEX_RAW_INTENT_TARGET_PACKAGE))
+                        .setIntentTargetClass(
+                                cursor.getString(COLUMN_INDEX_RAW_INTENT_TARGET_CLASS))
+                        .build());
+            }
+        }
+    }
+
+    /** Load the parent of each page, and take the title of each page from {@code pages}. */
+    private SiteMap loadSiteMap(List<XmlPage> pages) {
+        final SiteMap siteMap = new SiteMap();
+        try (Cursor cursor = query(SearchIndexablesContract.SITE_MAP_PAIRS_PATH)) {
+            while (cursor != null && cursor.moveToNext()) {
+                siteMap.mParents.put(
+                        cursor.getString(cursor.getColumnIndexOrThrow(
+                                SearchIndexablesContract.SiteMapColumns.CHILD_CLASS)),
+                        cursor.getString(cursor.getColumnIndexOrThrow(
+                                SearchIndexablesContract.SiteMapColumns.PARENT_CLASS)));
+            }
+        }
+        for (XmlPage page : pages) {
+            if (!siteMap.mTitles.containsKey(page.mClassName)) {
+                siteMap.mTitles.put(page.mClassName, page.getScreenTitle());
+            }
+        }
+        return siteMap;
+    }
+
+    private Cursor query(String path) {
+        final Uri uri = Uri.parse(
+                ContentResolver.SCHEME_CONTENT + "://" + mContext.getPackageName() + "/" + path);
+        return mContext.getContentResolver().query(uri, null /* projection */,
+                null /* selection */, null /* selectionArgs */, null /* sortOrder */);
+    }
+
+    /** An indexable xml resource and the metadata of its preferences. */
+    private static class XmlPage {
+        private String mClassName;
+        private int mIconResId;
+        private String mIntentAction;
+        private String mIntentTargetPackage;
+        private String mIntentTargetClass;
+        private List<Bundle> mMetadata;
+
+        /** The first entry is the PreferenceScreen, whose title is the title of the page. */
+        String getScreenTitle() {
+            return mMetadata.get(0).getString(METADATA_TITLE);
+        }
+    }
+
+    /** Parent pages and page titles, to build breadcrumbs. */
+    private static class SiteMap {
+        private final Map<String, String> mParents = new ArrayMap<>();
+        private final Map<String, String> mTitles = new ArrayMap<>();
+
+        /** Return the titles of the page {@code className} and of its ancestors, root first. */
+        String getBreadcrumbs(String className) {
+            final List<String> titles = new ArrayList<>();
+            String page = className;
+            for (int depth = 0; page != null && depth < MAX_BREADCRUMB_DEPTH; depth++) {
+                final String title = mTitles.get(page);
+                if (!TextUtils.isEmpty(title)) {
+                    titles.add(0, title);
+                }
+                page = mParents.get(page);
+            }
+            return titles.isEmpty() ? null : TextUtils.join(BREADCRUMB_SEPARATOR, titles);
+        }
+    }
+}
@@ -0,0 +1,483 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.search.embedded;
+
+import android.util.AtomicFile;
+
+import androidx.annotation.VisibleForTesting;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Immutable inverted index of {@link SearchDocument}s.
+ *
+ * <p>The words of the title, keywords, breadcrumbs and summary of every document are kept in a
+ * sorted term table, each term pointing at the documents and fields it appears in. A query word
+ * matches the terms it is a prefix of; if it matches none, the terms within a small edit distance
+ * of it, to forgive typos. A document matches a query if it matches all of its words, and is
+ * scored by the fields the words were found in and by how well they matched.
+ *
+ * <p>Words are split on anything that isn't a letter or a digit and compared without case or
+ * accents, which doesn't segment languages written without spaces.
+ */
+public class SearchIndex {
+
+    @VisibleForTesting
+    static final int FIELD_TITLE = 1;
+    @VisibleForTesting
+    static final int FIELD_KEYWORDS = 1 << 1;
+    @VisibleForTesting
+    static final int FIELD_BREADCRUMBS = 1 << 2;
+    @VisibleForTesting
+    static final int FIELD_SUMMARY = 1 << 3;
+
+    private static final float WEIGHT_TITLE = 10f;
+    private static final float WEIGHT_KEYWORDS = 6f;
+    private static final float WEIGHT_BREADCRUMBS = 3f;
+    private static final float WEIGHT_SUMMARY = 2f;
+
+    private static final float QUALITY_EXACT = 1f;
+    private static final float QUALITY_PREFIX = 0.7f;
+    private static final float QUALITY_ONE_EDIT = 0.5f;
+    private static final float QUALITY_TWO_EDITS = 0.3f;
+
+    /** Query words shorter than this are only matched as a prefix. */
+    private static final int MIN_FUZZY_LENGTH = 3;
+    /** Query words at least this long may be two edits away from a term. */
+    private static final int MIN_TWO_EDITS_LENGTH = 6;
+
+    private static final int FILE_VERSION = 1;
+
+    private final String mVersionStamp;
+    private final SearchDocument[] mDocuments;
+    /** Sorted terms. */
+    private final String[] mTerms;
+    /** Start of the postings of each term in the posting arrays, plus the end of the last one. */
+    private final int[] mPostingStarts;
+    /** Document of each posting. */
+    private final int[] mPostingDocuments;
+    /** {@code FIELD_} flags of the fields the term of each posting is in. */
+    private final byte[] mPostingFields;
+    /** Terms of each length, so fuzzy matching only compares terms of a close length. */
+    private final int[][] mTermsByLength;
+
+    private SearchIndex(String versionStamp, SearchDocument[] documents, String[] terms,
+            int[] postingStarts, int[] postingDocuments, byte[] postingFields) {
+        mVersionStamp = versionStamp;
+        mDocuments = documents;
+        mTerms = terms;
+        mPostingStarts = postingStarts;
+        mPostingDocuments = postingDocuments;
+        mPostingFields = postingFields;
+        mTermsByLength = groupTermsByLength(terms);
+    }
+
+    private static int[][] groupTermsByLength(String[] terms) {
+        int maxLength = 0;
+        for (String term : terms) {
+            maxLength = Math.max(maxLength, term.length());
+        }
+        final int[] counts = new int[maxLength + 1];
+        for (String term : terms) {
+            counts[term.length()]++;
+        }
+        final int[][] termsByLength = new int[maxLength + 1][];
+        for (int length = 0; length <= maxLength; length++) {
+            termsByLength[length] = new int[counts[length]];
+            counts[length] = 0;
+        }
+        for (int term = 0; term < terms.length; term++) {
+            final int length = terms[term].length();
+            termsByLength[length][counts[length]++] = term;
+        }
+        return termsByLength;
+    }
+
+    /** Build the index of {@code documents}, which is valid for {@code versionStamp}. */
+    public static SearchIndex build(String versionStamp, List<SearchDocument> documents) {
+        final Map<String, PostingList> postingLists = new HashMap<>();
+        final List<String> words = new ArrayList<>();
+        int postingCount = 0;
+        for (int doc = 0; doc < documents.size(); doc++) {
+            final SearchDocument document = documents.get(doc);
+            final Map<String, Integer> documentFields = new HashMap<>();
+            addWords(document.getTitle(), FIELD_TITLE, words, documentFields);
+            addWords(document.getKeywords(), FIELD_KEYWORDS, words, documentFields);
+            addWords(document.getBreadcrumbs(), FIELD_BREADCRUMBS, words, documentFields);
+            addWords(document.getSummary(), FIELD_SUMMARY, words, documentFields);
+            for (Map.Entry<String, Integer> entry : documentFields.entrySet()) {
+                PostingList postingList = postingLists.get(entry.getKey());
+                if (postingList == null) {
+                    postingList = new PostingList();
+                    postingLists.put(entry.getKey(), postingList);
+                }
+                postingList.add(doc, entry.getValue());
+                postingCount++;
+            }
+        }
+
+        final String[] terms = postingLists.keySet().toArray(new String[0]);
+        Arrays.sort(terms);
+        final int[] postingStarts = new int[terms.length + 1];
+        final int[] postingDocuments = new int[postingCount];
+        final byte[] postingFields = new byte[postingCount];
+        int posting = 0;
+        for (int i = 0; i < terms.length; i++) {
+            postingStarts[i] = posting;
+            final PostingList postingList = postingLists.get(terms[i]);
+            System.arraycopy(postingList.mDocuments, 0, postingDocuments, posting,
+                    postingList.mSize);
+            System.arraycopy(postingList.mFields, 0, postingFields, posting, postingList.mSize);
+            posting += postingList.mSize;
+        }
+        postingStarts[terms.length] = posting;
+        return new SearchIndex(versionStamp, documents.toArray(new SearchDocument[0]), terms,
+                postingStarts, postingDocuments, postingFields);
+    }
+
+    /** Read an index written by {@link #write}. */
+    public static SearchIndex read(AtomicFile file) throws IOException {
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(file.openRead()))) {
+            if (in.readInt() != FILE_VERSION) {
+                throw new IOException("Unknown search index version");
+            }
+            final String versionStamp = in.readUTF();
+            final SearchDocument[] documents = new SearchDocument[in.readInt()];
+            for (int i = 0; i < documents.length; i++) {
+                documents[i] = new SearchDocument.Builder()
+                        .setKey(readString(in))
+                        .setTitle(readString(in))
+                        .setSummary(readString(in))
+                        .setKeywords(readString(in))
+                        .setScreenTitle(readString(in))
+                        .setBreadcrumbs(readString(in))
+                        .setClassName(readString(in))
+                        .setIconResId(in.readInt())
+                        .setIntentAction(readString(in))
+                        .setIntentTargetPackage(readString(in))
+                        .setIntentTargetClass(readString(in))
+                        .build();
+            }
+            final String[] terms = new String[in.readInt()];
+            final int[] postingStarts = new int[terms.length + 1];
+            final int postingCount = in.readInt();
+            final int[] postingDocuments = new int[postingCount];
+            final byte[] postingFields = new byte[postingCount];
+            int posting = 0;
+            for (int i = 0; i < terms.length; i++) {
+                terms[i] = in.readUTF();
+                postingStarts[i] = posting;
+                final int end = posting + readVarInt(in);
+                // Documents are delta encoded, they are in increasing order in each term.
+                int doc = 0;
+                for (; posting < end; posting++) {
+                    doc += readVarInt(in);
+                    if (doc >= documents.length) {
+                        throw new IOException("Corrupt search index");
+                    }
+                    postingDocuments[posting] = doc;
+                    postingFields[posting] = in.readByte();
+                }
+            }
+            postingStarts[terms.length] = posting;
+            return new SearchIndex(versionStamp, documents, terms, postingStarts,
+                    postingDocuments, postingFields);
+        } catch (RuntimeException e) {
+            throw new IOException("Corrupt search index", e);
+        }
+    }
+
+    /** Write the index to {@code file}, to be read again with {@link #read}. */
+    public void write(AtomicFile file) throws IOException {
+        FileOutputStream fos = null;
+        try {
+            file.getBaseFile().getParentFile().mkdirs();
+            fos = file.startWrite();
+            final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos));
+            out.writeInt(FILE_VERSION);
+            out.writeUTF(mVersionStamp);
+            out.writeInt(mDocuments.length);
+            for (SearchDocument document : mDocuments) {
+                writeString(out, document.getKey());
+                writeString(out, document.getTitle());
+                writeString(out, document.getSummary());
+                writeString(out, document.getKeywords());
+                writeString(out, document.getScreenTitle());
+                writeString(out, document.getBreadcrumbs());
+                writeString(out, document.getClassName());
+                out.writeInt(document.getIconResId());
+                writeString(out, document.getIntentAction());
+                writeString(out, document.getIntentTargetPackage());
+                writeString(out, document.getIntentTargetClass());
+            }
+            out.writeInt(mTerms.length);
+            out.writeInt(mPostingDocuments.length);
+            for (int i = 0; i < mTerms.length; i++) {
+                out.writeUTF(mTerms[i]);
+                writeVarInt(out, mPostingStarts[i + 1] - mPostingStarts[i]);
+                int previousDoc = 0;
+                for (int posting = mPostingStarts[i]; posting < mPostingStarts[i + 1];
+                        posting++) {
+                    writeVarInt(out, mPostingDocuments[posting] - previousDoc);
+                    previousDoc = mPostingDocuments[posting];
+                    out.writeByte(mPostingFields[posting]);
+                }
+            }
+            out.flush();
+            file.finishWrite(fos);
+        } catch (IOException e) {
+            if (fos != null) {
+                file.failWrite(fos);
+            }
+            throw e;
+        }
+    }
+
+    /** Return the stamp of the data the index was built from. */
+    public String getVersionStamp() {
+        return mVersionStamp;
+    }
+
+    public int getDocumentCount() {
+        return mDocuments.length;
+    }
+
+    public int getTermCount() {
+        return mTerms.length;
+    }
+
+    /**
+     * Return the documents matching all the words of {@code query}, best first, leaving out the
+     * ones whose key is in {@code excludedKeys}.
+     */
+    public List<SearchResult> query(String query, int maxResults, Set<String> excludedKeys) {
+        final List<String> words = new ArrayList<>();
+        tokenize(query, words);
+        if (words.isEmpty() || mDocuments.length == 0 || maxResults <= 0) {
+            return Collections.emptyList();
+        }
+
+        float[] totalScores = null;
+        for (String word : words) {
+            final float[] scores = new float[mDocuments.length];
+            if (!matchPrefix(word, scores)
+                    && (word.length() < MIN_FUZZY_LENGTH || !matchFuzzy(word, scores))) {
+                return Collections.emptyList();
+            }
+            if (totalScores == null) {
+                totalScores = scores;
+                continue;
+            }
+            for (int doc = 0; doc < totalScores.length; doc++) {
+                totalScores[doc] = scores[doc] > 0 ? totalScores[doc] + scores[doc] : 0;
+            }
+        }
+
+        final List<SearchResult> results = new ArrayList<>();
+        for (int doc = 0; doc < totalScores.length; doc++) {
+            if (totalScores[doc] > 0 && !excludedKeys.contains(mDocuments[doc].getKey())) {
+                results.add(new SearchResult(mDocuments[doc], totalScores[doc]));
+            }
+        }
+        Collections.sort(results, SearchResult.COMPARATOR);
+        return results.size() > maxResults ? results.subList(0, maxResults) : results;
+    }
+
+    /** Split {@code text} into lower case words without accents. */
+    @VisibleForTesting
+    static void tokenize(String text, List<String> words) {
+        if (text == null || text.isEmpty()) {
+            return;
+        }
+        final String normalized = Normalizer.normalize(text, Normalizer.Form.NFKD)
+                .toLowerCase(Locale.ROOT);
+        final StringBuilder word = new StringBuilder();
+        for (int i = 0; i < normalized.length(); i++) {
+            final char c = normalized.charAt(i);
+            if (Character.getType(c) == Character.NON_SPACING_MARK) {
+                continue;
+            }
+            if (Character.isLetterOrDigit(c)) {
+                word.append(c);
+            } else if (word.length() > 0) {
+                words.add(word.toString());
+                word.setLength(0);
+            }
+        }
+        if (word.length() > 0) {
+            words.add(word.toString());
+        }
+    }
+
+    private static void addWords(String text, int field, List<String> words,
+            Map<String, Integer> documentFields) {
+        words.clear();
+        tokenize(text, words);
+        for (String word : words) {
+            final Integer fields = documentFields.get(word);
+            documentFields.put(word, fields == null ? field : fields | field);
+        }
+    }
+
+    /** Score the documents of the terms starting with {@code word}. */
+    private boolean matchPrefix(String word, float[] scores) {
+        int term = Arrays.binarySearch(mTerms, word);
+        if (term < 0) {
+            term = -term - 1;
+        }
+        boolean matched = false;
+        for (; term < mTerms.length && mTerms[term].startsWith(word); term++) {
+            addScores(term, mTerms[term].length() == word.length()
+                    ? QUALITY_EXACT : QUALITY_PREFIX, scores);
+            matched = true;
+        }
+        return matched;
+    }
+
+    /** Score the documents of the terms a few edits away from {@code word}. */
+    private boolean matchFuzzy(String word, float[] scores) {
+        final int maxEdits = word.length() >= MIN_TWO_EDITS_LENGTH ? 2 : 1;
+        final int[] previousRow = new int[word.length() + maxEdits + 1];
+        final int[] currentRow = new int[previousRow.length];
+        final int maxLength = Math.min(word.length() + maxEdits, mTermsByLength.length - 1);
+        boolean matched = false;
+        // Terms whose length differs by more than maxEdits are always too far.
+        for (int length = Math.max(word.length() - maxEdits, 1); length <= maxLength; length++) {
+            for (int term : mTermsByLength[length]) {
+                final int edits =
+                        editDistance(word, mTerms[term], maxEdits, previousRow, currentRow);
+                if (edits <= maxEdits) {
+                    addScores(term, edits <= 1 ? QUALITY_ONE_EDIT : QUALITY_TWO_EDITS, scores);
+                    matched = true;
+                }
+            }
+        }
+        return matched;
+    }
+
+    private void addScores(int term, float quality, float[] scores) {
+        for (int posting = mPostingStarts[term]; posting < mPostingStarts[term + 1]; posting++) {
+            final int doc = mPostingDocuments[posting];
+            final float score = quality * getFieldWeight(mPostingFields[posting]);
+            if (score > scores[doc]) {
+                scores[doc] = score;
+            }
+        }
+    }
+
+    private static float getFieldWeight(int fields) {
+        if ((fields & FIELD_TITLE) != 0) {
+            return WEIGHT_TITLE;
+        } else if ((fields & FIELD_KEYWORDS) != 0) {
+            return WEIGHT_KEYWORDS;
+        } else if ((fields & FIELD_BREADCRUMBS) != 0) {
+            return WEIGHT_BREADCRUMBS;
+        }
+        return WEIGHT_SUMMARY;
+    }
+
+    /**
+     * Return the Levenshtein distance between {@code a} and {@code b}, or any value over
+     * {@code maxEdits} once it is known to be over it. The rows must hold {@code b.length() + 1}
+     * values.
+     */
+    @VisibleForTesting
+    static int editDistance(String a, String b, int maxEdits, int[] previousRow,
+            int[] currentRow) {
+        for (int j = 0; j <= b.length(); j++) {
+            previousRow[j] = j;
+        }
+        for (int i = 1; i <= a.length(); i++) {
+            currentRow[0] = i;
+            int rowMin = i;
+            for (int j = 1; j <= b.length(); j++) {
+                final int cost = a.charAt(i - 1) == b.charAt(j - 1) ? 0 : 1;
+                currentRow[j] = Math.min(Math.min(currentRow[j - 1] + 1, previousRow[j] + 1),
+                        previousRow[j - 1] + cost);
+                rowMin = Math.min(rowMin, currentRow[j]);
+            }
+            if (rowMin > maxEdits) {
+                return rowMin;
+            }
+            System.arraycopy(currentRow, 0, previousRow, 0, b.length() + 1);
+        }
+        return previousRow[b.length()];
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static int readVarInt(DataInputStream in) throws IOException {
+        int value = 0;
+        int shift = 0;
+        int b;
+        do {
+            b = in.readUnsignedByte();
+            value |= (b & 0x7f) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+
+    private static void writeVarInt(DataOutputStream out, int value) throws IOException {
+        while ((value & ~0x7f) != 0) {
+            out.writeByte((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    /** Postings of one term while the index is built. */
+    private static class PostingList {
+        private int[] mDocuments = new int[4];
+        private byte[] mFields = new byte[4];
+        private int mSize;
+
+        void add(int doc, int fields) {
+            if (mSize == mDocuments.length) {
+                mDocuments = Arrays.copyOf(mDocuments, mSize * 2);
+                mFields = Arrays.copyOf(mFields, mSize * 2);
+            }
+            mDocuments[mSize] = doc;
+            mFields[mSize] = (byte) fields;
+            mSize++;
+        }
+    }
+}
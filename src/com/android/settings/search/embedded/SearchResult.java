@@ -0,0 +1,56 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.search.embedded;
+
+import java.util.Comparator;
+
+/**
+ * A {@link SearchDocument} matching a query, with its relevance score.
+ */
+public class SearchResult {
+
+    /**
+     * Orders results by decreasing score, then shorter titles first, since more of their title
+     * matched the query.
+     */
+    public static final Comparator<SearchResult> COMPARATOR = (r1, r2) -> {
+        final int byScore = Float.compare(r2.mScore, r1.mScore);
+        if (byScore != 0) {
+            return byScore;
+        }
+        final String title1 = r1.mDocument.getTitle();
+        final String title2 = r2.mDocument.getTitle();
+        final int byLength = Integer.compare(title1.length(), title2.length());
+        return byLength != 0 ? byLength : title1.compareTo(title2);
+    };
+
+    private final SearchDocument mDocument;
+    private final float mScore;
+
+    SearchResult(SearchDocument document, float score) {
+        mDocument = document;
+        mScore = score;
+    }
+
+    public SearchDocument getDocument() {
+        return mDocument;
+    }
+
+    public float getScore() {
+        return mScore;
+    }
+}
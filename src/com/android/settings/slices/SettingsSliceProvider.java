@@ -20,6 +20,7 @@ import static android.Manifest.permission.READ_SEARCH_INDEXABLES;
 
 import android.app.PendingIntent;
 import android.app.slice.SliceManager;
+import android.content.BroadcastReceiver;
 import android.content.ContentResolver;
 import android.content.Context;
 import android.content.Intent;
@@ -36,6 +37,7 @@ import android.util.KeyValueListParser;
 import android.util.Log;
 import android.util.Pair;
 
+import androidx.annotation.GuardedBy;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.annotation.VisibleForTesting;
@@ -144,6 +146,31 @@ public class SettingsSliceProvider extends SliceProvider {
     @VisibleForTesting
     final Map<Uri, SliceBackgroundWorker> mPinnedWorkers = new ArrayMap<>();
 
+    @VisibleForTesting
+    SliceTemplateCache mSliceTemplateCache = SliceTemplateCache.getInstance();
+
+    // Uris whose permissions were already granted to the whitelisted packages by this process
+    @GuardedBy("mGrantedUris")
+    private final Set<Uri> mGrantedUris = new ArraySet<>();
+
+    // A whitelisted package that is reinstalled or cleared loses its grants, so grant them again.
+    @VisibleForTesting
+    final BroadcastReceiver mPackageReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            final Uri data = intent.getData();
+            final String packageName = data != null ? data.getSchemeSpecificPart() : null;
+            final String[] whitelistPackages =
+                    context.getResources().getStringArray(R.array.slice_whitelist_package_names);
+            if (packageName != null && whitelistPackages != null
+                    && Arrays.asList(whitelistPackages).contains(packageName)) {
+                synchronized (mGrantedUris) {
+                    mGrantedUris.clear();
+                }
+            }
+        }
+    };
+
     private Boolean mNightMode;
 
     public SettingsSliceProvider() {
@@ -154,6 +181,12 @@ public class SettingsSliceProvider extends SliceProvider {
     public boolean onCreateSliceProvider() {
         mSlicesDatabaseAccessor = new SlicesDatabaseAccessor(getContext());
         mSliceWeakDataCache = new WeakHashMap<>();
+        final IntentFilter filter = new IntentFilter();
+        filter.addAction(Intent.ACTION_PACKAGE_ADDED);
+        filter.addAction(Intent.ACTION_PACKAGE_REPLACED);
+        filter.addAction(Intent.ACTION_PACKAGE_DATA_CLEARED);
+        filter.addDataScheme("package");
+        getContext().registerReceiver(mPackageReceiver, filter);
         return true;
     }
 
@@ -185,6 +218,7 @@ public class SettingsSliceProvider extends SliceProvider {
 
     @Override
     public void onSliceUnpinned(Uri sliceUri) {
+        mSliceTemplateCache.remove(sliceUri);
         final Context context = getContext();
         if (!VolumeSliceHelper.unregisterUri(context, sliceUri)) {
             SliceBroadcastRelay.unregisterReceivers(context, sliceUri);
@@ -248,6 +282,11 @@ public class SettingsSliceProvider extends SliceProvider {
                         .createWifiCallingPreferenceSlice(sliceUri);
             }
 
+            final SliceTemplate template = mSliceTemplateCache.get(sliceUri);
+            if (template != null) {
+                return SliceBuilderUtils.buildSlice(getContext(), template);
+            }
+
             final SliceData cachedSliceData = mSliceWeakDataCache.get(sliceUri);
             if (cachedSliceData == null) {
                 loadSliceInBackground(sliceUri);
@@ -257,8 +296,13 @@ public class SettingsSliceProvider extends SliceProvider {
             // Remove the SliceData from the cache after it has been used to prevent a memory-leak.
             if (!getPinnedSlices().contains(sliceUri)) {
                 mSliceWeakDataCache.remove(sliceUri);
+                return SliceBuilderUtils.buildSlice(getContext(), cachedSliceData);
             }
-            return SliceBuilderUtils.buildSlice(getContext(), cachedSliceData);
+            // Keep the controller and the static parts of pinned slices for the next binds
+            final SliceTemplate newTemplate = new SliceTemplate(getContext(), cachedSliceData,
+                    SliceBuilderUtils.getPreferenceController(getContext(), cachedSliceData));
+            mSliceTemplateCache.put(sliceUri, newTemplate);
+            return SliceBuilderUtils.buildSlice(getContext(), newTemplate);
         } finally {
             StrictMode.setThreadPolicy(oldPolicy);
         }
@@ -332,7 +376,7 @@ public class SettingsSliceProvider extends SliceProvider {
                     .collect(Collectors.toList());
             descendants.addAll(customSlices);
         }
-        grantWhitelistedPackagePermissions(getContext(), descendants);
+        grantWhitelistedPackagePermissionsIfNeeded(descendants);
         return descendants;
     }
 
@@ -347,6 +391,25 @@ public class SettingsSliceProvider extends SliceProvider {
         return noOpIntent;
     }
 
+    /**
+     * Grants the permissions of the {@param descendants} that weren't granted yet, so clients that
+     * list the descendants often don't grant the same permissions again.
+     */
+    @VisibleForTesting
+    void grantWhitelistedPackagePermissionsIfNeeded(List<Uri> descendants) {
+        final List<Uri> newUris = new ArrayList<>();
+        synchronized (mGrantedUris) {
+            for (Uri descendant : descendants) {
+                if (mGrantedUris.add(descendant)) {
+                    newUris.add(descendant);
+                }
+            }
+        }
+        if (!newUris.isEmpty()) {
+            grantWhitelistedPackagePermissions(getContext(), newUris);
+        }
+    }
+
     @VisibleForTesting
     static void grantWhitelistedPackagePermissions(Context context, List<Uri> descendants) {
         if (descendants == null) {
@@ -405,6 +468,9 @@ public class SettingsSliceProvider extends SliceProvider {
 
         ThreadUtils.postOnMainThread(() -> startBackgroundWorker(controller, uri));
 
+        if (getPinnedSlices().contains(uri)) {
+            mSliceTemplateCache.put(uri, new SliceTemplate(getContext(), sliceData, controller));
+        }
         mSliceWeakDataCache.put(uri, sliceData);
         getContext().getContentResolver().notifyChange(uri, null /* content observer */);
 
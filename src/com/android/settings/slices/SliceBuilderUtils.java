@@ -73,8 +73,19 @@ public class SliceBuilderUtils {
      * {@param sliceData} is an inline controller.
      */
     public static Slice buildSlice(Context context, SliceData sliceData) {
-        Log.d(TAG, "Creating slice for: " + sliceData.getPreferenceController());
         final BasePreferenceController controller = getPreferenceController(context, sliceData);
+        return buildSlice(context, new SliceTemplate(context, sliceData, controller));
+    }
+
+    /**
+     * Build a Slice from a {@link SliceTemplate}. Only the dynamic fields, such as the toggle
+     * state, the slider position and a dynamic summary, are asked from the controller; everything
+     * else comes from {@param template}.
+     */
+    public static Slice buildSlice(Context context, SliceTemplate template) {
+        final SliceData sliceData = template.getSliceData();
+        final BasePreferenceController controller = template.getController();
+        Log.d(TAG, "Creating slice for: " + sliceData.getPreferenceController());
         FeatureFactory.getFactory(context).getMetricsFeatureProvider()
                 .action(SettingsEnums.PAGE_UNKNOWN,
                         SettingsEnums.ACTION_SETTINGS_SLICE_REQUESTED,
@@ -88,20 +99,20 @@ public class SliceBuilderUtils {
         }
 
         if (controller.getAvailabilityStatus() == DISABLED_DEPENDENT_SETTING) {
-            return buildUnavailableSlice(context, sliceData);
+            return buildUnavailableSlice(context, template);
         }
 
         if (controller.isCopyableSlice()) {
-            return buildCopyableSlice(context, sliceData, controller);
+            return buildCopyableSlice(context, template);
         }
 
         switch (sliceData.getSliceType()) {
             case SliceData.SliceType.INTENT:
-                return buildIntentSlice(context, sliceData, controller);
+                return buildIntentSlice(context, template);
             case SliceData.SliceType.SWITCH:
-                return buildToggleSlice(context, sliceData, controller);
+                return buildToggleSlice(context, template);
             case SliceData.SliceType.SLIDER:
-                return buildSliderSlice(context, sliceData, controller);
+                return buildSliderSlice(context, template);
             default:
                 throw new IllegalArgumentException(
                         "Slice type passed was invalid: " + sliceData.getSliceType());
@@ -230,22 +241,18 @@ public class SliceBuilderUtils {
         return intent;
     }
 
-    private static Slice buildToggleSlice(Context context, SliceData sliceData,
-            BasePreferenceController controller) {
-        final PendingIntent contentIntent = getContentPendingIntent(context, sliceData);
-        final IconCompat icon = getSafeIcon(context, sliceData);
-        final CharSequence subtitleText = getSubtitleText(context, controller, sliceData);
+    private static Slice buildToggleSlice(Context context, SliceTemplate template) {
+        final SliceData sliceData = template.getSliceData();
+        final CharSequence subtitleText = template.getSubtitle();
         @ColorInt final int color = Utils.getColorAccentDefaultColor(context);
         final TogglePreferenceController toggleController =
-                (TogglePreferenceController) controller;
-        final SliceAction sliceAction = getToggleAction(context, sliceData,
-                toggleController.isChecked());
-        final Set<String> keywords = buildSliceKeywords(sliceData);
+                (TogglePreferenceController) template.getController();
+        final SliceAction sliceAction = SliceAction.createToggle(template.getToggleIntent(),
+                null /* actionTitle */, toggleController.isChecked());
+        final Set<String> keywords = template.getKeywords();
         final RowBuilder rowBuilder = new RowBuilder()
                 .setTitle(sliceData.getTitle())
-                .setPrimaryAction(
-                        SliceAction.createDeeplink(contentIntent, icon,
-                                ListBuilder.ICON_IMAGE, sliceData.getTitle()))
+                .setPrimaryAction(template.getPrimaryAction())
                 .addEndItem(sliceAction);
         if (!Utils.isSettingsIntelligence(context)) {
             rowBuilder.setSubtitle(subtitleText);
@@ -258,19 +265,14 @@ public class SliceBuilderUtils {
                 .build();
     }
 
-    private static Slice buildIntentSlice(Context context, SliceData sliceData,
-            BasePreferenceController controller) {
-        final PendingIntent contentIntent = getContentPendingIntent(context, sliceData);
-        final IconCompat icon = getSafeIcon(context, sliceData);
-        final CharSequence subtitleText = getSubtitleText(context, controller, sliceData);
+    private static Slice buildIntentSlice(Context context, SliceTemplate template) {
+        final SliceData sliceData = template.getSliceData();
+        final CharSequence subtitleText = template.getSubtitle();
         @ColorInt final int color = Utils.getColorAccentDefaultColor(context);
-        final Set<String> keywords = buildSliceKeywords(sliceData);
+        final Set<String> keywords = template.getKeywords();
         final RowBuilder rowBuilder = new RowBuilder()
                 .setTitle(sliceData.getTitle())
-                .setPrimaryAction(
-                        SliceAction.createDeeplink(contentIntent, icon,
-                                ListBuilder.ICON_IMAGE,
-                                sliceData.getTitle()));
+                .setPrimaryAction(template.getPrimaryAction());
         if (!Utils.isSettingsIntelligence(context)) {
             rowBuilder.setSubtitle(subtitleText);
         }
@@ -282,21 +284,20 @@ public class SliceBuilderUtils {
                 .build();
     }
 
-    private static Slice buildSliderSlice(Context context, SliceData sliceData,
-            BasePreferenceController controller) {
-        final SliderPreferenceController sliderController = (SliderPreferenceController) controller;
+    private static Slice buildSliderSlice(Context context, SliceTemplate template) {
+        final SliceData sliceData = template.getSliceData();
+        final SliderPreferenceController sliderController =
+                (SliderPreferenceController) template.getController();
         if (sliderController.getMax() <= sliderController.getMin()) {
             Log.e(TAG, "Invalid sliderController: " + sliderController.getPreferenceKey());
             return null;
         }
-        final PendingIntent actionIntent = getSliderAction(context, sliceData);
-        final PendingIntent contentIntent = getContentPendingIntent(context, sliceData);
-        final IconCompat icon = getSafeIcon(context, sliceData);
+        final PendingIntent actionIntent = template.getSliderIntent();
+        final IconCompat icon = template.getIcon();
         @ColorInt int color = Utils.getColorAccentDefaultColor(context);
-        final CharSequence subtitleText = getSubtitleText(context, controller, sliceData);
-        final SliceAction primaryAction = SliceAction.createDeeplink(contentIntent, icon,
-                ListBuilder.ICON_IMAGE, sliceData.getTitle());
-        final Set<String> keywords = buildSliceKeywords(sliceData);
+        final CharSequence subtitleText = template.getSubtitle();
+        final SliceAction primaryAction = template.getPrimaryAction();
+        final Set<String> keywords = template.getKeywords();
 
         int cur = sliderController.getSliderPosition();
         if (cur < sliderController.getMin()) {
@@ -327,17 +328,13 @@ public class SliceBuilderUtils {
                 .build();
     }
 
-    private static Slice buildCopyableSlice(Context context, SliceData sliceData,
-            BasePreferenceController controller) {
-        final SliceAction copyableAction = getCopyableAction(context, sliceData);
-        final PendingIntent contentIntent = getContentPendingIntent(context, sliceData);
-        final IconCompat icon = getSafeIcon(context, sliceData);
-        final SliceAction primaryAction = SliceAction.createDeeplink(contentIntent, icon,
-                ListBuilder.ICON_IMAGE,
-                sliceData.getTitle());
-        final CharSequence subtitleText = getSubtitleText(context, controller, sliceData);
+    private static Slice buildCopyableSlice(Context context, SliceTemplate template) {
+        final SliceData sliceData = template.getSliceData();
+        final SliceAction copyableAction = template.getCopyAction();
+        final SliceAction primaryAction = template.getPrimaryAction();
+        final CharSequence subtitleText = template.getSubtitle();
         @ColorInt final int color = Utils.getColorAccentDefaultColor(context);
-        final Set<String> keywords = buildSliceKeywords(sliceData);
+        final Set<String> keywords = template.getKeywords();
         final RowBuilder rowBuilder = new RowBuilder()
                 .setTitle(sliceData.getTitle())
                 .setPrimaryAction(primaryAction)
@@ -364,18 +361,7 @@ public class SliceBuilderUtils {
         return BasePreferenceController.createInstance(context, controllerClassName, controllerKey);
     }
 
-    private static SliceAction getToggleAction(Context context, SliceData sliceData,
-            boolean isChecked) {
-        PendingIntent actionIntent = getActionIntent(context,
-                SettingsSliceProvider.ACTION_TOGGLE_CHANGED, sliceData);
-        return SliceAction.createToggle(actionIntent, null, isChecked);
-    }
-
-    private static PendingIntent getSliderAction(Context context, SliceData sliceData) {
-        return getActionIntent(context, SettingsSliceProvider.ACTION_SLIDER_CHANGED, sliceData);
-    }
-
-    private static SliceAction getCopyableAction(Context context, SliceData sliceData) {
+    static SliceAction getCopyableAction(Context context, SliceData sliceData) {
         final PendingIntent intent = getActionIntent(context,
                 SettingsSliceProvider.ACTION_COPY, sliceData);
         final IconCompat icon = IconCompat.createWithResource(context,
@@ -396,7 +382,7 @@ public class SliceBuilderUtils {
                 || TextUtils.equals(summary, doublePlaceHolder));
     }
 
-    private static Set<String> buildSliceKeywords(SliceData data) {
+    static Set<String> buildSliceKeywords(SliceData data) {
         final Set<String> keywords = new ArraySet<>();
 
         keywords.add(data.getTitle());
@@ -418,18 +404,17 @@ public class SliceBuilderUtils {
         return keywords;
     }
 
-    private static Slice buildUnavailableSlice(Context context, SliceData data) {
+    private static Slice buildUnavailableSlice(Context context, SliceTemplate template) {
+        final SliceData data = template.getSliceData();
         final String title = data.getTitle();
-        final Set<String> keywords = buildSliceKeywords(data);
+        final Set<String> keywords = template.getKeywords();
         @ColorInt final int color = Utils.getColorAccentDefaultColor(context);
 
         final String customSubtitle = data.getUnavailableSliceSubtitle();
         final CharSequence subtitle = !TextUtils.isEmpty(customSubtitle) ? customSubtitle
                 : context.getText(R.string.disabled_dependent_setting_summary);
-        final IconCompat icon = getSafeIcon(context, data);
-        final SliceAction primaryAction = SliceAction.createDeeplink(
-                getContentPendingIntent(context, data),
-                icon, ListBuilder.ICON_IMAGE, title);
+        final IconCompat icon = template.getIcon();
+        final SliceAction primaryAction = template.getPrimaryAction();
         final RowBuilder rowBuilder = new RowBuilder()
                 .setTitle(title)
                 .setTitleItem(icon, ListBuilder.ICON_IMAGE)
@@ -0,0 +1,145 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.slices;
+
+import android.app.PendingIntent;
+import android.content.Context;
+
+import androidx.annotation.GuardedBy;
+import androidx.core.graphics.drawable.IconCompat;
+import androidx.slice.builders.ListBuilder;
+import androidx.slice.builders.SliceAction;
+
+import com.android.settings.core.BasePreferenceController;
+
+import java.util.Set;
+
+/**
+ * The parts of a {@link androidx.slice.Slice} built from {@link SliceData} that don't change
+ * between binds: the controller, the {@link PendingIntent}s, the icon, the keywords and the
+ * static summary.
+ *
+ * <p>Each part is created the first time a slice needs it and then reused, so binding the same
+ * slice again only asks the controller for its current state.
+ */
+public class SliceTemplate {
+    private final Context mContext;
+    private final SliceData mSliceData;
+    private final BasePreferenceController mController;
+
+    @GuardedBy("this")
+    private IconCompat mIcon;
+    @GuardedBy("this")
+    private Set<String> mKeywords;
+    @GuardedBy("this")
+    private PendingIntent mContentIntent;
+    @GuardedBy("this")
+    private SliceAction mPrimaryAction;
+    @GuardedBy("this")
+    private PendingIntent mToggleIntent;
+    @GuardedBy("this")
+    private PendingIntent mSliderIntent;
+    @GuardedBy("this")
+    private SliceAction mCopyAction;
+    @GuardedBy("this")
+    private CharSequence mStaticSubtitle;
+
+    public SliceTemplate(Context context, SliceData sliceData,
+            BasePreferenceController controller) {
+        mContext = context;
+        mSliceData = sliceData;
+        mController = controller;
+    }
+
+    public SliceData getSliceData() {
+        return mSliceData;
+    }
+
+    public BasePreferenceController getController() {
+        return mController;
+    }
+
+    synchronized IconCompat getIcon() {
+        if (mIcon == null) {
+            mIcon = SliceBuilderUtils.getSafeIcon(mContext, mSliceData);
+        }
+        return mIcon;
+    }
+
+    synchronized Set<String> getKeywords() {
+        if (mKeywords == null) {
+            mKeywords = SliceBuilderUtils.buildSliceKeywords(mSliceData);
+        }
+        return mKeywords;
+    }
+
+    synchronized PendingIntent getContentIntent() {
+        if (mContentIntent == null) {
+            mContentIntent = SliceBuilderUtils.getContentPendingIntent(mContext, mSliceData);
+        }
+        return mContentIntent;
+    }
+
+    /** Return the deep link to the setting, with the icon and the title of the slice. */
+    synchronized SliceAction getPrimaryAction() {
+        if (mPrimaryAction == null) {
+            mPrimaryAction = SliceAction.createDeeplink(getContentIntent(), getIcon(),
+                    ListBuilder.ICON_IMAGE, mSliceData.getTitle());
+        }
+        return mPrimaryAction;
+    }
+
+    synchronized PendingIntent getToggleIntent() {
+        if (mToggleIntent == null) {
+            mToggleIntent = SliceBuilderUtils.getActionIntent(mContext,
+                    SettingsSliceProvider.ACTION_TOGGLE_CHANGED, mSliceData);
+        }
+        return mToggleIntent;
+    }
+
+    synchronized PendingIntent getSliderIntent() {
+        if (mSliderIntent == null) {
+            mSliderIntent = SliceBuilderUtils.getActionIntent(mContext,
+                    SettingsSliceProvider.ACTION_SLIDER_CHANGED, mSliceData);
+        }
+        return mSliderIntent;
+    }
+
+    synchronized SliceAction getCopyAction() {
+        if (mCopyAction == null) {
+            mCopyAction = SliceBuilderUtils.getCopyableAction(mContext, mSliceData);
+        }
+        return mCopyAction;
+    }
+
+    /**
+     * Return the subtitle of the slice. Only a dynamic summary is asked from the controller on
+     * every call.
+     */
+    CharSequence getSubtitle() {
+        if (mController.useDynamicSliceSummary()) {
+            return mController.getSummary();
+        }
+        synchronized (this) {
+            if (mStaticSubtitle == null) {
+                mStaticSubtitle = SliceBuilderUtils.getSubtitleText(mContext, mController,
+                        mSliceData);
+            }
+            return mStaticSubtitle;
+        }
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.slices;
+
+import android.net.Uri;
+import android.os.LocaleList;
+import android.util.ArrayMap;
+
+import androidx.annotation.GuardedBy;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+
+/**
+ * {@link SliceTemplate}s of the pinned slices of {@link SettingsSliceProvider}, by slice
+ * {@link Uri}.
+ *
+ * <p>Panels and search re-bind the same pinned slices many times, so their controller and static
+ * parts are kept here until the slice is unpinned. The static parts include localized text, so
+ * the templates are dropped when the default locales change.
+ */
+public class SliceTemplateCache {
+
+    private static SliceTemplateCache sInstance;
+
+    @GuardedBy("this")
+    private final ArrayMap<Uri, SliceTemplate> mTemplates = new ArrayMap<>();
+    // The default locales the templates were built with.
+    @GuardedBy("this")
+    private LocaleList mLocales;
+    @GuardedBy("this")
+    private int mHitCount;
+    @GuardedBy("this")
+    private int mMissCount;
+
+    public static synchronized SliceTemplateCache getInstance() {
+        if (sInstance == null) {
+            sInstance = new SliceTemplateCache();
+        }
+        return sInstance;
+    }
+
+    /** Return the instance if it was already created, without creating it. */
+    @Nullable
+    public static synchronized SliceTemplateCache peekInstance() {
+        return sInstance;
+    }
+
+    @VisibleForTesting
+    SliceTemplateCache() {
+    }
+
+    /** Return the template of {@code uri}, or {@code null} on a miss. */
+    @Nullable
+    public synchronized SliceTemplate get(Uri uri) {
+        checkLocales();
+        final SliceTemplate template = mTemplates.get(uri);
+        if (template != null) {
+            mHitCount++;
+        } else {
+            mMissCount++;
+        }
+        return template;
+    }
+
+    public synchronized void put(Uri uri, SliceTemplate template) {
+        checkLocales();
+        mTemplates.put(uri, template);
+    }
+
+    public synchronized void remove(Uri uri) {
+        mTemplates.remove(uri);
+    }
+
+    public synchronized int getHitCount() {
+        return mHitCount;
+    }
+
+    public synchronized int getMissCount() {
+        return mMissCount;
+    }
+
+    public synchronized int getSize() {
+        return mTemplates.size();
+    }
+
+    @GuardedBy("this")
+    private void checkLocales() {
+        final LocaleList locales = LocaleList.getDefault();
+        if (!locales.equals(mLocales)) {
+            mTemplates.clear();
+            mLocales = locales;
+        }
+    }
+}
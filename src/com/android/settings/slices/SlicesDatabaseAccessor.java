@@ -24,14 +24,17 @@ import android.database.sqlite.SQLiteDatabase;
 import android.net.Uri;
 import android.os.Binder;
 import android.text.TextUtils;
+import android.util.ArrayMap;
 import android.util.Pair;
 
+import androidx.annotation.GuardedBy;
 import androidx.slice.Slice;
 
 import com.android.settings.overlay.FeatureFactory;
 import com.android.settings.slices.SlicesDatabaseHelper.IndexColumns;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 /**
@@ -55,6 +58,12 @@ public class SlicesDatabaseAccessor {
     private final Context mContext;
     private final SlicesDatabaseHelper mHelper;
 
+    // Slice uris by visibility and authority, valid for the index generation they were read from
+    @GuardedBy("mSliceUris")
+    private final ArrayMap<String, List<Uri>> mSliceUris = new ArrayMap<>();
+    @GuardedBy("mSliceUris")
+    private int mSliceUrisGeneration;
+
     public SlicesDatabaseAccessor(Context context) {
         mContext = context;
         mHelper = SlicesDatabaseHelper.getInstance(mContext);
@@ -89,10 +98,36 @@ public class SlicesDatabaseAccessor {
 
     /**
      * @return a list of Slice {@link Uri}s based on their visibility {@param isPublicSlice } and
-     * {@param authority}.
+     * {@param authority}. The list is read once per index and cannot be modified.
      */
     public List<Uri> getSliceUris(String authority, boolean isPublicSlice) {
         verifyIndexing();
+        final int generation = mHelper.getIndexGeneration();
+        final String cacheKey = (isPublicSlice ? "public/" : "private/")
+                + (authority != null ? authority : "");
+        synchronized (mSliceUris) {
+            if (mSliceUrisGeneration != generation) {
+                mSliceUris.clear();
+                mSliceUrisGeneration = generation;
+            }
+            final List<Uri> uris = mSliceUris.get(cacheKey);
+            if (uris != null) {
+                return uris;
+            }
+        }
+
+        final List<Uri> uris = Collections.unmodifiableList(
+                querySliceUris(authority, isPublicSlice));
+        synchronized (mSliceUris) {
+            // Skip caching if the index was rebuilt while it was being read
+            if (mSliceUrisGeneration == generation) {
+                mSliceUris.put(cacheKey, uris);
+            }
+        }
+        return uris;
+    }
+
+    private List<Uri> querySliceUris(String authority, boolean isPublicSlice) {
         final List<Uri> uris = new ArrayList<>();
         final String whereClause = IndexColumns.PUBLIC_SLICE + (isPublicSlice ? "=1" : "=0");
         final SQLiteDatabase database = mHelper.getReadableDatabase();
@@ -25,6 +25,7 @@ import android.util.Log;
 import androidx.annotation.VisibleForTesting;
 
 import java.util.Locale;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Defines the schema for the Slices database.
@@ -138,6 +139,8 @@ public class SlicesDatabaseHelper extends SQLiteOpenHelper {
                     ");";
 
     private final Context mContext;
+    // Changed every time the index is rebuilt, so results derived from it can be dropped
+    private final AtomicInteger mIndexGeneration = new AtomicInteger();
 
     private static SlicesDatabaseHelper sSingleton;
 
@@ -178,6 +181,7 @@ public class SlicesDatabaseHelper extends SQLiteOpenHelper {
                 .apply();
         dropTables(db);
         createDatabases(db);
+        mIndexGeneration.incrementAndGet();
     }
 
     /**
@@ -187,6 +191,14 @@ public class SlicesDatabaseHelper extends SQLiteOpenHelper {
     public void setIndexedState() {
         setBuildIndexed();
         setLocaleIndexed();
+        mIndexGeneration.incrementAndGet();
+    }
+
+    /**
+     * @return a number that changes every time the slices index is rebuilt.
+     */
+    public int getIndexGeneration() {
+        return mIndexGeneration.get();
     }
 
     /**
@@ -50,7 +50,7 @@ public class AppStateChangeWifiStateBridge extends AppStateAppOpsBridge {
 
     @Override
     protected void updateExtraInfo(AppEntry app, String pkg, int uid) {
-        app.extraInfo = getWifiSettingsInfo(pkg, uid);
+        setExtraInfo(app, getWifiSettingsInfo(pkg, uid));
     }
 
     @Override
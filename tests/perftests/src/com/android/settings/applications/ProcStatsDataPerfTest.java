@@ -0,0 +1,109 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.applications;
+
+import static androidx.test.platform.app.InstrumentationRegistry.getInstrumentation;
+
+import android.content.Context;
+import android.os.Parcel;
+import android.os.ParcelFileDescriptor;
+import android.os.ServiceManager;
+import android.perftests.utils.BenchmarkState;
+import android.perftests.utils.PerfStatusReporter;
+
+import androidx.test.runner.AndroidJUnit4;
+
+import com.android.internal.app.procstats.IProcessStats;
+import com.android.internal.app.procstats.ProcessStats;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.InputStream;
+
+/**
+ * Benchmarks of the aggregation behind the memory screens. The stats are recorded once into a
+ * parcel so every iteration aggregates the same data. Lives in the package of {@link
+ * ProcStatsData} to reach its uncached aggregation.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ProcStatsDataPerfTest {
+
+    @Rule
+    public PerfStatusReporter mPerfStatusReporter = new PerfStatusReporter();
+
+    private Context mContext;
+    private Parcel mRecordedStats;
+
+    @Before
+    public void setUp() throws Exception {
+        mContext = getInstrumentation().getTargetContext();
+        final IProcessStats service = IProcessStats.Stub.asInterface(
+                ServiceManager.getService(ProcessStats.SERVICE_NAME));
+        final ProcessStats stats = new ProcessStats(false);
+        final ParcelFileDescriptor pfd = service.getStatsOverTime(
+                ProcessStatsBase.sDurations[ProcessStatsBase.sDurations.length - 1]);
+        try (InputStream is = new ParcelFileDescriptor.AutoCloseInputStream(pfd)) {
+            stats.read(is);
+        }
+        mRecordedStats = Parcel.obtain();
+        stats.writeToParcel(mRecordedStats, 0);
+    }
+
+    @After
+    public void tearDown() {
+        mRecordedStats.recycle();
+        ProcStatsData.clearCachedAggregations();
+    }
+
+    @Test
+    public void aggregateRecordedStats() {
+        final ProcStatsData data = new ProcStatsData(mContext, false);
+        final BenchmarkState state = mPerfStatusReporter.getBenchmarkState();
+        while (state.keepRunning()) {
+            state.pauseTiming();
+            final ProcessStats stats = readRecordedStats();
+            state.resumeTiming();
+
+            data.refreshStats(stats);
+        }
+    }
+
+    @Test
+    public void switchDuration_precomputed() {
+        final long[] durations = ProcessStatsBase.sDurations;
+        final ProcStatsData data = new ProcStatsData(mContext, false);
+        for (long duration : durations) {
+            data.setDuration(duration);
+        }
+        final BenchmarkState state = mPerfStatusReporter.getBenchmarkState();
+        int i = 0;
+        while (state.keepRunning()) {
+            data.setDuration(durations[i++ % durations.length]);
+        }
+    }
+
+    private ProcessStats readRecordedStats() {
+        final ProcessStats stats = new ProcessStats(false);
+        mRecordedStats.setDataPosition(0);
+        stats.readFromParcel(mRecordedStats);
+        return stats;
+    }
+}
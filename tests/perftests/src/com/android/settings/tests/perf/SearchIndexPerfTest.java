@@ -0,0 +1,111 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.tests.perf;
+
+import android.perftests.utils.BenchmarkState;
+import android.perftests.utils.PerfStatusReporter;
+
+import androidx.test.runner.AndroidJUnit4;
+
+import com.android.settings.search.embedded.SearchDocument;
+import com.android.settings.search.embedded.SearchIndex;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Benchmarks of querying the embedded {@link SearchIndex} of 5000 settings.
+ */
+@RunWith(AndroidJUnit4.class)
+public class SearchIndexPerfTest {
+    private static final int DOCUMENT_COUNT = 5000;
+    private static final int MAX_RESULTS = 20;
+    private static final String[] VOCABULARY = {
+            "wifi", "bluetooth", "network", "internet", "mobile", "data", "battery", "saver",
+            "display", "brightness", "dark", "theme", "sound", "volume", "vibration", "ringtone",
+            "notification", "history", "storage", "cache", "location", "privacy", "permission",
+            "security", "screen", "lock", "password", "fingerprint", "account", "sync", "backup",
+            "language", "keyboard", "gesture", "accessibility", "magnification", "caption",
+            "developer", "options", "system", "update", "reset", "date", "time", "zone", "app",
+            "default", "usage", "hotspot", "tethering", "airplane", "mode", "cast", "printing"};
+
+    @Rule
+    public PerfStatusReporter mPerfStatusReporter = new PerfStatusReporter();
+
+    private final Set<String> mExcludedKeys = Collections.emptySet();
+    private SearchIndex mIndex;
+
+    @Before
+    public void setUp() {
+        final Random random = new Random(0);
+        final List<SearchDocument> documents = new ArrayList<>(DOCUMENT_COUNT);
+        for (int i = 0; i < DOCUMENT_COUNT; i++) {
+            documents.add(new SearchDocument.Builder()
+                    .setKey("key_" + i)
+                    .setTitle(randomText(random, 3) + " " + i)
+                    .setKeywords(randomText(random, 4))
+                    .setBreadcrumbs(randomText(random, 2))
+                    .setSummary(randomText(random, 8))
+                    .setClassName("com.android.settings.Settings")
+                    .build());
+        }
+        mIndex = SearchIndex.build("stamp", documents);
+    }
+
+    @Test
+    public void query_exact() {
+        final BenchmarkState state = mPerfStatusReporter.getBenchmarkState();
+        while (state.keepRunning()) {
+            mIndex.query("battery saver", MAX_RESULTS, mExcludedKeys);
+        }
+    }
+
+    @Test
+    public void query_prefix() {
+        final BenchmarkState state = mPerfStatusReporter.getBenchmarkState();
+        while (state.keepRunning()) {
+            mIndex.query("blue", MAX_RESULTS, mExcludedKeys);
+        }
+    }
+
+    @Test
+    public void query_typo() {
+        final BenchmarkState state = mPerfStatusReporter.getBenchmarkState();
+        while (state.keepRunning()) {
+            mIndex.query("brigthness", MAX_RESULTS, mExcludedKeys);
+        }
+    }
+
+    private static String randomText(Random random, int wordCount) {
+        final StringBuilder text = new StringBuilder();
+        for (int i = 0; i < wordCount; i++) {
+            if (i > 0) {
+                text.append(' ');
+            }
+            text.append(VOCABULARY[random.nextInt(VOCABULARY.length)]);
+        }
+        return text.toString();
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.tests.perf;
+
+import static androidx.test.platform.app.InstrumentationRegistry.getInstrumentation;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.net.Uri;
+import android.perftests.utils.BenchmarkState;
+import android.perftests.utils.PerfStatusReporter;
+import android.provider.SettingsSlicesContract;
+
+import androidx.slice.SliceProvider;
+import androidx.slice.widget.SliceLiveData;
+import androidx.test.runner.AndroidJUnit4;
+
+import com.android.settings.R;
+import com.android.settings.display.DarkUIPreferenceController;
+import com.android.settings.slices.SettingsSliceProvider;
+import com.android.settings.slices.SliceBuilderUtils;
+import com.android.settings.slices.SliceData;
+import com.android.settings.slices.SliceTemplate;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Benchmarks of binding a Settings toggle slice, with and without the {@link SliceTemplate} that
+ * {@link SettingsSliceProvider} keeps for pinned slices.
+ */
+@RunWith(AndroidJUnit4.class)
+public class SliceBindPerfTest {
+    private static final String KEY = "dark_ui_mode";
+
+    @Rule
+    public PerfStatusReporter mPerfStatusReporter = new PerfStatusReporter();
+
+    private Context mContext;
+    private SliceData mSliceData;
+
+    @Before
+    public void setUp() {
+        mContext = getInstrumentation().getTargetContext();
+        SliceProvider.setSpecs(SliceLiveData.SUPPORTED_SPECS);
+        final Uri uri = new Uri.Builder()
+                .scheme(ContentResolver.SCHEME_CONTENT)
+                .authority(SettingsSliceProvider.SLICE_AUTHORITY)
+                .appendPath(SettingsSlicesContract.PATH_SETTING_ACTION)
+                .appendPath(KEY)
+                .build();
+        mSliceData = new SliceData.Builder()
+                .setKey(KEY)
+                .setUri(uri)
+                .setTitle("Dark theme")
+                .setScreenTitle("Display")
+                .setKeywords("dark, theme")
+                .setIcon(R.drawable.ic_settings_accent)
+                .setFragmentName("com.android.settings.DisplaySettings")
+                .setPreferenceControllerClassName(DarkUIPreferenceController.class.getName())
+                .setSliceType(SliceData.SliceType.SWITCH)
+                .build();
+    }
+
+    @Test
+    public void bindToggleSlice_uncached() {
+        final BenchmarkState state = mPerfStatusReporter.getBenchmarkState();
+        while (state.keepRunning()) {
+            SliceBuilderUtils.buildSlice(mContext, mSliceData);
+        }
+    }
+
+    @Test
+    public void bindToggleSlice_fromTemplate() {
+        final SliceTemplate template = new SliceTemplate(mContext, mSliceData,
+                SliceBuilderUtils.getPreferenceController(mContext, mSliceData));
+        final BenchmarkState state = mPerfStatusReporter.getBenchmarkState();
+        while (state.keepRunning()) {
+            SliceBuilderUtils.buildSlice(mContext, template);
+        }
+    }
+}
@@ -31,7 +31,12 @@ import android.content.pm.ResolveInfo;
 
 import androidx.annotation.NonNull;
 
+import com.android.settings.applications.AppIconCache;
+import com.android.settings.datausage.NetworkCycleDataCache;
+import com.android.settings.fuelgauge.PackageMetadataCache;
 import com.android.settings.fuelgauge.batterytip.AnomalyConfigJobService;
+import com.android.settings.slices.SliceTemplateCache;
+import com.android.settings.testutils.FakeFeatureFactory;
 
 import org.json.JSONException;
 import org.json.JSONObject;
@@ -40,11 +45,18 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
+import org.robolectric.Robolectric;
 import org.robolectric.RobolectricTestRunner;
 import org.robolectric.RuntimeEnvironment;
 
 import java.io.OutputStream;
 import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
 
 @RunWith(RobolectricTestRunner.class)
 public class SettingsDumpServiceTest {
@@ -52,6 +64,7 @@ public class SettingsDumpServiceTest {
     private static final String PACKAGE_BROWSER = "com.android.test.browser";
     private static final String PACKAGE_NULL = "android";
     private static final int ANOMALY_VERSION = 2;
+    private static final long SECTION_TIMEOUT_MS = 200;
 
     @Mock
     private PackageManager mPackageManager;
@@ -113,20 +126,119 @@ public class SettingsDumpServiceTest {
         assertThat(object.get(TestService.KEY_SERVICE)).isNotNull();
     }
 
+    @Test
+    public void testDump_slowSection_reportedAsTimedOut() throws JSONException {
+        final CountDownLatch latch = new CountDownLatch(1);
+        mTestService.setSections(Arrays.asList(
+                new SettingsDumpService.Section("fast", () -> "value"),
+                new SettingsDumpService.Section("slow", () -> {
+                    latch.await();
+                    return "late";
+                })));
+        final TestPrintWriter printWriter = new TestPrintWriter(System.out);
+
+        try {
+            mTestService.dump(null, printWriter, null);
+        } finally {
+            latch.countDown();
+        }
+        final JSONObject object = (JSONObject) printWriter.getPrintObject();
+
+        assertThat(object.getString("fast")).isEqualTo("value");
+        assertThat(object.getString("slow")).isEqualTo(SettingsDumpService.VALUE_TIMED_OUT);
+        assertThat(object.getJSONObject(SettingsDumpService.KEY_ELAPSED_MS).has("slow"))
+                .isTrue();
+    }
+
+    @Test
+    public void testDumpStreaming_printsEverySectionOnce() throws JSONException {
+        final CountDownLatch latch = new CountDownLatch(1);
+        mTestService.setSections(Arrays.asList(
+                new SettingsDumpService.Section("first", () -> "value"),
+                new SettingsDumpService.Section("failing", () -> {
+                    throw new IllegalStateException();
+                }),
+                new SettingsDumpService.Section("slow", () -> {
+                    latch.await();
+                    return "late";
+                })));
+        final StringWriter output = new StringWriter();
+
+        try {
+            mTestService.dumpStreaming(new PrintWriter(output));
+        } finally {
+            latch.countDown();
+        }
+
+        final Map<String, Object> values = new HashMap<>();
+        final String[] lines = output.toString().trim().split("\n");
+        for (String line : lines) {
+            final JSONObject object = new JSONObject(line);
+            values.put(object.getString(SettingsDumpService.KEY_SECTION),
+                    object.get(SettingsDumpService.KEY_VALUE));
+        }
+        assertThat(lines).hasLength(4);
+        assertThat(values.get(SettingsDumpService.KEY_SERVICE)).isEqualTo("Settings State");
+        assertThat(values.get("first")).isEqualTo("value");
+        assertThat((String) values.get("failing")).contains("IllegalStateException");
+        assertThat(values.get("slow")).isEqualTo(SettingsDumpService.VALUE_TIMED_OUT);
+    }
+
+    @Test
+    public void testDumpCaches_reportsCreatedCaches() throws JSONException {
+        FakeFeatureFactory.setupForTest();
+        final SettingsDumpService service = Robolectric.setupService(SettingsDumpService.class);
+        PackageMetadataCache.getInstance(service);
+        NetworkCycleDataCache.getInstance();
+        AppIconCache.getInstance(service);
+        SliceTemplateCache.getInstance();
+
+        final JSONObject caches = service.dumpCaches();
+
+        for (String cache : new String[]{"network_cycle", "icon"}) {
+            final JSONObject stats = caches.getJSONObject(cache);
+            assertThat(stats.has("hit")).isTrue();
+            assertThat(stats.has("miss")).isTrue();
+            assertThat(stats.has(SettingsDumpService.KEY_CACHE_BYTES)).isTrue();
+        }
+        for (String cache : new String[]{"metadata", "icon_label", "notification_summary",
+                "slice", "tile"}) {
+            final JSONObject stats = caches.getJSONObject(cache);
+            assertThat(stats.has("hit")).isTrue();
+            assertThat(stats.has("miss")).isTrue();
+            assertThat(stats.has(SettingsDumpService.KEY_CACHE_ENTRIES)).isTrue();
+        }
+    }
+
     /**
      * Test service used to pass in the mock {@link PackageManager}
      */
     private class TestService extends SettingsDumpService {
         private PackageManager mPm;
+        private List<Section> mSections;
 
         public void setPackageManager(PackageManager pm) {
             mPm = pm;
         }
 
+        public void setSections(List<Section> sections) {
+            mSections = sections;
+        }
+
         @Override
         public PackageManager getPackageManager() {
             return mPm;
         }
+
+        @Override
+        List<Section> getSections() {
+            return mSections != null ? mSections : super.getSections();
+        }
+
+        @Override
+        long getSectionTimeoutMs() {
+            return SECTION_TIMEOUT_MS;
+        }
     }
 
     /**
@@ -0,0 +1,212 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.applications;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import android.content.Context;
+import android.content.Intent;
+import android.content.pm.ApplicationInfo;
+import android.graphics.Color;
+import android.graphics.drawable.ColorDrawable;
+import android.graphics.drawable.Drawable;
+import android.net.Uri;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.shadows.ShadowBitmapFactory;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+@RunWith(RobolectricTestRunner.class)
+public class AppIconCacheTest {
+    private static final String PACKAGE_NAME = "com.example.app";
+
+    private Context mContext;
+    private ApplicationInfo mInfo;
+    private AppIconCache mCache;
+    private File mDiskCacheDir;
+
+    @Before
+    public void setUp() {
+        mContext = RuntimeEnvironment.application;
+        mInfo = spy(new ApplicationInfo());
+        mInfo.packageName = PACKAGE_NAME;
+        mInfo.nonLocalizedLabel = "App";
+        mInfo.longVersionCode = 1;
+        doReturn(new ColorDrawable(Color.RED)).when(mInfo).loadUnbadgedIcon(any());
+        mCache = new AppIconCache(mContext, null /* diskCacheDir */);
+        mDiskCacheDir = new File(mContext.getCacheDir(), "app_icons");
+    }
+
+    @Test
+    public void getBucket_roundsUpToNextBucket() {
+        assertThat(AppIconCache.getBucket(40)).isEqualTo(48);
+        assertThat(AppIconCache.getBucket(48)).isEqualTo(48);
+        assertThat(AppIconCache.getBucket(100)).isEqualTo(128);
+        assertThat(AppIconCache.getBucket(1000)).isEqualTo(256);
+    }
+
+    @Test
+    public void getIcon_sameBucket_loadsOnce() {
+        mCache.getIcon(mInfo, 0 /* userId */, 40, false /* badged */);
+        mCache.getIcon(mInfo, 0 /* userId */, 44, false /* badged */);
+
+        verify(mInfo, times(1)).loadUnbadgedIcon(any());
+        assertThat(mCache.getIconHitCount()).isEqualTo(1);
+        assertThat(mCache.getIconMissCount()).isEqualTo(1);
+        assertThat(mCache.getSizeBytes()).isGreaterThan(0);
+    }
+
+    @Test
+    public void getIcon_newVersion_loadsAgain() {
+        mCache.getIcon(mInfo, 0 /* userId */, 40, false /* badged */);
+        mInfo.longVersionCode = 2;
+        mCache.getIcon(mInfo, 0 /* userId */, 40, false /* badged */);
+
+        verify(mInfo, times(2)).loadUnbadgedIcon(any());
+    }
+
+    @Test
+    public void getCachedIcon_afterMiss_servedFromMemory() {
+        mCache.getCachedIcon(mInfo, 0 /* userId */, 40, false /* badged */);
+        mCache.getIcon(mInfo, 0 /* userId */, 40, false /* badged */);
+
+        verify(mInfo, times(1)).loadUnbadgedIcon(any());
+        assertThat(mCache.getIconHitCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void getIcon_concurrentMisses_shareOneLoad() throws Exception {
+        final CountDownLatch loadStarted = new CountDownLatch(1);
+        final CountDownLatch finishLoad = new CountDownLatch(1);
+        doAnswer(invocation -> {
+            loadStarted.countDown();
+            finishLoad.await(5, TimeUnit.SECONDS);
+            return new ColorDrawable(Color.RED);
+        }).when(mInfo).loadUnbadgedIcon(any());
+        final Drawable[] icons = new Drawable[2];
+        final Thread first = new Thread(() -> icons[0] = mCache.getIcon(mInfo, 0 /* userId */,
+                40, false /* badged */));
+        final Thread second = new Thread(() -> icons[1] = mCache.getIcon(mInfo, 0 /* userId */,
+                40, false /* badged */));
+
+        first.start();
+        assertThat(loadStarted.await(5, TimeUnit.SECONDS)).isTrue();
+        second.start();
+        // Wait for the second caller to block on the pending load.
+        final long deadline = System.currentTimeMillis() + 5000;
+        while (second.getState() != Thread.State.WAITING
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        finishLoad.countDown();
+        first.join();
+        second.join();
+
+        verify(mInfo, times(1)).loadUnbadgedIcon(any());
+        assertThat(icons[0]).isNotNull();
+        assertThat(icons[1]).isNotNull();
+    }
+
+    @Test
+    public void getIcon_onDisk_notDrawnAgain() {
+        final AppIconCache cache = createDiskCache();
+        cache.getIcon(mInfo, 0 /* userId */, 40, false /* badged */);
+
+        createDiskCache().getIcon(mInfo, 0 /* userId */, 40, false /* badged */);
+
+        verify(mInfo, times(1)).loadUnbadgedIcon(any());
+        assertThat(mDiskCacheDir.list()).hasLength(1);
+    }
+
+    @Test
+    public void getIcon_diskFull_dropsLeastRecentlyUsed() throws IOException {
+        mDiskCacheDir.mkdirs();
+        for (int i = 0; i < AppIconCache.MAX_DISK_FILES; i++) {
+            final File file = new File(mDiskCacheDir, "com.example.old" + i + "@1@0@48.png");
+            file.createNewFile();
+            file.setLastModified(1000L * (i + 1));
+        }
+
+        createDiskCache().getIcon(mInfo, 0 /* userId */, 40, false /* badged */);
+
+        assertThat(mDiskCacheDir.list()).hasLength(AppIconCache.MAX_DISK_FILES);
+        assertThat(new File(mDiskCacheDir, "com.example.old0@1@0@48.png").exists()).isFalse();
+        assertThat(new File(mDiskCacheDir, "com.example.old1@1@0@48.png").exists()).isTrue();
+    }
+
+    @Test
+    public void getIcon_corruptFileOnDisk_drawsAndRewrites() throws IOException {
+        ShadowBitmapFactory.setAllowInvalidImageData(false);
+        mDiskCacheDir.mkdirs();
+        final File file = new File(mDiskCacheDir, PACKAGE_NAME + "@1@0@48.png");
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(new byte[] {1, 2, 3});
+        }
+
+        final Drawable icon = createDiskCache().getIcon(mInfo, 0 /* userId */, 40,
+                false /* badged */);
+
+        assertThat(icon).isNotNull();
+        verify(mInfo, times(1)).loadUnbadgedIcon(any());
+        assertThat(file.length()).isNotEqualTo(3);
+    }
+
+    @Test
+    public void getLabel_countedApartFromIcons() {
+        mCache.getLabel(mInfo, 0 /* userId */);
+        mCache.getLabel(mInfo, 0 /* userId */);
+
+        assertThat(mCache.getLabelHitCount()).isEqualTo(1);
+        assertThat(mCache.getLabelMissCount()).isEqualTo(1);
+        assertThat(mCache.getIconHitCount()).isEqualTo(0);
+        assertThat(mCache.getIconMissCount()).isEqualTo(0);
+    }
+
+    @Test
+    public void getLabel_cachedUntilPackageChanges() {
+        assertThat(mCache.getLabel(mInfo, 0 /* userId */).toString()).isEqualTo("App");
+        mInfo.nonLocalizedLabel = "Renamed";
+        assertThat(mCache.getLabel(mInfo, 0 /* userId */).toString()).isEqualTo("App");
+
+        mCache.mPackageReceiver.onReceive(mContext, new Intent(Intent.ACTION_PACKAGE_CHANGED,
+                Uri.fromParts("package", PACKAGE_NAME, null /* fragment */)));
+
+        assertThat(mCache.getLabel(mInfo, 0 /* userId */).toString()).isEqualTo("Renamed");
+    }
+
+    private AppIconCache createDiskCache() {
+        final AppIconCache cache = new AppIconCache(mContext, mDiskCacheDir);
+        cache.mDiskExecutor = Runnable::run;
+        return cache;
+    }
+}
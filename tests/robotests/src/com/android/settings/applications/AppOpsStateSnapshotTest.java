@@ -0,0 +1,172 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.applications;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import android.Manifest;
+import android.app.AppOpsManager;
+import android.content.Context;
+import android.content.pm.ApplicationInfo;
+import android.content.pm.PackageInfo;
+import android.content.pm.PackageManager;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+@RunWith(RobolectricTestRunner.class)
+public class AppOpsStateSnapshotTest {
+
+    private static final String[] PERMISSIONS = {Manifest.permission.SYSTEM_ALERT_WINDOW};
+    private static final int[] OPS = {AppOpsManager.OP_SYSTEM_ALERT_WINDOW};
+    private static final String PACKAGE_1 = "com.example.one";
+    private static final String PACKAGE_2 = "com.example.two";
+    private static final int UID_1 = 10001;
+    private static final int UID_2 = 10002;
+
+    @Mock
+    private Context mContext;
+    @Mock
+    private PackageManager mPackageManager;
+    @Mock
+    private AppOpsManager mAppOpsManager;
+    private List<PackageInfo> mPackages;
+    private AppOpsStateSnapshot mSnapshot;
+
+    @Before
+    public void setUp() {
+        MockitoAnnotations.initMocks(this);
+        mPackages = new ArrayList<>();
+        mPackages.add(createPackageInfo(PACKAGE_1, UID_1, true /* granted */));
+        mPackages.add(createPackageInfo(PACKAGE_2, UID_2, false /* granted */));
+        when(mPackageManager.getInstalledPackagesAsUser(anyInt(), eq(0))).thenReturn(mPackages);
+        final List<AppOpsManager.OpEntry> ops = new ArrayList<>();
+        ops.add(new AppOpsManager.OpEntry(AppOpsManager.OP_SYSTEM_ALERT_WINDOW,
+                AppOpsManager.MODE_IGNORED, Collections.emptyMap()));
+        final List<AppOpsManager.PackageOps> packageOps = new ArrayList<>();
+        packageOps.add(new AppOpsManager.PackageOps(PACKAGE_1, UID_1, ops));
+        when(mAppOpsManager.getPackagesForOps(any(int[].class))).thenReturn(packageOps);
+
+        mSnapshot = new AppOpsStateSnapshot(mContext, mPackageManager, mAppOpsManager);
+        mSnapshot.track(PERMISSIONS, OPS);
+    }
+
+    @Test
+    public void lookups_loadUserOnce() {
+        assertThat(mSnapshot.isPermissionDeclared(UID_1, PACKAGE_1, PERMISSIONS)).isTrue();
+        assertThat(mSnapshot.isPermissionGranted(UID_1, PACKAGE_1, PERMISSIONS)).isTrue();
+        assertThat(mSnapshot.isPermissionGranted(UID_2, PACKAGE_2, PERMISSIONS)).isFalse();
+        assertThat(mSnapshot.getAppOpMode(UID_1, PACKAGE_1, OPS))
+                .isEqualTo(AppOpsManager.MODE_IGNORED);
+        assertThat(mSnapshot.getAppOpMode(UID_2, PACKAGE_2, OPS))
+                .isEqualTo(AppOpsManager.MODE_DEFAULT);
+
+        verify(mPackageManager, times(1)).getInstalledPackagesAsUser(anyInt(), eq(0));
+        verify(mAppOpsManager, times(1)).getPackagesForOps(any(int[].class));
+    }
+
+    @Test
+    public void getPackagesDeclaring_returnsDeclaringPackagesOfUser() {
+        assertThat(mSnapshot.getPackagesDeclaring(0, PERMISSIONS)).hasSize(2);
+        assertThat(mSnapshot.getPackagesDeclaring(0, new String[] {"unknown"})).isEmpty();
+    }
+
+    @Test
+    public void invalidatePackage_onlyQueriesThatPackage() throws Exception {
+        mSnapshot.isPermissionDeclared(UID_2, PACKAGE_2, PERMISSIONS);
+        when(mPackageManager.getPackageInfoAsUser(eq(PACKAGE_2), anyInt(), eq(0)))
+                .thenThrow(new PackageManager.NameNotFoundException());
+
+        mSnapshot.invalidatePackage(0, PACKAGE_2);
+
+        assertThat(mSnapshot.isPermissionDeclared(UID_2, PACKAGE_2, PERMISSIONS)).isFalse();
+        assertThat(mSnapshot.isPermissionDeclared(UID_1, PACKAGE_1, PERMISSIONS)).isTrue();
+        verify(mPackageManager, times(1)).getInstalledPackagesAsUser(anyInt(), eq(0));
+        verify(mAppOpsManager, times(1)).getPackagesForOps(any(int[].class));
+    }
+
+    @Test
+    public void opChanged_refreshesModesOfPackage() {
+        mSnapshot.getAppOpMode(UID_1, PACKAGE_1, OPS);
+        final List<AppOpsManager.OpEntry> ops = new ArrayList<>();
+        ops.add(new AppOpsManager.OpEntry(AppOpsManager.OP_SYSTEM_ALERT_WINDOW,
+                AppOpsManager.MODE_ALLOWED, Collections.emptyMap()));
+        when(mAppOpsManager.getOpsForPackage(UID_1, PACKAGE_1, OPS)).thenReturn(
+                Collections.singletonList(new AppOpsManager.PackageOps(PACKAGE_1, UID_1, ops)));
+
+        mSnapshot.mOpChangedListener.onOpChanged(AppOpsManager.OPSTR_SYSTEM_ALERT_WINDOW,
+                PACKAGE_1);
+
+        assertThat(mSnapshot.getAppOpMode(UID_1, PACKAGE_1, OPS))
+                .isEqualTo(AppOpsManager.MODE_ALLOWED);
+        verify(mAppOpsManager, times(1)).getPackagesForOps(any(int[].class));
+    }
+
+    @Test
+    public void checkAppOpMode_usesCheckedModeOfRequestingPackages() {
+        when(mAppOpsManager.checkOpNoThrow(AppOpsManager.OP_SYSTEM_ALERT_WINDOW, UID_2,
+                PACKAGE_2)).thenReturn(AppOpsManager.MODE_ALLOWED);
+
+        assertThat(mSnapshot.checkAppOpMode(UID_2, PACKAGE_2, PERMISSIONS,
+                AppOpsManager.OP_SYSTEM_ALERT_WINDOW)).isEqualTo(AppOpsManager.MODE_ALLOWED);
+        assertThat(mSnapshot.checkAppOpMode(UID_2, PACKAGE_2, PERMISSIONS,
+                AppOpsManager.OP_SYSTEM_ALERT_WINDOW)).isEqualTo(AppOpsManager.MODE_ALLOWED);
+        verify(mAppOpsManager, times(1)).checkOpNoThrow(AppOpsManager.OP_SYSTEM_ALERT_WINDOW,
+                UID_2, PACKAGE_2);
+    }
+
+    @Test
+    public void invalidateAppOpModes_checksModeAgain() {
+        when(mAppOpsManager.checkOpNoThrow(AppOpsManager.OP_SYSTEM_ALERT_WINDOW, UID_1,
+                PACKAGE_1)).thenReturn(AppOpsManager.MODE_IGNORED);
+        mSnapshot.checkAppOpMode(UID_1, PACKAGE_1, PERMISSIONS,
+                AppOpsManager.OP_SYSTEM_ALERT_WINDOW);
+        when(mAppOpsManager.checkOpNoThrow(AppOpsManager.OP_SYSTEM_ALERT_WINDOW, UID_1,
+                PACKAGE_1)).thenReturn(AppOpsManager.MODE_ALLOWED);
+
+        mSnapshot.invalidateAppOpModes(PACKAGE_1);
+
+        assertThat(mSnapshot.checkAppOpMode(UID_1, PACKAGE_1, PERMISSIONS,
+                AppOpsManager.OP_SYSTEM_ALERT_WINDOW)).isEqualTo(AppOpsManager.MODE_ALLOWED);
+    }
+
+    private static PackageInfo createPackageInfo(String packageName, int uid, boolean granted) {
+        final PackageInfo packageInfo = new PackageInfo();
+        packageInfo.packageName = packageName;
+        packageInfo.applicationInfo = new ApplicationInfo();
+        packageInfo.applicationInfo.uid = uid;
+        packageInfo.requestedPermissions = PERMISSIONS;
+        packageInfo.requestedPermissionsFlags = new int[] {
+                granted ? PackageInfo.REQUESTED_PERMISSION_GRANTED : 0};
+        return packageInfo;
+    }
+}
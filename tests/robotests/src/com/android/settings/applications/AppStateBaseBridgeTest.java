@@ -0,0 +1,126 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.applications;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+import android.os.Looper;
+
+import com.android.settingslib.applications.ApplicationsState.AppEntry;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.shadows.ShadowLooper;
+
+@RunWith(RobolectricTestRunner.class)
+public class AppStateBaseBridgeTest {
+
+    @Mock
+    private AppStateBaseBridge.Callback mCallback;
+    private AppEntry mEntry;
+    private TestBridge mBridge;
+
+    @Before
+    public void setUp() {
+        MockitoAnnotations.initMocks(this);
+        mEntry = mock(AppEntry.class);
+        mBridge = new TestBridge(mCallback, mEntry);
+    }
+
+    @Test
+    public void setExtraInfo_outsideOfLoad_appliesImmediately() {
+        mBridge.loadAllExtraInfo();
+
+        assertThat(mEntry.extraInfo).isEqualTo(TestBridge.VALUE);
+    }
+
+    @Test
+    public void loadAll_appliesExtraInfoBeforeCallback() {
+        mBridge.onPackageListChanged();
+        ShadowLooper.getShadowMainLooper().runToEndOfTasks();
+
+        assertThat(mBridge.mExtraInfoSeenDuringLoad).isNull();
+        assertThat(mEntry.extraInfo).isEqualTo(TestBridge.VALUE);
+        verify(mCallback).onExtraInfoUpdated();
+    }
+
+    @Test
+    public void loadAll_recordsTiming() {
+        mBridge.onPackageListChanged();
+        ShadowLooper.getShadowMainLooper().runToEndOfTasks();
+
+        boolean found = false;
+        for (AppStateBaseBridge.LoadTiming timing : AppStateBaseBridge.getLoadTimings()) {
+            if (TestBridge.class.getSimpleName().equals(timing.getBridge())) {
+                found = true;
+                assertThat(timing.getEntryCount()).isEqualTo(1);
+            }
+        }
+        assertThat(found).isTrue();
+    }
+
+    @Test
+    public void getWorkerLooper_newBridgeClasses_spreadAcrossWorkers() {
+        final Looper first = AppStateBaseBridge.getWorkerLooper(FirstBridge.class);
+        final Looper second = AppStateBaseBridge.getWorkerLooper(SecondBridge.class);
+
+        assertThat(second).isNotSameAs(first);
+        assertThat(AppStateBaseBridge.getWorkerLooper(FirstBridge.class)).isSameAs(first);
+    }
+
+    private abstract static class FirstBridge extends AppStateBaseBridge {
+        FirstBridge() {
+            super(null /* appState */, null /* callback */);
+        }
+    }
+
+    private abstract static class SecondBridge extends AppStateBaseBridge {
+        SecondBridge() {
+            super(null /* appState */, null /* callback */);
+        }
+    }
+
+    private static class TestBridge extends AppStateBaseBridge {
+        private static final Object VALUE = new Object();
+
+        private final AppEntry mEntry;
+        private Object mExtraInfoSeenDuringLoad;
+
+        TestBridge(Callback callback, AppEntry entry) {
+            super(null /* appState */, callback);
+            mEntry = entry;
+        }
+
+        @Override
+        protected void loadAllExtraInfo() {
+            setExtraInfo(mEntry, VALUE);
+            mExtraInfoSeenDuringLoad = mEntry.extraInfo;
+        }
+
+        @Override
+        protected void updateExtraInfo(AppEntry app, String pkg, int uid) {
+            setExtraInfo(app, VALUE);
+        }
+    }
+}
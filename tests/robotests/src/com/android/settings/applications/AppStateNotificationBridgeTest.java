@@ -58,6 +58,7 @@ import android.widget.Switch;
 import com.android.settings.R;
 import com.android.settings.applications.AppStateNotificationBridge.NotificationsSentState;
 import com.android.settings.notification.NotificationBackend;
+import com.android.settings.notification.NotificationUsageStore;
 import com.android.settingslib.applications.ApplicationsState;
 import com.android.settingslib.applications.ApplicationsState.AppEntry;
 
@@ -102,6 +103,7 @@ public class AppStateNotificationBridgeTest {
         // most tests assume no work profile
         when(mUserManager.getProfileIdsWithDisabled(anyInt())).thenReturn(new int[]{});
         mContext = RuntimeEnvironment.application.getApplicationContext();
+        NotificationUsageStore.resetForTest(mContext);
 
         mBridge = new AppStateNotificationBridge(mContext, mState,
                 mock(AppStateBaseBridge.Callback.class), mUsageStats, mUserManager, mBackend);
@@ -343,13 +345,12 @@ public class AppStateNotificationBridgeTest {
 
     @Test
     public void testUpdateExtraInfo_noEvents() throws RemoteException {
-        when(mUsageStats.queryEventsForPackageForUser(
-                anyLong(), anyLong(), anyInt(), anyString(), anyString()))
+        when(mUsageStats.queryEventsForUser(anyLong(), anyLong(), anyInt(), anyString()))
                 .thenReturn(mock(UsageEvents.class));
         AppEntry entry = getMockAppEntry(PKG1);
 
         mBridge.updateExtraInfo(entry, "", 0);
-        assertThat(entry.extraInfo).isNull();
+        assertThat(((NotificationsSentState) entry.extraInfo).sentCount).isEqualTo(0);
     }
 
     @Test
@@ -364,8 +365,8 @@ public class AppStateNotificationBridgeTest {
         }
 
         UsageEvents usageEvents = getUsageEvents(events);
-        when(mUsageStats.queryEventsForPackageForUser(
-                anyLong(), anyLong(), anyInt(), anyString(), anyString())).thenReturn(usageEvents);
+        when(mUsageStats.queryEventsForUser(anyLong(), anyLong(), anyInt(), anyString()))
+                .thenReturn(usageEvents);
 
         AppEntry entry = getMockAppEntry(PKG1);
         mBridge.updateExtraInfo(entry, "", 0);
@@ -379,6 +380,30 @@ public class AppStateNotificationBridgeTest {
         assertThat(((NotificationsSentState) entry.extraInfo).blockable).isTrue();
     }
 
+    @Test
+    public void testUpdateExtraInfo_matchesLoadAllExtraInfo() throws RemoteException {
+        List<Event> events = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            Event good = new Event();
+            good.mEventType = Event.NOTIFICATION_INTERRUPTION;
+            good.mPackage = PKG1;
+            good.mTimeStamp = i;
+            events.add(good);
+        }
+        when(mUsageStats.queryEventsForUser(anyLong(), anyLong(), anyInt(), anyString()))
+                .thenReturn(getUsageEvents(events))
+                .thenReturn(mock(UsageEvents.class));
+        final Map<String, NotificationsSentState> map = mBridge.getAggregatedUsageEvents();
+
+        AppEntry entry = getMockAppEntry(PKG1);
+        mBridge.updateExtraInfo(entry, "", 0);
+
+        final NotificationsSentState stored = map.get(AppStateNotificationBridge.getKey(0, PKG1));
+        assertThat(((NotificationsSentState) entry.extraInfo).sentCount)
+                .isEqualTo(stored.sentCount);
+        assertThat(entry.extraInfo).isNotSameAs(stored);
+    }
+
     @Test
     public void testSummary_recency() {
         NotificationsSentState neverSent = new NotificationsSentState();
@@ -0,0 +1,142 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.android.settings.applications;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.when;
+
+import android.app.ActivityManager;
+import android.app.ActivityManager.RunningAppProcessInfo;
+import android.content.Context;
+
+import com.android.settings.applications.RunningState.OnRefreshUiListener;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.ArrayList;
+import java.util.List;
+
+@RunWith(RobolectricTestRunner.class)
+public class RunningStateTest {
+    private static final int PID = 100;
+
+    @Mock
+    private ActivityManager mActivityManager;
+    private Context mContext;
+    private RunningState mState;
+
+    @Before
+    public void setUp() throws Exception {
+        MockitoAnnotations.initMocks(this);
+        mContext = RuntimeEnvironment.application;
+        mState = spy(new RunningState(mContext));
+        when(mActivityManager.getRunningServices(anyInt())).thenReturn(new ArrayList<>());
+        when(mActivityManager.getRunningAppProcesses()).thenReturn(new ArrayList<>());
+        doReturn(new long[0]).when(mState).getProcessPss(any());
+    }
+
+    @Test
+    public void update_nothingRunning_returnsRefreshTime() {
+        assertThat(mState.update(mContext, mActivityManager))
+                .isEqualTo(OnRefreshUiListener.REFRESH_TIME);
+    }
+
+    @Test
+    public void update_newProcess_returnsRefreshStructure() throws Exception {
+        mState.update(mContext, mActivityManager);
+
+        setRunningProcess(0 /* pss */);
+
+        assertThat(mState.update(mContext, mActivityManager))
+                .isEqualTo(OnRefreshUiListener.REFRESH_STRUCTURE);
+    }
+
+    @Test
+    public void update_onlyMemoryChanged_returnsRefreshData() throws Exception {
+        setRunningProcess(0 /* pss */);
+        mState.update(mContext, mActivityManager);
+
+        setRunningProcess(2048 /* pss */);
+
+        assertThat(mState.update(mContext, mActivityManager))
+                .isEqualTo(OnRefreshUiListener.REFRESH_DATA);
+    }
+
+    @Test
+    public void update_sameProcessAgain_returnsRefreshTime() throws Exception {
+        setRunningProcess(2048 /* pss */);
+        mState.update(mContext, mActivityManager);
+
+        assertThat(mState.update(mContext, mActivityManager))
+                .isEqualTo(OnRefreshUiListener.REFRESH_TIME);
+    }
+
+    @Test
+    public void updateContentsDelay_noChange_backsOffUpToMax() {
+        assertThat(mState.updateContentsDelay(OnRefreshUiListener.REFRESH_TIME))
+                .isEqualTo(RunningState.CONTENTS_UPDATE_DELAY * 2);
+        for (int i = 0; i < 10; i++) {
+            mState.updateContentsDelay(OnRefreshUiListener.REFRESH_TIME);
+        }
+
+        assertThat(mState.updateContentsDelay(OnRefreshUiListener.REFRESH_TIME))
+                .isEqualTo(RunningState.MAX_CONTENTS_UPDATE_DELAY);
+    }
+
+    @Test
+    public void updateContentsDelay_change_goesBackToNormalRate() {
+        mState.updateContentsDelay(OnRefreshUiListener.REFRESH_TIME);
+        mState.updateContentsDelay(OnRefreshUiListener.REFRESH_TIME);
+
+        assertThat(mState.updateContentsDelay(OnRefreshUiListener.REFRESH_DATA))
+                .isEqualTo(RunningState.CONTENTS_UPDATE_DELAY);
+    }
+
+    @Test
+    public void onUserInteraction_afterBackOff_goesBackToNormalRate() {
+        mState.updateContentsDelay(OnRefreshUiListener.REFRESH_TIME);
+        mState.updateContentsDelay(OnRefreshUiListener.REFRESH_TIME);
+
+        mState.onUserInteraction();
+
+        assertThat(mState.mContentsUpdateDelay).isEqualTo(RunningState.CONTENTS_UPDATE_DELAY);
+    }
+
+    private void setRunningProcess(long pss) throws Exception {
+        final RunningAppProcessInfo info = new RunningAppProcessInfo("com.example", PID, null);
+        info.uid = 10001;
+        // Visible because of a client, so it's counted as a foreground process
+        info.importance = RunningAppProcessInfo.IMPORTANCE_VISIBLE;
+        info.importanceReasonCode = RunningAppProcessInfo.REASON_PROVIDER_IN_USE;
+        final List<RunningAppProcessInfo> processes = new ArrayList<>();
+        processes.add(info);
+        when(mActivityManager.getRunningAppProcesses()).thenReturn(processes);
+        doReturn(new long[] {pss}).when(mState).getProcessPss(any());
+    }
+}
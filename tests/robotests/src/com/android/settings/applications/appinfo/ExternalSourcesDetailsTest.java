@@ -70,6 +70,8 @@ public class ExternalSourcesDetailsTest {
     private RestrictedPreferenceHelper mHelper;
     @Mock
     private PackageInfo mPackageInfo;
+    @Mock
+    private AppStateInstallAppsBridge mAppBridge;
 
     private ExternalSourcesDetails mFragment;
 
@@ -82,6 +84,7 @@ public class ExternalSourcesDetailsTest {
         ReflectionHelpers.setField(mFragment, "mActivityManager", mActivityManager);
         ReflectionHelpers.setField(mFragment, "mAppOpsManager", mAppOpsManager);
         ReflectionHelpers.setField(mFragment, "mSwitchPref", mSwitchPref);
+        ReflectionHelpers.setField(mFragment, "mAppBridge", mAppBridge);
     }
 
     @Test
@@ -119,6 +122,18 @@ public class ExternalSourcesDetailsTest {
         verify(mActivityManager, never()).killUid(eq(mockUid), anyString());
     }
 
+    @Test
+    public void setCanInstallApps_shouldInvalidateMode() {
+        ReflectionHelpers.setField(mFragment, "mPackageInfo", mPackageInfo);
+        ReflectionHelpers.setField(mFragment, "mPackageName", "com.example.app");
+        mPackageInfo.applicationInfo = new ApplicationInfo();
+        mPackageInfo.applicationInfo.uid = 23456;
+
+        mFragment.setCanInstallApps(true);
+
+        verify(mAppBridge).onAppOpModeChanged("com.example.app");
+    }
+
     @Test
     public void refreshUi_noPackageInfo_shouldReturnFalseAndNoCrash() {
         mFragment.refreshUi();
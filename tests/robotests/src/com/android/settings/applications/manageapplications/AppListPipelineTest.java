@@ -0,0 +1,183 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.applications.manageapplications;
+
+import static com.android.settings.applications.AppStateNotificationBridge.FILTER_APP_NOTIFICATION_FREQUENCY;
+import static com.android.settings.applications.AppStateNotificationBridge.FILTER_APP_NOTIFICATION_RECENCY;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.content.Context;
+import android.content.pm.ApplicationInfo;
+
+import com.android.settings.R;
+import com.android.settings.applications.AppStateNotificationBridge;
+import com.android.settings.applications.AppStateNotificationBridge.NotificationsSentState;
+import com.android.settingslib.applications.ApplicationsState;
+import com.android.settingslib.applications.ApplicationsState.AppEntry;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.ArrayList;
+import java.util.List;
+
+@RunWith(RobolectricTestRunner.class)
+public class AppListPipelineTest {
+
+    private Context mContext;
+    private AppListPipeline mPipeline;
+
+    @Before
+    public void setUp() {
+        mContext = RuntimeEnvironment.application;
+        mPipeline = new AppListPipeline();
+    }
+
+    @Test
+    public void canDerive_recentToFrequentNotifications_isTrue() {
+        final AppListPipeline.CompiledFilter recent = AppListPipeline.compile(
+                FILTER_APP_NOTIFICATION_RECENCY, ApplicationsState.FILTER_NOT_HIDE);
+        final AppListPipeline.CompiledFilter frequent = AppListPipeline.compile(
+                FILTER_APP_NOTIFICATION_FREQUENCY, ApplicationsState.FILTER_NOT_HIDE);
+
+        assertThat(AppListPipeline.canDerive(recent, frequent)).isTrue();
+    }
+
+    @Test
+    public void canDerive_removedPredicate_isFalse() {
+        final AppListPipeline.CompiledFilter narrow = AppListPipeline.compile(
+                ApplicationsState.FILTER_DOWNLOADED_AND_LAUNCHER,
+                ApplicationsState.FILTER_NOT_HIDE);
+        final AppListPipeline.CompiledFilter wide = AppListPipeline.compile(
+                ApplicationsState.FILTER_NOT_HIDE);
+
+        assertThat(AppListPipeline.canDerive(narrow, wide)).isFalse();
+        assertThat(AppListPipeline.canDerive(wide, narrow)).isTrue();
+        assertThat(AppListPipeline.canDerive(null, wide)).isFalse();
+    }
+
+    @Test
+    public void apply_sameFilter_onlyChangesOrder() {
+        final List<AppEntry> entries = new ArrayList<>();
+        entries.add(createEntry(1, "Banana", 5 /* sentCount */, 300 /* lastSent */));
+        entries.add(createEntry(2, "Apricot", 10 /* sentCount */, 100 /* lastSent */));
+        entries.add(createEntry(3, "Cherry", 1 /* sentCount */, 200 /* lastSent */));
+        final AppListPipeline.CompiledFilter recent =
+                AppListPipeline.compile(FILTER_APP_NOTIFICATION_RECENCY);
+        final AppListPipeline.CompiledFilter frequent =
+                AppListPipeline.compile(FILTER_APP_NOTIFICATION_FREQUENCY);
+
+        final List<AppEntry> byRecency = mPipeline.apply(entries, frequent, recent,
+                R.id.sort_order_recent_notification, ManageApplications.SIZE_TOTAL);
+        final List<AppEntry> byFrequency = mPipeline.apply(entries, recent, frequent,
+                R.id.sort_order_frequent_notification, ManageApplications.SIZE_TOTAL);
+        final List<AppEntry> byLabel = mPipeline.apply(entries, recent, recent,
+                R.id.sort_order_alpha, ManageApplications.SIZE_TOTAL);
+
+        assertThat(getLabels(byRecency)).containsExactly("Banana", "Cherry", "Apricot").inOrder();
+        assertThat(getLabels(byFrequency)).containsExactly("Apricot", "Banana", "Cherry")
+                .inOrder();
+        assertThat(getLabels(byLabel)).containsExactly("Apricot", "Banana", "Cherry").inOrder();
+    }
+
+    @Test
+    public void apply_addedPredicate_filtersCurrentEntries() {
+        final List<AppEntry> entries = new ArrayList<>();
+        entries.add(createEntry(1, "Banana", 5 /* sentCount */, 300 /* lastSent */));
+        entries.add(createEntry(2, "Apricot", 0 /* sentCount */, 0 /* lastSent */));
+        final AppListPipeline.CompiledFilter all =
+                AppListPipeline.compile(ApplicationsState.FILTER_NOT_HIDE);
+        final AppListPipeline.CompiledFilter recent = AppListPipeline.compile(
+                ApplicationsState.FILTER_NOT_HIDE, FILTER_APP_NOTIFICATION_RECENCY);
+
+        final List<AppEntry> result = mPipeline.apply(entries, all, recent,
+                R.id.sort_order_alpha, ManageApplications.SIZE_TOTAL);
+
+        assertThat(getLabels(result)).containsExactly("Banana");
+    }
+
+    @Test
+    public void apply_labelChanged_usesNewLabel() {
+        final List<AppEntry> entries = new ArrayList<>();
+        entries.add(createEntry(1, "Banana", 1 /* sentCount */, 1 /* lastSent */));
+        entries.add(createEntry(2, "Cherry", 1 /* sentCount */, 1 /* lastSent */));
+        final AppListPipeline.CompiledFilter filter =
+                AppListPipeline.compile(ApplicationsState.FILTER_NOT_HIDE);
+        mPipeline.apply(entries, filter, filter, R.id.sort_order_alpha,
+                ManageApplications.SIZE_TOTAL);
+
+        entries.get(1).label = "Apple";
+        final List<AppEntry> result = mPipeline.apply(entries, filter, filter,
+                R.id.sort_order_recent_notification, ManageApplications.SIZE_TOTAL);
+
+        assertThat(getLabels(result)).containsExactly("Apple", "Banana").inOrder();
+    }
+
+    @Test
+    public void apply_sortBySize_ordersLikeSizeComparator() {
+        final List<AppEntry> entries = new ArrayList<>();
+        entries.add(createEntry(1, "Banana", 0 /* sentCount */, 0 /* lastSent */));
+        entries.add(createEntry(2, "Apricot", 0 /* sentCount */, 0 /* lastSent */));
+        entries.add(createEntry(3, "Cherry", 0 /* sentCount */, 0 /* lastSent */));
+        entries.get(0).size = 10;
+        entries.get(1).size = 10;
+        entries.get(2).size = 20;
+        final AppListPipeline.CompiledFilter filter =
+                AppListPipeline.compile(ApplicationsState.FILTER_NOT_HIDE);
+
+        final List<AppEntry> result = mPipeline.apply(entries, filter, filter,
+                R.id.sort_order_size, ManageApplications.SIZE_TOTAL);
+
+        assertThat(getLabels(result)).containsExactly("Cherry", "Apricot", "Banana").inOrder();
+    }
+
+    @Test
+    public void getComparator_noSizesStore_reusesExistingComparators() {
+        assertThat(mPipeline.getComparator(R.id.sort_order_alpha, ManageApplications.SIZE_TOTAL))
+                .isSameAs(ApplicationsState.ALPHA_COMPARATOR);
+        assertThat(mPipeline.getComparator(R.id.sort_order_size, ManageApplications.SIZE_EXTERNAL))
+                .isSameAs(ApplicationsState.EXTERNAL_SIZE_COMPARATOR);
+        assertThat(mPipeline.getComparator(R.id.sort_order_recent_notification,
+                ManageApplications.SIZE_TOTAL))
+                .isSameAs(AppStateNotificationBridge.RECENT_NOTIFICATION_COMPARATOR);
+    }
+
+    private AppEntry createEntry(long id, String label, int sentCount, long lastSent) {
+        final ApplicationInfo info = new ApplicationInfo();
+        info.packageName = "com.example." + id;
+        info.sourceDir = "abc";
+        final AppEntry entry = new AppEntry(mContext, info, id);
+        entry.label = label;
+        final NotificationsSentState state = new NotificationsSentState();
+        state.sentCount = sentCount;
+        state.lastSent = lastSent;
+        entry.extraInfo = state;
+        return entry;
+    }
+
+    private static List<String> getLabels(List<AppEntry> entries) {
+        final List<String> labels = new ArrayList<>();
+        for (AppEntry entry : entries) {
+            labels.add(entry.label);
+        }
+        return labels;
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.applications.manageapplications;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.mockito.Mockito.mock;
+
+import com.android.settingslib.applications.ApplicationsState.AppEntry;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+@RunWith(RobolectricTestRunner.class)
+public class AppSearchIndexTest {
+
+    @Test
+    public void search_ignoresCaseAndDiacritics() {
+        final AppSearchIndex index = new AppSearchIndex(
+                createEntries("Café", "Cafeteria", "Music"), Locale.US);
+
+        assertThat(getLabels(index.search("CAFE"))).containsExactly("Café", "Cafeteria")
+                .inOrder();
+        assertThat(getLabels(index.search("é"))).containsExactly("Café", "Cafeteria").inOrder();
+    }
+
+    @Test
+    public void search_extendedQuery_narrowsPreviousMatches() {
+        final AppSearchIndex index = new AppSearchIndex(
+                createEntries("Apricot", "Banana", "Cantaloupe", "Mango"), Locale.US);
+
+        assertThat(getLabels(index.search("an"))).containsExactly("Banana", "Cantaloupe", "Mango")
+                .inOrder();
+        assertThat(getLabels(index.search("ang"))).containsExactly("Mango");
+        assertThat(getLabels(index.search("p"))).containsExactly("Apricot", "Cantaloupe")
+                .inOrder();
+    }
+
+    @Test
+    public void search_emptyQuery_returnsAllEntries() {
+        final AppSearchIndex index = new AppSearchIndex(createEntries("Fig", "Mango"), Locale.US);
+
+        assertThat(index.search("")).hasSize(2);
+    }
+
+    @Test
+    public void search_noMatch_returnsEmptyList() {
+        final AppSearchIndex index = new AppSearchIndex(createEntries("Fig", "Mango"), Locale.US);
+
+        assertThat(index.search("orange")).isEmpty();
+    }
+
+    private static List<AppEntry> createEntries(String... labels) {
+        final List<AppEntry> entries = new ArrayList<>();
+        for (String label : labels) {
+            final AppEntry entry = mock(AppEntry.class);
+            entry.label = label;
+            entries.add(entry);
+        }
+        return entries;
+    }
+
+    private static List<String> getLabels(List<AppEntry> entries) {
+        final List<String> labels = new ArrayList<>();
+        for (AppEntry entry : entries) {
+            labels.add(entry.label);
+        }
+        return labels;
+    }
+}
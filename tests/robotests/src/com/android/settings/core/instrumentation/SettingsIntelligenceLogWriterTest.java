@@ -29,12 +29,14 @@ import org.mockito.MockitoAnnotations;
 import org.robolectric.RuntimeEnvironment;
 
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.DataInputStream;
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.List;
+import java.time.ZonedDateTime;
 
 public class SettingsIntelligenceLogWriterTest {
+    private static final long TIMESTAMP = 1577836800000L;
+
     private Context mContext;
 
     @Before
@@ -45,18 +47,14 @@ public class SettingsIntelligenceLogWriterTest {
 
     @Test
     public void serialize_hasSizeOne_returnCorrectData() throws IOException {
-        final SettingsLog event = SettingsLog.newBuilder()
-                .setAttribution(SettingsEnums.DASHBOARD_SUMMARY)
-                .setAction(SettingsEnums.ACTION_SET_NEW_PASSWORD)
-                .setPageId(SettingsEnums.SET_NEW_PASSWORD_ACTIVITY)
-                .setChangedPreferenceKey("package")
-                .setChangedPreferenceIntValue(100)
-                .build();
-        List<SettingsLog> events = new ArrayList<>();
-        events.add(event);
+        final SettingsLogBuffer events = new SettingsLogBuffer(1 /* capacity */);
+        events.add(TIMESTAMP, SettingsEnums.DASHBOARD_SUMMARY,
+                SettingsEnums.ACTION_SET_NEW_PASSWORD, SettingsEnums.SET_NEW_PASSWORD_ACTIVITY,
+                "package", 100);
 
         // execute
-        final byte[] data = SettingsIntelligenceLogWriter.serialize(events);
+        final byte[] data = SettingsIntelligenceLogWriter.serialize(events,
+                new ByteArrayOutputStream());
 
         // parse data
         final ByteArrayInputStream bin = new ByteArrayInputStream(data);
@@ -74,5 +72,7 @@ public class SettingsIntelligenceLogWriterTest {
         assertThat(settingsLog.getPageId()).isEqualTo(SettingsEnums.SET_NEW_PASSWORD_ACTIVITY);
         assertThat(settingsLog.getChangedPreferenceKey()).isEqualTo("package");
         assertThat(settingsLog.getChangedPreferenceIntValue()).isEqualTo(100);
+        assertThat(ZonedDateTime.parse(settingsLog.getTimestamp()).toInstant().toEpochMilli())
+                .isEqualTo(TIMESTAMP);
     }
 }
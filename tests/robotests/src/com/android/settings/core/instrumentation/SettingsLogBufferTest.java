@@ -0,0 +1,88 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.core.instrumentation;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.android.settings.intelligence.LogProto.SettingsLog;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.time.ZoneId;
+
+@RunWith(RobolectricTestRunner.class)
+public class SettingsLogBufferTest {
+    private static final int CAPACITY = 3;
+
+    private SettingsLogBuffer mBuffer;
+    private SettingsLog.Builder mBuilder;
+
+    @Before
+    public void setUp() {
+        mBuffer = new SettingsLogBuffer(CAPACITY);
+        mBuilder = SettingsLog.newBuilder();
+    }
+
+    @Test
+    public void add_full_dropsOldestEvent() {
+        for (int i = 0; i < CAPACITY + 2; i++) {
+            addEvent(i);
+        }
+
+        assertThat(mBuffer.size()).isEqualTo(CAPACITY);
+        assertThat(mBuffer.getDroppedCount()).isEqualTo(2);
+        assertThat(getValue(mBuffer, 0)).isEqualTo(2);
+        assertThat(getValue(mBuffer, CAPACITY - 1)).isEqualTo(4);
+    }
+
+    @Test
+    public void drainTo_keepsOrderAndEmptiesBuffer() {
+        addEvent(1);
+        addEvent(2);
+        final SettingsLogBuffer other = new SettingsLogBuffer(CAPACITY);
+
+        mBuffer.drainTo(other);
+
+        assertThat(mBuffer.isEmpty()).isTrue();
+        assertThat(mBuffer.getEstimatedBytes()).isEqualTo(0);
+        assertThat(other.size()).isEqualTo(2);
+        assertThat(getValue(other, 0)).isEqualTo(1);
+        assertThat(getValue(other, 1)).isEqualTo(2);
+    }
+
+    @Test
+    public void getEstimatedBytes_growsWithKeys() {
+        addEvent(1);
+        final int bytes = mBuffer.getEstimatedBytes();
+        mBuffer.add(0, 0, 0, 0, "a_much_longer_preference_key", 0);
+
+        assertThat(mBuffer.getEstimatedBytes() - bytes).isGreaterThan(bytes);
+    }
+
+    private void addEvent(int value) {
+        mBuffer.add(value /* timestampMillis */, 0 /* attribution */, 0 /* action */,
+                0 /* pageId */, "key", value);
+    }
+
+    private int getValue(SettingsLogBuffer buffer, int position) {
+        return buffer.get(position, mBuilder, ZoneId.systemDefault())
+                .getChangedPreferenceIntValue();
+    }
+}
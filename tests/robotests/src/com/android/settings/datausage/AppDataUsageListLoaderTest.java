@@ -0,0 +1,86 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.datausage;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.android.settingslib.AppItem;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.ArrayList;
+import java.util.List;
+
+@RunWith(RobolectricTestRunner.class)
+public class AppDataUsageListLoaderTest {
+
+    @Test
+    public void nextPage_returnsLargestItemsInOrder() {
+        final AppDataUsageListLoader.AppItemPager list =
+                new AppDataUsageListLoader.AppItemList(createItems(5, 1, 4, 2, 3), 5).newPager();
+
+        final List<AppItem> firstPage = list.nextPage(2);
+        final List<AppItem> secondPage = list.nextPage(2);
+
+        assertThat(firstPage).hasSize(2);
+        assertThat(firstPage.get(0).total).isEqualTo(5);
+        assertThat(firstPage.get(1).total).isEqualTo(4);
+        assertThat(secondPage.get(0).total).isEqualTo(3);
+        assertThat(secondPage.get(1).total).isEqualTo(2);
+        assertThat(list.hasNext()).isTrue();
+    }
+
+    @Test
+    public void nextPage_pageLargerThanRemaining_returnsEverything() {
+        final AppDataUsageListLoader.AppItemPager list =
+                new AppDataUsageListLoader.AppItemList(createItems(1, 3, 2), 3).newPager();
+
+        final List<AppItem> page = list.nextPage(10);
+
+        assertThat(page).hasSize(3);
+        assertThat(page.get(0).total).isEqualTo(3);
+        assertThat(page.get(2).total).isEqualTo(1);
+        assertThat(list.hasNext()).isFalse();
+        assertThat(list.nextPage(10)).isEmpty();
+    }
+
+    @Test
+    public void newPager_afterPaging_startsFromLargestItem() {
+        final AppDataUsageListLoader.AppItemList list =
+                new AppDataUsageListLoader.AppItemList(createItems(1, 3, 2), 3);
+        list.newPager().nextPage(2);
+
+        final List<AppItem> page = list.newPager().nextPage(2);
+
+        assertThat(list.getCount()).isEqualTo(3);
+        assertThat(page.get(0).total).isEqualTo(3);
+        assertThat(page.get(1).total).isEqualTo(2);
+    }
+
+    private static ArrayList<AppItem> createItems(long... totals) {
+        final ArrayList<AppItem> items = new ArrayList<>();
+        for (int i = 0; i < totals.length; i++) {
+            final AppItem item = new AppItem(10000 + i);
+            item.category = AppItem.CATEGORY_APP;
+            item.total = totals[i];
+            items.add(item);
+        }
+        return items;
+    }
+}
@@ -18,11 +18,14 @@ package com.android.settings.datausage;
 
 import static com.google.common.truth.Truth.assertThat;
 
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
 import static org.mockito.ArgumentMatchers.anyInt;
 import static org.mockito.Mockito.doNothing;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -39,7 +42,9 @@ import android.widget.Spinner;
 
 import androidx.fragment.app.FragmentActivity;
 import androidx.loader.app.LoaderManager;
+import androidx.preference.PreferenceGroup;
 import androidx.preference.PreferenceManager;
+import androidx.recyclerview.widget.RecyclerView;
 
 import com.android.settings.R;
 import com.android.settings.SettingsActivity;
@@ -50,6 +55,8 @@ import com.android.settingslib.AppItem;
 import com.android.settingslib.NetworkPolicyEditor;
 import com.android.settingslib.core.instrumentation.VisibilityLoggerMixin;
 import com.android.settingslib.net.NetworkCycleChartData;
+import com.android.settingslib.net.UidDetail;
+import com.android.settingslib.net.UidDetailProvider;
 
 import org.junit.Before;
 import org.junit.Test;
@@ -220,6 +227,57 @@ public class DataUsageListTest {
         assertThat(spinner.getVisibility()).isEqualTo(View.VISIBLE);
     }
 
+    @Test
+    public void bindStats_resultRedelivered_shouldBindFirstPageAgain() {
+        final PreferenceGroup apps = mock(PreferenceGroup.class);
+        final UidDetailProvider uidDetailProvider = mock(UidDetailProvider.class);
+        when(uidDetailProvider.getUidDetail(anyInt(), anyBoolean())).thenReturn(new UidDetail());
+        ReflectionHelpers.setField(mDataUsageList, "mApps", apps);
+        ReflectionHelpers.setField(mDataUsageList, "mUidDetailProvider", uidDetailProvider);
+        final ArrayList<AppItem> items = new ArrayList<>();
+        for (int i = 0; i < DataUsageList.APP_ITEMS_PAGE_SIZE + 1; i++) {
+            final AppItem item = new AppItem(10000 + i);
+            item.total = i + 1;
+            items.add(item);
+        }
+        final AppDataUsageListLoader.AppItemList appItems =
+                new AppDataUsageListLoader.AppItemList(items, items.size());
+
+        mDataUsageList.bindStats(appItems);
+        mDataUsageList.bindStats(appItems);
+
+        final ArgumentCaptor<AppDataUsagePreference> captor =
+                ArgumentCaptor.forClass(AppDataUsagePreference.class);
+        verify(apps, times(2 * DataUsageList.APP_ITEMS_PAGE_SIZE)).addPreference(captor.capture());
+        final List<AppDataUsagePreference> preferences = captor.getAllValues();
+        assertThat(preferences.get(DataUsageList.APP_ITEMS_PAGE_SIZE).getItem().total)
+                .isEqualTo(items.size());
+    }
+
+    @Test
+    public void bindNextPageIfNotScrollable_shouldBindUntilListCanScroll() {
+        final PreferenceGroup apps = mock(PreferenceGroup.class);
+        final UidDetailProvider uidDetailProvider = mock(UidDetailProvider.class);
+        when(uidDetailProvider.getUidDetail(anyInt(), anyBoolean())).thenReturn(new UidDetail());
+        ReflectionHelpers.setField(mDataUsageList, "mApps", apps);
+        ReflectionHelpers.setField(mDataUsageList, "mUidDetailProvider", uidDetailProvider);
+        final ArrayList<AppItem> items = new ArrayList<>();
+        for (int i = 0; i < 3 * DataUsageList.APP_ITEMS_PAGE_SIZE; i++) {
+            final AppItem item = new AppItem(10000 + i);
+            item.total = i + 1;
+            items.add(item);
+        }
+        mDataUsageList.bindStats(new AppDataUsageListLoader.AppItemList(items, items.size()));
+        final RecyclerView listView = mock(RecyclerView.class);
+
+        when(listView.canScrollVertically(1)).thenReturn(false);
+        mDataUsageList.bindNextPageIfNotScrollable(listView);
+        when(listView.canScrollVertically(1)).thenReturn(true);
+        mDataUsageList.bindNextPageIfNotScrollable(listView);
+
+        verify(apps, times(2 * DataUsageList.APP_ITEMS_PAGE_SIZE)).addPreference(any());
+    }
+
     @Test
     public void onPause_shouldDestroyLoaders() {
         mDataUsageList.onPause();
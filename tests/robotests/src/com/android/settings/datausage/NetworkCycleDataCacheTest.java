@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.datausage;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.net.NetworkTemplate;
+import android.os.SystemClock;
+import android.util.SparseLongArray;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.Arrays;
+import java.util.List;
+
+@RunWith(RobolectricTestRunner.class)
+public class NetworkCycleDataCacheTest {
+    private static final long CLOSED_CYCLE_START = 1521583200000L;
+    private static final long CLOSED_CYCLE_END = 1521676800000L;
+
+    private NetworkTemplate mTemplate;
+    private NetworkCycleDataCache mCache;
+
+    @Before
+    public void setUp() {
+        mTemplate = NetworkTemplate.buildTemplateWifiWildcard();
+        mCache = new NetworkCycleDataCache();
+    }
+
+    @Test
+    public void getUidSummary_afterPut_returnsSameData() {
+        final NetworkCycleDataCache.Key key = createKey(CLOSED_CYCLE_START, CLOSED_CYCLE_END,
+                NetworkCycleDataCache.DataType.UID_SUMMARY);
+        final SparseLongArray uidBytes = new SparseLongArray();
+        uidBytes.put(10001, 1024L);
+
+        mCache.putUidSummary(key, uidBytes);
+
+        assertThat(mCache.getUidSummary(createKey(CLOSED_CYCLE_START, CLOSED_CYCLE_END,
+                NetworkCycleDataCache.DataType.UID_SUMMARY))).isSameAs(uidBytes);
+        assertThat(mCache.getHitCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void getList_differentDataType_returnsNull() {
+        mCache.putList(createKey(CLOSED_CYCLE_START, CLOSED_CYCLE_END,
+                NetworkCycleDataCache.DataType.UID_CYCLES), Arrays.asList("a", "b"));
+
+        final List<String> data = mCache.getList(createKey(CLOSED_CYCLE_START, CLOSED_CYCLE_END,
+                NetworkCycleDataCache.DataType.UID_CYCLES_DETAIL));
+
+        assertThat(data).isNull();
+    }
+
+    @Test
+    public void getList_openCycleAfterTtl_returnsNull() {
+        final NetworkCycleDataCache.Key key = createKey(NetworkCycleDataCache.CYCLE_ALL,
+                NetworkCycleDataCache.CYCLE_ALL, NetworkCycleDataCache.DataType.CHART_DATA);
+        mCache.putList(key, Arrays.asList("a"));
+        assertThat(mCache.contains(key)).isTrue();
+
+        SystemClock.setCurrentTimeMillis(
+                SystemClock.elapsedRealtime() + NetworkCycleDataCache.OPEN_CYCLE_TTL_MS);
+
+        assertThat(mCache.contains(key)).isFalse();
+    }
+
+    private NetworkCycleDataCache.Key createKey(long start, long end, int type) {
+        return new NetworkCycleDataCache.Key(mTemplate, start, end,
+                NetworkCycleDataCache.UID_ALL, type);
+    }
+}
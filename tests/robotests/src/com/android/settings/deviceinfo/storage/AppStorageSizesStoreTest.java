@@ -0,0 +1,191 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.deviceinfo.storage;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.content.Context;
+import android.content.Intent;
+import android.content.pm.ApplicationInfo;
+import android.net.Uri;
+import android.os.UserHandle;
+import android.util.SparseArray;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+@RunWith(RobolectricTestRunner.class)
+public class AppStorageSizesStoreTest {
+    private static final String PACKAGE_NAME = "com.example.app";
+    private static final int SECONDARY_USER_ID = 10;
+    private static final int APP_ID = 10001;
+    private static final long MAX_AGE_MILLIS = 1000;
+    private static final long NOW = 5000;
+
+    private Context mContext;
+    private File mFile;
+    private AppStorageSizesStore mStore;
+
+    @Before
+    public void setUp() {
+        mContext = RuntimeEnvironment.application;
+        mFile = new File(mContext.getFilesDir(), "app_storage_sizes_test");
+        mFile.delete();
+        mStore = new AppStorageSizesStore(mContext, mFile, MAX_AGE_MILLIS);
+    }
+
+    @Test
+    public void putEntries_readBackAfterRestart() {
+        mStore.putEntries(0, createEntries(0, 1 /* versionCode */));
+
+        final AppStorageSizesStore store =
+                new AppStorageSizesStore(mContext, mFile, MAX_AGE_MILLIS);
+        final AppStorageSizesStore.Entry entry = store.getEntry(createAppInfo(0, 1));
+
+        assertThat(entry).isNotNull();
+        assertThat(entry.getTotalBytes()).isEqualTo(110L);
+        assertThat(entry.category).isEqualTo(ApplicationInfo.CATEGORY_VIDEO);
+    }
+
+    @Test
+    public void getEntry_otherVersion_returnsNull() {
+        mStore.putEntries(0, createEntries(0, 1 /* versionCode */));
+
+        assertThat(mStore.getEntry(createAppInfo(0, 2))).isNull();
+    }
+
+    @Test
+    public void getFreshEntry_olderThanMaxAge_returnsNull() {
+        mStore.putEntries(0, createEntries(0, 1 /* versionCode */));
+
+        assertThat(mStore.getFreshEntry(createAppInfo(0, 1), NOW + 1)).isNotNull();
+        assertThat(mStore.getFreshEntry(createAppInfo(0, 1), NOW + MAX_AGE_MILLIS)).isNull();
+    }
+
+    @Test
+    public void getAppsStorageResults_codeSizeOnlyCountedForFirstUser() {
+        mStore.putEntries(SECONDARY_USER_ID, createEntries(SECONDARY_USER_ID, 1));
+        mStore.putEntries(0, createEntries(0, 1 /* versionCode */));
+
+        final SparseArray<StorageAsyncLoader.AppsStorageResult> results =
+                mStore.getAppsStorageResults();
+
+        assertThat(results.size()).isEqualTo(2);
+        assertThat(results.get(0).videoAppsSize).isEqualTo(110L);
+        assertThat(results.get(SECONDARY_USER_ID).videoAppsSize).isEqualTo(100L);
+    }
+
+    @Test
+    public void snapshot_laterChanges_notVisible() {
+        mStore.putEntries(0, createEntries(0, 1 /* versionCode */));
+
+        final AppStorageSizesStore.Snapshot snapshot = mStore.snapshot();
+        mStore.putEntries(0, new ArrayList<>());
+
+        assertThat(snapshot.getEntry(createAppInfo(0, 1))).isNotNull();
+        assertThat(snapshot.getEntry(createAppInfo(0, 2))).isNull();
+    }
+
+    @Test
+    public void getOldestTimestamp_noRows_returnsZero() {
+        assertThat(mStore.getOldestTimestamp(0)).isEqualTo(0L);
+
+        mStore.putEntries(0, createEntries(0, 1 /* versionCode */));
+
+        assertThat(mStore.getOldestTimestamp(0)).isEqualTo(NOW);
+    }
+
+    @Test
+    public void packageBroadcast_dropsEntry() {
+        mStore.putEntries(0, createEntries(0, 1 /* versionCode */));
+
+        mStore.mPackageReceiver.onReceive(mContext, new Intent(Intent.ACTION_PACKAGE_DATA_CLEARED,
+                Uri.fromParts("package", PACKAGE_NAME, null /* fragment */)));
+
+        assertThat(mStore.getEntry(createAppInfo(0, 1))).isNull();
+    }
+
+    @Test
+    public void packageBroadcast_oldestTimestampUnusableUntilRowsPut() {
+        mStore.putEntries(0, createEntries(0, 1 /* versionCode */));
+
+        mStore.invalidate(PACKAGE_NAME);
+
+        assertThat(mStore.getOldestTimestamp(0)).isEqualTo(0L);
+        final AppStorageSizesStore store =
+                new AppStorageSizesStore(mContext, mFile, MAX_AGE_MILLIS);
+        store.getEntry(createAppInfo(0, 1));
+        assertThat(store.getOldestTimestamp(0)).isEqualTo(0L);
+
+        store.putEntries(0, createEntries(0, 1 /* versionCode */));
+        assertThat(store.getOldestTimestamp(0)).isEqualTo(NOW);
+    }
+
+    @Test
+    public void packageBroadcast_beforeFileRead_dropsEntryOnceRead() {
+        mStore.putEntries(0, createEntries(0, 1 /* versionCode */));
+        final AppStorageSizesStore store =
+                new AppStorageSizesStore(mContext, mFile, MAX_AGE_MILLIS);
+
+        store.invalidate(PACKAGE_NAME);
+
+        assertThat(store.getEntry(createAppInfo(0, 1))).isNull();
+    }
+
+    @Test
+    public void snapshot_fileNotRead_isEmpty() {
+        mStore.putEntries(0, createEntries(0, 1 /* versionCode */));
+        final AppStorageSizesStore store =
+                new AppStorageSizesStore(mContext, mFile, MAX_AGE_MILLIS);
+
+        assertThat(store.snapshot().getEntry(createAppInfo(0, 1))).isNull();
+        assertThat(store.getOldestTimestamp(0)).isEqualTo(0L);
+    }
+
+    @Test
+    public void getCategory_legacyGameFlag_countedAsGame() {
+        final ApplicationInfo info = createAppInfo(0, 1);
+        info.category = ApplicationInfo.CATEGORY_UNDEFINED;
+        info.flags = ApplicationInfo.FLAG_IS_GAME;
+
+        assertThat(AppStorageSizesStore.getCategory(info)).isEqualTo(ApplicationInfo.CATEGORY_GAME);
+    }
+
+    private static List<AppStorageSizesStore.Entry> createEntries(int userId, long versionCode) {
+        final List<AppStorageSizesStore.Entry> entries = new ArrayList<>();
+        entries.add(new AppStorageSizesStore.Entry(UserHandle.getUid(userId, APP_ID),
+                PACKAGE_NAME, versionCode, ApplicationInfo.CATEGORY_VIDEO, 10 /* codeBytes */,
+                100 /* dataBytes */, 0 /* cacheBytes */, 1000 /* cacheQuotaBytes */, NOW));
+        return entries;
+    }
+
+    private static ApplicationInfo createAppInfo(int userId, long versionCode) {
+        final ApplicationInfo info = new ApplicationInfo();
+        info.packageName = PACKAGE_NAME;
+        info.uid = UserHandle.getUid(userId, APP_ID);
+        info.longVersionCode = versionCode;
+        info.category = ApplicationInfo.CATEGORY_VIDEO;
+        return info;
+    }
+}
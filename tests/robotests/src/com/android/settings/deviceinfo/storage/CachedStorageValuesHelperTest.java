@@ -40,6 +40,7 @@ import static com.android.settings.deviceinfo.storage.CachedStorageValuesHelper.
 
 import static com.google.common.truth.Truth.assertThat;
 
+import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 
 import android.content.Context;
@@ -248,6 +249,44 @@ public class CachedStorageValuesHelperTest {
         assertThat(result).isNull();
     }
 
+    @Test
+    public void getCachedAppsStorageResult_staleStoredRows_usesCachedValues() {
+        when(mMockClock.getCurrentTime()).thenReturn(10000000L);
+        mSharedPreferences
+                .edit()
+                .putLong(GAME_APPS_SIZE_KEY, 0)
+                .putLong(MUSIC_APPS_SIZE_KEY, 10)
+                .putLong(VIDEO_APPS_SIZE_KEY, 100)
+                .putLong(PHOTO_APPS_SIZE_KEY, 1000)
+                .putLong(OTHER_APPS_SIZE_KEY, 10000)
+                .putLong(CACHE_APPS_SIZE_KEY, 100000)
+                .putLong(EXTERNAL_TOTAL_BYTES, 2)
+                .putLong(EXTERNAL_AUDIO_BYTES, 22)
+                .putLong(EXTERNAL_VIDEO_BYTES, 222)
+                .putLong(EXTERNAL_IMAGE_BYTES, 2222)
+                .putLong(EXTERNAL_APP_BYTES, 22222)
+                .putLong(FREE_BYTES_KEY, 1000L)
+                .putLong(TOTAL_BYTES_KEY, 6000L)
+                .putInt(USER_ID_KEY, 0)
+                .putLong(TIMESTAMP_KEY, 9999999L)
+                .apply();
+        final StorageAsyncLoader.AppsStorageResult stored =
+                new StorageAsyncLoader.AppsStorageResult();
+        stored.videoAppsSize = 5L;
+        final SparseArray<StorageAsyncLoader.AppsStorageResult> storedResults =
+                new SparseArray<>();
+        storedResults.put(0, stored);
+        final AppStorageSizesStore store = mock(AppStorageSizesStore.class);
+        when(store.getAppsStorageResults()).thenReturn(storedResults);
+        when(store.getOldestTimestamp(0)).thenReturn(1L);
+        mCachedValuesHelper.setAppSizesStore(store);
+
+        final SparseArray<StorageAsyncLoader.AppsStorageResult> result =
+                mCachedValuesHelper.getCachedAppsStorageResult();
+
+        assertThat(result.get(0).videoAppsSize).isEqualTo(100L);
+    }
+
     @Test
     public void getCachedPrivateStorageInfo_nullIfEmpty() {
         final PrivateStorageInfo info = mCachedValuesHelper.getCachedPrivateStorageInfo();
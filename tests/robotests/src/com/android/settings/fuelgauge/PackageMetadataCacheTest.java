@@ -0,0 +1,203 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.fuelgauge;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import android.content.Context;
+import android.content.Intent;
+import android.content.pm.ActivityInfo;
+import android.content.pm.ApplicationInfo;
+import android.content.pm.ModuleInfo;
+import android.content.pm.PackageInfo;
+import android.content.pm.PackageManager;
+import android.content.pm.ResolveInfo;
+import android.os.UserHandle;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+@RunWith(RobolectricTestRunner.class)
+public class PackageMetadataCacheTest {
+    private static final int UID = 12345;
+    private static final String PACKAGE_NAME = "com.android.app";
+    private static final String SYSTEM_PACKAGE_NAME = "com.android.system";
+    private static final long VERSION_CODE = 15;
+    private static final int BULK_UID = 10050;
+    private static final int MODULE_UID = 1073;
+    private static final String MODULE_PACKAGE_NAME = "com.android.module";
+
+    @Mock
+    private PackageManager mPackageManager;
+    private Context mContext;
+    private PackageMetadataCache mCache;
+
+    @Before
+    public void setUp() throws PackageManager.NameNotFoundException {
+        MockitoAnnotations.initMocks(this);
+        mContext = spy(RuntimeEnvironment.application);
+        doReturn(mPackageManager).when(mContext).getPackageManager();
+
+        final PackageInfo packageInfo = new PackageInfo();
+        packageInfo.packageName = PACKAGE_NAME;
+        packageInfo.setLongVersionCode(VERSION_CODE);
+        packageInfo.applicationInfo = new ApplicationInfo();
+        packageInfo.applicationInfo.targetSdkVersion = 28;
+        doReturn(Collections.singletonList(packageInfo)).when(mPackageManager)
+                .getInstalledPackages(anyInt());
+
+        final ApplicationInfo systemInfo = new ApplicationInfo();
+        systemInfo.flags = ApplicationInfo.FLAG_SYSTEM;
+        systemInfo.targetSdkVersion = 21;
+        doReturn(systemInfo).when(mPackageManager).getApplicationInfo(
+                eq(SYSTEM_PACKAGE_NAME), anyInt());
+
+        final List<ResolveInfo> resolveInfos = new ArrayList<>();
+        final ResolveInfo resolveInfo = new ResolveInfo();
+        resolveInfo.activityInfo = new ActivityInfo();
+        resolveInfo.activityInfo.packageName = PACKAGE_NAME;
+        resolveInfos.add(resolveInfo);
+        doReturn(resolveInfos).when(mPackageManager).queryIntentActivities(any(), anyInt());
+        doReturn(new String[]{PACKAGE_NAME}).when(mPackageManager).getPackagesForUid(UID);
+
+        mCache = new PackageMetadataCache(mContext);
+    }
+
+    @Test
+    public void getPackageMetadata_inBulkPass_doesNotQueryPackage()
+            throws PackageManager.NameNotFoundException {
+        final PackageMetadataCache.PackageMetadata metadata =
+                mCache.getPackageMetadata(PACKAGE_NAME);
+
+        assertThat(metadata.targetSdkVersion).isEqualTo(28);
+        assertThat(metadata.longVersionCode).isEqualTo(VERSION_CODE);
+        assertThat(metadata.isSystemApp).isFalse();
+        verify(mPackageManager, never()).getApplicationInfo(eq(PACKAGE_NAME), anyInt());
+    }
+
+    @Test
+    public void getPackageMetadata_notInBulkPass_queriesOnce()
+            throws PackageManager.NameNotFoundException {
+        mCache.getPackageMetadata(SYSTEM_PACKAGE_NAME);
+        final PackageMetadataCache.PackageMetadata metadata =
+                mCache.getPackageMetadata(SYSTEM_PACKAGE_NAME);
+
+        assertThat(metadata.isSystemApp).isTrue();
+        assertThat(metadata.targetSdkVersion).isEqualTo(21);
+        verify(mPackageManager).getApplicationInfo(eq(SYSTEM_PACKAGE_NAME), anyInt());
+        assertThat(mCache.getHitCount()).isEqualTo(1);
+        assertThat(mCache.getMissCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void getPackageMetadata_packageNotFound_returnNull()
+            throws PackageManager.NameNotFoundException {
+        doThrow(new PackageManager.NameNotFoundException()).when(mPackageManager)
+                .getApplicationInfo(eq("unknown"), anyInt());
+
+        assertThat(mCache.getPackageMetadata("unknown")).isNull();
+    }
+
+    @Test
+    public void getUidMetadata_queriedTwice_loadsPackagesOnce() {
+        mCache.getUidMetadata(UID);
+        final PackageMetadataCache.UidMetadata metadata = mCache.getUidMetadata(UID);
+
+        assertThat(metadata.packages).asList().containsExactly(PACKAGE_NAME);
+        verify(mPackageManager, times(1)).getPackagesForUid(UID);
+    }
+
+    @Test
+    public void getUidMetadata_uidInBulkPass_doesNotQueryPackages() {
+        final PackageInfo packageInfo = createPackageInfo(PACKAGE_NAME, BULK_UID);
+        final PackageInfo moduleInfo = createPackageInfo(MODULE_PACKAGE_NAME, MODULE_UID);
+        doReturn(Arrays.asList(packageInfo, moduleInfo)).when(mPackageManager)
+                .getInstalledPackages(anyInt());
+        final ModuleInfo module = new ModuleInfo()
+                .setPackageName(MODULE_PACKAGE_NAME)
+                .setHidden(true);
+        doReturn(Collections.singletonList(module)).when(mPackageManager)
+                .getInstalledModules(anyInt());
+
+        final PackageMetadataCache.UidMetadata metadata = mCache.getUidMetadata(BULK_UID);
+        final PackageMetadataCache.UidMetadata moduleMetadata =
+                mCache.getUidMetadata(MODULE_UID);
+
+        assertThat(metadata.packages).asList().containsExactly(PACKAGE_NAME);
+        assertThat(metadata.isHiddenSystemModule).isFalse();
+        assertThat(moduleMetadata.isHiddenSystemModule).isTrue();
+        verify(mPackageManager, never()).getPackagesForUid(anyInt());
+        verify(mPackageManager, times(1)).getInstalledModules(anyInt());
+    }
+
+    @Test
+    public void hasLauncherEntry_queriesLauncherActivitiesOnce() {
+        assertThat(mCache.hasLauncherEntry(new String[]{PACKAGE_NAME})).isTrue();
+        assertThat(mCache.hasLauncherEntry(new String[]{SYSTEM_PACKAGE_NAME})).isFalse();
+
+        verify(mPackageManager, times(1)).queryIntentActivities(any(), anyInt());
+    }
+
+    @Test
+    public void registerReceiver_queriedSeveralTimes_registersOnce() {
+        mCache.getUidMetadata(UID);
+        mCache.invalidate();
+        mCache.getUidMetadata(UID);
+
+        verify(mContext, times(1)).registerReceiverAsUser(any(), eq(UserHandle.ALL), any(),
+                any(), any());
+    }
+
+    @Test
+    public void onPackageChanged_invalidatesCache() {
+        mCache.getUidMetadata(UID);
+
+        mCache.mPackageReceiver.onReceive(mContext, new Intent(Intent.ACTION_PACKAGE_CHANGED));
+        mCache.getUidMetadata(UID);
+
+        verify(mPackageManager, times(2)).getPackagesForUid(UID);
+        verify(mPackageManager, times(2)).queryIntentActivities(any(), anyInt());
+    }
+
+    private static PackageInfo createPackageInfo(String packageName, int uid) {
+        final PackageInfo packageInfo = new PackageInfo();
+        packageInfo.packageName = packageName;
+        packageInfo.applicationInfo = new ApplicationInfo();
+        packageInfo.applicationInfo.uid = uid;
+        return packageInfo;
+    }
+}
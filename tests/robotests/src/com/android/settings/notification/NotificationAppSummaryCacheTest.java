@@ -0,0 +1,135 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.notification;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.content.Intent;
+import android.net.Uri;
+import android.os.SystemClock;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+@RunWith(RobolectricTestRunner.class)
+public class NotificationAppSummaryCacheTest {
+    private static final String PACKAGE_NAME = "com.example.app";
+    private static final int UID = 10001;
+
+    private NotificationAppSummaryCache mCache;
+    private AtomicInteger mLoadCount;
+
+    @Before
+    public void setUp() {
+        mCache = new NotificationAppSummaryCache(NotificationAppSummaryCache.MAX_AGE_MILLIS);
+        mLoadCount = new AtomicInteger();
+    }
+
+    @Test
+    public void get_secondQuery_isCached() {
+        assertThat(getChannelCount(3)).isEqualTo(3);
+        assertThat(getChannelCount(4)).isEqualTo(3);
+
+        assertThat(mLoadCount.get()).isEqualTo(1);
+        assertThat(mCache.getHitCount()).isEqualTo(1);
+        assertThat(mCache.getMissCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void get_loaderFails_returnsDefaultAndDoesNotCache() {
+        assertThat(mCache.get(PACKAGE_NAME, UID, NotificationAppSummaryCache.FIELD_CHANNEL_COUNT,
+                () -> {
+                    throw new IllegalStateException();
+                }, -1)).isEqualTo(-1);
+
+        assertThat(getChannelCount(3)).isEqualTo(3);
+    }
+
+    @Test
+    public void invalidate_loadsAgain() {
+        getChannelCount(3);
+        mCache.invalidate(PACKAGE_NAME, UID);
+
+        assertThat(getChannelCount(4)).isEqualTo(4);
+    }
+
+    @Test
+    public void put_overridesValue() {
+        getChannelCount(3);
+        mCache.put(PACKAGE_NAME, UID, NotificationAppSummaryCache.FIELD_CHANNEL_COUNT, 5);
+
+        assertThat(getChannelCount(4)).isEqualTo(5);
+        assertThat(mLoadCount.get()).isEqualTo(1);
+    }
+
+    @Test
+    public void get_olderThanMaxAge_loadsAgain() {
+        getChannelCount(3);
+        SystemClock.setCurrentTimeMillis(
+                SystemClock.elapsedRealtime() + NotificationAppSummaryCache.MAX_AGE_MILLIS);
+
+        assertThat(getChannelCount(4)).isEqualTo(4);
+    }
+
+    @Test
+    public void get_invalidatedWhileLoading_doesNotStoreStaleValue() {
+        assertThat(mCache.get(PACKAGE_NAME, UID, NotificationAppSummaryCache.FIELD_CHANNEL_COUNT,
+                () -> {
+                    mCache.invalidate(PACKAGE_NAME, UID);
+                    return 3;
+                }, 0)).isEqualTo(3);
+
+        assertThat(getChannelCount(4)).isEqualTo(4);
+    }
+
+    @Test
+    public void put_prunesExpiredEntries() {
+        getChannelCount(3);
+        SystemClock.setCurrentTimeMillis(
+                SystemClock.elapsedRealtime() + NotificationAppSummaryCache.MAX_AGE_MILLIS);
+
+        mCache.put("other.package", UID + 1, NotificationAppSummaryCache.FIELD_CHANNEL_COUNT, 1);
+
+        assertThat(mCache.getSize()).isEqualTo(1);
+    }
+
+    @Test
+    public void packageBroadcast_dropsEntry() {
+        getChannelCount(3);
+        final Intent intent = new Intent(Intent.ACTION_PACKAGE_CHANGED,
+                Uri.fromParts("package", PACKAGE_NAME, null /* fragment */));
+        intent.putExtra(Intent.EXTRA_UID, UID);
+
+        mCache.mPackageReceiver.onReceive(RuntimeEnvironment.application, intent);
+
+        assertThat(getChannelCount(4)).isEqualTo(4);
+        assertThat(mCache.getSize()).isEqualTo(1);
+    }
+
+    private int getChannelCount(int value) {
+        return mCache.get(PACKAGE_NAME, UID, NotificationAppSummaryCache.FIELD_CHANNEL_COUNT,
+                () -> {
+                    mLoadCount.incrementAndGet();
+                    return value;
+                }, 0);
+    }
+}
@@ -25,12 +25,11 @@ import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 
 import android.app.role.RoleManager;
-import android.app.usage.UsageEvents;
 import android.content.pm.ApplicationInfo;
 import android.content.pm.PackageInfo;
 import android.content.pm.PackageManager;
-import android.os.Parcel;
 
+import com.android.settings.applications.AppStateNotificationBridge.NotificationsSentState;
 import com.android.settings.notification.NotificationBackend.AppRow;
 
 import org.junit.Test;
@@ -39,7 +38,9 @@ import org.robolectric.RobolectricTestRunner;
 import org.robolectric.RuntimeEnvironment;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 @RunWith(RobolectricTestRunner.class)
 public class NotificationBackendTest {
@@ -93,31 +94,15 @@ public class NotificationBackendTest {
     }
 
     @Test
-    public void testGetAggregatedUsageEvents_multipleEventsAgg() {
-        List<UsageEvents.Event> events = new ArrayList<>();
-        UsageEvents.Event good = new UsageEvents.Event();
-        good.mEventType = UsageEvents.Event.NOTIFICATION_INTERRUPTION;
-        good.mPackage = "pkg";
-        good.mNotificationChannelId = "channel1";
-        good.mTimeStamp = 2;
-        events.add(good);
-        UsageEvents.Event good2 = new UsageEvents.Event();
-        good2.mEventType = UsageEvents.Event.NOTIFICATION_INTERRUPTION;
-        good2.mPackage = "pkg";
-        good2.mNotificationChannelId = "channel2";
-        good2.mTimeStamp = 3;
-        events.add(good2);
-        UsageEvents.Event good1 = new UsageEvents.Event();
-        good1.mEventType = UsageEvents.Event.NOTIFICATION_INTERRUPTION;
-        good1.mPackage = "pkg";
-        good1.mNotificationChannelId = "channel1";
-        good1.mTimeStamp = 6;
-        events.add(good1);
+    public void testRecordAggregatedUsageEvents_multipleChannelsAgg() {
+        final Map<String, NotificationsSentState> sentByChannel = new HashMap<>();
+        sentByChannel.put("channel1", createSentState(2 /* sentCount */, 6 /* lastSent */));
+        sentByChannel.put("channel2", createSentState(1 /* sentCount */, 3 /* lastSent */));
         NotificationBackend backend = new NotificationBackend();
 
         AppRow appRow = new AppRow();
         appRow.pkg = "pkg";
-        backend.recordAggregatedUsageEvents(getUsageEvents(events), appRow);
+        backend.recordAggregatedUsageEvents(sentByChannel, appRow);
 
         assertThat(appRow.sentByChannel.get("channel1").sentCount).isEqualTo(2);
         assertThat(appRow.sentByChannel.get("channel1").lastSent).isEqualTo(6);
@@ -130,12 +115,10 @@ public class NotificationBackendTest {
         assertThat(appRow.sentByApp.avgSentWeekly).isEqualTo(3);
     }
 
-    private UsageEvents getUsageEvents(List<UsageEvents.Event> events) {
-        UsageEvents usageEvents = new UsageEvents(events, new String[] {"pkg"});
-        Parcel parcel = Parcel.obtain();
-        parcel.setDataPosition(0);
-        usageEvents.writeToParcel(parcel, 0);
-        parcel.setDataPosition(0);
-        return UsageEvents.CREATOR.createFromParcel(parcel);
+    private static NotificationsSentState createSentState(int sentCount, long lastSent) {
+        final NotificationsSentState state = new NotificationsSentState();
+        state.sentCount = sentCount;
+        state.lastSent = lastSent;
+        return state;
     }
 }
@@ -0,0 +1,198 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.notification;
+
+import static android.text.format.DateUtils.DAY_IN_MILLIS;
+import static android.text.format.DateUtils.HOUR_IN_MILLIS;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import android.app.usage.IUsageStatsManager;
+import android.app.usage.UsageEvents;
+import android.app.usage.UsageEvents.Event;
+import android.os.Parcel;
+
+import com.android.settings.applications.AppStateNotificationBridge.NotificationsSentState;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+
+@RunWith(RobolectricTestRunner.class)
+public class NotificationUsageStoreTest {
+    private static final String PKG = "pkg";
+    private static final String CHANNEL = "channel";
+    private static final long NOW = 100 * DAY_IN_MILLIS;
+
+    @Mock
+    private IUsageStatsManager mUsageStats;
+    private File mFile;
+    private NotificationUsageStore mStore;
+    private TimeZone mDefaultTimeZone;
+
+    @Before
+    public void setUp() {
+        MockitoAnnotations.initMocks(this);
+        mDefaultTimeZone = TimeZone.getDefault();
+        TimeZone.setDefault(TimeZone.getTimeZone("UTC"));
+        mFile = new File(RuntimeEnvironment.application.getFilesDir(), "usage_test");
+        mFile.delete();
+        mStore = new NotificationUsageStore(0, mFile);
+    }
+
+    @After
+    public void tearDown() {
+        TimeZone.setDefault(mDefaultTimeZone);
+    }
+
+    @Test
+    public void refresh_secondTime_queriesFromWatermark() throws Exception {
+        when(mUsageStats.queryEventsForUser(anyLong(), anyLong(), anyInt(), anyString()))
+                .thenReturn(getUsageEvents(createEvent(NOW - 1)));
+        mStore.refresh(mUsageStats, PKG, NOW);
+
+        when(mUsageStats.queryEventsForUser(anyLong(), anyLong(), anyInt(), anyString()))
+                .thenReturn(getUsageEvents(createEvent(NOW + 1)));
+        mStore.refresh(mUsageStats, PKG, NOW + 2);
+
+        verify(mUsageStats).queryEventsForUser(eq(NOW), eq(NOW + 2), eq(0), eq(PKG));
+        final NotificationsSentState state = mStore.getSentStates().get(PKG);
+        assertThat(state.sentCount).isEqualTo(2);
+        assertThat(state.lastSent).isEqualTo(NOW + 1);
+    }
+
+    @Test
+    public void refresh_afterWindow_expiresOldBuckets() throws Exception {
+        when(mUsageStats.queryEventsForUser(anyLong(), anyLong(), anyInt(), anyString()))
+                .thenReturn(getUsageEvents(createEvent(NOW - 1)));
+        mStore.refresh(mUsageStats, PKG, NOW);
+
+        when(mUsageStats.queryEventsForUser(anyLong(), anyLong(), anyInt(), anyString()))
+                .thenReturn(null);
+        mStore.refresh(mUsageStats, PKG,
+                NOW + (NotificationUsageStore.DAYS_TO_CHECK + 2) * DAY_IN_MILLIS);
+
+        assertThat(mStore.getSentStates()).isEmpty();
+    }
+
+    @Test
+    public void refresh_clockMovedBackwards_queriesFromNow() throws Exception {
+        when(mUsageStats.queryEventsForUser(anyLong(), anyLong(), anyInt(), anyString()))
+                .thenReturn(null);
+        mStore.refresh(mUsageStats, PKG, NOW);
+        mStore.refresh(mUsageStats, PKG, NOW - 10);
+
+        verify(mUsageStats).queryEventsForUser(eq(NOW - 10), eq(NOW - 10), eq(0), eq(PKG));
+    }
+
+    @Test
+    public void refresh_window_coversDaysToCheckBuckets() throws Exception {
+        final long firstDayStart = NOW - (NotificationUsageStore.DAYS_TO_CHECK - 1) * DAY_IN_MILLIS;
+        when(mUsageStats.queryEventsForUser(anyLong(), anyLong(), anyInt(), anyString()))
+                .thenReturn(null);
+        mStore.refresh(mUsageStats, PKG, NOW + 1);
+
+        verify(mUsageStats).queryEventsForUser(eq(firstDayStart), eq(NOW + 1), eq(0), eq(PKG));
+    }
+
+    @Test
+    public void refresh_window_startsAtLocalMidnight() throws Exception {
+        TimeZone.setDefault(TimeZone.getTimeZone("GMT-08:00"));
+        // NOW is 16:00 of the previous local day
+        final long localMidnight = NOW - 16 * HOUR_IN_MILLIS;
+        final long firstDayStart =
+                localMidnight - (NotificationUsageStore.DAYS_TO_CHECK - 1) * DAY_IN_MILLIS;
+        when(mUsageStats.queryEventsForUser(anyLong(), anyLong(), anyInt(), anyString()))
+                .thenReturn(null);
+        mStore.refresh(mUsageStats, PKG, NOW + 1);
+
+        verify(mUsageStats).queryEventsForUser(eq(firstDayStart), eq(NOW + 1), eq(0), eq(PKG));
+    }
+
+    @Test
+    public void getSentState_returnsStateOfPackage() throws Exception {
+        when(mUsageStats.queryEventsForUser(anyLong(), anyLong(), anyInt(), anyString()))
+                .thenReturn(getUsageEvents(createEvent(NOW - 1)));
+        mStore.refresh(mUsageStats, PKG, NOW);
+
+        assertThat(mStore.getSentState(PKG).sentCount).isEqualTo(1);
+        assertThat(mStore.getSentState(PKG).lastSent).isEqualTo(NOW - 1);
+        assertThat(mStore.getSentState("other")).isNull();
+    }
+
+    @Test
+    public void refresh_nothingChanged_doesNotWrite() throws Exception {
+        when(mUsageStats.queryEventsForUser(anyLong(), anyLong(), anyInt(), anyString()))
+                .thenReturn(null);
+        mStore.refresh(mUsageStats, PKG, NOW);
+
+        assertThat(mFile.exists()).isFalse();
+    }
+
+    @Test
+    public void getSentStatesByChannel_newInstance_readsFromDisk() throws Exception {
+        when(mUsageStats.queryEventsForUser(anyLong(), anyLong(), anyInt(), anyString()))
+                .thenReturn(getUsageEvents(createEvent(NOW - 1)));
+        mStore.refresh(mUsageStats, PKG, NOW);
+
+        final NotificationUsageStore store = new NotificationUsageStore(0, mFile);
+        when(mUsageStats.queryEventsForUser(anyLong(), anyLong(), anyInt(), anyString()))
+                .thenReturn(null);
+        store.refresh(mUsageStats, PKG, NOW + 1);
+
+        final Map<String, NotificationsSentState> states = store.getSentStatesByChannel(PKG);
+        assertThat(states.get(CHANNEL).sentCount).isEqualTo(1);
+    }
+
+    private static Event createEvent(long timestamp) {
+        final Event event = new Event();
+        event.mEventType = Event.NOTIFICATION_INTERRUPTION;
+        event.mPackage = PKG;
+        event.mNotificationChannelId = CHANNEL;
+        event.mTimeStamp = timestamp;
+        return event;
+    }
+
+    private static UsageEvents getUsageEvents(Event event) {
+        final List<Event> events = new ArrayList<>();
+        events.add(event);
+        final UsageEvents usageEvents = new UsageEvents(events, new String[] {PKG, CHANNEL});
+        final Parcel parcel = Parcel.obtain();
+        parcel.setDataPosition(0);
+        usageEvents.writeToParcel(parcel, 0);
+        parcel.setDataPosition(0);
+        return UsageEvents.CREATOR.createFromParcel(parcel);
+    }
+}
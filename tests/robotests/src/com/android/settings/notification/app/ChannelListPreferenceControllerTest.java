@@ -0,0 +1,131 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.notification.app;
+
+import static android.app.NotificationManager.IMPORTANCE_DEFAULT;
+import static android.app.NotificationManager.IMPORTANCE_NONE;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.app.NotificationChannel;
+import android.app.NotificationChannelGroup;
+import android.content.Context;
+
+import androidx.preference.Preference;
+import androidx.preference.PreferenceCategory;
+import androidx.preference.PreferenceGroup;
+import androidx.preference.PreferenceManager;
+import androidx.preference.PreferenceScreen;
+
+import com.android.settings.notification.NotificationBackend;
+import com.android.settings.widget.MasterSwitchPreference;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.ArrayList;
+import java.util.List;
+
+@RunWith(RobolectricTestRunner.class)
+public class ChannelListPreferenceControllerTest {
+    private static final String GROUP_ID = "group";
+
+    @Mock
+    private NotificationBackend mBackend;
+
+    private Context mContext;
+    private ChannelListPreferenceController mController;
+    private PreferenceCategory mPreference;
+
+    @Before
+    public void setUp() {
+        MockitoAnnotations.initMocks(this);
+        mContext = RuntimeEnvironment.application;
+        mController = new ChannelListPreferenceController(mContext, mBackend);
+        NotificationBackend.AppRow appRow = new NotificationBackend.AppRow();
+        appRow.pkg = "pkg";
+        appRow.uid = 1;
+        mController.onResume(appRow, null, null, null, null, null);
+
+        final PreferenceManager preferenceManager = new PreferenceManager(mContext);
+        final PreferenceScreen screen = preferenceManager.createPreferenceScreen(mContext);
+        mPreference = new PreferenceCategory(mContext);
+        screen.addPreference(mPreference);
+    }
+
+    @Test
+    public void populateList_reloadKeepsUnchangedRows() {
+        mController.populateList(mPreference, createGroups(2));
+        final PreferenceGroup category = mPreference.findPreference(GROUP_ID);
+        final Preference first = category.findPreference("channel00");
+        final Preference second = category.findPreference("channel01");
+
+        final List<NotificationChannelGroup> groups = createGroups(2);
+        groups.get(0).getChannels().get(1).setImportance(IMPORTANCE_NONE);
+        mController.populateList(mPreference, groups);
+
+        assertThat(mPreference.findPreference(GROUP_ID)).isSameAs(category);
+        assertThat(category.findPreference("channel00")).isSameAs(first);
+        assertThat(category.findPreference("channel01")).isSameAs(second);
+        assertThat(((MasterSwitchPreference) second).isChecked()).isFalse();
+    }
+
+    @Test
+    public void populateList_removedChannel_dropsRow() {
+        mController.populateList(mPreference, createGroups(2));
+        mController.populateList(mPreference, createGroups(1));
+
+        final PreferenceGroup category = mPreference.findPreference(GROUP_ID);
+        assertThat(category.findPreference("channel00")).isNotNull();
+        assertThat(category.findPreference("channel01")).isNull();
+    }
+
+    @Test
+    public void populateList_largeGroup_showsMoreOnClick() {
+        final int channelCount = ChannelListPreferenceController.MAX_INITIAL_CHANNELS + 5;
+        mController.populateList(mPreference, createGroups(channelCount));
+        final PreferenceGroup category = mPreference.findPreference(GROUP_ID);
+        final String lastKey = "channel" + (channelCount - 1);
+
+        assertThat(category.findPreference(lastKey)).isNull();
+        final Preference seeMore = category.findPreference(GROUP_ID + ":see_more");
+        assertThat(seeMore).isNotNull();
+
+        seeMore.getOnPreferenceClickListener().onPreferenceClick(seeMore);
+
+        assertThat(category.findPreference(lastKey)).isNotNull();
+        assertThat(category.findPreference(GROUP_ID + ":see_more")).isNull();
+    }
+
+    private static List<NotificationChannelGroup> createGroups(int channelCount) {
+        final NotificationChannelGroup group = new NotificationChannelGroup(GROUP_ID, "Group");
+        for (int i = 0; i < channelCount; i++) {
+            final NotificationChannel channel = new NotificationChannel(
+                    String.format("channel%02d", i), "Channel " + i, IMPORTANCE_DEFAULT);
+            channel.setGroup(GROUP_ID);
+            group.addChannel(channel);
+        }
+        final List<NotificationChannelGroup> groups = new ArrayList<>();
+        groups.add(group);
+        return groups;
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.notification.history;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+import android.app.INotificationManager;
+import android.app.NotificationHistory.HistoricalNotification;
+
+import com.android.internal.logging.UiEventLogger;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.ArrayList;
+import java.util.List;
+
+@RunWith(RobolectricTestRunner.class)
+public class NotificationHistoryAdapterTest {
+    private static final String PACKAGE_NAME = "com.example.app";
+
+    private NotificationHistoryAdapter.OnItemDeletedListener mListener;
+    private NotificationHistoryAdapter mAdapter;
+
+    @Before
+    public void setUp() {
+        mListener = mock(NotificationHistoryAdapter.OnItemDeletedListener.class);
+        mAdapter = new NotificationHistoryAdapter(mock(INotificationManager.class),
+                mock(NotificationHistoryRecyclerView.class), mListener,
+                mock(UiEventLogger.class));
+    }
+
+    @Test
+    public void onRebuildComplete_showsFirstPage() {
+        mAdapter.onRebuildComplete(createNotifications(NotificationHistoryAdapter.PAGE_SIZE + 1));
+
+        assertThat(mAdapter.getItemCount()).isEqualTo(NotificationHistoryAdapter.PAGE_SIZE);
+        assertThat(mAdapter.hasNextPage()).isTrue();
+    }
+
+    @Test
+    public void loadNextPage_showsRemainingNotifications() {
+        mAdapter.onRebuildComplete(createNotifications(NotificationHistoryAdapter.PAGE_SIZE + 1));
+
+        mAdapter.loadNextPage();
+
+        assertThat(mAdapter.getItemCount()).isEqualTo(NotificationHistoryAdapter.PAGE_SIZE + 1);
+        assertThat(mAdapter.hasNextPage()).isFalse();
+    }
+
+    @Test
+    public void onItemSwipeDeleted_reportsCountOfAllNotifications() {
+        final int total = NotificationHistoryAdapter.PAGE_SIZE + 5;
+        mAdapter.onRebuildComplete(createNotifications(total));
+
+        mAdapter.onItemSwipeDeleted(0);
+
+        assertThat(mAdapter.getItemCount()).isEqualTo(NotificationHistoryAdapter.PAGE_SIZE - 1);
+        verify(mListener).onItemDeleted(total - 1);
+    }
+
+    private static List<HistoricalNotification> createNotifications(int count) {
+        final List<HistoricalNotification> notifications = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            notifications.add(new HistoricalNotification.Builder()
+                    .setPackage(PACKAGE_NAME)
+                    .setChannelId("channel")
+                    .setTitle("title " + i)
+                    .setPostedTimeMs(i)
+                    .build());
+        }
+        return notifications;
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.notification.history;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.android.settings.notification.history.NotificationStation.HistoricalNotificationInfo;
+import com.android.settings.notification.history.NotificationStation.NotificationLog;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+@RunWith(RobolectricTestRunner.class)
+public class NotificationStationTest {
+
+    @Test
+    public void notificationLog_newestFirst() {
+        final NotificationLog log = new NotificationLog(3 /* capacity */);
+        final HistoricalNotificationInfo first = createInfo("a");
+        final HistoricalNotificationInfo second = createInfo("b");
+
+        log.addFirst(first);
+        log.addFirst(second);
+
+        assertThat(log.size()).isEqualTo(2);
+        assertThat(log.get(0)).isSameInstanceAs(second);
+        assertThat(log.get(1)).isSameInstanceAs(first);
+    }
+
+    @Test
+    public void notificationLog_full_evictsOldest() {
+        final NotificationLog log = new NotificationLog(2 /* capacity */);
+        final HistoricalNotificationInfo oldest = createInfo("a");
+        log.addFirst(oldest);
+        log.addFirst(createInfo("b"));
+
+        final HistoricalNotificationInfo evicted = log.addFirst(createInfo("c"));
+
+        assertThat(evicted).isSameInstanceAs(oldest);
+        assertThat(log.size()).isEqualTo(2);
+        assertThat(log.getLatest("a")).isNull();
+        assertThat(log.get(1).key).isEqualTo("b");
+    }
+
+    @Test
+    public void notificationLog_getLatest_returnsNewestRecordOfKey() {
+        final NotificationLog log = new NotificationLog(2 /* capacity */);
+        log.addFirst(createInfo("a"));
+        final HistoricalNotificationInfo reposted = createInfo("a");
+        log.addFirst(reposted);
+
+        // Dropping the older record of the key keeps the index on the newer one.
+        log.addFirst(createInfo("b"));
+
+        assertThat(log.getLatest("a")).isSameInstanceAs(reposted);
+    }
+
+    private static HistoricalNotificationInfo createInfo(String key) {
+        final HistoricalNotificationInfo info = new HistoricalNotificationInfo();
+        info.key = key;
+        return info;
+    }
+}
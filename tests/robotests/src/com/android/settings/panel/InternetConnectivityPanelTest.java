@@ -57,4 +57,9 @@ public class InternetConnectivityPanelTest {
     public void getSeeMoreIntent_notNull() {
         assertThat(mPanel.getSeeMoreIntent()).isNotNull();
     }
+
+    @Test
+    public void isProgressiveLoadingEnabled_returnsTrue() {
+        assertThat(mPanel.isProgressiveLoadingEnabled()).isTrue();
+    }
 }
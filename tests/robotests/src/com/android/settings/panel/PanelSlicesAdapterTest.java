@@ -127,6 +127,57 @@ public class PanelSlicesAdapterTest {
         assertThat(adapter.getData().size()).isEqualTo(MAX_NUM_OF_SLICES);
     }
 
+    @Test
+    public void removeSlice_shouldShowNextSliceOverMaxNum() {
+        for (int i = 0; i < MAX_NUM_OF_SLICES + 1; i++) {
+            addTestLiveData(Uri.parse("uri" + i));
+        }
+        final PanelSlicesAdapter adapter =
+                new PanelSlicesAdapter(mPanelFragment, mData, 0 /* metrics category */);
+
+        adapter.removeSlice(Uri.parse("uri0"));
+
+        assertThat(adapter.getItemCount()).isEqualTo(MAX_NUM_OF_SLICES);
+        assertThat(adapter.getData().get(0)).isSameAs(mData.get(Uri.parse("uri1")));
+        assertThat(adapter.getData().get(MAX_NUM_OF_SLICES - 1))
+                .isSameAs(mData.get(Uri.parse("uri" + MAX_NUM_OF_SLICES)));
+    }
+
+    @Test
+    public void loadingSlice_shouldKeepPlaceholderHeight() {
+        final LiveData<Slice> liveData = mock(LiveData.class);
+        mData.put(VOLUME_MEDIA_URI, liveData);
+
+        final PanelSlicesAdapter adapter =
+                new PanelSlicesAdapter(mPanelFragment, mData, 0 /* metrics category */);
+        final ViewGroup view = new FrameLayout(mContext);
+        final SliceRowViewHolder viewHolder = adapter.onCreateViewHolder(view, 0 /* viewType */);
+        adapter.onBindViewHolder(viewHolder, 0 /* position */);
+
+        assertThat(viewHolder.itemView.getMinimumHeight()).isEqualTo(
+                mPanelFragment.getResources().getDimensionPixelSize(
+                        R.dimen.panel_slice_placeholder_height));
+    }
+
+    @Test
+    public void loadedSlice_shouldDropPlaceholderHeight() {
+        final LiveData<Slice> liveData = mock(LiveData.class);
+        mData.put(VOLUME_MEDIA_URI, liveData);
+        final PanelSlicesAdapter adapter =
+                new PanelSlicesAdapter(mPanelFragment, mData, 0 /* metrics category */);
+        final ViewGroup view = new FrameLayout(mContext);
+        final SliceRowViewHolder viewHolder = adapter.onCreateViewHolder(view, 0 /* viewType */);
+        adapter.onBindViewHolder(viewHolder, 0 /* position */);
+
+        final Slice slice = spy(new Slice());
+        doReturn(VOLUME_MEDIA_URI).when(slice).getUri();
+        when(liveData.getValue()).thenReturn(slice);
+        adapter.onBindViewHolder(viewHolder, 0 /* position */);
+
+        assertThat(viewHolder.itemView.getMinimumHeight()).isEqualTo(0);
+        assertThat(viewHolder.isDividerAllowedAbove()).isTrue();
+    }
+
     @Test
     public void mediaOutputIndicatorSlice_shouldNotAllowDividerAbove() {
         addTestLiveData(MEDIA_OUTPUT_INDICATOR_SLICE_URI);
@@ -60,6 +60,19 @@ public class PanelSlicesLoaderCountdownLatchTest {
         assertThat(mSliceCountdownLatch.isSliceLoaded(URIS[0])).isTrue();
     }
 
+    @Test
+    public void hasLoadedSlices_newObject_returnsFalse() {
+        assertThat(mSliceCountdownLatch.hasLoadedSlices()).isFalse();
+    }
+
+    @Test
+    public void hasLoadedSlices_oneSliceLoaded_returnsTrue() {
+        mSliceCountdownLatch.markSliceLoaded(URIS[0]);
+
+        assertThat(mSliceCountdownLatch.hasLoadedSlices()).isTrue();
+        assertThat(mSliceCountdownLatch.isPanelReadyToLoad()).isFalse();
+    }
+
     @Test
     public void markSliceLoaded_onlyCountsDownUniqueUris() {
         for (int i = 0; i < URIS.length; i++) {
@@ -0,0 +1,154 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.search;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.content.Intent;
+import android.content.pm.ActivityInfo;
+import android.net.Uri;
+
+import com.android.settings.search.InjectedTileIndexCache.TileText;
+import com.android.settingslib.drawer.ActivityTile;
+import com.android.settingslib.drawer.CategoryKey;
+import com.android.settingslib.drawer.Tile;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+@RunWith(RobolectricTestRunner.class)
+public class InjectedTileIndexCacheTest {
+    private static final String PACKAGE_NAME = "com.example.app";
+    private static final String KEY = "dashboard_tile_pref_com.example.app.Settings";
+    private static final String LOCALE_TAGS = "en-US";
+
+    private InjectedTileIndexCache mCache;
+    private Tile mTile;
+    private AtomicInteger mLoadCount;
+
+    @Before
+    public void setUp() {
+        mCache = new InjectedTileIndexCache();
+        final ActivityInfo activityInfo = new ActivityInfo();
+        activityInfo.packageName = PACKAGE_NAME;
+        activityInfo.name = PACKAGE_NAME + ".Settings";
+        mTile = new ActivityTile(activityInfo, CategoryKey.CATEGORY_SYSTEM);
+        mLoadCount = new AtomicInteger();
+    }
+
+    @Test
+    public void getTileTexts_secondQuery_isCached() {
+        assertThat(getTitle(LOCALE_TAGS, "Title")).isEqualTo("Title");
+        assertThat(getTitle(LOCALE_TAGS, "New title")).isEqualTo("Title");
+
+        assertThat(mLoadCount.get()).isEqualTo(1);
+        assertThat(mCache.getHitCount()).isEqualTo(1);
+        assertThat(mCache.getMissCount()).isEqualTo(1);
+        assertThat(mCache.getSize()).isEqualTo(1);
+    }
+
+    @Test
+    public void getTileTexts_newLocale_loadsAgain() {
+        getTitle(LOCALE_TAGS, "Title");
+
+        assertThat(getTitle("fr-FR", "Titre")).isEqualTo("Titre");
+        assertThat(mCache.getSize()).isEqualTo(1);
+    }
+
+    @Test
+    public void getTileTexts_loaderFails_returnsNullAndDoesNotCache() {
+        final List<TileText> texts = mCache.getTileTexts(Collections.singletonList(mTile),
+                Collections.singletonList(KEY), LOCALE_TAGS, tile -> {
+                    throw new IllegalStateException();
+                });
+
+        assertThat(texts).containsExactly((TileText) null);
+        assertThat(getTitle(LOCALE_TAGS, "Title")).isEqualTo("Title");
+    }
+
+    @Test
+    public void getTileTexts_noTitle_isCached() {
+        for (int i = 0; i < 2; i++) {
+            final List<TileText> texts = mCache.getTileTexts(Collections.singletonList(mTile),
+                    Collections.singletonList(KEY), LOCALE_TAGS, tile -> {
+                        mLoadCount.incrementAndGet();
+                        return TileText.NO_TITLE;
+                    });
+            assertThat(texts).containsExactly(TileText.NO_TITLE);
+        }
+
+        assertThat(mLoadCount.get()).isEqualTo(1);
+    }
+
+    @Test
+    public void getTileTexts_severalTiles_keepsOrder() {
+        final ActivityInfo activityInfo = new ActivityInfo();
+        activityInfo.packageName = "com.example.other";
+        activityInfo.name = "com.example.other.Settings";
+        final Tile otherTile = new ActivityTile(activityInfo, CategoryKey.CATEGORY_SYSTEM);
+
+        final List<TileText> texts = mCache.getTileTexts(Arrays.asList(mTile, otherTile),
+                Arrays.asList(KEY, "other"), LOCALE_TAGS,
+                tile -> new TileText(tile.getPackageName(), null /* summary */));
+
+        assertThat(texts.get(0).mTitle).isEqualTo(PACKAGE_NAME);
+        assertThat(texts.get(1).mTitle).isEqualTo("com.example.other");
+    }
+
+    @Test
+    public void packageBroadcast_dropsEntry() {
+        getTitle(LOCALE_TAGS, "Title");
+        final Intent intent = new Intent(Intent.ACTION_PACKAGE_REPLACED,
+                Uri.fromParts("package", PACKAGE_NAME, null /* fragment */));
+
+        mCache.mPackageReceiver.onReceive(RuntimeEnvironment.application, intent);
+
+        assertThat(mCache.getSize()).isEqualTo(0);
+        assertThat(getTitle(LOCALE_TAGS, "New title")).isEqualTo("New title");
+    }
+
+    @Test
+    public void getTileTexts_invalidatedWhileLoading_doesNotCache() {
+        final List<TileText> texts = mCache.getTileTexts(Collections.singletonList(mTile),
+                Collections.singletonList(KEY), LOCALE_TAGS, tile -> {
+                    mCache.invalidate(PACKAGE_NAME);
+                    return new TileText("Stale title", null /* summary */);
+                });
+
+        assertThat(texts.get(0).mTitle).isEqualTo("Stale title");
+        assertThat(mCache.getSize()).isEqualTo(0);
+        assertThat(getTitle(LOCALE_TAGS, "New title")).isEqualTo("New title");
+        assertThat(getTitle(LOCALE_TAGS, "Newer title")).isEqualTo("New title");
+    }
+
+    private String getTitle(String localeTags, String title) {
+        final List<TileText> texts = mCache.getTileTexts(Collections.singletonList(mTile),
+                Collections.singletonList(KEY), localeTags, tile -> {
+                    mLoadCount.incrementAndGet();
+                    return new TileText(title, null /* summary */);
+                });
+        return texts.get(0).mTitle;
+    }
+}
@@ -19,9 +19,17 @@ package com.android.settings.search;
 
 import static com.google.common.truth.Truth.assertThat;
 
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.verify;
+
 import android.app.Activity;
 import android.app.settings.SettingsEnums;
 import android.content.ComponentName;
+import android.content.Context;
 import android.content.Intent;
 import android.content.pm.ActivityInfo;
 import android.content.pm.ResolveInfo;
@@ -30,6 +38,7 @@ import android.provider.Settings;
 import android.widget.Toolbar;
 
 import com.android.settings.R;
+import com.android.settings.search.embedded.EmbeddedSearchEngine;
 import com.android.settings.testutils.FakeFeatureFactory;
 import com.android.settings.testutils.shadow.ShadowUtils;
 
@@ -110,6 +119,35 @@ public class SearchFeatureProviderImplTest {
         assertThat(Shadows.shadowOf(mActivity).getNextStartedActivity()).isNull();
     }
 
+    @Test
+    public void initSearchToolbar_noSettingsIntelligence_shouldUpdateEmbeddedSearchIndex() {
+        final SearchFeatureProviderImpl provider = spy(mProvider);
+        final EmbeddedSearchEngine engine = mock(EmbeddedSearchEngine.class);
+        doReturn(engine).when(provider).getEmbeddedSearchEngine(any(Context.class));
+        final Toolbar toolbar = new Toolbar(mActivity);
+        // This ensures navigationView is created.
+        toolbar.setNavigationContentDescription("test");
+
+        provider.initSearchToolbar(mActivity, toolbar, SettingsEnums.TESTING);
+
+        verify(engine).updateIndexAsync();
+    }
+
+    @Test
+    public void initSearchToolbar_deviceNotProvisioned_shouldNotUpdateEmbeddedSearchIndex() {
+        final SearchFeatureProviderImpl provider = spy(mProvider);
+        final EmbeddedSearchEngine engine = mock(EmbeddedSearchEngine.class);
+        doReturn(engine).when(provider).getEmbeddedSearchEngine(any(Context.class));
+        final Toolbar toolbar = new Toolbar(mActivity);
+        toolbar.setNavigationContentDescription("test");
+        Settings.Global.putInt(mActivity.getContentResolver(),
+                Settings.Global.DEVICE_PROVISIONED, 0);
+
+        provider.initSearchToolbar(mActivity, toolbar, SettingsEnums.TESTING);
+
+        verify(engine, never()).updateIndexAsync();
+    }
+
     @Test
     public void buildSearchIntent_shouldIncludeReferrer() {
         final Intent searchIntent = mProvider.buildSearchIntent(mActivity, SettingsEnums.TESTING);
@@ -2,14 +2,18 @@ package com.android.settings.search;
 
 import static com.google.common.truth.Truth.assertThat;
 
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.spy;
 
 import android.Manifest;
+import android.content.Context;
 import android.content.pm.ActivityInfo;
 import android.content.pm.ProviderInfo;
 import android.database.Cursor;
 import android.net.Uri;
+import android.provider.SearchIndexableResource;
 import android.provider.SearchIndexablesContract;
 
 import com.android.settings.R;
@@ -27,13 +31,16 @@ import org.robolectric.RuntimeEnvironment;
 import org.robolectric.annotation.Config;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
 @RunWith(RobolectricTestRunner.class)
 public class SettingsSearchIndexablesProviderTest {
 
     private static final String PACKAGE_NAME = "com.android.settings";
     private static final String BASE_AUTHORITY = "content://" + PACKAGE_NAME + "/";
+    private static final String VERSION_STAMP = "version_stamp";
 
     private SettingsSearchIndexablesProvider mProvider;
     private FakeFeatureFactory mFakeFeatureFactory;
@@ -55,6 +62,7 @@ public class SettingsSearchIndexablesProviderTest {
                         FakeSettingsFragment.SEARCH_INDEX_DATA_PROVIDER));
         mFakeFeatureFactory = FakeFeatureFactory.setupForTest();
         mFakeFeatureFactory.searchFeatureProvider = featureProvider;
+        doReturn(VERSION_STAMP).when(mProvider).getVersionStamp(any(Context.class));
     }
 
     @After
@@ -120,6 +128,67 @@ public class SettingsSearchIndexablesProviderTest {
         assertThat(keys).containsAllOf("pref_key_1", "pref_key_3", "pref_key_5");
     }
 
+    @Test
+    @Config(qualifiers = "mcc999")
+    public void queryNonIndexableKeys_providerCrashes_shouldKeepOtherKeys() {
+        addSearchIndexProvider(new BaseSearchIndexProvider() {
+            @Override
+            public List<String> getNonIndexableKeys(Context context) {
+                throw new IllegalStateException();
+            }
+        });
+        final List<String> keys = new ArrayList<>();
+
+        try (Cursor cursor = mProvider.queryNonIndexableKeys(
+                SearchIndexablesContract.NON_INDEXABLES_KEYS_COLUMNS)) {
+            while (cursor.moveToNext()) {
+                keys.add(cursor.getString(0));
+            }
+        }
+
+        assertThat(keys).containsExactly("pref_key_1", "pref_key_3", "pref_key_5");
+    }
+
+    @Test
+    public void queryXmlResources_sameVersionStamp_shouldQueryProvidersOnce() {
+        final AtomicInteger queryCount = addCountingSearchIndexProvider();
+
+        mProvider.queryXmlResources(SearchIndexablesContract.INDEXABLES_XML_RES_COLUMNS);
+        final Cursor cursor =
+                mProvider.queryXmlResources(SearchIndexablesContract.INDEXABLES_XML_RES_COLUMNS);
+
+        assertThat(queryCount.get()).isEqualTo(1);
+        assertThat(cursor.getCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void queryXmlResources_newVersionStamp_shouldQueryProvidersAgain() {
+        final AtomicInteger queryCount = addCountingSearchIndexProvider();
+
+        mProvider.queryXmlResources(SearchIndexablesContract.INDEXABLES_XML_RES_COLUMNS);
+        doReturn("new_" + VERSION_STAMP).when(mProvider).getVersionStamp(any(Context.class));
+        mProvider.queryXmlResources(SearchIndexablesContract.INDEXABLES_XML_RES_COLUMNS);
+
+        assertThat(queryCount.get()).isEqualTo(2);
+    }
+
+    @Test
+    public void queryAllProvidersInParallel_providerCrashes_shouldKeepOtherResultsInOrder() {
+        addSearchIndexProvider(new BaseSearchIndexProvider());
+        addSearchIndexProvider(new BaseSearchIndexProvider());
+
+        final List<Integer> results = mProvider.queryAllProvidersInParallel(
+                RuntimeEnvironment.application, "test", bundle -> {
+                    final int providerIndex = getProviderIndex(bundle);
+                    if (providerIndex == 1) {
+                        throw new IllegalStateException();
+                    }
+                    return Collections.singletonList(providerIndex);
+                });
+
+        assertThat(results).containsExactly(0, 2).inOrder();
+    }
+
     @Test
     public void testIsEligibleForIndexing_isSettingsInjectedItem_ShouldBeFalse() {
         final ActivityInfo activityInfo = new ActivityInfo();
@@ -152,4 +221,27 @@ public class SettingsSearchIndexablesProviderTest {
 
         assertThat(mProvider.isEligibleForIndexing(PACKAGE_NAME, activityTile)).isTrue();
     }
+
+    private AtomicInteger addCountingSearchIndexProvider() {
+        final AtomicInteger queryCount = new AtomicInteger();
+        addSearchIndexProvider(new BaseSearchIndexProvider() {
+            @Override
+            public List<SearchIndexableResource> getXmlResourcesToIndex(Context context,
+                    boolean enabled) {
+                queryCount.incrementAndGet();
+                return null;
+            }
+        });
+        return queryCount;
+    }
+
+    private int getProviderIndex(SearchIndexableData bundle) {
+        return new ArrayList<>(mFakeFeatureFactory.searchFeatureProvider
+                .getSearchIndexableResources().getProviderValues()).indexOf(bundle);
+    }
+
+    private void addSearchIndexProvider(BaseSearchIndexProvider provider) {
+        mFakeFeatureFactory.searchFeatureProvider.getSearchIndexableResources().getProviderValues()
+                .add(new SearchIndexableData(FakeSettingsFragment.class, provider));
+    }
 }
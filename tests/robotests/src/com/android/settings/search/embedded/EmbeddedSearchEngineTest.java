@@ -0,0 +1,147 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.search.embedded;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import android.content.Context;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.List;
+
+@RunWith(RobolectricTestRunner.class)
+public class EmbeddedSearchEngineTest {
+    private static final String STAMP = "stamp";
+
+    @Mock
+    private SearchDocumentLoader mLoader;
+
+    private Context mContext;
+    private File mDir;
+    private EmbeddedSearchEngine mEngine;
+
+    @Before
+    public void setUp() {
+        MockitoAnnotations.initMocks(this);
+        mContext = RuntimeEnvironment.application;
+        mDir = new File(mContext.getFilesDir(), "search_index");
+        when(mLoader.loadStaticDocuments()).thenReturn(Collections.singletonList(
+                document("wifi", "Wi-Fi")));
+        when(mLoader.loadDynamicDocuments()).thenReturn(Collections.singletonList(
+                document("wifi_calling", "Wi-Fi calling")));
+        when(mLoader.loadNonIndexableKeys()).thenReturn(Collections.emptySet());
+        mEngine = createEngine();
+    }
+
+    @Test
+    public void query_beforeUpdate_shouldReturnNothing() {
+        assertThat(mEngine.query("wifi", 10)).isEmpty();
+    }
+
+    @Test
+    public void query_shouldMergeStaticAndDynamicSettings() {
+        mEngine.updateIndex();
+
+        final List<SearchResult> results = mEngine.query("wi", 10);
+
+        assertThat(results).hasSize(2);
+        assertThat(results.get(0).getDocument().getKey()).isEqualTo("wifi");
+        assertThat(results.get(1).getDocument().getKey()).isEqualTo("wifi_calling");
+    }
+
+    @Test
+    public void query_shouldLeaveOutNonIndexableKeys() {
+        when(mLoader.loadNonIndexableKeys()).thenReturn(Collections.singleton("wifi_calling"));
+        mEngine.updateIndex();
+
+        assertThat(mEngine.query("calling", 10)).isEmpty();
+    }
+
+    @Test
+    public void updateIndex_sameStamp_shouldOnlyRebuildDynamicIndex() {
+        mEngine.updateIndex();
+        mEngine.updateIndex();
+
+        verify(mLoader, times(1)).loadStaticDocuments();
+        verify(mLoader, times(2)).loadDynamicDocuments();
+        verify(mLoader, times(2)).loadNonIndexableKeys();
+    }
+
+    @Test
+    public void updateIndex_newStamp_shouldRebuildStaticIndex() {
+        mEngine.updateIndex();
+        doReturn("new_stamp").when(mEngine).getLocaleStamp();
+
+        mEngine.updateIndex();
+
+        verify(mLoader, times(2)).loadStaticDocuments();
+    }
+
+    @Test
+    public void updateIndex_dynamicSettingsChanged_shouldReturnNewSettings() {
+        mEngine.updateIndex();
+        when(mLoader.loadDynamicDocuments()).thenReturn(Collections.singletonList(
+                document("bluetooth", "Bluetooth")));
+
+        mEngine.updateIndex();
+
+        assertThat(mEngine.query("calling", 10)).isEmpty();
+        assertThat(mEngine.query("bluetooth", 10)).hasSize(1);
+    }
+
+    @Test
+    public void updateIndex_storedIndex_shouldOnlyRebuildDynamicIndex() {
+        mEngine.updateIndex();
+        final EmbeddedSearchEngine engine = createEngine();
+
+        engine.updateIndex();
+
+        verify(mLoader, times(1)).loadStaticDocuments();
+        verify(mLoader, times(2)).loadDynamicDocuments();
+        assertThat(engine.getDocumentCount()).isEqualTo(2);
+        assertThat(new File(mDir, "dynamic").exists()).isFalse();
+    }
+
+    private EmbeddedSearchEngine createEngine() {
+        final EmbeddedSearchEngine engine = spy(new EmbeddedSearchEngine(mContext, mLoader, mDir));
+        doReturn(STAMP).when(engine).getLocaleStamp();
+        return engine;
+    }
+
+    private static SearchDocument document(String key, String title) {
+        return new SearchDocument.Builder()
+                .setKey(key)
+                .setTitle(title)
+                .setClassName("com.android.settings.Settings")
+                .build();
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.search.embedded;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.util.AtomicFile;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+@RunWith(RobolectricTestRunner.class)
+public class SearchIndexTest {
+    private static final String STAMP = "stamp";
+    private static final Set<String> NO_KEYS = Collections.emptySet();
+
+    private SearchIndex mIndex;
+
+    @Before
+    public void setUp() {
+        mIndex = SearchIndex.build(STAMP, Arrays.asList(
+                document("wifi", "Wi-Fi", "Connect to networks", null, "Network & internet"),
+                document("brightness", "Brightness level", null, "screen", "Display"),
+                document("dark_theme", "Dark theme", "Use a dark background", null, "Display"),
+                document("battery_saver", "Battery Saver", "Extend battery life", "power",
+                        "Battery")));
+    }
+
+    @Test
+    public void query_prefix_shouldMatch() {
+        assertThat(getKeys(mIndex.query("bright", 10, NO_KEYS)))
+                .containsExactly("brightness");
+    }
+
+    @Test
+    public void query_typo_shouldMatch() {
+        assertThat(getKeys(mIndex.query("brigthness", 10, NO_KEYS)))
+                .containsExactly("brightness");
+        assertThat(getKeys(mIndex.query("thene", 10, NO_KEYS))).containsExactly("dark_theme");
+    }
+
+    @Test
+    public void query_missingOrExtraLetters_shouldMatch() {
+        assertThat(getKeys(mIndex.query("brihtness", 10, NO_KEYS)))
+                .containsExactly("brightness");
+        assertThat(getKeys(mIndex.query("themme", 10, NO_KEYS))).containsExactly("dark_theme");
+    }
+
+    @Test
+    public void query_shortTypo_shouldNotMatch() {
+        assertThat(mIndex.query("wu", 10, NO_KEYS)).isEmpty();
+    }
+
+    @Test
+    public void query_shouldIgnoreCaseAndAccents() {
+        assertThat(getKeys(mIndex.query("WÍ FI", 10, NO_KEYS))).containsExactly("wifi");
+    }
+
+    @Test
+    public void query_shouldRankTitleOverSummary() {
+        final SearchIndex index = SearchIndex.build(STAMP, Arrays.asList(
+                document("screen_lock", "Lock", "Screen lock", null, null),
+                document("screen_timeout", "Screen timeout", null, null, null)));
+
+        final List<SearchResult> results = index.query("screen", 10, NO_KEYS);
+
+        assertThat(getKeys(results)).containsExactly("screen_timeout", "screen_lock").inOrder();
+        assertThat(results.get(0).getScore()).isGreaterThan(results.get(1).getScore());
+    }
+
+    @Test
+    public void query_severalWords_shouldMatchAllOfThem() {
+        assertThat(getKeys(mIndex.query("dark display", 10, NO_KEYS)))
+                .containsExactly("dark_theme");
+        assertThat(mIndex.query("dark wifi", 10, NO_KEYS)).isEmpty();
+    }
+
+    @Test
+    public void query_shouldLeaveOutExcludedKeys() {
+        assertThat(getKeys(mIndex.query("display", 10, NO_KEYS)))
+                .containsExactly("brightness", "dark_theme");
+        assertThat(getKeys(mIndex.query("display", 10, Collections.singleton("dark_theme"))))
+                .containsExactly("brightness");
+    }
+
+    @Test
+    public void query_shouldReturnAtMostMaxResults() {
+        assertThat(mIndex.query("display", 1, NO_KEYS)).hasSize(1);
+    }
+
+    @Test
+    public void writeThenRead_shouldKeepIndex() throws Exception {
+        final AtomicFile file = new AtomicFile(
+                new File(RuntimeEnvironment.application.getFilesDir(), "search_index_test"));
+        mIndex.write(file);
+
+        final SearchIndex index = SearchIndex.read(file);
+
+        assertThat(index.getVersionStamp()).isEqualTo(STAMP);
+        assertThat(index.getDocumentCount()).isEqualTo(mIndex.getDocumentCount());
+        assertThat(index.getTermCount()).isEqualTo(mIndex.getTermCount());
+        final List<SearchResult> results = index.query("saver", 10, NO_KEYS);
+        assertThat(getKeys(results)).containsExactly("battery_saver");
+        assertThat(results.get(0).getDocument().getSummary()).isEqualTo("Extend battery life");
+    }
+
+    @Test
+    public void tokenize_shouldSplitOnPunctuation() {
+        final List<String> words = new ArrayList<>();
+
+        SearchIndex.tokenize("Network & internet, Wi-Fi", words);
+
+        assertThat(words).containsExactly("network", "internet", "wi", "fi").inOrder();
+    }
+
+    private static SearchDocument document(String key, String title, String summary,
+            String keywords, String breadcrumbs) {
+        return new SearchDocument.Builder()
+                .setKey(key)
+                .setTitle(title)
+                .setSummary(summary)
+                .setKeywords(keywords)
+                .setBreadcrumbs(breadcrumbs)
+                .setClassName("com.android.settings.Settings")
+                .build();
+    }
+
+    private static List<String> getKeys(List<SearchResult> results) {
+        final List<String> keys = new ArrayList<>();
+        for (SearchResult result : results) {
+            keys.add(result.getDocument().getKey());
+        }
+        return keys;
+    }
+}
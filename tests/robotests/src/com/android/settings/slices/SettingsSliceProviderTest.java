@@ -33,6 +33,7 @@ import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -90,6 +91,7 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Locale;
 import java.util.Set;
 
 /**
@@ -150,6 +152,7 @@ public class SettingsSliceProviderTest {
         mProvider = spy(new SettingsSliceProvider());
         ShadowStrictMode.reset();
         mProvider.mSliceWeakDataCache = new HashMap<>();
+        mProvider.mSliceTemplateCache = new SliceTemplateCache();
         mProvider.mSlicesDatabaseAccessor = new SlicesDatabaseAccessor(mContext);
         when(mProvider.getContext()).thenReturn(mContext);
 
@@ -225,6 +228,44 @@ public class SettingsSliceProviderTest {
         assertThat(cachedData).isNull();
     }
 
+    @Test
+    public void onBindSlice_pinnedSlice_keepsTemplateUntilUnpinned() {
+        final SliceData data = getDummyData();
+        when(mManager.getPinnedSlices()).thenReturn(Collections.singletonList(data.getUri()));
+        mProvider.mSliceWeakDataCache.put(data.getUri(), data);
+
+        mProvider.onBindSlice(data.getUri());
+        final SliceTemplate template = mProvider.mSliceTemplateCache.get(data.getUri());
+        mProvider.onBindSlice(data.getUri());
+
+        assertThat(template).isNotNull();
+        assertThat(mProvider.mSliceTemplateCache.get(data.getUri())).isSameAs(template);
+
+        mProvider.onSliceUnpinned(data.getUri());
+
+        assertThat(mProvider.mSliceTemplateCache.get(data.getUri())).isNull();
+    }
+
+    @Test
+    public void onBindSlice_localeChanged_rebuildsTemplate() {
+        final Locale defaultLocale = Locale.getDefault();
+        final SliceData data = getDummyData();
+        when(mManager.getPinnedSlices()).thenReturn(Collections.singletonList(data.getUri()));
+        mProvider.mSliceWeakDataCache.put(data.getUri(), data);
+        mProvider.onBindSlice(data.getUri());
+        final SliceTemplate template = mProvider.mSliceTemplateCache.get(data.getUri());
+
+        try {
+            Locale.setDefault(new Locale("ca"));
+
+            assertThat(mProvider.mSliceTemplateCache.get(data.getUri())).isNull();
+            mProvider.onBindSlice(data.getUri());
+            assertThat(mProvider.mSliceTemplateCache.get(data.getUri())).isNotSameAs(template);
+        } finally {
+            Locale.setDefault(defaultLocale);
+        }
+    }
+
     @Test
     public void onBindSlice_mainThread_shouldNotOverrideStrictMode() {
         ShadowThreadUtils.setIsMainThread(true);
@@ -646,6 +687,50 @@ public class SettingsSliceProviderTest {
                 .grantSlicePermission("com.android.settings.slice_whitelist_package", uris.get(0));
     }
 
+    @Test
+    @Config(qualifiers = "mcc999")
+    public void grantWhitelistedPackagePermissionsIfNeeded_calledTwice_grantsOnce() {
+        final List<Uri> uris = new ArrayList<>();
+        uris.add(Uri.parse("content://settings/slice"));
+
+        mProvider.grantWhitelistedPackagePermissionsIfNeeded(uris);
+        mProvider.grantWhitelistedPackagePermissionsIfNeeded(uris);
+
+        verify(mManager, times(1))
+                .grantSlicePermission("com.android.settings.slice_whitelist_package", uris.get(0));
+    }
+
+    @Test
+    @Config(qualifiers = "mcc999")
+    public void grantPermissionsIfNeeded_whitelistedPackageReplaced_grantsAgain() {
+        final List<Uri> uris = new ArrayList<>();
+        uris.add(Uri.parse("content://settings/slice"));
+        mProvider.grantWhitelistedPackagePermissionsIfNeeded(uris);
+
+        mProvider.mPackageReceiver.onReceive(mContext, new Intent(Intent.ACTION_PACKAGE_REPLACED,
+                Uri.fromParts("package", "com.android.settings.slice_whitelist_package",
+                        null /* fragment */)));
+        mProvider.grantWhitelistedPackagePermissionsIfNeeded(uris);
+
+        verify(mManager, times(2))
+                .grantSlicePermission("com.android.settings.slice_whitelist_package", uris.get(0));
+    }
+
+    @Test
+    @Config(qualifiers = "mcc999")
+    public void grantPermissionsIfNeeded_otherPackageReplaced_grantsOnce() {
+        final List<Uri> uris = new ArrayList<>();
+        uris.add(Uri.parse("content://settings/slice"));
+        mProvider.grantWhitelistedPackagePermissionsIfNeeded(uris);
+
+        mProvider.mPackageReceiver.onReceive(mContext, new Intent(Intent.ACTION_PACKAGE_REPLACED,
+                Uri.fromParts("package", "com.other.package", null /* fragment */)));
+        mProvider.grantWhitelistedPackagePermissionsIfNeeded(uris);
+
+        verify(mManager, times(1))
+                .grantSlicePermission("com.android.settings.slice_whitelist_package", uris.get(0));
+    }
+
     @Test
     @Config(qualifiers = "mcc999")
     public void isPrivateSlicesNeeded_incorrectUri_returnFalse() {
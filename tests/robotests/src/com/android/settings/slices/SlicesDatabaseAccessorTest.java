@@ -249,6 +249,23 @@ public class SlicesDatabaseAccessorTest {
         assertThat(uri).containsExactly(expectedUri);
     }
 
+    @Test
+    public void getSliceUris_cachedUntilIndexRebuilt() {
+        SliceTestUtils.insertSliceToDb(mContext, "test_first", false /* isPlatformSlice */,
+                null /* customizedUnavailableSliceSubtitle */, true /* isPublicSlice */);
+        final List<Uri> uris = mAccessor.getSliceUris(SettingsSliceProvider.SLICE_AUTHORITY, true);
+        SliceTestUtils.insertSliceToDb(mContext, "test_second", false /* isPlatformSlice */,
+                null /* customizedUnavailableSliceSubtitle */, true /* isPublicSlice */);
+
+        assertThat(mAccessor.getSliceUris(SettingsSliceProvider.SLICE_AUTHORITY, true))
+                .isSameAs(uris);
+
+        SlicesDatabaseHelper.getInstance(mContext).setIndexedState();
+
+        assertThat(mAccessor.getSliceUris(SettingsSliceProvider.SLICE_AUTHORITY, true))
+                .hasSize(2);
+    }
+
     @Test
     @Config(qualifiers = "mcc999")
     public void getSliceKeys_indexesDatabase() {